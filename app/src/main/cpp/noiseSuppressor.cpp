@@ -0,0 +1,135 @@
+#include "noiseSuppressor.h"
+#include <jni.h>
+
+#include <cstring>
+
+// реализация нативных методов класса NoiseSuppressor.
+// Звук обрабатывается прямо по адресу прямого ByteBuffer'а: кусками по CHUNK_FRAMES кадров
+// переводится во float в заранее выделенный буфер и обратно, в формат SampleFormat
+
+namespace {
+
+// SampleFormat.ENCODING
+const jint PCM_16 = 0;
+const jint PCM_24_PACKED = 1;
+const jint PCM_FLOAT = 2;
+
+const size_t CHUNK_FRAMES = 256;
+
+struct Handle {
+    Handle(int sampleRate, int channels, size_t windowSize, float maxAttenuationDb)
+            : suppressor(sampleRate, channels, windowSize, maxAttenuationDb),
+              scratch(CHUNK_FRAMES * static_cast<size_t>(channels)) {
+    }
+
+    nomic::NoiseSuppressor suppressor;
+    std::vector<float> scratch;
+};
+
+// округление как у Math.round и насыщение, как в SampleConverter.putSample
+int32_t toInteger(float sample, float scale, int32_t min, int32_t max) {
+    auto value = static_cast<int32_t>(std::floor(sample * scale + 0.5f));
+    return value < min ? min : value > max ? max : value;
+}
+
+void read(const uint8_t *data, jint encoding, float *out, size_t count) {
+    for (size_t i = 0; i < count; i++) {
+        switch (encoding) {
+            case PCM_24_PACKED: {
+                const uint8_t *at = data + 3 * i;
+                int32_t sample = at[0] | at[1] << 8 | static_cast<int8_t>(at[2]) * 65536;
+                out[i] = static_cast<float>(sample) / 8388608.0f;
+                break;
+            }
+            case PCM_FLOAT: {
+                float sample;
+                std::memcpy(&sample, data + 4 * i, 4);
+                out[i] = sample;
+                break;
+            }
+            case PCM_16:
+            default: {
+                int16_t sample;
+                std::memcpy(&sample, data + 2 * i, 2);
+                out[i] = static_cast<float>(sample) / 32768.0f;
+                break;
+            }
+        }
+    }
+}
+
+void write(const float *samples, jint encoding, uint8_t *data, size_t count) {
+    for (size_t i = 0; i < count; i++) {
+        switch (encoding) {
+            case PCM_24_PACKED: {
+                int32_t sample = toInteger(samples[i], 8388608.0f, -(1 << 23), (1 << 23) - 1);
+                uint8_t *at = data + 3 * i;
+                at[0] = static_cast<uint8_t>(sample);
+                at[1] = static_cast<uint8_t>(sample >> 8);
+                at[2] = static_cast<uint8_t>(sample >> 16);
+                break;
+            }
+            case PCM_FLOAT:
+                std::memcpy(data + 4 * i, &samples[i], 4);
+                break;
+            case PCM_16:
+            default: {
+                auto sample = static_cast<int16_t>(toInteger(samples[i], 32768.0f, INT16_MIN, INT16_MAX));
+                std::memcpy(data + 2 * i, &sample, 2);
+                break;
+            }
+        }
+    }
+}
+
+}
+
+extern "C" JNIEXPORT jlong JNICALL Java_com_andreydymko_nomic_NoiseSuppressor_nativeCreate(
+JNIEnv *env,
+jclass clazz,
+jint sampleRate,
+jint channels,
+jint windowSize,
+jfloat maxAttenuationDb
+)
+{
+    return reinterpret_cast<jlong>(new Handle(sampleRate, channels, static_cast<size_t>(windowSize), maxAttenuationDb));
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_andreydymko_nomic_NoiseSuppressor_nativeProcess(
+JNIEnv *env,
+jclass clazz,
+jlong handle,
+jobject audioBuffer,
+jint offset,
+jint length,
+jint encoding
+)
+{
+    auto *state = reinterpret_cast<Handle *>(handle);
+    auto *bufferPtr = static_cast<uint8_t *>(env->GetDirectBufferAddress(audioBuffer));
+    if (bufferPtr == nullptr) {
+        return;
+    }
+    size_t bytesPerSample = encoding == PCM_24_PACKED ? 3 : encoding == PCM_FLOAT ? 4 : 2;
+    size_t channels = state->suppressor.getChannels();
+    size_t frames = static_cast<size_t>(length) / (bytesPerSample * channels);
+    uint8_t *data = bufferPtr + offset;
+    while (frames > 0) {
+        size_t chunk = frames < CHUNK_FRAMES ? frames : CHUNK_FRAMES;
+        read(data, encoding, state->scratch.data(), chunk * channels);
+        state->suppressor.process(state->scratch.data(), chunk);
+        write(state->scratch.data(), encoding, data, chunk * channels);
+        data += chunk * channels * bytesPerSample;
+        frames -= chunk;
+    }
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_andreydymko_nomic_NoiseSuppressor_nativeDestroy(
+JNIEnv *env,
+jclass clazz,
+jlong handle
+)
+{
+    delete reinterpret_cast<Handle *>(handle);
+}
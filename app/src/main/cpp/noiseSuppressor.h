@@ -0,0 +1,219 @@
+#ifndef NO_MIC_NOISESUPPRESSOR_H
+#define NO_MIC_NOISESUPPRESSOR_H
+
+#include <algorithm>
+#include <cmath>
+#include <cstddef>
+#include <cstdint>
+#include <vector>
+
+// Подавление шума спектральным вычитанием - нативная копия NoiseSuppressor.java,
+// с теми же константами и тем же порядком расчёта (результат совпадает с точностью float).
+// Вся память выделяется в конструкторе; process не выделяет ничего и не блокируется,
+// поэтому его можно звать из потока обработки звука.
+
+namespace nomic {
+
+// БПФ по основанию 2 на месте, как Fft.java: прямое без нормировки, обратное делит на size
+class Fft {
+public:
+    explicit Fft(size_t size) : size(size), cosTable(size / 2), sinTable(size / 2), reversed(size) {
+        const double pi = 3.14159265358979323846;
+        for (size_t k = 0; k < size / 2; k++) {
+            cosTable[k] = static_cast<float>(std::cos(2 * pi * k / size));
+            sinTable[k] = static_cast<float>(std::sin(2 * pi * k / size));
+        }
+        size_t bits = 0;
+        while ((static_cast<size_t>(1) << bits) < size) {
+            bits++;
+        }
+        for (size_t i = 0; i < size; i++) {
+            size_t r = 0;
+            for (size_t b = 0; b < bits; b++) {
+                r |= ((i >> b) & 1) << (bits - 1 - b);
+            }
+            reversed[i] = r;
+        }
+    }
+
+    void forward(float *re, float *im) const {
+        transform(re, im, -1.0f);
+    }
+
+    void inverse(float *re, float *im) const {
+        transform(re, im, 1.0f);
+        const float scale = 1.0f / static_cast<float>(size);
+        for (size_t i = 0; i < size; i++) {
+            re[i] *= scale;
+            im[i] *= scale;
+        }
+    }
+
+private:
+    void transform(float *re, float *im, float sign) const {
+        for (size_t i = 0; i < size; i++) {
+            size_t j = reversed[i];
+            if (j > i) {
+                std::swap(re[i], re[j]);
+                std::swap(im[i], im[j]);
+            }
+        }
+        for (size_t half = 1; half < size; half <<= 1) {
+            size_t step = size / (2 * half);
+            for (size_t start = 0; start < size; start += 2 * half) {
+                for (size_t k = 0; k < half; k++) {
+                    float wr = cosTable[k * step];
+                    float wi = sign * sinTable[k * step];
+                    size_t a = start + k;
+                    size_t b = a + half;
+                    float tr = re[b] * wr - im[b] * wi;
+                    float ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+
+    size_t size;
+    std::vector<float> cosTable;
+    std::vector<float> sinTable;
+    std::vector<size_t> reversed;
+};
+
+// константы - как в NoiseSuppressor.java
+namespace suppression {
+const float POWER_SMOOTHING = 0.7f;
+const double NOISE_RISE_DB_PER_SECOND = 3;
+const double STARTUP_S = 0.5;
+const float NOISE_BIAS = 2.0f;
+const float PRIORI_SMOOTHING = 0.98f;
+const float POWER_FLOOR = 1e-12f;
+}
+
+class NoiseSuppressor {
+public:
+    // windowSize - степень двойки (NoiseSuppressor.getWindowSize)
+    NoiseSuppressor(int sampleRate, int channels, size_t windowSize, float maxAttenuationDb)
+            : channels(static_cast<size_t>(channels)),
+              windowSize(windowSize),
+              hop(windowSize / 2),
+              bins(windowSize / 2 + 1),
+              minGain(static_cast<float>(std::pow(10.0, -maxAttenuationDb / 20.0))),
+              noiseRise(static_cast<float>(std::pow(10.0,
+                      suppression::NOISE_RISE_DB_PER_SECOND * static_cast<double>(windowSize / 2) / sampleRate / 10))),
+              startupWindows(static_cast<int>(suppression::STARTUP_S * sampleRate / static_cast<double>(windowSize / 2))),
+              fft(windowSize),
+              window(windowSize),
+              re(windowSize),
+              im(windowSize),
+              input(this->channels * windowSize),
+              overlap(this->channels * windowSize),
+              ready(this->channels * hop),
+              smoothed(this->channels * bins),
+              minimum(this->channels * bins),
+              previous(this->channels * bins) {
+        const double pi = 3.14159265358979323846;
+        for (size_t n = 0; n < windowSize; n++) {
+            window[n] = static_cast<float>(std::sqrt(0.5 - 0.5 * std::cos(2 * pi * n / windowSize)));
+        }
+    }
+
+    // samples - frames кадров с чередованием каналов, обрабатываются на месте
+    void process(float *samples, size_t frames) {
+        for (size_t f = 0; f < frames; f++) {
+            for (size_t channel = 0; channel < channels; channel++, samples++) {
+                input[channel * windowSize + hop + filled] = *samples;
+                *samples = ready[channel * hop + filled];
+            }
+            if (++filled == hop) {
+                filled = 0;
+                for (size_t channel = 0; channel < channels; channel++) {
+                    processWindow(channel);
+                }
+                if (windows < startupWindows) {
+                    windows++;
+                }
+            }
+        }
+    }
+
+    size_t getChannels() const {
+        return channels;
+    }
+
+private:
+    void processWindow(size_t channel) {
+        using namespace suppression;
+        float *in = &input[channel * windowSize];
+        for (size_t n = 0; n < windowSize; n++) {
+            re[n] = in[n] * window[n];
+            im[n] = 0;
+        }
+        fft.forward(re.data(), im.data());
+
+        float *channelSmoothed = &smoothed[channel * bins];
+        float *channelMinimum = &minimum[channel * bins];
+        float *channelPrevious = &previous[channel * bins];
+        for (size_t k = 0; k < bins; k++) {
+            float power = re[k] * re[k] + im[k] * im[k];
+            if (windows == 0) {
+                channelSmoothed[k] = power;
+            } else {
+                channelSmoothed[k] = POWER_SMOOTHING * channelSmoothed[k] + (1 - POWER_SMOOTHING) * power;
+            }
+            channelMinimum[k] = windows < startupWindows
+                    ? channelSmoothed[k]
+                    : std::min(channelSmoothed[k], channelMinimum[k] * noiseRise);
+            float noise = std::max(NOISE_BIAS * channelMinimum[k], POWER_FLOOR);
+            float posteriori = power / noise;
+            float priori = PRIORI_SMOOTHING * channelPrevious[k]
+                    + (1 - PRIORI_SMOOTHING) * std::max(posteriori - 1, 0.0f);
+            float gain = std::max(priori / (1 + priori), minGain);
+            channelPrevious[k] = gain * gain * posteriori;
+            re[k] *= gain;
+            im[k] *= gain;
+            if (k > 0 && k < windowSize / 2) {
+                re[windowSize - k] *= gain;
+                im[windowSize - k] *= gain;
+            }
+        }
+
+        fft.inverse(re.data(), im.data());
+        float *sum = &overlap[channel * windowSize];
+        for (size_t n = 0; n < windowSize; n++) {
+            sum[n] += re[n] * window[n];
+        }
+        std::copy(sum, sum + hop, &ready[channel * hop]);
+        std::copy(sum + hop, sum + windowSize, sum);
+        std::fill(sum + hop, sum + windowSize, 0.0f);
+        std::copy(in + hop, in + windowSize, in);
+    }
+
+    size_t channels;
+    size_t windowSize;
+    size_t hop;
+    size_t bins;
+    float minGain;
+    float noiseRise;
+    int startupWindows;
+    Fft fft;
+    std::vector<float> window;
+    std::vector<float> re;
+    std::vector<float> im;
+    // [канал * windowSize + n], [канал * hop + n], [канал * bins + k]
+    std::vector<float> input;
+    std::vector<float> overlap;
+    std::vector<float> ready;
+    std::vector<float> smoothed;
+    std::vector<float> minimum;
+    std::vector<float> previous;
+    size_t filled = 0;
+    int windows = 0;
+};
+
+}
+
+#endif //NO_MIC_NOISESUPPRESSOR_H
@@ -0,0 +1,70 @@
+#include <jni.h>
+#include <opus.h>
+
+// обёртка над кодировщиком libopus для класса OpusEncoder
+
+extern "C" JNIEXPORT jlong JNICALL Java_com_andreydymko_nomic_OpusEncoder_nativeCreate(
+JNIEnv *env,
+jclass clazz,
+jint sampleRate,
+jint channels,
+jint bitrate
+)
+{
+    int error = OPUS_OK;
+    OpusEncoder *encoder = opus_encoder_create(sampleRate, channels, OPUS_APPLICATION_VOIP, &error);
+    if (error != OPUS_OK) {
+        return 0;
+    }
+    opus_encoder_ctl(encoder, OPUS_SET_BITRATE(bitrate));
+    // кодируем с минимальной сложностью, которая не портит речь - важно для слабых устройств
+    opus_encoder_ctl(encoder, OPUS_SET_COMPLEXITY(5));
+    opus_encoder_ctl(encoder, OPUS_SET_SIGNAL(OPUS_SIGNAL_VOICE));
+    return reinterpret_cast<jlong>(encoder);
+}
+
+extern "C" JNIEXPORT jint JNICALL Java_com_andreydymko_nomic_OpusEncoder_nativeEncode(
+JNIEnv *env,
+jclass clazz,
+jlong handle,
+jobject pcm,
+jint pcmOffset,
+jint frameCount,
+jobject out,
+jint outOffset,
+jint maxLength
+)
+{
+    auto *encoder = reinterpret_cast<OpusEncoder *>(handle);
+    // кодируем прямо из нативной памяти буферов, без копирования
+    auto *pcmPtr = static_cast<jbyte *>(env->GetDirectBufferAddress(pcm));
+    auto *outPtr = static_cast<jbyte *>(env->GetDirectBufferAddress(out));
+    if (pcmPtr == nullptr || outPtr == nullptr) {
+        return OPUS_BAD_ARG;
+    }
+    jint encoded = opus_encode(encoder,
+                               reinterpret_cast<const opus_int16 *>(pcmPtr + pcmOffset),
+                               frameCount,
+                               reinterpret_cast<unsigned char *>(outPtr + outOffset),
+                               maxLength);
+    return encoded;
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_andreydymko_nomic_OpusEncoder_nativeSetBitrate(
+JNIEnv *env,
+jclass clazz,
+jlong handle,
+jint bitrate
+)
+{
+    opus_encoder_ctl(reinterpret_cast<OpusEncoder *>(handle), OPUS_SET_BITRATE(bitrate));
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_andreydymko_nomic_OpusEncoder_nativeDestroy(
+JNIEnv *env,
+jclass clazz,
+jlong handle
+)
+{
+    opus_encoder_destroy(reinterpret_cast<OpusEncoder *>(handle));
+}
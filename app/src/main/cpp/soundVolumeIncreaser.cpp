@@ -1,35 +1,92 @@
 #include "soundVolumeIncreaser.h"
 #include <jni.h>
-#include <algorithm>
-#include <cmath>
-// реализация нативного метода
-extern "C" void Java_com_andreydymko_nomic_MicThread_increaseSoundVolume (
+
+// реализация нативных методов класса GainProcessor.
+// Ни один из них не копирует звук: прямой ByteBuffer обрабатывается по его адресу,
+// а массивы - через "критический" доступ, при котором JVM отдаёт указатель
+// на сами данные массива
+
+extern "C" JNIEXPORT void JNICALL Java_com_andreydymko_nomic_GainProcessor_nativeApplyDirect(
 JNIEnv *env,
-jobject obj,
+jclass clazz,
+jobject audioBuffer,
+jint offset,
+jint length,
+jfloat multiplier
+)
+{
+    auto *bufferPtr = static_cast<jbyte *>(env->GetDirectBufferAddress(audioBuffer));
+    if (bufferPtr == nullptr) {
+        return;
+    }
+    // PCM 16 бит: каждый сэмпл занимает 2 байта, порядок байт устройства - little-endian
+    nomic::gain(reinterpret_cast<int16_t *>(bufferPtr + offset), static_cast<size_t>(length) / 2, multiplier);
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_andreydymko_nomic_GainProcessor_nativeApplyBytes(
+JNIEnv *env,
+jclass clazz,
 jbyteArray audioBuffer,
+jint offset,
+jint length,
+jfloat multiplier
+)
+{
+    auto *bufferPtr = static_cast<jbyte *>(env->GetPrimitiveArrayCritical(audioBuffer, nullptr));
+    if (bufferPtr == nullptr) {
+        return;
+    }
+    nomic::gain(reinterpret_cast<int16_t *>(bufferPtr + offset), static_cast<size_t>(length) / 2, multiplier);
+    env->ReleasePrimitiveArrayCritical(audioBuffer, bufferPtr, 0);
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_andreydymko_nomic_GainProcessor_nativeApplyShorts(
+JNIEnv *env,
+jclass clazz,
+jshortArray audioBuffer,
+jint offset,
+jint count,
+jfloat multiplier
+)
+{
+    auto *bufferPtr = static_cast<jshort *>(env->GetPrimitiveArrayCritical(audioBuffer, nullptr));
+    if (bufferPtr == nullptr) {
+        return;
+    }
+    nomic::gain(bufferPtr + offset, static_cast<size_t>(count), multiplier);
+    env->ReleasePrimitiveArrayCritical(audioBuffer, bufferPtr, 0);
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_andreydymko_nomic_GainProcessor_nativeApplyDirect24(
+JNIEnv *env,
+jclass clazz,
+jobject audioBuffer,
+jint offset,
+jint length,
+jfloat multiplier
+)
+{
+    auto *bufferPtr = static_cast<uint8_t *>(env->GetDirectBufferAddress(audioBuffer));
+    if (bufferPtr == nullptr) {
+        return;
+    }
+    // PCM 24 бита: каждый сэмпл занимает 3 байта
+    nomic::gain24(bufferPtr + offset, static_cast<size_t>(length) / 3, multiplier);
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_andreydymko_nomic_GainProcessor_nativeApplyDirectFloat(
+JNIEnv *env,
+jclass clazz,
+jobject audioBuffer,
+jint offset,
+jint length,
 jfloat multiplier
 )
 {
-    // PCM 16 бит в моно-режиме. Каждый сэмпл будет размером в 16 бит == 2 байта
-    jint sampleLength = 2;
-    jshort sample;
-    // получаем указатель на массив из JVM
-    jbyte *bufferPtr = env->GetByteArrayElements(audioBuffer, JNI_FALSE);
-    jbyte *bufferEnd = bufferPtr + env->GetArrayLength(audioBuffer);
-    // для каждого элемента массива
-    for (jbyte *ptr = bufferPtr; ptr < bufferEnd; ptr += sampleLength) {
-        // преобразуем два byte в один short посредством битовых сдвигов и умножаем на множитель звука
-        sample = static_cast<jshort>(
-                std::floor(static_cast<jfloat>(
-                        ((*(ptr+1) & 0xFF) << 8 ) | (*ptr & 0xff)) * multiplier
-                        )
-                );
-        // преобразуем один short в два byte, и сразу же копируем их в массив
-        std::copy(static_cast<const jbyte*>(static_cast<const void*>(&sample)),
-                  static_cast<const jbyte*>(static_cast<const void*>(&sample)) + sizeof sample,
-                  ptr);
+    auto *bufferPtr = static_cast<jbyte *>(env->GetDirectBufferAddress(audioBuffer));
+    if (bufferPtr == nullptr) {
+        return;
     }
-    // говорим JVM, что нам больше не нужен указатель на данный массив,
-    // и что она должна записать изменения в его версию доступную из Java-кода
-    env->ReleaseByteArrayElements(audioBuffer, bufferPtr, 0);
+    // PCM float: каждый сэмпл занимает 4 байта
+    nomic::gainFloat(reinterpret_cast<float *>(bufferPtr + offset), static_cast<size_t>(length) / 4, multiplier);
 }
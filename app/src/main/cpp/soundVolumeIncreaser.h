@@ -5,4 +5,167 @@
 #ifndef NO_MIC_SOUNDVOLUMEINCREASER_H
 #define NO_MIC_SOUNDVOLUMEINCREASER_H
 
+#include <cstddef>
+#include <cstdint>
+
+// NOMIC_FORCE_SCALAR отключает векторные версии: так скалярный путь собирается и проверяется
+// на машине, где иначе был бы выбран NEON или SSE2 (флаги вроде -mno-sse2 на x86_64 не годятся)
+#if defined(NOMIC_FORCE_SCALAR)
+// только скалярные версии
+#elif defined(__ARM_NEON) || defined(__ARM_NEON__)
+#include <arm_neon.h>
+#define NOMIC_GAIN_NEON 1
+#elif defined(__SSE2__)
+#include <emmintrin.h>
+#define NOMIC_GAIN_SSE2 1
+#endif
+
+// Усиление PCM 16 бит с насыщением: результат = clamp(trunc(sample * gain), -32768, 32767);
+// ниже - то же для 24 бит и float (см. SampleFormat).
+// Все реализации дают бит-в-бит одинаковый результат, поэтому скалярную версию
+// можно проверять на обычном Linux и считать эталоном для NEON и SSE2.
+
+namespace nomic {
+
+inline int16_t gainSample(int16_t sample, float gain) {
+    auto value = static_cast<int32_t>(static_cast<float>(sample) * gain);
+    if (value > INT16_MAX) {
+        return INT16_MAX;
+    }
+    if (value < INT16_MIN) {
+        return INT16_MIN;
+    }
+    return static_cast<int16_t>(value);
+}
+
+inline void gainScalar(int16_t *samples, size_t count, float gain) {
+    for (size_t i = 0; i < count; i++) {
+        samples[i] = gainSample(samples[i], gain);
+    }
+}
+
+#if NOMIC_GAIN_NEON
+// 8 сэмплов за итерацию: расширяем до 32 бит, умножаем во float,
+// обратно - с усечением, и сужаем до 16 бит с насыщением
+inline void gainNeon(int16_t *samples, size_t count, float gain) {
+    size_t i = 0;
+    for (; i + 8 <= count; i += 8) {
+        int16x8_t in = vld1q_s16(samples + i);
+        float32x4_t low = vmulq_n_f32(vcvtq_f32_s32(vmovl_s16(vget_low_s16(in))), gain);
+        float32x4_t high = vmulq_n_f32(vcvtq_f32_s32(vmovl_s16(vget_high_s16(in))), gain);
+        int16x8_t out = vcombine_s16(vqmovn_s32(vcvtq_s32_f32(low)), vqmovn_s32(vcvtq_s32_f32(high)));
+        vst1q_s16(samples + i, out);
+    }
+    gainScalar(samples + i, count - i, gain);
+}
+#endif
+
+#if NOMIC_GAIN_SSE2
+// 8 сэмплов за итерацию, как и в NEON-версии; _mm_packs_epi32 сужает с насыщением
+inline void gainSse2(int16_t *samples, size_t count, float gain) {
+    const __m128 factor = _mm_set1_ps(gain);
+    size_t i = 0;
+    for (; i + 8 <= count; i += 8) {
+        __m128i in = _mm_loadu_si128(reinterpret_cast<const __m128i *>(samples + i));
+        // знаковое расширение 16 -> 32 бит без SSE4.1
+        __m128i low = _mm_srai_epi32(_mm_unpacklo_epi16(in, in), 16);
+        __m128i high = _mm_srai_epi32(_mm_unpackhi_epi16(in, in), 16);
+        low = _mm_cvttps_epi32(_mm_mul_ps(_mm_cvtepi32_ps(low), factor));
+        high = _mm_cvttps_epi32(_mm_mul_ps(_mm_cvtepi32_ps(high), factor));
+        _mm_storeu_si128(reinterpret_cast<__m128i *>(samples + i), _mm_packs_epi32(low, high));
+    }
+    gainScalar(samples + i, count - i, gain);
+}
+#endif
+
+// выбирает самую быструю реализацию, доступную при компиляции
+inline void gain(int16_t *samples, size_t count, float gain) {
+#if NOMIC_GAIN_NEON
+    gainNeon(samples, count, gain);
+#elif NOMIC_GAIN_SSE2
+    gainSse2(samples, count, gain);
+#else
+    gainScalar(samples, count, gain);
+#endif
+}
+
+// PCM 24 бита без выравнивания (три байта little-endian на сэмпл): тот же расчёт,
+// насыщение на границах 24-битного диапазона. Векторизовать тройки байт невыгодно,
+// поэтому версия одна - скалярная
+const int32_t INT24_MAX = (1 << 23) - 1;
+const int32_t INT24_MIN = -(1 << 23);
+
+inline int32_t gainSample24(int32_t sample, float gain) {
+    auto value = static_cast<int32_t>(static_cast<float>(sample) * gain);
+    if (value > INT24_MAX) {
+        return INT24_MAX;
+    }
+    if (value < INT24_MIN) {
+        return INT24_MIN;
+    }
+    return value;
+}
+
+inline void gain24(uint8_t *data, size_t count, float gain) {
+    for (size_t i = 0; i < count; i++, data += 3) {
+        // знаковое расширение старшего байта
+        int32_t sample = data[0] | data[1] << 8 | static_cast<int8_t>(data[2]) * 65536;
+        sample = gainSample24(sample, gain);
+        data[0] = static_cast<uint8_t>(sample);
+        data[1] = static_cast<uint8_t>(sample >> 8);
+        data[2] = static_cast<uint8_t>(sample >> 16);
+    }
+}
+
+// PCM float: умножение и ограничение диапазоном [-1, 1]
+inline float gainSampleFloat(float sample, float gain) {
+    float value = sample * gain;
+    return value > 1.0f ? 1.0f : value < -1.0f ? -1.0f : value;
+}
+
+inline void gainFloatScalar(float *samples, size_t count, float gain) {
+    for (size_t i = 0; i < count; i++) {
+        samples[i] = gainSampleFloat(samples[i], gain);
+    }
+}
+
+#if NOMIC_GAIN_NEON
+inline void gainFloatNeon(float *samples, size_t count, float gain) {
+    const float32x4_t low = vdupq_n_f32(-1.0f);
+    const float32x4_t high = vdupq_n_f32(1.0f);
+    size_t i = 0;
+    for (; i + 4 <= count; i += 4) {
+        float32x4_t value = vmulq_n_f32(vld1q_f32(samples + i), gain);
+        vst1q_f32(samples + i, vminq_f32(vmaxq_f32(value, low), high));
+    }
+    gainFloatScalar(samples + i, count - i, gain);
+}
+#endif
+
+#if NOMIC_GAIN_SSE2
+inline void gainFloatSse2(float *samples, size_t count, float gain) {
+    const __m128 factor = _mm_set1_ps(gain);
+    const __m128 low = _mm_set1_ps(-1.0f);
+    const __m128 high = _mm_set1_ps(1.0f);
+    size_t i = 0;
+    for (; i + 4 <= count; i += 4) {
+        __m128 value = _mm_mul_ps(_mm_loadu_ps(samples + i), factor);
+        _mm_storeu_ps(samples + i, _mm_min_ps(_mm_max_ps(value, low), high));
+    }
+    gainFloatScalar(samples + i, count - i, gain);
+}
+#endif
+
+inline void gainFloat(float *samples, size_t count, float gain) {
+#if NOMIC_GAIN_NEON
+    gainFloatNeon(samples, count, gain);
+#elif NOMIC_GAIN_SSE2
+    gainFloatSse2(samples, count, gain);
+#else
+    gainFloatScalar(samples, count, gain);
+#endif
+}
+
+}
+
 #endif //NO_MIC_SOUNDVOLUMEINCREASER_H
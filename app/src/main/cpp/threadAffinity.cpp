@@ -0,0 +1,23 @@
+#include <jni.h>
+#include <errno.h>
+#include <sched.h>
+
+// привязка текущего потока к ядрам процессора для класса AudioThreadPolicy.
+// В Java для этого нет API, а sched_setaffinity с pid = 0 действует на вызывающий поток
+
+extern "C" JNIEXPORT jint JNICALL Java_com_andreydymko_nomic_AudioThreadPolicy_nativeSetAffinity(
+JNIEnv *env,
+jclass clazz,
+jlong cpuMask
+)
+{
+    cpu_set_t set;
+    CPU_ZERO(&set);
+    for (int cpu = 0; cpu < 64; cpu++) {
+        if ((static_cast<unsigned long long>(cpuMask) >> cpu) & 1ULL) {
+            CPU_SET(cpu, &set);
+        }
+    }
+    // 0 - успех, иначе код ошибки (например, EINVAL, если все ядра маски выключены)
+    return sched_setaffinity(0, sizeof(set), &set) == 0 ? 0 : errno;
+}
@@ -0,0 +1,94 @@
+package com.andreydymko.nomic;
+
+import android.media.AudioRecord;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// микрофон устройства как источник звука конвейера. AudioRecord создаётся в start(),
+// т.е. уже в потоке захвата, и пишет прямо в слоты FramePacketizer
+public class AudioRecordSource implements AudioSource {
+
+    private final AudioRecorderSettings recorderSettings;
+    private final int bufferSize;
+    private AudioRecord micRecorder;
+
+    public AudioRecordSource(@NotNull AudioRecorderSettings recorderSettings) {
+        this.recorderSettings = recorderSettings;
+        int minBufferSize = AudioRecord.getMinBufferSize(
+                recorderSettings.getSampleRate(),
+                recorderSettings.getAudioFormatChannel(),
+                recorderSettings.getAudioFormatEncoding()
+        );
+        // внутренний буфер AudioRecord - только запас на случай задержек отправки
+        this.bufferSize = minBufferSize * Math.max(1, recorderSettings.getCaptureBufferMultiple());
+    }
+
+    @Override
+    public int getSampleRate() {
+        return recorderSettings.getSampleRate();
+    }
+
+    @Override
+    public int getChannelCount() {
+        return recorderSettings.getChannelCount();
+    }
+
+    @Override
+    public int getEncoding() {
+        return recorderSettings.getSampleEncoding();
+    }
+
+    @Override
+    public int getBytesPerFrame() {
+        return recorderSettings.getBytesPerFrame();
+    }
+
+    @Override
+    public int getBufferFrames() {
+        return bufferSize / recorderSettings.getBytesPerFrame();
+    }
+
+    @Override
+    public void start() throws IOException {
+        // инициализируем "записыватель" звука микрофона
+        micRecorder = new AudioRecord(
+                recorderSettings.getAudioSource(),
+                recorderSettings.getSampleRate(),
+                recorderSettings.getAudioFormatChannel(),
+                recorderSettings.getAudioFormatEncoding(),
+                bufferSize
+        );
+        if (micRecorder.getState() != AudioRecord.STATE_INITIALIZED) {
+            micRecorder.release();
+            micRecorder = null;
+            throw new IOException("AudioRecord could not be initialized");
+        }
+        // начинаем запись звука в буфер
+        micRecorder.startRecording();
+    }
+
+    @Override
+    public int read(@NotNull ByteBuffer buffer, int length) throws IOException {
+        int read = micRecorder.read(buffer, length);
+        if (read < 0) {
+            // ERROR_DEAD_OBJECT, ERROR_INVALID_OPERATION и т.п.: микрофон умер или его забрали,
+            // сам он уже не вернётся - захват должен остановиться, а не крутиться вхолостую
+            throw new IOException("AudioRecord read failed with code " + read);
+        }
+        // 0 - звука пока нет
+        return read;
+    }
+
+    @Override
+    public void release() {
+        if (micRecorder != null) {
+            // завершаем запись звука
+            micRecorder.stop();
+            micRecorder.release();
+            micRecorder = null;
+        }
+    }
+}
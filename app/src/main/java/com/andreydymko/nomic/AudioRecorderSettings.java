@@ -1,29 +1,80 @@
 package com.andreydymko.nomic;
 
+import android.media.AudioFormat;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import java.util.List;
+
 public class AudioRecorderSettings implements Parcelable {
 
+    // AudioFormat.ENCODING_PCM_24BIT_PACKED: появилась в API 31, а собираемся мы с более старым SDK
+    public static final int ENCODING_PCM_24BIT_PACKED = 21;
+
     private int audioSource;
     private int sampleRate;
+    // частота, с которой звук уходит слушателям (0 - частота захвата), см. Resampler
+    private int wireSampleRate;
     private int audioFormatChannel;
     private int audioFormatEncoding;
+    // предпочитаемый пользователем кодек (AudioPacket.PAYLOAD_TYPE) и его битрейт
+    private int codec;
+    private int bitrate;
+    // длительность одного отправляемого кадра в микросекундах (см. FramePacketizer)
+    private int frameDurationUs;
+    // во сколько раз внутренний буфер AudioRecord больше минимально допустимого
+    private int captureBufferMultiple;
+    // блок прямой коррекции ошибок: сколько в нём пакетов звука и сколько к ним пакетов чётности (0 - выключена)
+    private int fecDataPackets;
+    private int fecParityPackets;
+    // подавление тишины (VoiceActivityDetector): сколько звука ещё отправлять после конца речи, 0 - выключено
+    private int silenceHangoverMs;
+    // автоматическая регулировка усиления с ограничителем (AutomaticGainControl) вместо постоянного множителя
+    private boolean automaticGainControl;
+    // подавление шума (NoiseSuppressor): наибольшее ослабление полосы в дБ, 0 - выключено
+    private int noiseSuppressionDb;
+    // цепочка фильтров в записи FilterStage.parseChain ("dc:10;highpass:80:0.707"), пустая - без фильтров
+    private String filterChain = "";
+    // шифрование потока слушателей (TCPServerMicThread.ENCRYPTION)
+    private int encryption;
 
     public AudioRecorderSettings(int audioSource, int sampleRate, int audioFormatChannel, int audioFormatEncoding) {
+        this(audioSource, sampleRate, audioFormatChannel, audioFormatEncoding,
+                AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 32000, 10000, 2);
+    }
+
+    public AudioRecorderSettings(int audioSource, int sampleRate, int audioFormatChannel, int audioFormatEncoding,
+                                 @AudioPacket.payloadType int codec, int bitrate,
+                                 int frameDurationUs, int captureBufferMultiple) {
         this.audioSource = audioSource;
         this.sampleRate = sampleRate;
         this.audioFormatChannel = audioFormatChannel;
         this.audioFormatEncoding = audioFormatEncoding;
+        this.codec = codec;
+        this.bitrate = bitrate;
+        this.frameDurationUs = frameDurationUs;
+        this.captureBufferMultiple = captureBufferMultiple;
     }
 
     public AudioRecorderSettings(Parcel in) {
-        int[] data = new int[4];
+        int[] data = new int[15];
         in.readIntArray(data);
         audioSource = data[0];
         sampleRate = data[1];
         audioFormatChannel = data[2];
         audioFormatEncoding = data[3];
+        codec = data[4];
+        bitrate = data[5];
+        frameDurationUs = data[6];
+        captureBufferMultiple = data[7];
+        fecDataPackets = data[8];
+        fecParityPackets = data[9];
+        wireSampleRate = data[10];
+        silenceHangoverMs = data[11];
+        automaticGainControl = data[12] != 0;
+        noiseSuppressionDb = data[13];
+        encryption = data[14];
+        filterChain = in.readString();
     }
 
     public int getAudioFormatChannel() {
@@ -42,6 +93,117 @@ public class AudioRecorderSettings implements Parcelable {
         return sampleRate;
     }
 
+    // частота потока слушателей: заданная, если кадр захвата переводится в неё целым числом
+    // сэмплов, иначе частота захвата
+    public int getWireSampleRate() {
+        int framesPerPacket = getFrameBytes() / getBytesPerFrame();
+        if (wireSampleRate <= 0 || !Resampler.canResample(sampleRate, wireSampleRate, framesPerPacket)) {
+            return sampleRate;
+        }
+        return wireSampleRate;
+    }
+
+    public @AudioPacket.payloadType int getCodec() {
+        return codec;
+    }
+
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    public int getFrameDurationUs() {
+        return frameDurationUs;
+    }
+
+    public int getCaptureBufferMultiple() {
+        return captureBufferMultiple;
+    }
+
+    public int getFecDataPackets() {
+        return fecDataPackets;
+    }
+
+    public int getFecParityPackets() {
+        return fecParityPackets;
+    }
+
+    public boolean isFecEnabled() {
+        return fecDataPackets > 0 && fecParityPackets > 0;
+    }
+
+    public int getSilenceHangoverMs() {
+        return silenceHangoverMs;
+    }
+
+    public boolean isSilenceSuppressionEnabled() {
+        return silenceHangoverMs > 0;
+    }
+
+    public boolean isAutomaticGainControlEnabled() {
+        return automaticGainControl;
+    }
+
+    public int getNoiseSuppressionDb() {
+        return noiseSuppressionDb;
+    }
+
+    public String getFilterChain() {
+        return filterChain;
+    }
+
+    public @TCPServerMicThread.encryption int getEncryption() {
+        return encryption;
+    }
+
+    // ступени цепочки фильтров для частоты захвата: ступени на частотах выше половины частоты
+    // захвата (полка 6 кГц при 8 кГц) пропускаются
+    public List<FilterStage> getFilterStages() {
+        return FilterStage.fitChain(FilterStage.parseChain(filterChain), sampleRate);
+    }
+
+    // размер одного отправляемого кадра в байтах
+    public int getFrameBytes() {
+        return FramePacketizer.getFrameBytes(sampleRate, frameDurationUs, getBytesPerFrame());
+    }
+
+    public int getChannelCount() {
+        return audioFormatChannel == AudioFormat.CHANNEL_IN_STEREO ? 2 : 1;
+    }
+
+    // формат сэмплов захвата для конвейера (SampleFormat)
+    public @SampleFormat.encoding int getSampleEncoding() {
+        switch (audioFormatEncoding) {
+            case AudioFormat.ENCODING_PCM_FLOAT:
+                return SampleFormat.ENCODING.PCM_FLOAT;
+            case ENCODING_PCM_24BIT_PACKED:
+                return SampleFormat.ENCODING.PCM_24_PACKED;
+            case AudioFormat.ENCODING_PCM_16BIT:
+            default:
+                return SampleFormat.ENCODING.PCM_16;
+        }
+    }
+
+    // размер одного кадра (по одному сэмплу на каждый канал) в байтах
+    public int getBytesPerFrame() {
+        int bytesPerSample;
+        switch (audioFormatEncoding) {
+            case AudioFormat.ENCODING_PCM_8BIT:
+                bytesPerSample = 1;
+                break;
+            case ENCODING_PCM_24BIT_PACKED:
+                bytesPerSample = 3;
+                break;
+            case AudioFormat.ENCODING_PCM_FLOAT:
+                bytesPerSample = 4;
+                break;
+            case AudioFormat.ENCODING_PCM_16BIT:
+            default:
+                bytesPerSample = 2;
+                break;
+        }
+        return bytesPerSample * getChannelCount();
+    }
+
     public void setAudioFormatChannel(int audioFormatChannel) {
         this.audioFormatChannel = audioFormatChannel;
     }
@@ -58,6 +220,51 @@ public class AudioRecorderSettings implements Parcelable {
         this.sampleRate = sampleRate;
     }
 
+    public void setWireSampleRate(int wireSampleRate) {
+        this.wireSampleRate = wireSampleRate;
+    }
+
+    public void setCodec(@AudioPacket.payloadType int codec) {
+        this.codec = codec;
+    }
+
+    public void setBitrate(int bitrate) {
+        this.bitrate = bitrate;
+    }
+
+    public void setFrameDurationUs(int frameDurationUs) {
+        this.frameDurationUs = frameDurationUs;
+    }
+
+    public void setCaptureBufferMultiple(int captureBufferMultiple) {
+        this.captureBufferMultiple = captureBufferMultiple;
+    }
+
+    public void setFec(int dataPackets, int parityPackets) {
+        this.fecDataPackets = dataPackets;
+        this.fecParityPackets = parityPackets;
+    }
+
+    public void setSilenceHangoverMs(int silenceHangoverMs) {
+        this.silenceHangoverMs = silenceHangoverMs;
+    }
+
+    public void setAutomaticGainControl(boolean automaticGainControl) {
+        this.automaticGainControl = automaticGainControl;
+    }
+
+    public void setNoiseSuppressionDb(int noiseSuppressionDb) {
+        this.noiseSuppressionDb = noiseSuppressionDb;
+    }
+
+    public void setFilterChain(String filterChain) {
+        this.filterChain = filterChain;
+    }
+
+    public void setEncryption(@TCPServerMicThread.encryption int encryption) {
+        this.encryption = encryption;
+    }
+
     @Override
     public int describeContents() {
         return 0;
@@ -65,7 +272,10 @@ public class AudioRecorderSettings implements Parcelable {
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeIntArray(new int[] { audioSource, sampleRate, audioFormatChannel, audioFormatEncoding });
+        dest.writeIntArray(new int[] { audioSource, sampleRate, audioFormatChannel, audioFormatEncoding, codec, bitrate,
+                frameDurationUs, captureBufferMultiple, fecDataPackets, fecParityPackets, wireSampleRate,
+                silenceHangoverMs, automaticGainControl ? 1 : 0, noiseSuppressionDb, encryption });
+        dest.writeString(filterChain);
     }
 
     public static final Parcelable.Creator<AudioRecorderSettings> CREATOR = new Parcelable.Creator<AudioRecorderSettings>() {
@@ -0,0 +1,61 @@
+package com.andreydymko.nomic;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+
+// политика планирования на устройстве. Захват и обработка идут с приоритетом
+// THREAD_PRIORITY_URGENT_AUDIO, как у системного аудио, - их не вытесняет интерфейс
+// и фоновая работа. Отправка - с THREAD_PRIORITY_AUDIO: ей можно подождать захват,
+// но не остальные приложения. По желанию захват и обработка привязываются к быстрым ядрам
+public class AudioThreadPolicy implements SchedulingPolicy {
+
+    private static final String TAG = "AudioThreadPolicy";
+
+    private static final boolean affinityAvailable;
+
+    static {
+        boolean loaded;
+        try {
+            System.loadLibrary("threadAffinity");
+            loaded = true;
+        } catch (UnsatisfiedLinkError e) {
+            loaded = false;
+        }
+        affinityAvailable = loaded;
+    }
+
+    // ядра для захвата и обработки, 0 - не привязывать
+    private final long cpuMask;
+
+    // pinToFastCores - привязать захват и обработку к самым быстрым ядрам, если они отличаются от остальных
+    public AudioThreadPolicy(boolean pinToFastCores) {
+        this.cpuMask = pinToFastCores && affinityAvailable
+                ? CpuTopology.fastCoreMask(new File(CpuTopology.SYSFS_CPU)) : 0;
+    }
+
+    @Override
+    public void onThreadStart(@stage int stage) {
+        int priority = stage == STAGE.SENDING
+                ? Process.THREAD_PRIORITY_AUDIO : Process.THREAD_PRIORITY_URGENT_AUDIO;
+        try {
+            Process.setThreadPriority(priority);
+        } catch (IllegalArgumentException | SecurityException e) {
+            Log.w(TAG, "Cannot raise priority of " + Thread.currentThread().getName(), e);
+        }
+        if (cpuMask != 0 && stage != STAGE.SENDING) {
+            int error = nativeSetAffinity(cpuMask);
+            if (error != 0) {
+                Log.w(TAG, "Cannot pin " + Thread.currentThread().getName()
+                        + " to cores " + Long.toBinaryString(cpuMask) + ", errno " + error);
+            }
+        }
+    }
+
+    public long getCpuMask() {
+        return cpuMask;
+    }
+
+    private static native int nativeSetAffinity(long cpuMask);
+}
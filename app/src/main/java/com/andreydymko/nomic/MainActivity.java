@@ -218,6 +218,12 @@ public class MainActivity extends AppCompatActivity implements
         intent.putExtra(getString(R.string.extrasTCPPort), prefManager.getControlPort());
         // получаем локальный IP-адрес и закладываем его в "намеренность"
         intent.putExtra(getString(R.string.extrasTCPIP), Utils.getWifiIpAddress(this));
+        // multicast-группа общего потока, если пользователь её включил
+        intent.putExtra(getString(R.string.extrasMulticastGroup), prefManager.getMulticastGroup());
+        intent.putExtra(getString(R.string.extrasMulticastPort), prefManager.getMulticastPort());
+        intent.putExtra(getString(R.string.extrasMulticastTtl), prefManager.getMulticastTtl());
+        intent.putExtra(getString(R.string.extrasPinAudioThreads), prefManager.isPinAudioThreads());
+        intent.putExtra(getString(R.string.extrasRecordToFile), prefManager.isRecordToFile());
         // запускаем сервис, отправив в него данные
         startService(intent);
         // привязываемся к сервису
@@ -230,15 +236,16 @@ public class MainActivity extends AppCompatActivity implements
         unbindService(streamingServiceConnection);
     }
 
-    // обращается к сервису по указателю, что бы он поставил громкость звука для микрофона
+    // обращается к сервису по указателю, что бы он поставил громкость звука для микрофона.
+    // С автоматической регулировкой усиления это потолок усиления, а не само усиление
     private void setSoundVolumeMultiplier() {
         if (streamingService == null) return;
         switch (streamingService.getCurrentState()) {
             case StreamingService.SERVICE_STATE.STARTED:
             case StreamingService.SERVICE_STATE.CONNECTED:
                 float multiplier = (muteSwitchCompat.isChecked() ? 0.0f : (float) soundVolumeSeekBar.getProgress());
-                if (multiplier > 20.0f) {
-                    multiplier = 20.0f;
+                if (multiplier > GainProcessor.MAX_MULTIPLIER) {
+                    multiplier = GainProcessor.MAX_MULTIPLIER;
                 }
                 if (multiplier < 0.0f) {
                     multiplier = 0.0f;
@@ -0,0 +1,175 @@
+package com.andreydymko.nomic;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Locale;
+
+// снимок метрик для отправки в интерфейс широковещательным сообщением:
+// значения счётчиков и показателей и сводка каждой гистограммы (число, среднее, квантили, максимум в нс)
+public class MetricsSnapshot implements Parcelable {
+
+    // квантили, которые попадают в снимок
+    public final static double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final long timestampMillis;
+    private final String[] counterNames;
+    private final long[] counterValues;
+    private final String[] gaugeNames;
+    private final double[] gaugeValues;
+    private final String[] histogramNames;
+    private final long[] histogramCounts;
+    private final long[] histogramMeans;
+    // [номер гистограммы * QUANTILES.length + номер квантиля]
+    private final long[] histogramQuantiles;
+    private final long[] histogramMaxima;
+
+    public MetricsSnapshot(@NotNull MetricsRegistry registry, long timestampMillis) {
+        this.timestampMillis = timestampMillis;
+        List<MetricsRegistry.Counter> counters = registry.getCounters();
+        counterNames = new String[counters.size()];
+        counterValues = new long[counters.size()];
+        for (int i = 0; i < counterNames.length; i++) {
+            counterNames[i] = counters.get(i).getName();
+            counterValues[i] = counters.get(i).get();
+        }
+        List<MetricsRegistry.Gauge> gauges = registry.getGauges();
+        gaugeNames = new String[gauges.size()];
+        gaugeValues = new double[gauges.size()];
+        for (int i = 0; i < gaugeNames.length; i++) {
+            gaugeNames[i] = gauges.get(i).getName();
+            gaugeValues[i] = gauges.get(i).get();
+        }
+        List<Histogram> histograms = registry.getHistograms();
+        histogramNames = new String[histograms.size()];
+        histogramCounts = new long[histogramNames.length];
+        histogramMeans = new long[histogramNames.length];
+        histogramQuantiles = new long[histogramNames.length * QUANTILES.length];
+        histogramMaxima = new long[histogramNames.length];
+        for (int i = 0; i < histogramNames.length; i++) {
+            Histogram.Snapshot snapshot = histograms.get(i).snapshot();
+            histogramNames[i] = histograms.get(i).getName();
+            histogramCounts[i] = snapshot.getCount();
+            histogramMeans[i] = snapshot.getMean();
+            for (int q = 0; q < QUANTILES.length; q++) {
+                histogramQuantiles[i * QUANTILES.length + q] = snapshot.getQuantile(QUANTILES[q]);
+            }
+            histogramMaxima[i] = snapshot.getMax();
+        }
+    }
+
+    protected MetricsSnapshot(Parcel in) {
+        timestampMillis = in.readLong();
+        counterNames = in.createStringArray();
+        counterValues = in.createLongArray();
+        gaugeNames = in.createStringArray();
+        gaugeValues = in.createDoubleArray();
+        histogramNames = in.createStringArray();
+        histogramCounts = in.createLongArray();
+        histogramMeans = in.createLongArray();
+        histogramQuantiles = in.createLongArray();
+        histogramMaxima = in.createLongArray();
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    // значение счётчика name, либо -1, если такого нет
+    public long getCounter(String name) {
+        int index = indexOf(counterNames, name);
+        return index < 0 ? -1 : counterValues[index];
+    }
+
+    // значение показателя name, либо NaN, если такого нет
+    public double getGauge(String name) {
+        int index = indexOf(gaugeNames, name);
+        return index < 0 ? Double.NaN : gaugeValues[index];
+    }
+
+    // сколько значений в гистограмме name, либо -1, если такой нет
+    public long getCount(String histogram) {
+        int index = indexOf(histogramNames, histogram);
+        return index < 0 ? -1 : histogramCounts[index];
+    }
+
+    public long getMeanNanos(String histogram) {
+        int index = indexOf(histogramNames, histogram);
+        return index < 0 ? -1 : histogramMeans[index];
+    }
+
+    // квантиль QUANTILES[quantileIndex] гистограммы name в наносекундах
+    public long getQuantileNanos(String histogram, int quantileIndex) {
+        int index = indexOf(histogramNames, histogram);
+        return index < 0 ? -1 : histogramQuantiles[index * QUANTILES.length + quantileIndex];
+    }
+
+    public long getMaxNanos(String histogram) {
+        int index = indexOf(histogramNames, histogram);
+        return index < 0 ? -1 : histogramMaxima[index];
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < counterNames.length; i++) {
+            text.append(counterNames[i]).append(": ").append(counterValues[i]).append('\n');
+        }
+        for (int i = 0; i < gaugeNames.length; i++) {
+            text.append(gaugeNames[i]).append(": ").append(String.format(Locale.US, "%.1f", gaugeValues[i])).append('\n');
+        }
+        for (int i = 0; i < histogramNames.length; i++) {
+            text.append(histogramNames[i]).append(": n=").append(histogramCounts[i])
+                    .append(", mean ").append(histogramMeans[i] / 1000).append(" us");
+            for (int q = 0; q < QUANTILES.length; q++) {
+                text.append(", p").append(Math.round(QUANTILES[q] * 100)).append(' ')
+                        .append(histogramQuantiles[i * QUANTILES.length + q] / 1000).append(" us");
+            }
+            text.append(", max ").append(histogramMaxima[i] / 1000).append(" us\n");
+        }
+        return text.toString();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(timestampMillis);
+        dest.writeStringArray(counterNames);
+        dest.writeLongArray(counterValues);
+        dest.writeStringArray(gaugeNames);
+        dest.writeDoubleArray(gaugeValues);
+        dest.writeStringArray(histogramNames);
+        dest.writeLongArray(histogramCounts);
+        dest.writeLongArray(histogramMeans);
+        dest.writeLongArray(histogramQuantiles);
+        dest.writeLongArray(histogramMaxima);
+    }
+
+    public static final Parcelable.Creator<MetricsSnapshot> CREATOR = new Parcelable.Creator<MetricsSnapshot>() {
+        @Override
+        public MetricsSnapshot createFromParcel(Parcel in) {
+            return new MetricsSnapshot(in);
+        }
+
+        @Override
+        public MetricsSnapshot[] newArray(int size) {
+            return new MetricsSnapshot[size];
+        }
+    };
+}
@@ -1,170 +1,193 @@
 package com.andreydymko.nomic;
 
-import android.media.AudioFormat;
-import android.media.AudioManager;
-import android.media.AudioRecord;
-import android.media.AudioTrack;
 import android.util.Log;
 
+import java.nio.channels.DatagramChannel;
+import java.security.SecureRandom;
 
-import org.jetbrains.annotations.NotNull;
-
-import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketException;
-import java.net.UnknownHostException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-
-public class MicThread extends Thread {
+// поток захвата звука с микрофона устройства: конвейер CaptureThread с источником AudioRecord
+// и подключение слушателей с кодеком и форматом из настроек записи
+public class MicThread extends CaptureThread {
 
     private static final String TAG = "MicThread";
+    // сколько звука может ждать отправки одному слушателю, прежде чем кадры начнут выбрасываться
+    private static final int SUBSCRIBER_QUEUE_US = 200_000;
+    // качество смены частоты для слушателей, которым нужна не частота захвата
+    private static final int RESAMPLER_QUALITY = Resampler.QUALITY.HIGH;
+    // как часто слушатель с подавлением тишины получает пакет комфортного шума, пока все молчат
+    private static final int COMFORT_NOISE_INTERVAL_US = 500_000;
 
     private AudioRecorderSettings recorderSettings;
-    // переменная для хранения множителя громкости звука микрофона
-    private float soundVolumeMultiplier = 10.0f;
-    // указатель на экземпляр реализации интерфейса
-    private UDPSocketFailListener delegate;
-    private String remoteINetAddress;
-    // UDP-сокет
-    private DatagramSocket datagramSocket;
+    private final SecureRandom random = new SecureRandom();
 
     MicThread(AudioRecorderSettings audioRecorderSettings) {
-        this.recorderSettings = audioRecorderSettings;
+        this(audioRecorderSettings, SchedulingPolicy.NONE);
     }
 
-    // получает указатель на реализацию интерфейса
-    public void setOnSocketFailListener(UDPSocketFailListener delegate) {
-        this.delegate = delegate;
+    MicThread(AudioRecorderSettings audioRecorderSettings, SchedulingPolicy policy) {
+        super(TAG, new AudioRecordSource(audioRecorderSettings), audioRecorderSettings.getFrameDurationUs(), policy);
+        this.recorderSettings = audioRecorderSettings;
+        // с АРУ (по умолчанию выключена) множитель громкости из интерфейса становится потолком усиления
+        setAutomaticGainControl(audioRecorderSettings.isAutomaticGainControlEnabled());
+        setNoiseSuppression(audioRecorderSettings.getNoiseSuppressionDb());
+        setFilterStages(audioRecorderSettings.getFilterStages());
     }
 
-    // пытается открыть UDP-сокет, при этом запрашивая выделение свободного UDP-порта
-    public int allocateUDPPort() throws SocketException {
-        this.datagramSocket = new DatagramSocket();
-        return datagramSocket.getLocalPort();
+    // подключает слушателя: channel уже направлен в его сторону, payloadType - выбранный им кодек,
+    // fec - отправлять ли ему пакеты чётности с блоком из настроек,
+    // comfortNoise - подавлять ли для него тишину (он понимает пакеты комфортного шума),
+    // sessionKey - ключ, которым шифруются его датаграммы (null - без шифрования)
+    public SubscriberThread addSubscriber(DatagramChannel channel, String remoteINetAddress,
+                                          @AudioPacket.payloadType int payloadType, boolean fec, boolean comfortNoise,
+                                          byte[] sessionKey) {
+        int frameBytes = recorderSettings.getFrameBytes();
+        int wireRate = recorderSettings.getWireSampleRate();
+        AudioEncoder encoder = AudioEncoders.create(
+                payloadType,
+                wireRate,
+                recorderSettings.getChannelCount(),
+                recorderSettings.getBitrate(),
+                recorderSettings.getFrameDurationUs()
+        );
+        int ssrc = random.nextInt();
+        // кодек может ждать не тот формат сэмплов, в котором идёт захват: слушатель получит
+        // звук, преобразованный в формат кодека (SubscriberThread)
+        int captureEncoding = recorderSettings.getSampleEncoding();
+        int wireBytesPerSample = SampleFormat.getBytesPerSample(SampleFormat.ofPayloadType(encoder.getPayloadType()));
+        int wireFrameBytes = frameBytes / SampleFormat.getBytesPerSample(captureEncoding) * wireBytesPerSample;
+        Resampler resampler = newResampler(wireRate, encoder);
+        if (resampler != null) {
+            wireFrameBytes = resampler.getOutputBytes(wireFrameBytes);
+        }
+        Transport transport = new DatagramTransport(channel);
+        if (sessionKey != null) {
+            // шифруется вся датаграмма, так что чётность и комфортный шум тоже
+            transport = new EncryptedTransport(transport, new PacketCipher(sessionKey));
+        }
+        PacketSender sender = new PacketSender(transport, encoder, newPacketEncoder(encoder, ssrc), new CodecStatistics(),
+                wireFrameBytes, wireBytesPerSample * recorderSettings.getChannelCount());
+        if (fec && recorderSettings.isFecEnabled()) {
+            sender.setFec(new FecEncoder(new FecCode(recorderSettings.getFecDataPackets(),
+                    recorderSettings.getFecParityPackets()), random.nextInt()));
+        }
+        int queueFrames = Math.max(4, SUBSCRIBER_QUEUE_US / recorderSettings.getFrameDurationUs());
+        SubscriberThread subscriber = new SubscriberThread(remoteINetAddress, sender, frameBytes, queueFrames,
+                captureEncoding, resampler);
+        if (comfortNoise && recorderSettings.isSilenceSuppressionEnabled()) {
+            // детектор разбирает кадры захвата, до преобразования в формат кодека
+            subscriber.setSilenceSuppression(new VoiceActivityDetector(recorderSettings.getSampleRate(),
+                            recorderSettings.getChannelCount(), captureEncoding, recorderSettings.getSilenceHangoverMs()),
+                    COMFORT_NOISE_INTERVAL_US / recorderSettings.getFrameDurationUs());
+        }
+        subscriber.setFormat(new StreamFormat(
+                encoder.getPayloadType(),
+                wireRate,
+                recorderSettings.getChannelCount(),
+                recorderSettings.getFrameDurationUs(),
+                recorderSettings.getBitrate(),
+                ssrc
+        ));
+        getRegistry().add(subscriber);
+        Log.d(TAG, "Subscriber " + remoteINetAddress + " joined with codec " + encoder.getPayloadType()
+                + (fec ? ", FEC " + recorderSettings.getFecDataPackets() + "+" + recorderSettings.getFecParityPackets() : "")
+                + (comfortNoise ? ", silence suppression " + recorderSettings.getSilenceHangoverMs() + " ms" : "")
+                + (sessionKey != null ? ", encrypted" : ""));
+        return subscriber;
     }
 
-    // устанавливает IP-адрес получателя звука микрофона
-    public void setRemoteINetAddress(String iNetAddress) {
-        this.remoteINetAddress = iNetAddress;
+    // меняет кодек и частоту потока одного слушателя, не трогая захват и остальных слушателей.
+    // Частота может быть любой, в которую кадр захвата переводится целым числом сэмплов
+    // (Resampler.canResample). Возвращает новый формат, либо null
+    public StreamFormat reconfigureSubscriber(SubscriberThread subscriber, @AudioPacket.payloadType int payloadType,
+                                              int bitrate, int sampleRate) {
+        return reconfigureSubscriber(subscriber, payloadType, bitrate, sampleRate, 1);
     }
 
-    // метод вызывается системой, когда программист вызывает Thread.start()
-    // при этом происходит выделение нового потока для программы
-    // т.е. код этой функции работает в отдельном потоке
-    public void run() {
-        // получаем порт и IP адрес
-        int udpPort = datagramSocket.getLocalPort();
-        InetAddress broadcastIp;
-        try {
-            broadcastIp = InetAddress.getByName(Utils.trimHostname(remoteINetAddress));
-        } catch (UnknownHostException | NullPointerException e) {
-            socketFailed(e);
-            e.printStackTrace();
-            return;
+    // то же, но ещё и собирает по packetFrames кадров захвата в один пакет.
+    // Если меняется только битрейт, поток продолжается без смены источника
+    public StreamFormat reconfigureSubscriber(SubscriberThread subscriber, @AudioPacket.payloadType int payloadType,
+                                              int bitrate, int sampleRate, int packetFrames) {
+        int captureRate = recorderSettings.getSampleRate();
+        int channels = recorderSettings.getChannelCount();
+        int framesPerPacket = recorderSettings.getFrameBytes() / recorderSettings.getBytesPerFrame();
+        int packetDurationUs = recorderSettings.getFrameDurationUs() * packetFrames;
+        if (!Resampler.canResample(captureRate, sampleRate, framesPerPacket)
+                || !AudioEncoders.isSupported(payloadType, sampleRate, channels)
+                || packetFrames < 1 || packetFrames > 1 && packetDurationUs > QualityController.MAX_PACKET_DURATION_US) {
+            return null;
         }
-
-        // загружаем нативную библиотеку
-        System.loadLibrary("soundVolumeIncreaser");
-        int bufferSize = AudioRecord.getMinBufferSize(
-                recorderSettings.getSampleRate(),
-                recorderSettings.getAudioFormatChannel(),
-                recorderSettings.getAudioFormatEncoding()
-        );
-        // инициализируем "записыватель" звука микрофона
-        AudioRecord micRecorder = new AudioRecord(
-                recorderSettings.getAudioSource(),
-                recorderSettings.getSampleRate(),
-                recorderSettings.getAudioFormatChannel(),
-                recorderSettings.getAudioFormatEncoding(),
-                bufferSize
-        );
-        // буффер для хранения звуковых данных
-        byte[] buffer = new byte[bufferSize];
-
-        // экземпляр UDP-пакета, направленный в сторону клиента по опредленному порту
-        DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length, broadcastIp, udpPort);
-        // начинаем запись звука в буфер
-        micRecorder.startRecording();
-        Log.d(TAG, "Streaming with buffer size of: " + bufferSize
-                + " and volume: " + soundVolumeMultiplier
-                + " to ip: " + this.remoteINetAddress
-                + " using port: " + udpPort);
-
-
-        // пока поток не попросили остановиться извне
-        while (!Thread.interrupted()) {
-            // читаем звук в буфер
-            micRecorder.read(buffer, 0, bufferSize);
-
-            // увеличиваем громкость звука в n раз
-            increaseSoundVolume(buffer, soundVolumeMultiplier);
-            // устанавливаем данные в пакет
-            datagramPacket.setData(buffer);
-            try {
-                // отправляем пакет по сокету
-                datagramSocket.send(datagramPacket);
-            } catch (IOException e) {
-                socketFailed(e);
-                e.printStackTrace();
-                break;
+        StreamFormat current = subscriber.getFormat();
+        if (current != null && current.getPayloadType() == payloadType && current.getSampleRate() == sampleRate
+                && current.getFrameDurationUs() == packetDurationUs) {
+            if (current.getBitrate() == bitrate) {
+                return current;
             }
+            StreamFormat format = new StreamFormat(payloadType, sampleRate, channels, packetDurationUs, bitrate,
+                    current.getSsrc());
+            subscriber.changeBitrate(format);
+            Log.d(TAG, "Subscriber " + subscriber.getRemoteINetAddress() + " switched to " + format);
+            return format;
         }
+        AudioEncoder encoder = AudioEncoders.create(payloadType, sampleRate, channels, bitrate, packetDurationUs);
+        // у потока с новыми часами - новый идентификатор источника
+        int ssrc = random.nextInt();
+        StreamFormat format = new StreamFormat(encoder.getPayloadType(), sampleRate, channels,
+                packetDurationUs, bitrate, ssrc);
+        subscriber.reconfigure(encoder, newPacketEncoder(encoder, ssrc), newResampler(sampleRate, encoder),
+                packetFrames, format);
+        Log.d(TAG, "Subscriber " + subscriber.getRemoteINetAddress() + " switched to " + format);
+        return format;
+    }
 
-        // поток попросили остановиться
-        // закрываем сокет
-        datagramSocket.close();
-        // завершаем запись звука
-        micRecorder.stop();
-        micRecorder.release();
+    // создаёт регулятор качества, лестница которого начинается с формата format
+    public QualityController newQualityController(StreamFormat format) {
+        return new QualityController(QualityController.buildLadder(
+                format.getPayloadType(),
+                recorderSettings.getSampleRate(),
+                format.getSampleRate(),
+                format.getChannels(),
+                format.getBitrate(),
+                recorderSettings.getFrameDurationUs(),
+                recorderSettings.getFrameBytes() / recorderSettings.getBytesPerFrame()
+        ));
     }
 
-    private void socketFailed(Exception e) {
-        if (delegate != null) {
-            delegate.onSocketFail(e);
+    // передискретизатор из частоты захвата в sampleRate в формате кодека encoder,
+    // либо null, если частота не меняется
+    private Resampler newResampler(int sampleRate, AudioEncoder encoder) {
+        if (sampleRate == recorderSettings.getSampleRate()) {
+            return null;
         }
+        return new Resampler(recorderSettings.getSampleRate(), sampleRate, recorderSettings.getChannelCount(),
+                SampleFormat.ofPayloadType(encoder.getPayloadType()), RESAMPLER_QUALITY);
     }
 
-    public interface UDPSocketFailListener {
-        void onSocketFail(Exception e);
+    // номер пакета и часы начинаются со случайных значений (RFC 3550), у каждого потока - свои
+    private PacketEncoder newPacketEncoder(AudioEncoder encoder, int ssrc) {
+        return new PacketEncoder(encoder.getPayloadType(), ssrc, random.nextInt(), random.nextInt());
     }
 
-    public void setSoundVolumeMultiplier(float multiplier) {
-        this.soundVolumeMultiplier = multiplier;
+    @Override
+    protected void onCaptureStarted(int bufferBytes) {
+        Log.d(TAG, "Capturing with buffer size of: " + bufferBytes
+                + ", packet size: " + getFrameBytes()
+                + " and volume: " + getSoundVolumeMultiplier());
     }
 
-    // объявляем нативный метод, который усиливает звук в n раз
-    private native void increaseSoundVolume(@NotNull byte[] soundBuffer, float multiplier);
-
-    // метод, который усиливает звук, но реализован не нативно
-    private void increaseSoundVolumeOld(@NotNull byte[] audioBuffer, float multiplier) {
-        // PCM 16 bit in mono; 16 bit == 2 byte
-        int sampleLength = 2;
-        short sample;
-        for (int i = 0; i < audioBuffer.length; i += sampleLength) {
-            sample = (short) Math.floor(((audioBuffer[i+1] & 0xFF) << 8 | audioBuffer[i] & 0xFF) * multiplier);
-            audioBuffer[i] = (byte) (sample & 0xff);
-            audioBuffer[i+1] = (byte) ((sample >> 8) & 0xff);
+    @Override
+    protected void onStatistics(long packetizerOverflowBytes) {
+        FrameRing captured = getCapturedFrames();
+        Log.d(TAG, "capture: overrun bytes " + packetizerOverflowBytes
+                + ", processing: overflows " + captured.getOverflows()
+                + ", underflows " + captured.getUnderflows());
+        for (DeadlineMonitor monitor : getScheduler().getMonitors()) {
+            Log.d(TAG, monitor.toString());
         }
-    }
-
-    @Deprecated
-    // метод, который усиливает звук, реализован не нативно, использует ByteBuffer
-    // менее эффективен
-    private void increaseSoundVolumeOld1(@NotNull byte[] audioBuffer, float multiplier) {
-        // PCM 16 bit in mono; 16 bit == 2 byte
-        int sampleLength = 2;
-        ByteBuffer byteBuffer = ByteBuffer.allocate(sampleLength);
-        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-        short sample;
-        for (int i = 0; i < audioBuffer.length; i += sampleLength) {
-            byteBuffer.put(audioBuffer, i, sampleLength).rewind();
-            sample = (short) Math.floor(byteBuffer.getShort(0) * multiplier);
-            byteBuffer.clear();
-            byteBuffer.putShort(sample).rewind();
-            byteBuffer.get(audioBuffer, i, sampleLength).clear();
+        for (SubscriberThread subscriber : getRegistry().getSubscribers()) {
+            Log.d(TAG, subscriber.getRemoteINetAddress()
+                    + ": encoder " + subscriber.getCodecStatistics()
+                    + ", dropped frames " + subscriber.getDroppedFrames()
+                    + ", underflows " + subscriber.getUnderflows());
         }
     }
 }
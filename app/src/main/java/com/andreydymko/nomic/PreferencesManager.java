@@ -4,18 +4,27 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.media.AudioFormat;
+import android.media.AudioRecord;
 import android.media.MediaRecorder;
+import android.text.TextUtils;
 
 import androidx.preference.PreferenceManager;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class PreferencesManager {
 
     private final Map<String, Integer> audioSourceMap;
+    private final Map<String, Integer> codecMap;
 
     private final static String prefKey = "No Mic";
+    // добротность среза гула: Баттерворт, без подъёма у частоты среза
+    private final static float HIGH_PASS_Q = 0.707f;
 
     private Context context;
     private SharedPreferences sharedPreferences;
@@ -29,14 +38,20 @@ public class PreferencesManager {
             put(context.getString(R.string.source_camcorder_value), MediaRecorder.AudioSource.CAMCORDER);
         }
         };
+        codecMap = new HashMap<String, Integer>() {{
+            put(context.getString(R.string.codec_pcm_value), AudioPacket.PAYLOAD_TYPE.PCM_16_LE);
+            put(context.getString(R.string.codec_mulaw_value), AudioPacket.PAYLOAD_TYPE.PCMU);
+            put(context.getString(R.string.codec_opus_value), AudioPacket.PAYLOAD_TYPE.OPUS);
+        }
+        };
     }
 
     public void setRecorderPreferences(AudioRecorderSettings settings) {
         SharedPreferences.Editor editor = this.sharedPreferences.edit();
         editor.putInt(context.getString(R.string.prefKeyAudioSource), settings.getAudioSource());
         editor.putInt(context.getString(R.string.prefKeySampleRate), settings.getSampleRate());
-        editor.putInt(context.getString(R.string.prefKeyAudioFormatChannel), settings.getAudioFormatChannel());
-        editor.putInt(context.getString(R.string.prefKeyAudioFormatEncoding), settings.getAudioFormatEncoding());
+        editor.putString(context.getString(R.string.prefKeyAudioFormatChannel), String.valueOf(settings.getAudioFormatChannel()));
+        editor.putString(context.getString(R.string.prefKeyAudioFormatEncoding), String.valueOf(settings.getAudioFormatEncoding()));
 
         editor.apply();
     }
@@ -44,12 +59,33 @@ public class PreferencesManager {
 
     public AudioRecorderSettings getRecorderPreferences() {
         try {
-            return new AudioRecorderSettings(
+            AudioRecorderSettings settings = new AudioRecorderSettings(
                     audioSourceMap.get(sharedPreferences.getString(context.getString(R.string.prefKeyAudioSource), context.getString(R.string.source_default_value))),
                     Integer.valueOf(sharedPreferences.getString(context.getString(R.string.prefKeySampleRate), String.valueOf(context.getResources().getInteger(R.integer.defaultSampleRate)))),
-                    sharedPreferences.getInt(context.getString(R.string.prefKeyAudioFormatChannel), AudioFormat.CHANNEL_IN_MONO),
-                    sharedPreferences.getInt(context.getString(R.string.prefKeyAudioFormatEncoding), AudioFormat.ENCODING_PCM_16BIT)
+                    getListInt(R.string.prefKeyAudioFormatChannel, AudioFormat.CHANNEL_IN_MONO),
+                    getListInt(R.string.prefKeyAudioFormatEncoding, AudioFormat.ENCODING_PCM_16BIT),
+                    codecMap.get(sharedPreferences.getString(context.getString(R.string.prefKeyCodec), context.getString(R.string.codec_pcm_value))),
+                    Integer.valueOf(sharedPreferences.getString(context.getString(R.string.prefKeyBitrate), String.valueOf(context.getResources().getInteger(R.integer.defaultBitrate)))),
+                    Integer.valueOf(sharedPreferences.getString(context.getString(R.string.prefKeyFrameDuration), String.valueOf(context.getResources().getInteger(R.integer.defaultFrameDurationUs)))),
+                    Integer.valueOf(sharedPreferences.getString(context.getString(R.string.prefKeyCaptureBufferMultiple), String.valueOf(context.getResources().getInteger(R.integer.defaultCaptureBufferMultiple))))
             );
+            // блок FEC хранится строкой "K:M", "0:0" - выключено
+            String[] fec = sharedPreferences.getString(context.getString(R.string.prefKeyFec), context.getString(R.string.fec_off_value)).split(":");
+            settings.setFec(Integer.parseInt(fec[0]), Integer.parseInt(fec[1]));
+            settings.setWireSampleRate(getListInt(R.string.prefKeyWireSampleRate, 0));
+            settings.setSilenceHangoverMs(getListInt(R.string.prefKeySilenceSuppression, 0));
+            settings.setAutomaticGainControl(sharedPreferences.getBoolean(context.getString(R.string.prefKeyAutomaticGainControl), false));
+            settings.setNoiseSuppressionDb(getListInt(R.string.prefKeyNoiseSuppression, 0));
+            settings.setFilterChain(getFilterChain(settings.getSampleRate()));
+            settings.setEncryption(getListInt(R.string.prefKeyEncryption, TCPServerMicThread.ENCRYPTION.PREFERRED));
+            // 24 бита и float поддерживаются не везде: если устройство не может так записывать,
+            // захватываем 16 бит
+            if (settings.getAudioFormatEncoding() != AudioFormat.ENCODING_PCM_16BIT
+                    && AudioRecord.getMinBufferSize(settings.getSampleRate(), settings.getAudioFormatChannel(),
+                    settings.getAudioFormatEncoding()) <= 0) {
+                settings.setAudioFormatEncoding(AudioFormat.ENCODING_PCM_16BIT);
+            }
+            return settings;
         } catch (Exception ex) {
             ex.printStackTrace();
             return new AudioRecorderSettings(
@@ -75,16 +111,48 @@ public class PreferencesManager {
 
     public void setPrefAudioFormatChannel(int audioFormatChannel) {
         SharedPreferences.Editor editor = this.sharedPreferences.edit();
-        editor.putInt(context.getString(R.string.prefKeyAudioFormatChannel), audioFormatChannel);
+        editor.putString(context.getString(R.string.prefKeyAudioFormatChannel), String.valueOf(audioFormatChannel));
         editor.apply();
     }
 
     public void setPrefAudioFormatEncoding(int audioFormatEncoding) {
         SharedPreferences.Editor editor = this.sharedPreferences.edit();
-        editor.putInt(context.getString(R.string.prefKeyAudioFormatEncoding), audioFormatEncoding);
+        editor.putString(context.getString(R.string.prefKeyAudioFormatEncoding), String.valueOf(audioFormatEncoding));
         editor.apply();
     }
 
+    // цепочка фильтров из трёх настроек: блокировщик постоянной составляющей, срез гула
+    // и эквалайзер (значения его списка - уже готовые ступени FilterStage). Остаются только
+    // ступени, которые работают на частоте захвата sampleRate
+    private String getFilterChain(int sampleRate) {
+        List<String> stages = new ArrayList<>();
+        if (sharedPreferences.getBoolean(context.getString(R.string.prefKeyDcBlocker), false)) {
+            stages.add(context.getString(R.string.dc_blocker_stage));
+        }
+        int highPassHz = getListInt(R.string.prefKeyHighPass, 0);
+        if (highPassHz > 0) {
+            stages.add(FilterStage.highPass(highPassHz, HIGH_PASS_Q).toString());
+        }
+        String equalizer = sharedPreferences.getString(context.getString(R.string.prefKeyEqualizer), "");
+        if (!equalizer.isEmpty()) {
+            stages.add(equalizer);
+        }
+        // проверяем сразу: испорченная настройка или полка выше половины частоты захвата
+        // не должны ронять захват
+        return FilterStage.toChain(FilterStage.fitChain(FilterStage.parseChain(TextUtils.join(";", stages)),
+                sampleRate));
+    }
+
+    // число из ListPreference (хранится строкой). Прежние версии хранили некоторые из них как int
+    private int getListInt(int keyId, int defaultValue) {
+        String key = context.getString(keyId);
+        try {
+            return Integer.parseInt(sharedPreferences.getString(key, String.valueOf(defaultValue)));
+        } catch (ClassCastException e) {
+            return sharedPreferences.getInt(key, defaultValue);
+        }
+    }
+
     public void setSoundVolumeProgress(int progress) {
         SharedPreferences.Editor editor = this.sharedPreferences.edit();
         editor.putInt(context.getString(R.string.prefKeySoundVolumeProgress), progress);
@@ -95,6 +163,52 @@ public class PreferencesManager {
         return sharedPreferences.getInt(context.getString(R.string.prefKeySoundVolumeProgress), 10);
     }
 
+    // multicast-группа общего потока, либо null, если multicast выключен или адрес не multicast
+    public String getMulticastGroup() {
+        if (!sharedPreferences.getBoolean(context.getString(R.string.prefKeyMulticastEnabled), false)) {
+            return null;
+        }
+        String group = sharedPreferences.getString(context.getString(R.string.prefKeyMulticastGroup),
+                context.getString(R.string.multicast_group_default));
+        // принимаем только IPv4-адрес, чтобы не обращаться к DNS из главного потока
+        if (group == null || !group.trim().matches("\\d{1,3}(\\.\\d{1,3}){3}")) {
+            return null;
+        }
+        try {
+            return InetAddress.getByName(group.trim()).isMulticastAddress() ? group.trim() : null;
+        } catch (NullPointerException | UnknownHostException e) {
+            return null;
+        }
+    }
+
+    public int getMulticastPort() {
+        try {
+            return Integer.parseInt(sharedPreferences.getString(context.getString(R.string.prefKeyMulticastPort),
+                    String.valueOf(context.getResources().getInteger(R.integer.defaultMulticastPort))));
+        } catch (NullPointerException | NumberFormatException e) {
+            return context.getResources().getInteger(R.integer.defaultMulticastPort);
+        }
+    }
+
+    public int getMulticastTtl() {
+        try {
+            return Integer.parseInt(sharedPreferences.getString(context.getString(R.string.prefKeyMulticastTtl),
+                    String.valueOf(context.getResources().getInteger(R.integer.defaultMulticastTtl))));
+        } catch (NullPointerException | NumberFormatException e) {
+            return context.getResources().getInteger(R.integer.defaultMulticastTtl);
+        }
+    }
+
+    // привязывать ли потоки звука к быстрым ядрам процессора
+    public boolean isPinAudioThreads() {
+        return sharedPreferences.getBoolean(context.getString(R.string.prefKeyPinAudioThreads), false);
+    }
+
+    // писать ли копию потока в файл на устройстве
+    public boolean isRecordToFile() {
+        return sharedPreferences.getBoolean(context.getString(R.string.prefKeyRecordToFile), false);
+    }
+
     public int getControlPort() {
         try {
             return Integer.parseInt(sharedPreferences.getString(context.getString(R.string.prefKeyControlPort), "8126"));
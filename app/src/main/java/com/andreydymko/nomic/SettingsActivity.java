@@ -5,7 +5,10 @@ import android.os.Bundle;
 import androidx.appcompat.app.ActionBar;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.preference.EditTextPreference;
+import androidx.preference.ListPreference;
+import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
+import androidx.preference.SwitchPreferenceCompat;
 
 import java.util.Collections;
 
@@ -36,6 +39,49 @@ public class SettingsActivity extends AppCompatActivity {
         @Override
         public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
             setPreferencesFromResource(R.xml.root_preferences, rootKey);
+            // Opus есть только в сборке с libopus (-PwithOpus), иначе его нельзя выбрать
+            // и его битрейт не нужен
+            boolean opus = OpusEncoder.isAvailable();
+            ListPreference codec = findPreference(getString(R.string.prefKeyCodec));
+            if (codec != null && opus) {
+                codec.setEntries(R.array.codec_with_opus_entries);
+                codec.setEntryValues(R.array.codec_with_opus_values);
+            } else if (codec != null && getString(R.string.codec_opus_value).equals(codec.getValue())) {
+                // Opus, выбранный в сборке с libopus, здесь всё равно заменился бы на PCM
+                codec.setValue(getString(R.string.codec_pcm_value));
+            }
+            Preference bitrate = findPreference(getString(R.string.prefKeyBitrate));
+            if (bitrate != null) {
+                bitrate.setVisible(opus);
+            }
+            // общий multicast-поток не шифруется, поэтому при обязательном шифровании он недоступен
+            ListPreference encryption = findPreference(getString(R.string.prefKeyEncryption));
+            if (encryption != null) {
+                updateMulticastAvailability(encryption.getValue());
+                encryption.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+                    @Override
+                    public boolean onPreferenceChange(Preference preference, Object newValue) {
+                        updateMulticastAvailability((String) newValue);
+                        return true;
+                    }
+                });
+            }
+        }
+
+        private void updateMulticastAvailability(String encryption) {
+            SwitchPreferenceCompat multicast = findPreference(getString(R.string.prefKeyMulticastEnabled));
+            if (multicast == null) {
+                return;
+            }
+            boolean required = String.valueOf(TCPServerMicThread.ENCRYPTION.REQUIRED).equals(encryption);
+            if (required) {
+                // иначе сервис откажется запускаться
+                multicast.setChecked(false);
+            }
+            multicast.setEnabled(!required);
+            multicast.setSummary(required
+                    ? R.string.multicast_encryption_required_summary
+                    : R.string.multicast_enabled_summary);
         }
     }
 }
\ No newline at end of file
@@ -5,7 +5,12 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
 import android.os.Binder;
+import android.os.Build;
+import android.os.Environment;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -13,16 +18,31 @@ import androidx.annotation.IntDef;
 import androidx.core.app.NotificationCompat;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
+import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.lang.annotation.Retention;
-import java.net.SocketException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.Socket;
+import java.nio.channels.DatagramChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import static java.lang.annotation.RetentionPolicy.SOURCE;
 
-// класс сервиса, который захватывает звук микрофона в фоне и отправляет его клиенту
+// класс сервиса, который захватывает звук микрофона в фоне и отправляет его всем подключившимся клиентам
 public class StreamingService extends Service implements
         TCPServerMicThread.TCPServerMicDelegate,
-        MicThread.UDPSocketFailListener {
+        SubscriberRegistry.SubscriberListener,
+        ControlSession.Handler {
 
     // Java-аннотации для состояния сервиса
     @Retention(SOURCE)
@@ -37,15 +57,65 @@ public class StreamingService extends Service implements
     private final static String TAG = "StreamingService";
     // идентификатор уведомления, позволяет управлять уведомлением из любого места программы
     private final static int ONGOING_NOTIFICATION_ID = 333;
+    // как часто снимок метрик рассылается широковещательно - чаще интерфейсу не нужно
+    private final static long METRICS_BROADCAST_PERIOD_MS = 1000;
+    // сколько пропавший клиент может отсутствовать, чтобы вернуться к своему потоку (SessionTable),
+    // и как часто забываются сеансы, которые его не дождались
+    private final static long SESSION_RESUME_TIMEOUT_MS = 60_000;
+    private final static long SESSION_EXPIRY_PERIOD_MS = 1000;
 
     // "привязыватель" сервиса, позволяет привязываться к сервису
     private final IBinder binder = new LocalBinder();
+    // рассылка снимков метрик, идёт в главном потоке, пока работает сеанс
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable metricsBroadcast = new Runnable() {
+        @Override
+        public void run() {
+            sendMetricsSnapshot();
+            handler.postDelayed(this, METRICS_BROADCAST_PERIOD_MS);
+        }
+    };
+    // отключает слушателей, чьи клиенты не вернулись вовремя; идёт в главном потоке, пока работает сеанс
+    private final Runnable sessionExpiry = new Runnable() {
+        @Override
+        public void run() {
+            expireSessions();
+            handler.postDelayed(this, SESSION_EXPIRY_PERIOD_MS);
+        }
+    };
+    // останавливает сеанс, когда микрофон перестал отдавать звук (его забрало другое приложение,
+    // перезапустился аудиосервер); идёт в главном потоке
+    private final Runnable captureFailed = new Runnable() {
+        @Override
+        public void run() {
+            updateServiceState(SERVICE_STATE.ERROR);
+            Toast.makeText(StreamingService.this, getString(R.string.capture_error), Toast.LENGTH_LONG).show();
+            stopSelf();
+        }
+    };
     // переменная, отображающая состояние сервиса
     private @serviceState int currServiceState;
     // переменная для хранения порта "рукопожатий" сервера и клиента
     private int localTCPPort;
     // локальный IP-адрес устройства
     private String localIp;
+    // multicast-группа общего потока, либо null, если каждому клиенту отправляется свой поток
+    private String multicastGroup;
+    private int multicastPort;
+    private int multicastTtl;
+    // привязывать ли захват и обработку к быстрым ядрам
+    private boolean pinAudioThreads;
+    // писать ли копию потока в WAV-файл на устройстве
+    private boolean recordToFile;
+    // канал общего multicast-потока и его слушатель в потоке захвата, когда он подключён
+    private DatagramChannel multicastChannel;
+    private SubscriberThread multicastSubscriber;
+    // управляющие соединения клиентов, которые их попросили
+    private final List<ControlSession> controlSessions = new CopyOnWriteArrayList<>();
+    // unicast-потоки клиентов, которые могут пропасть и вернуться к ним по токену
+    private final SessionTable sessions = new SessionTable(TimeUnit.MILLISECONDS.toNanos(SESSION_RESUME_TIMEOUT_MS));
+    // регуляторы качества unicast-потоков, которые подстраиваются по отчётам клиентов
+    private final Map<ControlSession, QualityController> qualityControllers = new ConcurrentHashMap<>();
 
     // простой контейнер для хранения настроек пользователя
     private AudioRecorderSettings settings;
@@ -75,6 +145,11 @@ public class StreamingService extends Service implements
         settings = intent.getParcelableExtra(this.getString(R.string.extrasAudioRecorderSettings));
         localTCPPort = intent.getIntExtra(getString(R.string.extrasTCPPort), 8126);
         localIp = intent.getStringExtra(getString(R.string.extrasTCPIP));
+        multicastGroup = intent.getStringExtra(getString(R.string.extrasMulticastGroup));
+        multicastPort = intent.getIntExtra(getString(R.string.extrasMulticastPort), MulticastTransport.DEFAULT_PORT);
+        multicastTtl = intent.getIntExtra(getString(R.string.extrasMulticastTtl), MulticastTransport.DEFAULT_TTL);
+        pinAudioThreads = intent.getBooleanExtra(getString(R.string.extrasPinAudioThreads), false);
+        recordToFile = intent.getBooleanExtra(getString(R.string.extrasRecordToFile), false);
         // запускаем процесс ожидания "рукопожатия" и отправки звука с микрофона
         startStreamSession();
 
@@ -106,60 +181,279 @@ public class StreamingService extends Service implements
 
     // начинает процесс рукопожатий и отправки звука микрофона
     private void startStreamSession() {
-        // инициализируем поток настройками для "записывателя" звука
-        micThread = new MicThread(settings);
+        // инициализируем поток настройками для "записывателя" звука.
+        // Он будет запущен, когда подключится первый клиент, и будет общим для всех клиентов
+        // потоки конвейера работают с приоритетом системного аудио, чтобы их не вытесняли
         try {
-            // пытаемся поднять сокет для рукопожатия посредством TCP
-            // при этом просим у системы выделить UDP-порт для будущей отправки звука
-            serverMicThread = new TCPServerMicThread(localTCPPort, localIp, micThread.allocateUDPPort(), settings);
-        } catch (SocketException e) {
+            micThread = new MicThread(settings, new AudioThreadPolicy(pinAudioThreads)) {
+                @Override
+                protected void onCaptureFailed(IOException e) {
+                    // поток захвата уже завершился - сообщаем пользователю из главного потока
+                    handler.post(captureFailed);
+                }
+            };
+        } catch (IllegalArgumentException e) {
+            // настройки обработки, с которыми захват не собрать (например, ступень фильтра не по частоте)
+            e.printStackTrace();
+            updateServiceState(SERVICE_STATE.ERROR);
+            Toast.makeText(this, getString(R.string.capture_settings_error), Toast.LENGTH_LONG).show();
+            stopSelf();
+            return;
+        }
+        micThread.getRegistry().setSubscriberListener(this);
+        // поднимаем сокет для рукопожатий посредством TCP,
+        // UDP-порт для отправки звука выделяется каждому клиенту при рукопожатии
+        serverMicThread = new TCPServerMicThread(localTCPPort, localIp, settings);
+        if (multicastGroup != null && settings.getEncryption() == TCPServerMicThread.ENCRYPTION.REQUIRED) {
+            // общий поток не шифруется и ушёл бы открытым всей сети, а настройки требуют шифрования
+            updateServiceState(SERVICE_STATE.ERROR);
+            Toast.makeText(this, getString(R.string.multicast_encryption_error), Toast.LENGTH_LONG).show();
+            stopSelf();
+            return;
+        }
+        if (multicastGroup != null && !openMulticastChannel()) {
             // при неудаче обновляем состояние сервиса
             updateServiceState(SERVICE_STATE.ERROR);
             // показываем сообщение пользователю
             Toast.makeText(this, getString(R.string.udp_socket_error), Toast.LENGTH_LONG).show();
             // останавливаем сервис
             stopSelf();
+            return;
         }
-        // если всё удачно - будем ожидать когда клиент присоедениться к нашему серверу
+        // будем ожидать когда клиенты присоединятся к нашему серверу
         serverMicThread.setOnHandshakeDoneListener(this);
+        serverMicThread.setSessionTable(sessions);
         serverMicThread.start();
         updateServiceState(SERVICE_STATE.STARTED);
+        handler.postDelayed(metricsBroadcast, METRICS_BROADCAST_PERIOD_MS);
+        handler.postDelayed(sessionExpiry, SESSION_EXPIRY_PERIOD_MS);
+    }
+
+    // начинает писать то, что получают слушатели, в новый WAV-файл в папке Music приложения.
+    // Запись завершается вместе с потоком захвата; если файл не открылся, поток идёт без неё
+    private void startRecording() {
+        File directory = getExternalFilesDir(Environment.DIRECTORY_MUSIC);
+        if (directory == null) {
+            // внешнее хранилище недоступно
+            directory = getFilesDir();
+        }
+        String name = new SimpleDateFormat("'nomic-'yyyyMMdd-HHmmss'.wav'", Locale.US).format(new Date());
+        File file = new File(directory, name);
+        try {
+            micThread.startRecording(file);
+            Log.d(TAG, "Recording to " + file);
+        } catch (IOException e) {
+            Log.d(TAG, "Cannot record to " + file + ": " + e);
+        }
+    }
+
+    // открывает канал общего потока на multicast-группу и сообщает её серверу рукопожатий
+    private boolean openMulticastChannel() {
+        try {
+            InetAddress group = InetAddress.getByName(multicastGroup);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                // отправляем через интерфейс Wi-Fi, на котором ждём клиентов
+                NetworkInterface networkInterface = localIp == null
+                        ? null : NetworkInterface.getByInetAddress(InetAddress.getByName(localIp));
+                multicastChannel = MulticastTransport.openSender(group, multicastPort, multicastTtl, networkInterface);
+            } else {
+                // до Android 7.0 TTL задать нельзя, используется системный (1)
+                multicastChannel = MulticastTransport.openDefaultSender(group, multicastPort);
+                multicastTtl = 1;
+            }
+            serverMicThread.setMulticast(group, multicastPort, multicastTtl);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
     }
 
     // клиент присоеденился к серверу и удачно получил UDP-порт, к которому должен будет подключиться
     // а также настройки "записывателя" звука, необходимые для инициализации проигрывателя.
-    // Заодно мы узнали IP клиента, что позволит нам направить UDP-пакеты к нему,
+    // Канал уже направлен на IP клиента, что позволит нам отправлять UDP-пакеты к нему,
     // а не создавать широковещательный UDP-пакет
     @Override
-    public void onHandshakeDone(String remoteINetAddress) {
-        // ожидаем ситуации, если отправка данных будет провалена
-        micThread.setOnSocketFailListener(this);
-        // отправляем IP клиента
-        micThread.setRemoteINetAddress(remoteINetAddress);
-        // запускаем поток
-        micThread.start();
-        updateServiceState(SERVICE_STATE.CONNECTED);
+    public void onHandshakeDone(DatagramChannel channel, String remoteINetAddress, @AudioPacket.payloadType int payloadType,
+                                boolean fec, boolean comfortNoise, byte[] sessionKey, String sessionToken,
+                                Socket controlSocket) {
+        SubscriberThread subscriber;
+        synchronized (this) {
+            if (channel != null) {
+                // добавляем клиента к слушателям вместе с кодеком, который он выбрал
+                subscriber = micThread.addSubscriber(channel, remoteINetAddress, payloadType, fec, comfortNoise,
+                        sessionKey);
+                if (sessionToken != null) {
+                    // пропав, клиент сможет вернуться к этому потоку
+                    sessions.register(sessionToken, subscriber, sessionKey);
+                }
+            } else if (multicastSubscriber == null) {
+                // общий поток подключается один раз, последующие клиенты просто слушают группу.
+                // Чётность в нём есть, если она включена в настройках: группу слушают все.
+                // Тишина в нём не подавляется - не каждый слушатель группы понимает комфортный шум
+                subscriber = multicastSubscriber = micThread.addSubscriber(multicastChannel, multicastGroup, payloadType,
+                        settings.isFecEnabled(), false, null);
+            } else {
+                subscriber = multicastSubscriber;
+                Log.d(TAG, "Client " + remoteINetAddress + " joined multicast group " + multicastGroup);
+            }
+            // запускаем захват при первом клиенте
+            if (micThread.getState() == Thread.State.NEW) {
+                if (recordToFile) {
+                    startRecording();
+                }
+                micThread.start();
+            }
+        }
+        startControlSession(subscriber, controlSocket);
     }
 
-    // если рукопожатие провалилось - отработаем ошибку и остановим сервис
+    // клиент вернулся: его поток уже идёт по новому каналу, захват и обработка не прерывались
+    @Override
+    public void onHandshakeResumed(SubscriberThread subscriber, Socket controlSocket) {
+        Log.d(TAG, "Subscriber " + subscriber.getRemoteINetAddress() + " resumed its stream");
+        // прежнее управляющее соединение могло ещё не заметить разрыва - оно больше не нужно.
+        // Убираем его из списка до закрытия, чтобы закрытие не приостановило поток снова
+        for (ControlSession session : controlSessions) {
+            if (session.getSubscriber() == subscriber) {
+                controlSessions.remove(session);
+                qualityControllers.remove(session);
+                session.close();
+            }
+        }
+        startControlSession(subscriber, controlSocket);
+    }
+
+    private void startControlSession(SubscriberThread subscriber, Socket controlSocket) {
+        if (controlSocket != null) {
+            // клиент остаётся на связи: будет сообщать о приёме и может менять формат на лету
+            try {
+                ControlSession session = new ControlSession(controlSocket, subscriber, this);
+                controlSessions.add(session);
+                if (subscriber != multicastSubscriber) {
+                    qualityControllers.put(session, micThread.newQualityController(subscriber.getFormat()));
+                }
+                session.start();
+            } catch (IOException e) {
+                e.printStackTrace();
+                try {
+                    controlSocket.close();
+                } catch (IOException ignored) {
+                    // игнорируем ошибку
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onSetVolume(ControlSession session, float volume) {
+        setSoundVolumeOnThread(volume);
+    }
+
+    // общий multicast-поток один на всех, поэтому его формат клиент поменять не может
+    @Override
+    public StreamFormat onSetCodec(ControlSession session, @AudioPacket.payloadType int payloadType, int bitrate) {
+        StreamFormat current = session.getSubscriber().getFormat();
+        if (session.getSubscriber() == multicastSubscriber || current == null) {
+            return null;
+        }
+        return restartQualityControl(session, micThread.reconfigureSubscriber(session.getSubscriber(),
+                payloadType, bitrate, current.getSampleRate()));
+    }
+
+    @Override
+    public StreamFormat onSetSampleRate(ControlSession session, int sampleRate) {
+        StreamFormat current = session.getSubscriber().getFormat();
+        if (session.getSubscriber() == multicastSubscriber || current == null) {
+            return null;
+        }
+        return restartQualityControl(session, micThread.reconfigureSubscriber(session.getSubscriber(),
+                current.getPayloadType(), current.getBitrate(), sampleRate));
+    }
+
+    // формат, выбранный клиентом, становится верхней ступенью качества
+    private StreamFormat restartQualityControl(ControlSession session, StreamFormat format) {
+        if (format != null) {
+            qualityControllers.put(session, micThread.newQualityController(format));
+        }
+        return format;
+    }
+
+    // по потерям и RTT подстраиваем битрейт, частоту и длину пакета этого клиента
+    @Override
+    public StreamFormat onReceiverReport(ControlSession session, ReceiverReport report) {
+        QualityController controller = qualityControllers.get(session);
+        StreamFormat current = session.getSubscriber().getFormat();
+        if (controller == null || current == null) {
+            return null;
+        }
+        QualityController.Level level = controller.onReport(report, session.getRoundTripMillis(),
+                SystemClock.elapsedRealtime());
+        if (level == null) {
+            return null;
+        }
+        Log.d(TAG, "Adapting " + session.getSubscriber().getRemoteINetAddress() + " to " + level
+                + ": loss " + controller.getLastLoss() + ", rtt " + session.getRoundTripMillis() + " ms");
+        return micThread.reconfigureSubscriber(session.getSubscriber(), current.getPayloadType(),
+                level.getBitrate(), level.getSampleRate(), level.getPacketFrames());
+    }
+
+    // клиент ушёл: его unicast-поток ждёт, не вернётся ли он (SessionTable), а если поток
+    // продолжать нельзя - больше никому не нужен
+    @Override
+    public void onSessionClosed(ControlSession session, Exception cause) {
+        if (!controlSessions.remove(session)) {
+            // соединение уже заменено новым (onHandshakeResumed)
+            return;
+        }
+        qualityControllers.remove(session);
+        if (session.getSubscriber() != multicastSubscriber && !sessions.suspend(session.getSubscriber())) {
+            micThread.getRegistry().remove(session.getSubscriber(), cause);
+        }
+    }
+
+    // отключает слушателей, чьи клиенты так и не вернулись за SESSION_RESUME_TIMEOUT_MS
+    private void expireSessions() {
+        for (SubscriberThread subscriber : sessions.expire(System.nanoTime())) {
+            micThread.getRegistry().remove(subscriber, null);
+        }
+    }
+
+    // если рукопожатие провалилось - отработаем ошибку. Ошибка одного клиента
+    // не мешает остальным, а без серверного сокета сервис работать не может
     @Override
     public void onHandshakeFailed(Exception ex, @TCPServerMicThread.failedPlace int failedPlace) {
         switch (failedPlace) {
             case TCPServerMicThread.FAILED_PLACE.OPEN_SOCKET:
             case TCPServerMicThread.FAILED_PLACE.WAIT_FOR_CONNECTION:
-            case TCPServerMicThread.FAILED_PLACE.SEND_SAMPLE_RATE_SETTINGS:
                 updateServiceState(SERVICE_STATE.ERROR);
                 stopSelf();
                 break;
+            case TCPServerMicThread.FAILED_PLACE.SEND_SAMPLE_RATE_SETTINGS:
+            case TCPServerMicThread.FAILED_PLACE.ENCRYPTION_REQUIRED:
+                Log.d(TAG, "Client handshake failed: " + ex);
+                break;
         }
     }
 
-    // если отправка пакета провалилась - остановим сервис
     @Override
-    public void onSocketFail(Exception e) {
-        if (e instanceof IOException) {
-            updateServiceState(SERVICE_STATE.ERROR);
-            stopSelf();
+    public void onSubscriberJoined(SubscriberThread subscriber, int subscriberCount) {
+        updateServiceState(SERVICE_STATE.CONNECTED);
+    }
+
+    // если отправка клиенту провалилась - он уже отключён, остальные продолжают слушать
+    @Override
+    public void onSubscriberLeft(SubscriberThread subscriber, Exception cause, int subscriberCount) {
+        Log.d(TAG, "Subscriber " + subscriber.getRemoteINetAddress() + " left: " + cause);
+        sessions.remove(subscriber);
+        // звук клиенту больше не идёт - закрываем и его управляющее соединение
+        for (ControlSession session : controlSessions) {
+            if (session.getSubscriber() == subscriber) {
+                session.close();
+            }
+        }
+        if (subscriberCount == 0 && currServiceState == SERVICE_STATE.CONNECTED) {
+            updateServiceState(SERVICE_STATE.STARTED);
         }
     }
 
@@ -169,6 +463,9 @@ public class StreamingService extends Service implements
     public void onDestroy() {
         updateServiceState(SERVICE_STATE.STOPPING);
         Log.d(TAG, "Destroying Service");
+        handler.removeCallbacks(metricsBroadcast);
+        handler.removeCallbacks(sessionExpiry);
+        handler.removeCallbacks(captureFailed);
         if (serverMicThread != null) {
             // останавливаем коммуникацию между клиентом и сервером
             serverMicThread.interrupt();
@@ -176,6 +473,19 @@ public class StreamingService extends Service implements
         if (micThread != null) {
             // останавливаем запись звука микрофона и его отправку
             micThread.interrupt();
+            // поток захвата мог так и не запуститься - отключаем клиентов явно
+            micThread.getRegistry().clear();
+        }
+        for (ControlSession session : controlSessions) {
+            session.close();
+        }
+        if (multicastChannel != null && multicastSubscriber == null) {
+            // канал общего потока так и не понадобился
+            try {
+                multicastChannel.close();
+            } catch (IOException ignored) {
+                // игнорируем ошибку
+            }
         }
         updateServiceState(SERVICE_STATE.STOPPED);
     }
@@ -188,6 +498,19 @@ public class StreamingService extends Service implements
         micThread.setSoundVolumeMultiplier(multiplier);
     }
 
+    // возвращает подключённых клиентов со статистикой их потоков
+    public SubscriberThread[] getSubscribers() {
+        if (micThread == null) {
+            return new SubscriberThread[0];
+        }
+        return micThread.getRegistry().getSubscribers();
+    }
+
+    // метрики текущего сеанса, либо null, если сеанс не начат
+    public MetricsRegistry getMetrics() {
+        return micThread == null ? null : micThread.getMetrics();
+    }
+
     // возвращает текущее состояние сервиса
     public @serviceState int getCurrentState() {
         return currServiceState;
@@ -215,11 +538,43 @@ public class StreamingService extends Service implements
         LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
     }
 
+    // отправляет снимок метрик тем, кто на них подписан, при помощи менеджера широковещательных сообщений
+    private void sendMetricsSnapshot() {
+        MetricsRegistry metrics = getMetrics();
+        if (metrics == null) {
+            return;
+        }
+        Intent intent = new Intent(getString(R.string.filtersStreamingSvcMetrics));
+        intent.putExtra(getString(R.string.extrasMetricsSnapshot), new MetricsSnapshot(metrics, System.currentTimeMillis()));
+        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+    }
+
+    // метрики в текстовом формате Prometheus для сбора с компьютера:
+    // adb shell dumpsys activity service com.andreydymko.nomic/.StreamingService
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        MetricsRegistry metrics = getMetrics();
+        if (metrics == null) {
+            writer.println("# no streaming session");
+            return;
+        }
+        try {
+            metrics.writeText(writer);
+        } catch (IOException e) {
+            writer.println("# " + e);
+        }
+    }
+
     // позволяет отправить привязываемой активности указатель на этот сервис
     public class LocalBinder extends Binder {
         StreamingService getService() {
             return StreamingService.this;
         }
+
+        // метрики сеанса для тех, кто привязан к сервису, либо null
+        public MetricsRegistry getMetrics() {
+            return StreamingService.this.getMetrics();
+        }
     }
 
     // класс перечисления состояний сервиса
@@ -3,28 +3,61 @@ package com.andreydymko.nomic;
 import androidx.annotation.IntDef;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.lang.annotation.Retention;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.channels.DatagramChannel;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.List;
 
 import static java.lang.annotation.RetentionPolicy.SOURCE;
 
+// принимает слушателей: каждому подключившемуся выделяется свой UDP-порт и кодек,
+// после рукопожатия сервер продолжает ждать следующих клиентов
 public class TCPServerMicThread extends Thread {
     @Retention(SOURCE)
     @IntDef({FAILED_PLACE.OPEN_SOCKET,
             FAILED_PLACE.WAIT_FOR_CONNECTION,
-            FAILED_PLACE.SEND_SAMPLE_RATE_SETTINGS})
+            FAILED_PLACE.SEND_SAMPLE_RATE_SETTINGS,
+            FAILED_PLACE.ENCRYPTION_REQUIRED})
     public @interface failedPlace {}
 
+    @Retention(SOURCE)
+    @IntDef({ENCRYPTION.OFF,
+            ENCRYPTION.PREFERRED,
+            ENCRYPTION.REQUIRED})
+    public @interface encryption {}
+
+    // сколько ждать ответа клиента с выбранным кодеком. Клиенты, которые не умеют
+    // выбирать кодек, закрывают соединение либо молчат - тогда используется PCM.
+    // Новый клиент отвечает сразу, как прочитал предложение (один обмен по Wi-Fi), а молчащий
+    // старый ждёт всё это время, прежде чем пойдёт звук, - поэтому таймаут короткий
+    private final static int CODEC_ANSWER_TIMEOUT_MS = 300;
+    // ответ клиента - короткая строка, всё длиннее считаем мусором. В нём может быть
+    // открытый ключ клиента (SessionKeyAgreement) - около 200 символов - и токен сеанса
+    // с подтверждением ключа - ещё около сотни
+    private final static int MAX_ANSWER_LENGTH = 512;
+    // слово, которым договариваются о пакетах чётности
+    public final static String FEC_TOKEN = "fec";
+    public final static String FORMAT_TOKEN = "format";
+    // слово, которым договариваются о подавлении тишины и пакетах комфортного шума
+    public final static String COMFORT_NOISE_TOKEN = "cn";
+    // слово, которым договариваются о шифровании потока (PacketCipher)
+    public final static String CRYPT_TOKEN = "crypt";
+    // слова, которыми сервер выдаёт токен сеанса, а вернувшийся клиент просит продолжить свой поток
+    public final static String SESSION_TOKEN = "session";
+    public final static String RESUME_TOKEN = "resume";
+
     // через какой порт должны общаться клиент и сервер
     private int localTcpPort;
     // на каком локальном IP должен открываться сокет
     private String localIp;
-    // какой номер порта отправить клиенту
-    private int localUdpPort;
     // настройки "записывателя" звука, которые должны быть переданы клиенту
     private AudioRecorderSettings settings;
 
@@ -33,11 +66,32 @@ public class TCPServerMicThread extends Thread {
     // сокет открывающийся после подключения клиента, позволяет посылать сообщения
     private Socket socket;
     private TCPServerMicDelegate serverMicDelegate;
+    // кодек, о котором договорились с текущим клиентом
+    private @AudioPacket.payloadType int negotiatedPayloadType = AudioPacket.PAYLOAD_TYPE.PCM_16_LE;
+    // попросил ли текущий клиент оставить соединение открытым под управляющий протокол
+    private boolean controlRequested;
+    // согласился ли текущий клиент принимать пакеты чётности (FecEncoder)
+    private boolean fecAccepted;
+    // умеет ли текущий клиент заполнять паузы по пакетам комфортного шума (AudioPacket.PAYLOAD_TYPE.CN)
+    private boolean comfortNoiseAccepted;
+    // одноразовая пара ключей для текущего клиента и ключ шифрования, о котором с ним договорились
+    // (null - поток идёт открытым)
+    private SessionKeyAgreement keyAgreement;
+    private byte[] sessionKey;
+    // сеансы, которые можно продолжить (null - не продолжаются), токен, выданный текущему клиенту,
+    // токен сеанса, который он просит продолжить, и подтверждение ключа этого сеанса
+    private SessionTable sessions;
+    private String sessionToken;
+    private String resumeToken;
+    private String resumeProof;
+    // multicast-группа, на которую идёт общий поток; null - каждому клиенту свой unicast-поток
+    private InetAddress multicastGroup;
+    private int multicastPort;
+    private int multicastTtl;
 
-    TCPServerMicThread(int localTcpPort, String localIp, int localUdpPort, AudioRecorderSettings settings) {
+    TCPServerMicThread(int localTcpPort, String localIp, AudioRecorderSettings settings) {
         this.localTcpPort = localTcpPort;
         this.localIp = localIp;
-        this.localUdpPort = localUdpPort;
         this.settings = settings;
     }
 
@@ -45,27 +99,130 @@ public class TCPServerMicThread extends Thread {
         this.serverMicDelegate = delegate;
     }
 
+    // включает возобновление сеансов: клиенты получают токены, вернувшиеся продолжают свой поток
+    public void setSessionTable(SessionTable sessions) {
+        this.sessions = sessions;
+    }
+
+    // включает режим multicast: клиентам сообщается группа, порт и TTL общего потока
+    public void setMulticast(InetAddress group, int port, int ttl) {
+        this.multicastGroup = group;
+        this.multicastPort = port;
+        this.multicastTtl = ttl;
+    }
+
     public void run() {
         // инициализируем процесс рукопожатия
         if (!Thread.interrupted() && openSocket()) {
-            if (waitForConnection()) {
-                if (!Thread.interrupted() && sendPortSettings(localUdpPort, settings)) {
-                    if (serverMicDelegate != null) {
-                        // если рукопожатие удачно - отправляем IP подключившегося клиента
-                        // в реализацию интерфейса
-                        serverMicDelegate.onHandshakeDone(socket.getRemoteSocketAddress().toString());
-                    }
-                }
+            // принимаем клиентов по одному, пока поток не попросили остановиться
+            while (!Thread.interrupted() && waitForConnection()) {
+                handshake();
+                closeClientSocket();
             }
         }
 
         // закрываем сокеты
         try {
             serverSocket.close();
+        } catch (NullPointerException | IOException ignored) {
+            // игнорируем ошибку
+        }
+        closeClientSocket();
+    }
+
+    // выделяет клиенту UDP-канал и договаривается с ним о кодеке
+    private void handshake() {
+        if (multicastGroup != null) {
+            if (settings.getEncryption() == ENCRYPTION.REQUIRED) {
+                // общий поток не шифруется, а открытый поток запрещён настройками -
+                // клиент не узнает даже адрес группы
+                handshakeFailed(new GeneralSecurityException("Multicast stream cannot be encrypted, client "
+                        + socket.getInetAddress().getHostAddress() + " refused"), FAILED_PLACE.ENCRYPTION_REQUIRED);
+                return;
+            }
+            // в режиме multicast клиент только узнаёт, на какую группу подписаться
+            if (!Thread.interrupted() && sendPortSettings(multicastPort, settings) && serverMicDelegate != null) {
+                serverMicDelegate.onHandshakeDone(null, socket.getInetAddress().getHostAddress(),
+                        negotiatedPayloadType, fecAccepted, comfortNoiseAccepted, null, null, takeControlSocket());
+            }
+            return;
+        }
+        DatagramChannel channel;
+        try {
+            // просим у системы свободный UDP-порт для отправки звука этому клиенту
+            channel = DatagramChannel.open();
+            channel.socket().bind(null);
+        } catch (IOException e) {
+            handshakeFailed(e, FAILED_PLACE.OPEN_SOCKET);
+            e.printStackTrace();
+            return;
+        }
+        int udpPort = channel.socket().getLocalPort();
+        if (!Thread.interrupted() && sendPortSettings(udpPort, settings)) {
+            try {
+                // клиент слушает тот же номер порта, что мы ему отправили
+                channel.connect(new InetSocketAddress(socket.getInetAddress(), udpPort));
+                if (sessionKey == null && settings.getEncryption() == ENCRYPTION.REQUIRED) {
+                    // открытый поток запрещён настройками, а клиент не прислал ключ - ни новый поток,
+                    // ни продолжение прежнего он не получит
+                    handshakeFailed(new GeneralSecurityException("Client " + socket.getInetAddress().getHostAddress()
+                            + " did not agree on stream encryption"), FAILED_PLACE.ENCRYPTION_REQUIRED);
+                } else if (resumeSession(channel)) {
+                    return;
+                } else if (serverMicDelegate != null) {
+                    // если рукопожатие удачно - отправляем канал и IP подключившегося клиента
+                    // в реализацию интерфейса
+                    serverMicDelegate.onHandshakeDone(channel, socket.getInetAddress().getHostAddress(),
+                            negotiatedPayloadType, fecAccepted, comfortNoiseAccepted, sessionKey, sessionToken,
+                            takeControlSocket());
+                    return;
+                }
+            } catch (IOException e) {
+                handshakeFailed(e, FAILED_PLACE.SEND_SAMPLE_RATE_SETTINGS);
+                e.printStackTrace();
+            }
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // игнорируем ошибку
+        }
+    }
+
+    // клиент вернулся с токеном своего сеанса: его поток продолжается по новому каналу с прежним
+    // кодеком, номерами пакетов и ключом шифрования, а сеанс получает только что выданный токен.
+    // Зашифрованный сеанс продолжается, только если клиент подтвердил его ключ (SessionTable).
+    // Если сеанса уже нет или подтверждение неверно, клиент подключается как новый
+    private boolean resumeSession(DatagramChannel channel) {
+        if (resumeToken == null || sessions == null || sessionToken == null || serverMicDelegate == null) {
+            return false;
+        }
+        SubscriberThread subscriber = sessions.resume(resumeToken, sessionToken, resumeProof,
+                new DatagramTransport(channel));
+        if (subscriber == null) {
+            return false;
+        }
+        serverMicDelegate.onHandshakeResumed(subscriber, takeControlSocket());
+        return true;
+    }
+
+    // отдаёт сокет клиента управляющему соединению, если клиент его попросил
+    private Socket takeControlSocket() {
+        if (!controlRequested) {
+            return null;
+        }
+        Socket controlSocket = socket;
+        socket = null;
+        return controlSocket;
+    }
+
+    private void closeClientSocket() {
+        try {
             socket.close();
         } catch (NullPointerException | IOException ignored) {
             // игнорируем ошибку
         }
+        socket = null;
     }
 
     private boolean openSocket() {
@@ -104,13 +261,71 @@ public class TCPServerMicThread extends Thread {
     }
 
     private boolean sendPortSettings(int port, AudioRecorderSettings settings) {
-        try (PrintWriter printWriter = new PrintWriter(socket.getOutputStream())) {
+        // потоки не закрываем: сокет может перейти к управляющему соединению
+        try {
+            PrintWriter printWriter = new PrintWriter(socket.getOutputStream());
             // отправляем строку с UDP-портом клиенту
             printWriter.println(port);
             // отправляем строку с настройкой записывателя
-            printWriter.println(settings.getSampleRate());
-            // закрываем поток записи
-            printWriter.close();
+            printWriter.println(settings.getWireSampleRate());
+            // отправляем строку с форматами полезной нагрузки, которые мы можем передавать,
+            // через запятую в порядке предпочтения. Каждый UDP-пакет начинается
+            // с заголовка AudioPacket.HEADER_SIZE байт, в котором указан формат
+            List<Integer> offered = AudioEncoders.getOfferedPayloadTypes(
+                    settings.getCodec(), settings.getWireSampleRate(), settings.getChannelCount(),
+                    settings.getSampleEncoding());
+            if (multicastGroup != null) {
+                // общий поток сжимается одним кодеком для всех - предлагаем только его
+                offered = Collections.singletonList(offered.get(0));
+            }
+            StringBuilder offer = new StringBuilder();
+            for (int payloadType : offered) {
+                if (offer.length() > 0) {
+                    offer.append(',');
+                }
+                offer.append(payloadType);
+            }
+            printWriter.println(offer);
+            // отправляем строку со способом доставки: "unicast" либо "multicast <группа> <порт> <TTL>".
+            // Клиенты, которые её не ждут, просто не читают лишнюю строку
+            printWriter.println(multicastGroup == null
+                    ? "unicast"
+                    : MulticastTransport.describe(multicastGroup, multicastPort, multicastTtl));
+            // отправляем строку с версией двоичного управляющего протокола, который мы поддерживаем
+            printWriter.println(ControlProtocol.UPGRADE_TOKEN + " " + ControlProtocol.VERSION);
+            // отправляем строку с блоком прямой коррекции ошибок: "fec <пакетов звука> <пакетов чётности>"
+            // либо "fec off". Пакеты чётности получит только клиент, ответивший словом "fec"
+            printWriter.println(settings.isFecEnabled()
+                    ? FEC_TOKEN + " " + settings.getFecDataPackets() + " " + settings.getFecParityPackets()
+                    : FEC_TOKEN + " off");
+            // отправляем строку с форматом захвата: "format <s16le|s24le|f32le> <каналов>".
+            // PCM-потоки (AudioPacket.PAYLOAD_TYPE.PCM_*) идут в своём формате независимо от неё
+            printWriter.println(FORMAT_TOKEN + " " + SampleFormat.getName(settings.getSampleEncoding())
+                    + " " + settings.getChannelCount());
+            // отправляем строку с подавлением тишины: "cn <hangover, мс>" либо "cn off". Тишину
+            // не получит только клиент, ответивший словом "cn": вместо неё ему придут пакеты
+            // комфортного шума, остальным звук идёт без пауз
+            printWriter.println(settings.isSilenceSuppressionEnabled()
+                    ? COMFORT_NOISE_TOKEN + " " + settings.getSilenceHangoverMs()
+                    : COMFORT_NOISE_TOKEN + " off");
+            // отправляем строку с шифрованием: "crypt chacha20-poly1305 <открытый ключ>" либо "crypt off".
+            // Поток шифруется, только если клиент ответил "crypt <свой открытый ключ>".
+            // Общий поток multicast один на всех и не шифруется
+            keyAgreement = newKeyAgreement();
+            printWriter.println(keyAgreement != null
+                    ? CRYPT_TOKEN + " " + SessionKeyAgreement.CIPHER_NAME + " " + keyAgreement.getPublicKey()
+                    : CRYPT_TOKEN + " off");
+            // отправляем строку с токеном сеанса: "session <токен>" либо "session off". Потеряв связь,
+            // клиент может ответить в следующем рукопожатии "resume <прежний токен> <подтверждение>"
+            // и продолжить тот же поток (тот же SSRC, номера пакетов подряд) в этом же обмене строками;
+            // новый токен действует с тех пор вместо прежнего. Подтверждение - resumeProof от прежнего
+            // и нового токена на ключе прежнего потока (SessionKeyAgreement), для открытого потока - "-".
+            // Общий поток multicast клиенту продолжать незачем
+            sessionToken = sessions != null && multicastGroup == null ? sessions.newToken() : null;
+            printWriter.println(SESSION_TOKEN + " " + (sessionToken != null ? sessionToken : "off"));
+            printWriter.flush();
+            // ждём строку с форматом, который выбрал клиент
+            negotiatedPayloadType = readChosenPayloadType(socket.getInputStream(), offered);
             return true;
         } catch (IOException e) {
             handshakeFailed(e, FAILED_PLACE.SEND_SAMPLE_RATE_SETTINGS);
@@ -119,6 +334,90 @@ public class TCPServerMicThread extends Thread {
         }
     }
 
+    // одноразовая пара ключей, если шифрование включено и поток не общий, иначе null
+    private SessionKeyAgreement newKeyAgreement() {
+        if (multicastGroup != null || settings.getEncryption() == ENCRYPTION.OFF) {
+            return null;
+        }
+        try {
+            return new SessionKeyAgreement();
+        } catch (GeneralSecurityException e) {
+            // без P-256 остаётся только открытый поток
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // ответ клиента: "<кодек>", за которым могут идти "control <версия>", если клиент хочет
+    // оставить соединение открытым под двоичный управляющий протокол, "fec", если он
+    // умеет восстанавливать пакеты по чётности, "cn", если он понимает комфортный шум,
+    // "crypt <открытый ключ>", если он согласен на шифрование, и "resume <токен> <подтверждение>",
+    // если он хочет продолжить свой прежний поток
+    private @AudioPacket.payloadType int readChosenPayloadType(InputStream input, List<Integer> offered) throws IOException {
+        socket.setSoTimeout(CODEC_ANSWER_TIMEOUT_MS);
+        controlRequested = false;
+        fecAccepted = false;
+        comfortNoiseAccepted = false;
+        sessionKey = null;
+        resumeToken = null;
+        resumeProof = null;
+        try {
+            String answer = readLine(input);
+            if (answer != null) {
+                String[] tokens = answer.trim().split("\\s+");
+                for (int i = 1; i < tokens.length; i++) {
+                    if (ControlProtocol.UPGRADE_TOKEN.equals(tokens[i]) && i + 1 < tokens.length) {
+                        controlRequested = true;
+                        i++;
+                    } else if (FEC_TOKEN.equals(tokens[i])) {
+                        fecAccepted = settings.isFecEnabled();
+                    } else if (COMFORT_NOISE_TOKEN.equals(tokens[i])) {
+                        comfortNoiseAccepted = settings.isSilenceSuppressionEnabled();
+                    } else if (CRYPT_TOKEN.equals(tokens[i]) && i + 1 < tokens.length) {
+                        sessionKey = deriveSessionKey(tokens[++i]);
+                    } else if (RESUME_TOKEN.equals(tokens[i]) && i + 2 < tokens.length) {
+                        resumeToken = tokens[++i];
+                        resumeProof = tokens[++i];
+                    }
+                }
+                int chosen = Integer.parseInt(tokens[0]);
+                if (offered.contains(chosen)) {
+                    return chosen;
+                }
+            }
+        } catch (SocketTimeoutException | NumberFormatException ignored) {
+            // клиент не выбрал кодек - остаёмся на PCM
+        }
+        return AudioPacket.PAYLOAD_TYPE.PCM_16_LE;
+    }
+
+    // ключ сеанса из открытого ключа клиента; null, если мы ключ не предлагали или он негодный
+    private byte[] deriveSessionKey(String clientPublicKey) {
+        if (keyAgreement == null) {
+            return null;
+        }
+        try {
+            return keyAgreement.deriveKey(clientPublicKey, true);
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // читает строку побайтно: всё, что клиент пришлёт после неё, относится
+    // к управляющему протоколу и не должно осесть в буфере
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = input.read()) != -1 && b != '\n') {
+            if (line.length() >= MAX_ANSWER_LENGTH) {
+                return null;
+            }
+            line.append((char) b);
+        }
+        return b == -1 && line.length() == 0 ? null : line.toString();
+    }
+
     private void handshakeFailed(Exception ex, @failedPlace int failedPlace) {
         if (serverMicDelegate != null) {
             serverMicDelegate.onHandshakeFailed(ex, failedPlace);
@@ -126,7 +425,18 @@ public class TCPServerMicThread extends Thread {
     }
 
     public interface TCPServerMicDelegate {
-        void onHandshakeDone(String remoteINetAddress);
+        // channel уже направлен в сторону клиента, владельцем канала становится реализация.
+        // В режиме multicast channel == null: клиент слушает общую группу
+        // fec - клиент согласился на пакеты чётности, comfortNoise - на подавление тишины,
+        // sessionKey - ключ шифрования потока (PacketCipher), если о нём договорились, иначе null,
+        // sessionToken - токен, под которым сеанс можно будет продолжить (null - нельзя),
+        // controlSocket - соединение для управляющего протокола, если клиент его попросил, иначе null
+        void onHandshakeDone(DatagramChannel channel, String remoteINetAddress, @AudioPacket.payloadType int payloadType,
+                             boolean fec, boolean comfortNoise, byte[] sessionKey, String sessionToken,
+                             Socket controlSocket);
+
+        // клиент вернулся, и его поток subscriber уже продолжается по новому каналу (SessionTable)
+        void onHandshakeResumed(SubscriberThread subscriber, Socket controlSocket);
 
         void onHandshakeFailed(Exception ex, @failedPlace int failedPlace);
     }
@@ -135,5 +445,17 @@ public class TCPServerMicThread extends Thread {
         public final static int OPEN_SOCKET = 0;
         public final static int WAIT_FOR_CONNECTION = 1;
         public final static int SEND_SAMPLE_RATE_SETTINGS = 2;
+        // клиент не договорился о шифровании, а настройки требуют его
+        // (в режиме multicast - всегда: общий поток не шифруется)
+        public final static int ENCRYPTION_REQUIRED = 3;
+    }
+
+    public static class ENCRYPTION {
+        // поток всегда открытый
+        public final static int OFF = 0;
+        // шифруется, если клиент умеет
+        public final static int PREFERRED = 1;
+        // клиентов, которые не умеют, не принимаем; multicast с ним не работает
+        public final static int REQUIRED = 2;
     }
 }
@@ -0,0 +1,74 @@
+#include "soundVolumeIncreaser.h"
+
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <vector>
+
+// Checks that the vectorized gain kernel matches the scalar reference bit for bit,
+// saturates instead of wrapping, and prints the time per sample of both paths.
+
+static int failures = 0;
+
+static void expect(bool condition, const char *message) {
+    if (!condition) {
+        std::printf("FAILED: %s\n", message);
+        failures++;
+    }
+}
+
+static std::vector<int16_t> noise(size_t count, unsigned seed) {
+    std::vector<int16_t> samples(count);
+    std::srand(seed);
+    for (auto &sample : samples) {
+        sample = static_cast<int16_t>((std::rand() & 0xFFFF) - 32768);
+    }
+    return samples;
+}
+
+static double nanosPerSample(void (*kernel)(int16_t *, size_t, float), size_t count) {
+    std::vector<int16_t> samples = noise(count, 7);
+    const int iterations = 2000;
+    auto start = std::chrono::steady_clock::now();
+    for (int i = 0; i < iterations; i++) {
+        kernel(samples.data(), samples.size(), 1.0f);
+    }
+    auto elapsed = std::chrono::duration<double, std::nano>(std::chrono::steady_clock::now() - start).count();
+    return elapsed / iterations / static_cast<double>(count);
+}
+
+int main() {
+#if NOMIC_GAIN_NEON
+    std::printf("kernel: NEON\n");
+#elif NOMIC_GAIN_SSE2
+    std::printf("kernel: SSE2\n");
+#else
+    std::printf("kernel: scalar\n");
+#endif
+    const float gains[] = {0.0f, 0.5f, 1.0f, 3.7f, 10.0f, 20.0f};
+    // длины, не кратные ширине вектора, проверяют обработку хвоста
+    const size_t lengths[] = {0, 1, 7, 8, 9, 480, 4099};
+    for (float gain : gains) {
+        for (size_t length : lengths) {
+            std::vector<int16_t> expected = noise(length, static_cast<unsigned>(length));
+            std::vector<int16_t> actual = expected;
+            nomic::gainScalar(expected.data(), expected.size(), gain);
+            nomic::gain(actual.data(), actual.size(), gain);
+            expect(expected == actual, "vector kernel differs from scalar reference");
+        }
+    }
+
+    int16_t loud[] = {32767, -32768, 20000, -20000, 1000, -1000, 1, -1};
+    nomic::gain(loud, 8, 10.0f);
+    const int16_t clipped[] = {32767, -32768, 32767, -32768, 10000, -10000, 10, -10};
+    for (int i = 0; i < 8; i++) {
+        expect(loud[i] == clipped[i], "loud input must saturate");
+    }
+
+    std::printf("scalar: %.3f ns/sample\n", nanosPerSample(nomic::gainScalar, 4096));
+    std::printf("dispatch: %.3f ns/sample\n", nanosPerSample(nomic::gain, 4096));
+    if (failures == 0) {
+        std::printf("OK\n");
+    }
+    return failures == 0 ? 0 : 1;
+}
@@ -0,0 +1,118 @@
+#include "noiseSuppressor.h"
+
+#include <chrono>
+#include <cmath>
+#include <cstdio>
+#include <random>
+#include <vector>
+
+// Checks the native noise suppressor: without attenuation it only delays the sound by one window,
+// it takes white noise down by close to its limit while keeping a tone, and it runs well within
+// real time at 48 kHz. Run it on the target device (or under qemu) to get the low-end ARM numbers.
+
+static int failures = 0;
+
+static void expect(bool condition, const char *message) {
+    if (!condition) {
+        std::printf("FAILED: %s\n", message);
+        failures++;
+    }
+}
+
+// как NoiseSuppressor.getWindowSize
+static size_t windowSize(int sampleRate) {
+    size_t size = 16;
+    while (size * 2 <= static_cast<size_t>(sampleRate * 12 / 1000)) {
+        size *= 2;
+    }
+    return size;
+}
+
+static double rmsDb(const std::vector<float> &samples, size_t from, size_t to) {
+    double energy = 0;
+    for (size_t i = from; i < to; i++) {
+        energy += static_cast<double>(samples[i]) * samples[i];
+    }
+    return 10 * std::log10(energy / static_cast<double>(to - from));
+}
+
+static void testReconstruction() {
+    const int sampleRate = 48000;
+    const size_t window = windowSize(sampleRate);
+    nomic::NoiseSuppressor suppressor(sampleRate, 2, window, 0.0f);
+    std::mt19937 random(1);
+    std::normal_distribution<float> gauss(0.0f, 0.1f);
+    std::vector<float> input(2 * sampleRate / 2);
+    for (auto &sample : input) {
+        sample = gauss(random);
+    }
+    std::vector<float> output = input;
+    // кадры по 10 мс, не кратные шагу окна
+    for (size_t at = 0; at < output.size(); at += 2 * 480) {
+        suppressor.process(output.data() + at, 480);
+    }
+    double error = 0;
+    for (size_t i = 2 * window; i < output.size(); i++) {
+        error = std::max(error, static_cast<double>(std::fabs(output[i] - input[i - 2 * window])));
+    }
+    expect(error < 1e-5, "0 dB suppressor must only delay the input by one window");
+}
+
+static void testNoiseIsSuppressed() {
+    const int sampleRate = 16000;
+    nomic::NoiseSuppressor suppressor(sampleRate, 1, windowSize(sampleRate), 20.0f);
+    std::mt19937 random(2);
+    std::normal_distribution<float> gauss(0.0f, 0.01f);
+    const size_t seconds = 4;
+    std::vector<float> noise(seconds * sampleRate);
+    std::vector<float> noisy(seconds * sampleRate);
+    for (size_t n = 0; n < noise.size(); n++) {
+        noise[n] = gauss(random);
+        // последняя секунда - тон 500 Гц на 26 дБ громче шума
+        noisy[n] = noise[n] + (n >= 3 * sampleRate ? 0.2f * static_cast<float>(std::sin(2 * 3.14159265 * 500 * n / sampleRate)) : 0);
+    }
+    std::vector<float> output = noisy;
+    suppressor.process(output.data(), output.size());
+    double reduction = rmsDb(noisy, sampleRate, 2 * sampleRate) - rmsDb(output, sampleRate, 2 * sampleRate);
+    std::printf("white noise: %.1f dB quieter\n", reduction);
+    expect(reduction > 15, "white noise must be suppressed by at least 15 dB");
+    double tone = rmsDb(output, 3 * sampleRate + sampleRate / 2, 4 * sampleRate) - rmsDb(noisy, 3 * sampleRate + sampleRate / 2, 4 * sampleRate);
+    std::printf("tone: %.2f dB\n", tone);
+    expect(std::fabs(tone) < 1, "a tone well above the noise must pass");
+}
+
+// время обработки одного кадра 10 мс при 48 кГц и его доля от реального времени
+static void testRealTime() {
+    const int sampleRate = 48000;
+    const size_t frames = 480;
+    for (int channels = 1; channels <= 2; channels++) {
+        nomic::NoiseSuppressor suppressor(sampleRate, channels, windowSize(sampleRate), 20.0f);
+        std::vector<float> frame(frames * channels);
+        std::mt19937 random(3);
+        std::normal_distribution<float> gauss(0.0f, 0.05f);
+        const int iterations = 2000;
+        double elapsed = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (auto &sample : frame) {
+                sample = gauss(random);
+            }
+            auto start = std::chrono::steady_clock::now();
+            suppressor.process(frame.data(), frames);
+            elapsed += std::chrono::duration<double, std::micro>(std::chrono::steady_clock::now() - start).count();
+        }
+        double perFrame = elapsed / iterations;
+        std::printf("48 kHz, %d ch: %.1f us per 10 ms frame (%.2f%% of real time)\n", channels, perFrame,
+                    perFrame / 100.0);
+        expect(perFrame < 10000, "suppression must run faster than real time");
+    }
+}
+
+int main() {
+    testReconstruction();
+    testNoiseIsSuppressed();
+    testRealTime();
+    if (failures == 0) {
+        std::printf("OK\n");
+    }
+    return failures == 0 ? 0 : 1;
+}
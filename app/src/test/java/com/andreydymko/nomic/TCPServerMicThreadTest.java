@@ -0,0 +1,121 @@
+package com.andreydymko.nomic;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TCPServerMicThreadTest {
+    private static final int WAIT_MS = 5000;
+
+    // общий поток не шифруется: при обязательном шифровании клиент multicast не принимается
+    // и не узнаёт ни группу, ни порт
+    @Test(timeout = 20000)
+    public void multicast_withRequiredEncryption_refusesClient() throws Exception {
+        AudioRecorderSettings settings = new AudioRecorderSettings(0, 48000, 16, 2);
+        settings.setEncryption(TCPServerMicThread.ENCRYPTION.REQUIRED);
+        int port = freePort();
+        TCPServerMicThread server = new TCPServerMicThread(port, "127.0.0.1", settings);
+        server.setMulticast(InetAddress.getByName("239.255.42.99"), MulticastTransport.DEFAULT_PORT, 1);
+        RecordingDelegate delegate = new RecordingDelegate();
+        server.setOnHandshakeDoneListener(delegate);
+        server.start();
+        try (Socket client = connect(port)) {
+            Integer failedPlace = delegate.failures.poll(WAIT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull("handshake was not refused", failedPlace);
+            assertEquals(TCPServerMicThread.FAILED_PLACE.ENCRYPTION_REQUIRED, (int) failedPlace);
+            // сервер закрыл соединение, ничего не отправив
+            client.setSoTimeout(WAIT_MS);
+            InputStream input = client.getInputStream();
+            assertEquals(-1, input.read());
+            assertTrue("client was accepted", delegate.accepted.isEmpty());
+        } finally {
+            server.interrupt();
+            server.join(WAIT_MS);
+        }
+        assertNull(delegate.failures.poll());
+    }
+
+    // старый клиент не отвечает на предложение кодеков, но и не закрывает соединение:
+    // звук ему должен пойти почти сразу, а не через секунды ожидания ответа
+    @Test(timeout = 20000)
+    public void silentLegacyClient_isAcceptedWithoutLongWait() throws Exception {
+        AudioRecorderSettings settings = new AudioRecorderSettings(0, 48000, 16, 2);
+        settings.setEncryption(TCPServerMicThread.ENCRYPTION.OFF);
+        int port = freePort();
+        TCPServerMicThread server = new TCPServerMicThread(port, "127.0.0.1", settings);
+        RecordingDelegate delegate = new RecordingDelegate();
+        server.setOnHandshakeDoneListener(delegate);
+        server.start();
+        try (Socket client = connect(port)) {
+            long connected = System.nanoTime();
+            String accepted = delegate.accepted.poll(WAIT_MS, TimeUnit.MILLISECONDS);
+            long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connected);
+            assertEquals("127.0.0.1", accepted);
+            assertTrue("legacy client waited " + waitedMs + " ms", waitedMs < 1000);
+        } finally {
+            server.interrupt();
+            server.join(WAIT_MS);
+        }
+        assertNull(delegate.failures.poll());
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"))) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // сервер поднимает сокет в своём потоке - пробуем, пока он не начнёт принимать
+    private static Socket connect(int port) throws Exception {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (true) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress("127.0.0.1", port), WAIT_MS);
+                return socket;
+            } catch (IOException e) {
+                socket.close();
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static class RecordingDelegate implements TCPServerMicThread.TCPServerMicDelegate {
+        final BlockingQueue<Integer> failures = new ArrayBlockingQueue<>(16);
+        final BlockingQueue<String> accepted = new ArrayBlockingQueue<>(16);
+
+        @Override
+        public void onHandshakeDone(DatagramChannel channel, String remoteINetAddress, int payloadType,
+                                    boolean fec, boolean comfortNoise, byte[] sessionKey, String sessionToken,
+                                    Socket controlSocket) {
+            accepted.add(remoteINetAddress);
+        }
+
+        @Override
+        public void onHandshakeResumed(SubscriberThread subscriber, Socket controlSocket) {
+            accepted.add(subscriber.getRemoteINetAddress());
+        }
+
+        @Override
+        public void onHandshakeFailed(Exception ex, int failedPlace) {
+            failures.add(failedPlace);
+        }
+    }
+}
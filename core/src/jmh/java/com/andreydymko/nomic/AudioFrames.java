@@ -0,0 +1,46 @@
+package com.andreydymko.nomic;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+// один кадр 16-битного моно PCM для каждой частоты приложения (sample_rate_values)
+// и каждой длительности кадра FramePacketizer - в массиве и в direct-буфере, как его заполняет AudioRecord
+@State(Scope.Thread)
+public class AudioFrames {
+
+    @Param({"8000", "16000", "44100", "48000", "96000", "192000"})
+    public int sampleRate;
+
+    @Param({"2500", "5000", "10000", "20000"})
+    public int frameDurationUs;
+
+    public int frameBytes;
+    public int samples;
+    public byte[] array;
+    public ByteBuffer direct;
+    // место под закодированный кадр или пакет
+    public ByteBuffer out;
+
+    @Setup
+    public void setUp() {
+        frameBytes = FramePacketizer.getFrameBytes(sampleRate, frameDurationUs, 2);
+        samples = frameBytes / 2;
+        array = new byte[frameBytes];
+        direct = ByteBuffer.allocateDirect(frameBytes).order(ByteOrder.LITTLE_ENDIAN);
+        out = ByteBuffer.allocateDirect(AudioPacket.HEADER_SIZE + 2 * frameBytes);
+        // речь средней громкости: шум с амплитудой около -20 dBFS, одинаковый от запуска к запуску
+        Random random = new Random(42);
+        for (int i = 0; i < samples; i++) {
+            short sample = (short) (random.nextGaussian() * 3276);
+            array[2 * i] = (byte) sample;
+            array[2 * i + 1] = (byte) (sample >> 8);
+            direct.putShort(2 * i, sample);
+        }
+    }
+}
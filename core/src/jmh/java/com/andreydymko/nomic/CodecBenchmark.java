@@ -0,0 +1,33 @@
+package com.andreydymko.nomic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// кодирование кадра в полезную нагрузку пакета кодеками, работающими на JVM.
+// Opus - нативный кодер без Java-варианта, его меряем на устройстве
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CodecBenchmark {
+
+    private final AudioEncoder pcm = new PcmEncoder();
+    private final AudioEncoder ulaw = new G711Encoder();
+
+    @Benchmark
+    public int pcm(AudioFrames frames, SampleCounter counter) {
+        counter.samples += frames.samples;
+        return pcm.encode(frames.direct, 0, frames.frameBytes, frames.out, AudioPacket.HEADER_SIZE);
+    }
+
+    @Benchmark
+    public int ulaw(AudioFrames frames, SampleCounter counter) {
+        counter.samples += frames.samples;
+        return ulaw.encode(frames.direct, 0, frames.frameBytes, frames.out, AudioPacket.HEADER_SIZE);
+    }
+}
@@ -0,0 +1,111 @@
+package com.andreydymko.nomic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// цена отправителя при раздаче одного потока N слушателям через loopback: unicast (очередь, поток
+// и датаграмма на слушателя) против одного multicast. результат - время от публикации кадра
+// до отправки всеми потоками, растёт со слушателями только там, где каждый стоит датаграммы
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FanOutBenchmark {
+
+    private static final int FRAME_BYTES = 960;
+    private static final int BATCH = 50;
+
+    @Param({"unicast", "multicast"})
+    public String mode;
+
+    @Param({"1", "4", "16", "32"})
+    public int listeners;
+
+    private final List<AutoCloseable> resources = new ArrayList<>();
+    private SubscriberRegistry registry;
+    private SubscriberThread[] subscribers;
+    private ByteBuffer frame;
+
+    @Setup
+    public void setUp() throws IOException {
+        registry = new SubscriberRegistry();
+        List<DatagramChannel> channels = "unicast".equals(mode) ? unicast() : multicast();
+        for (DatagramChannel channel : channels) {
+            PacketSender sender = new PacketSender(channel, new PcmEncoder(),
+                    new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 1, 0, 0),
+                    new CodecStatistics(), FRAME_BYTES, 2);
+            registry.add(new SubscriberThread("listener", sender, FRAME_BYTES, 2 * BATCH));
+        }
+        subscribers = registry.getSubscribers();
+        frame = ByteBuffer.allocateDirect(FRAME_BYTES);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        registry.clear();
+        for (AutoCloseable resource : resources) {
+            resource.close();
+        }
+        resources.clear();
+    }
+
+    // ждём, пока все очереди опустеют, чтобы ни один кадр не был выброшен
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long publish() {
+        for (int i = 0; i < BATCH; i++) {
+            registry.publish(frame, FRAME_BYTES);
+        }
+        long sent = 0;
+        for (SubscriberThread subscriber : subscribers) {
+            while (subscriber.getQueuedFrames() > 0) {
+                Thread.yield();
+            }
+            sent += subscriber.getSentPackets();
+        }
+        return sent;
+    }
+
+    private List<DatagramChannel> unicast() throws IOException {
+        List<DatagramChannel> channels = new ArrayList<>();
+        for (int i = 0; i < listeners; i++) {
+            DatagramChannel receiver = DatagramChannel.open();
+            receiver.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            resources.add(receiver);
+            DatagramChannel channel = DatagramChannel.open();
+            channel.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.socket().getLocalPort()));
+            channels.add(channel);
+        }
+        return channels;
+    }
+
+    private List<DatagramChannel> multicast() throws IOException {
+        InetAddress group = InetAddress.getByName(MulticastTransport.DEFAULT_GROUP);
+        NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        int port = MulticastTransportTest.freePort();
+        for (int i = 0; i < listeners; i++) {
+            MulticastReceiver receiver = new MulticastReceiver(group, port, loopback, 48000, 1000);
+            resources.add(receiver::close);
+        }
+        List<DatagramChannel> channels = new ArrayList<>();
+        channels.add(MulticastTransport.openSender(group, port, MulticastTransport.DEFAULT_TTL, loopback));
+        return channels;
+    }
+}
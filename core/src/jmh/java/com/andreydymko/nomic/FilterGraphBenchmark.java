@@ -0,0 +1,54 @@
+package com.andreydymko.nomic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// цепочка фильтров на одном кадре: FilterGraph за один проход против FilterChainReference,
+// где каждая ступень - отдельный проход по промежуточному массиву. выход одинаковый (FilterGraphTest),
+// разница - трафик памяти и накладные расходы цикла, растёт с числом ступеней.
+// профайлер gc не должен показывать аллокаций ни у одного варианта
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FilterGraphBenchmark {
+
+    // частоты всех ступеней ниже 4 кГц, чтобы цепочка годилась и для 8 кГц
+    @Param({"dc:10;highpass:80:0.707",
+            "dc:10;highpass:80:0.707;lowshelf:200:-4:0.707;peaking:3000:4:1;highshelf:3500:-2:0.707"})
+    public String chain;
+
+    private FilterGraph fused;
+    private FilterChainReference staged;
+
+    @Setup
+    public void setUp(AudioFrames frames) {
+        List<FilterStage> stages = FilterStage.parseChain(chain);
+        fused = new FilterGraph(frames.sampleRate, 1, SampleFormat.ENCODING.PCM_16, stages);
+        staged = new FilterChainReference(frames.sampleRate, 1, SampleFormat.ENCODING.PCM_16, stages);
+    }
+
+    // фильтры устойчивы, поэтому кадр можно обрабатывать на месте раз за разом
+    @Benchmark
+    public ByteBuffer fused(AudioFrames frames, SampleCounter counter) {
+        fused.process(frames.direct, frames.frameBytes);
+        counter.samples += frames.samples;
+        return frames.direct;
+    }
+
+    @Benchmark
+    public ByteBuffer stageByStage(AudioFrames frames, SampleCounter counter) {
+        staged.process(frames.direct, frames.frameBytes);
+        counter.samples += frames.samples;
+        return frames.direct;
+    }
+}
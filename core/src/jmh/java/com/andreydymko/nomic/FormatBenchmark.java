@@ -0,0 +1,65 @@
+package com.andreydymko.nomic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// цена форматов высокого разрешения: усиление кадра 10 мс в каждом SampleFormat для моно и стерео
+// и преобразование для старого 16-битного слушателя. нс/сэмпл - результат делить на счётчик samples
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FormatBenchmark {
+
+    @Param({"48000", "96000", "192000"})
+    public int sampleRate;
+
+    @Param({"1", "2"})
+    public int channels;
+
+    @Param({"0", "1", "2"})
+    public int encoding;
+
+    private int frameBytes;
+    private int samples;
+    private ByteBuffer frame;
+    private ByteBuffer converted;
+    // множитель 1 не меняет данные, поэтому кадр не уходит в насыщение от итерации к итерации
+    private float multiplier = 1.0f;
+
+    @Setup
+    public void setUp() {
+        int bytesPerSample = SampleFormat.getBytesPerSample(encoding);
+        frameBytes = FramePacketizer.getFrameBytes(sampleRate, 10_000, bytesPerSample * channels);
+        samples = frameBytes / bytesPerSample;
+        frame = ByteBuffer.allocateDirect(frameBytes);
+        converted = ByteBuffer.allocateDirect(samples * 2);
+        // тот же шум около -20 dBFS, что и в AudioFrames
+        Random random = new Random(42);
+        for (int i = 0; i < samples; i++) {
+            SampleConverter.putSample(frame, i * bytesPerSample, encoding, (float) (random.nextGaussian() * 0.1));
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer gain(SampleCounter counter) {
+        GainProcessor.apply(frame, 0, frameBytes, multiplier, encoding);
+        counter.samples += samples;
+        return frame;
+    }
+
+    @Benchmark
+    public int convertTo16(SampleCounter counter) {
+        counter.samples += samples;
+        return SampleConverter.convert(frame, frameBytes, encoding, converted, SampleFormat.ENCODING.PCM_16);
+    }
+}
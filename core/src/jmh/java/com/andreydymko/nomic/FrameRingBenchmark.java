@@ -0,0 +1,78 @@
+package com.andreydymko.nomic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// FrameRing между ступенями конвейера: roundTrip - цена перехода кадра через ступень в одном потоке,
+// группа spsc - производитель захвата против потребителя на другом ядре, там решают общие кеш-линии
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameRingBenchmark {
+
+    @State(Scope.Thread)
+    public static class SingleThread {
+        FrameRing ring;
+
+        @Setup
+        public void setUp(AudioFrames frames) {
+            ring = new FrameRing(16, frames.frameBytes);
+        }
+    }
+
+    @State(Scope.Group)
+    public static class Shared {
+        @Param({"960"})
+        public int frameBytes;
+
+        FrameRing ring;
+        ByteBuffer frame;
+
+        @Setup
+        public void setUp() {
+            ring = new FrameRing(16, frameBytes);
+            frame = ByteBuffer.allocateDirect(frameBytes);
+        }
+    }
+
+    @Benchmark
+    public int roundTrip(SingleThread state, AudioFrames frames, SampleCounter counter) {
+        FrameRing ring = state.ring;
+        ring.offer(frames.direct, frames.frameBytes, 1);
+        ring.peek();
+        int length = ring.peekLength();
+        ring.release();
+        counter.samples += frames.samples;
+        return length;
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public boolean producer(Shared state) {
+        // при заполненном кольце кадр выбрасывается, как при захвате
+        return state.ring.offer(state.frame, state.frameBytes, 1);
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public boolean consumer(Shared state) {
+        FrameRing ring = state.ring;
+        if (ring.peek() == null) {
+            return false;
+        }
+        ring.release();
+        return true;
+    }
+}
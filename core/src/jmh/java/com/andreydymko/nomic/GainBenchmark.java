@@ -0,0 +1,68 @@
+package com.andreydymko.nomic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// ступень усиления: прежние Java-реализации из MicThread (GainReference) против GainProcessor.
+// на десктопной JVM нативной библиотеки нет, GainProcessor работает скалярно;
+// профайлер gc показывает аллокацию на кадр у варианта с ByteBuffer.
+// AutomaticGainControl заменяет фиксированное усиление -
+// цена на сэмпл не должна зависеть от частоты и длины кадра
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GainBenchmark {
+
+    // множитель 1 не меняет данные, поэтому кадр не уходит в насыщение от итерации к итерации
+    private float multiplier = 1.0f;
+    private AutomaticGainControl agc;
+
+    @Setup
+    public void setUp(AudioFrames frames) {
+        agc = new AutomaticGainControl(frames.sampleRate, 1, SampleFormat.ENCODING.PCM_16);
+    }
+
+    @Benchmark
+    public byte[] increaseSoundVolumeOld(AudioFrames frames, SampleCounter counter) {
+        GainReference.increaseSoundVolumeOld(frames.array, multiplier);
+        counter.samples += frames.samples;
+        return frames.array;
+    }
+
+    @Benchmark
+    public byte[] increaseSoundVolumeOld1(AudioFrames frames, SampleCounter counter) {
+        GainReference.increaseSoundVolumeOld1(frames.array, multiplier);
+        counter.samples += frames.samples;
+        return frames.array;
+    }
+
+    @Benchmark
+    public byte[] gainProcessorArray(AudioFrames frames, SampleCounter counter) {
+        GainProcessor.apply(frames.array, 0, frames.frameBytes, multiplier);
+        counter.samples += frames.samples;
+        return frames.array;
+    }
+
+    @Benchmark
+    public ByteBuffer gainProcessorDirect(AudioFrames frames, SampleCounter counter) {
+        GainProcessor.apply(frames.direct, 0, frames.frameBytes, multiplier);
+        counter.samples += frames.samples;
+        return frames.direct;
+    }
+
+    // кадр обрабатывается на месте, но АРУ держит его около своей цели, а ограничитель - ниже потолка
+    @Benchmark
+    public ByteBuffer automaticGainControl(AudioFrames frames, SampleCounter counter) {
+        agc.process(frames.direct, frames.frameBytes, 20.0f);
+        counter.samples += frames.samples;
+        return frames.direct;
+    }
+}
@@ -0,0 +1,66 @@
+package com.andreydymko.nomic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// время NoiseSuppressor на кадр 10 мс, мкс: успевает в реальном времени, пока результат много меньше 10 000.
+// на десктопной JVM нативной библиотеки нет, меряется Java-реализация; нативное ядро меряет
+// app/src/test/cpp/noiseSuppressorTest - его и смотреть на слабом ARM.
+// перед каждым вызовом восстанавливается тот же шумный кадр, уровень шума постоянный
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NoiseSuppressorBenchmark {
+
+    @Param({"16000", "48000"})
+    public int sampleRate;
+
+    @Param({"1", "2"})
+    public int channels;
+
+    private int frameBytes;
+    private int samples;
+    private ByteBuffer source;
+    private ByteBuffer frame;
+    private NoiseSuppressor suppressor;
+
+    @Setup
+    public void setUp() {
+        suppressor = new NoiseSuppressor(sampleRate, channels, SampleFormat.ENCODING.PCM_16, 20);
+        frameBytes = FramePacketizer.getFrameBytes(sampleRate, 10_000, 2 * channels);
+        samples = frameBytes / 2;
+        source = ByteBuffer.allocateDirect(frameBytes);
+        frame = ByteBuffer.allocateDirect(frameBytes);
+        // тот же шум около -20 dBFS, что и в AudioFrames
+        Random random = new Random(42);
+        for (int i = 0; i < samples; i++) {
+            SampleConverter.putSample16(source, 2 * i, (short) (random.nextGaussian() * 3276));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        suppressor.release();
+    }
+
+    @Benchmark
+    public ByteBuffer suppress(SampleCounter counter) {
+        source.rewind();
+        frame.clear();
+        frame.put(source);
+        suppressor.process(frame, frameBytes);
+        counter.samples += samples;
+        return frame;
+    }
+}
@@ -0,0 +1,96 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// цена шифрования на пакет для всех частот и длительностей кадра:
+// plainWrite - запись PacketSender без шифрования, encryptedWrite - копия в буфер датаграммы
+// и ChaCha20-Poly1305 из EncryptedTransport, sealAndOpen - работа отправителя и получателя.
+// транспорт датаграммы выбрасывает, так что разница первых двух - вся задержка шифрования
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PacketCipherBenchmark {
+
+    private Transport plain;
+    private EncryptedTransport encrypted;
+    private PacketCipher sender;
+    private PacketCipher receiver;
+    private ByteBuffer header;
+    private ByteBuffer datagram;
+    private final ByteBuffer[] packet = new ByteBuffer[2];
+
+    @Setup
+    public void setUp(AudioFrames frames) {
+        byte[] key = new byte[ChaCha20Poly1305.KEY_SIZE];
+        new Random(42).nextBytes(key);
+        plain = new DiscardTransport();
+        encrypted = new EncryptedTransport(new DiscardTransport(), new PacketCipher(key));
+        sender = new PacketCipher(key);
+        receiver = new PacketCipher(key);
+        header = ByteBuffer.allocateDirect(AudioPacket.HEADER_SIZE);
+        new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 1, 0, 0).writeHeader(header, 0, frames.samples);
+        datagram = ByteBuffer.allocateDirect(AudioPacket.HEADER_SIZE + frames.frameBytes + PacketCipher.OVERHEAD);
+        packet[0] = header;
+        packet[1] = frames.direct;
+    }
+
+    @Benchmark
+    public long plainWrite(AudioFrames frames, SampleCounter counter) throws Exception {
+        header.clear();
+        frames.direct.clear();
+        counter.samples += frames.samples;
+        return plain.write(packet);
+    }
+
+    @Benchmark
+    public long encryptedWrite(AudioFrames frames, SampleCounter counter) throws Exception {
+        header.clear();
+        frames.direct.clear();
+        counter.samples += frames.samples;
+        return encrypted.write(packet);
+    }
+
+    // номер у каждой датаграммы новый, так что получатель не считает её повтором
+    @Benchmark
+    public int sealAndOpen(AudioFrames frames, SampleCounter counter) {
+        int length = sender.seal(datagram, AudioPacket.HEADER_SIZE + frames.frameBytes);
+        counter.samples += frames.samples;
+        return receiver.open(datagram, length);
+    }
+
+    // датаграммы никуда не уходят: меряется только работа отправителя
+    private static class DiscardTransport implements Transport {
+
+        @Override
+        public long write(@NotNull ByteBuffer[] srcs) {
+            long length = 0;
+            for (ByteBuffer src : srcs) {
+                length += src.remaining();
+                src.position(src.limit());
+            }
+            return length;
+        }
+
+        @Override
+        public long write(@NotNull ByteBuffer src) {
+            int length = src.remaining();
+            src.position(src.limit());
+            return length;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
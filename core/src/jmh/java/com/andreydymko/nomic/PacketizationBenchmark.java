@@ -0,0 +1,67 @@
+package com.andreydymko.nomic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// формирование кадра и пакета: захват в слот FramePacketizer и передача слота дальше,
+// заголовок пакета и чётность Рида-Соломона, которую FecEncoder добавляет к каждому пакету
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PacketizationBenchmark {
+
+    private FramePacketizer packetizer;
+    private PacketEncoder packetEncoder;
+    private FecEncoder fecEncoder;
+    private ByteBuffer header;
+    private ByteBuffer parity;
+
+    @Setup
+    public void setUp(AudioFrames frames) {
+        packetizer = new FramePacketizer(frames.frameBytes, 4 * frames.frameBytes);
+        packetEncoder = new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 1, 0, 0);
+        fecEncoder = new FecEncoder(new FecCode(5, 1), 0);
+        header = ByteBuffer.allocateDirect(AudioPacket.HEADER_SIZE);
+        packetEncoder.writeHeader(header, 0, frames.samples);
+        parity = ByteBuffer.allocateDirect(FecEncoder.FEC_HEADER_SIZE + AudioPacket.HEADER_SIZE
+                + FecEncoder.LENGTH_PREFIX + AudioPacket.HEADER_SIZE + frames.frameBytes);
+    }
+
+    // захват прямо в слот и передача слота дальше, как в MicThread
+    @Benchmark
+    public ByteBuffer frameSlot(AudioFrames frames, SampleCounter counter) {
+        ByteBuffer region = packetizer.captureRegion();
+        frames.direct.clear();
+        region.put(frames.direct);
+        region.clear();
+        packetizer.commitCapture(frames.frameBytes);
+        ByteBuffer frame = packetizer.peekFrame();
+        packetizer.releaseFrame();
+        counter.samples += frames.samples;
+        return frame;
+    }
+
+    @Benchmark
+    public int packetHeader(AudioFrames frames, SampleCounter counter) {
+        counter.samples += frames.samples;
+        return packetEncoder.writeHeader(frames.out, 0, frames.samples);
+    }
+
+    // чётность 5+1 за один пакет; пакет чётности пишется раз в пять пакетов
+    @Benchmark
+    public int fecParity(AudioFrames frames, SampleCounter counter) {
+        counter.samples += frames.samples;
+        if (fecEncoder.add(header, frames.direct, frames.frameBytes)) {
+            return fecEncoder.writeParityPacket(0, parity);
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,61 @@
+package com.andreydymko.nomic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// пропускная способность ступени частоты подписчика на кадре 10 мс: Resampler каждого качества
+// для типичных пар частот захвата и сети. счётчик samples считает входные сэмплы,
+// SNR полосы пропускания и подавление алиасинга печатает ResamplerTest
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResamplerBenchmark {
+
+    @Param({"48000:16000", "48000:44100", "44100:48000", "44100:16000"})
+    public String rates;
+
+    @Param({"0", "1", "2"})
+    public int quality;
+
+    @Param({"1", "2"})
+    public int channels;
+
+    private int frameBytes;
+    private int samples;
+    private ByteBuffer frame;
+    private ByteBuffer out;
+    private Resampler resampler;
+
+    @Setup
+    public void setUp() {
+        String[] pair = rates.split(":");
+        int inputRate = Integer.parseInt(pair[0]);
+        int outputRate = Integer.parseInt(pair[1]);
+        resampler = new Resampler(inputRate, outputRate, channels, SampleFormat.ENCODING.PCM_16, quality);
+        frameBytes = FramePacketizer.getFrameBytes(inputRate, 10_000, 2 * channels);
+        samples = frameBytes / 2;
+        frame = ByteBuffer.allocateDirect(frameBytes);
+        out = ByteBuffer.allocateDirect(resampler.getOutputBytes(frameBytes) + 2 * channels);
+        // тот же шум около -20 dBFS, что и в AudioFrames
+        Random random = new Random(42);
+        for (int i = 0; i < samples; i++) {
+            SampleConverter.putSample16(frame, 2 * i, (short) (random.nextGaussian() * 3276));
+        }
+    }
+
+    @Benchmark
+    public int resample(SampleCounter counter) {
+        counter.samples += samples;
+        return resampler.process(frame, frameBytes, out);
+    }
+}
@@ -0,0 +1,21 @@
+package com.andreydymko.nomic;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// счётчик обработанных сэмплов: JMH выводит его рядом с основным результатом,
+// в Mode.AverageTime это нс/сэмпл - частоты и размеры кадра сравниваются напрямую
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class SampleCounter {
+
+    public long samples;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        samples = 0;
+    }
+}
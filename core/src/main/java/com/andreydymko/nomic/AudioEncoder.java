@@ -0,0 +1,32 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// ступень кодирования между AudioRecord и UDP-сокетом.
+// На вход получает PCM 16 бит little-endian, на выход - полезную нагрузку пакета.
+// Работает с ByteBuffer'ами по абсолютным смещениям, не меняя их position / limit,
+// чтобы звук можно было кодировать прямо из нативной памяти захвата
+public interface AudioEncoder {
+
+    // формат полезной нагрузки, который пишется в заголовок пакета
+    @AudioPacket.payloadType int getPayloadType();
+
+    // сколько байт PCM кодек должен получать за один раз, либо 0 если кодеку подходит любой размер
+    int getFrameBytes();
+
+    // наибольший размер закодированных данных для pcmLength байт PCM
+    int getMaxEncodedSize(int pcmLength);
+
+    // кодирует pcm[pcmOffset, pcmOffset + pcmLength) в out, начиная с outOffset.
+    // Возвращает количество записанных байт
+    int encode(@NotNull ByteBuffer pcm, int pcmOffset, int pcmLength, @NotNull ByteBuffer out, int outOffset);
+
+    // меняет битрейт на лету, не сбрасывая состояние кодека.
+    // Кодеки с постоянным битрейтом вызов игнорируют
+    void setBitrate(int bitrate);
+
+    // освобождает ресурсы кодека (например, нативную память)
+    void release();
+}
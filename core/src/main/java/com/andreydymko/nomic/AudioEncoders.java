@@ -0,0 +1,75 @@
+package com.andreydymko.nomic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// создание кодеков и список кодеков, которые можно предложить клиенту при рукопожатии
+public class AudioEncoders {
+
+    // возвращает форматы, доступные на этом устройстве при данных настройках,
+    // в порядке предпочтения: сначала выбранный пользователем, в конце - PCM без сжатия
+    public static List<Integer> getOfferedPayloadTypes(@AudioPacket.payloadType int preferred, int sampleRate, int channels) {
+        return getOfferedPayloadTypes(preferred, sampleRate, channels, SampleFormat.ENCODING.PCM_16);
+    }
+
+    // то же при захвате в формате captureEncoding. Если захват точнее 16 бит, PCM в формате захвата
+    // предлагается вместо PCM 16 бит (первым, если пользователь выбрал PCM), без потери разрядности.
+    // PCM 16 бит остаётся в конце списка всегда - для клиентов, которые другого не понимают,
+    // звук преобразуется (SampleConverter)
+    public static List<Integer> getOfferedPayloadTypes(@AudioPacket.payloadType int preferred, int sampleRate, int channels,
+                                                       @SampleFormat.encoding int captureEncoding) {
+        List<Integer> offered = new ArrayList<>();
+        int hiRes = SampleFormat.getPcmPayloadType(captureEncoding);
+        if (preferred == AudioPacket.PAYLOAD_TYPE.PCM_16_LE) {
+            preferred = hiRes;
+        }
+        if (isSupported(preferred, sampleRate, channels)) {
+            offered.add(preferred);
+        }
+        for (int payloadType : new int[]{AudioPacket.PAYLOAD_TYPE.OPUS, AudioPacket.PAYLOAD_TYPE.PCMU, hiRes}) {
+            if (!offered.contains(payloadType) && isSupported(payloadType, sampleRate, channels)) {
+                offered.add(payloadType);
+            }
+        }
+        if (!offered.contains(AudioPacket.PAYLOAD_TYPE.PCM_16_LE)) {
+            offered.add(AudioPacket.PAYLOAD_TYPE.PCM_16_LE);
+        }
+        return offered;
+    }
+
+    public static boolean isSupported(@AudioPacket.payloadType int payloadType, int sampleRate, int channels) {
+        switch (payloadType) {
+            case AudioPacket.PAYLOAD_TYPE.PCM_16_LE:
+            case AudioPacket.PAYLOAD_TYPE.PCM_24_LE:
+            case AudioPacket.PAYLOAD_TYPE.PCM_FLOAT_LE:
+            case AudioPacket.PAYLOAD_TYPE.PCMU:
+                return true;
+            case AudioPacket.PAYLOAD_TYPE.OPUS:
+                return OpusEncoder.isSupported(sampleRate, channels);
+            default:
+                return false;
+        }
+    }
+
+    // создаёт кодек; если он недоступен - возвращает PCM без сжатия.
+    // frameDurationUs - длительность кадра для кодеков с фиксированным размером кадра
+    public static AudioEncoder create(@AudioPacket.payloadType int payloadType, int sampleRate, int channels,
+                                      int bitrate, int frameDurationUs) {
+        switch (payloadType) {
+            case AudioPacket.PAYLOAD_TYPE.PCMU:
+                return new G711Encoder();
+            case AudioPacket.PAYLOAD_TYPE.OPUS:
+                if (OpusEncoder.isSupported(sampleRate, channels)) {
+                    return new OpusEncoder(sampleRate, channels, bitrate, frameDurationUs / 1000f);
+                }
+                return new PcmEncoder();
+            case AudioPacket.PAYLOAD_TYPE.PCM_24_LE:
+                return new PcmEncoder(SampleFormat.ENCODING.PCM_24_PACKED);
+            case AudioPacket.PAYLOAD_TYPE.PCM_FLOAT_LE:
+                return new PcmEncoder(SampleFormat.ENCODING.PCM_FLOAT);
+            case AudioPacket.PAYLOAD_TYPE.PCM_16_LE:
+            default:
+                return new PcmEncoder();
+        }
+    }
+}
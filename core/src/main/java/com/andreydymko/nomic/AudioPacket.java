@@ -0,0 +1,110 @@
+package com.andreydymko.nomic;
+
+import androidx.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+// контейнер для одного аудио-пакета, отправляемого по UDP.
+// Заголовок совместим с RTP (RFC 3550) без CSRC и расширений:
+//  0                   1                   2                   3
+// |V=2|P|X|  CC   |M|     PT      |       sequence number         |
+// |                           timestamp                           |
+// |                             SSRC                              |
+// все поля передаются в сетевом порядке байт (big-endian)
+public class AudioPacket {
+    @Retention(SOURCE)
+    @IntDef({PAYLOAD_TYPE.PCM_16_LE,
+            PAYLOAD_TYPE.PCMU,
+            PAYLOAD_TYPE.OPUS,
+            PAYLOAD_TYPE.PCM_24_LE,
+            PAYLOAD_TYPE.PCM_FLOAT_LE})
+    public @interface payloadType {}
+
+    // размер заголовка в байтах
+    public final static int HEADER_SIZE = 12;
+    // версия протокола RTP
+    public final static int VERSION = 2;
+
+    // идентификатор формата (кодека) полезной нагрузки
+    private @payloadType int payloadType;
+    // флаг-маркер, ставится на первом пакете после разрыва потока
+    private boolean marker;
+    // порядковый номер пакета, 16 бит
+    private int sequenceNumber;
+    // номер первого сэмпла пакета в тактах частоты дискретизации, 32 бита без знака
+    private long timestamp;
+    // идентификатор источника потока, 32 бита без знака
+    private long ssrc;
+
+    // массив, в котором лежит пакет, и положение полезной нагрузки в нём
+    private byte[] data;
+    private int payloadOffset;
+    private int payloadLength;
+
+    public @payloadType int getPayloadType() {
+        return payloadType;
+    }
+
+    public boolean isMarker() {
+        return marker;
+    }
+
+    public int getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getSsrc() {
+        return ssrc;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getPayloadOffset() {
+        return payloadOffset;
+    }
+
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+    void set(int payloadType, boolean marker, int sequenceNumber, long timestamp, long ssrc,
+             byte[] data, int payloadOffset, int payloadLength) {
+        this.payloadType = payloadType;
+        this.marker = marker;
+        this.sequenceNumber = sequenceNumber;
+        this.timestamp = timestamp;
+        this.ssrc = ssrc;
+        this.data = data;
+        this.payloadOffset = payloadOffset;
+        this.payloadLength = payloadLength;
+    }
+
+    // класс перечисления форматов полезной нагрузки.
+    // Используются динамические номера RTP (96-127)
+    public static class PAYLOAD_TYPE {
+        // PCM 16 бит, little-endian, как его отдаёт AudioRecord
+        public final static int PCM_16_LE = 96;
+        // G.711 mu-law, 8 бит на сэмпл
+        public final static int PCMU = 97;
+        // Opus, один кадр Opus на пакет
+        public final static int OPUS = 98;
+        // не кодек: пакет чётности прямой коррекции ошибок (FecEncoder), звука в нём нет
+        public final static int FEC = 99;
+        // PCM 24 бита, три байта на сэмпл, little-endian
+        public final static int PCM_24_LE = 100;
+        // PCM 32-битный float от -1 до 1, little-endian
+        public final static int PCM_FLOAT_LE = 101;
+        // не кодек: комфортный шум (RFC 3389, статический номер RTP) вместо подавленной тишины.
+        // Нагрузка - один байт, уровень шума в -dBov (0-127); звука в пакете нет, но его timestamp
+        // отмечает начало тишины, а часы за ним идут дальше
+        public final static int CN = 13;
+    }
+}
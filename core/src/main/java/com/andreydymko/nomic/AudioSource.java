@@ -0,0 +1,40 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// источник захватываемого звука для CaptureThread: PCM little-endian с чередованием каналов,
+// в формате getEncoding() (16 бит, 24 бита или float, см. SampleFormat).
+// На устройстве это AudioRecord (AudioRecordSource в модуле app); на JVM - синтетический тон
+// (ToneSource) или WAV-файл (WavFileSource), чтобы весь конвейер можно было гонять без Android.
+// Все методы, кроме геттеров формата, вызываются только из потока захвата
+public interface AudioSource {
+
+    int getSampleRate();
+
+    int getChannelCount();
+
+    @SampleFormat.encoding
+    int getEncoding();
+
+    // размер одного кадра (по одному сэмплу на каждый канал) в байтах
+    int getBytesPerFrame();
+
+    // сколько кадров вмещает внутренний буфер источника: столько звука он переживает,
+    // пока его не читают (см. CaptureClock)
+    int getBufferFrames();
+
+    // начинает захват
+    void start() throws IOException;
+
+    // пишет не больше length байт звука в buffer с нулевого смещения, не трогая position,
+    // и возвращает число записанных байт (кратное кадру). Ждёт, пока звук будет захвачен.
+    // 0 - звука нет (например, поток прервали), -1 - звук кончился и больше не придёт.
+    // Ошибку источника, после которой звука не будет, сообщает IOException - захват останавливается
+    int read(@NotNull ByteBuffer buffer, int length) throws IOException;
+
+    // останавливает захват и освобождает источник
+    void release();
+}
@@ -0,0 +1,237 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// автоматическая регулировка усиления с мягким ограничителем "с заглядыванием вперёд" -
+// замена постоянному множителю громкости. Две ступени:
+// 1) АРУ: по каждому кадру меряет средний уровень входа и плавно ведёт усиление так, чтобы
+//    выход был около TARGET_LEVEL_DB; вниз быстрее, чем вверх. Кадры тише GATE_DB (тишина,
+//    шум комнаты) усиление не поднимают. Усиление никогда не больше maxGain - ручной
+//    множитель остаётся потолком, 0 глушит звук. Потолок применяется только к выходу: АРУ ведёт
+//    своё усиление и под ним, поэтому, когда потолок поднимают, звук сразу выходит на нужный уровень.
+// 2) ограничитель: звук задержан на LOOKAHEAD_MS, и усиление уменьшается заранее, до того,
+//    как пик дойдёт до выхода. Для каждого кадра (сэмплов всех каналов) считается, во сколько
+//    раз его нужно ослабить, чтобы пик p ушёл под мягкое колено
+//    f(p) = T + (C - T) * tanh((p - T) / (C - T)) < C; затем минимум этого по окну заглядывания
+//    (монотонная очередь) и среднее минимумов по тому же окну. Каждый минимум в среднем не больше
+//    нужного для выходного кадра, поэтому и среднее не больше - выход никогда не превышает
+//    CEILING_DB, а усиление меняется плавно, без щелчков. Отпускание - ещё медленнее, снизу.
+// Все каналы ослабляются одинаково, чтобы не сдвигалась стереопанорама. Работа на кадр
+// постоянна (очередь - амортизированно), память выделяется только в конструкторе.
+// Обработка идёт на месте во float, формат - encoding (SampleFormat) с чередованием каналов
+public class AutomaticGainControl {
+
+    // к какому среднему уровню (dBFS) АРУ ведёт звук
+    private final static double TARGET_LEVEL_DB = -18;
+    // кадры тише этого (dBFS, до усиления) усиление не меняют
+    private final static double GATE_DB = -55;
+    // с какой скоростью АРУ поднимает и опускает усиление
+    private final static double GAIN_RISE_DB_PER_SECOND = 10;
+    private final static double GAIN_FALL_DB_PER_SECOND = 30;
+    // ограничитель: начало мягкого колена и потолок выхода, dBFS
+    private final static double THRESHOLD_DB = -3;
+    private final static double CEILING_DB = -1;
+    // на сколько ограничитель заглядывает вперёд (и задерживает звук)
+    private final static double LOOKAHEAD_MS = 5;
+    // за сколько секунд ослабление отпускается после пика
+    private final static double RELEASE_TIME_CONSTANT_S = 0.1;
+    // ослабление меньше 0,001 дБ - уже не ослабление
+    private final static float RELEASED = 0.9999f;
+
+    public final static float CEILING = (float) Math.pow(10, CEILING_DB / 20);
+
+    private final int sampleRate;
+    private final int channels;
+    private final int encoding;
+    private final int bytesPerFrame;
+    private final float threshold = (float) Math.pow(10, THRESHOLD_DB / 20);
+    private final float knee = CEILING - threshold;
+    private final float release;
+    // окно заглядывания - window кадров: текущий и lookahead предыдущих
+    private final int lookahead;
+    private final int window;
+
+    // задержанный на lookahead кадров звук после АРУ, [кадр * channels + канал]
+    private final float[] delay;
+    // текущий входной кадр после АРУ
+    private final float[] input;
+    // монотонная очередь минимумов нужного ослабления: значения не убывают от головы к хвосту
+    private final float[] minValues;
+    private final long[] minPositions;
+    private int minHead;
+    private int minSize;
+    // последние window минимумов и их сумма - для среднего
+    private final float[] boxValues;
+    private double boxSum;
+    private long position;
+
+    // усиление АРУ (линейное, без потолка), усиление на последнем выходном кадре (не больше
+    // потолка) и ослабление ограничителя на нём
+    private float agcGain = 1;
+    private float gain = 1;
+    private float limiterGain = 1;
+    // наибольшее ослабление ограничителя за последний кадр
+    private float lastReduction = 1;
+
+    public AutomaticGainControl(int sampleRate, int channels, @SampleFormat.encoding int encoding) {
+        if (sampleRate <= 0 || channels <= 0) {
+            throw new IllegalArgumentException("Bad gain control " + sampleRate + " Hz, " + channels + " channels");
+        }
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.encoding = encoding;
+        this.bytesPerFrame = SampleFormat.getBytesPerSample(encoding) * channels;
+        this.lookahead = Math.max(1, (int) Math.round(sampleRate * LOOKAHEAD_MS / 1000));
+        this.window = lookahead + 1;
+        this.release = (float) (1 - Math.exp(-1.0 / (RELEASE_TIME_CONSTANT_S * sampleRate)));
+        this.delay = new float[lookahead * channels];
+        this.input = new float[channels];
+        this.minValues = new float[window];
+        this.minPositions = new long[window];
+        this.boxValues = new float[window];
+        reset();
+    }
+
+    // забывает задержанный звук и ослабление ограничителя; усиление АРУ сохраняется
+    public void reset() {
+        for (int i = 0; i < delay.length; i++) {
+            delay[i] = 0;
+        }
+        for (int i = 0; i < window; i++) {
+            boxValues[i] = 1;
+        }
+        boxSum = window;
+        minHead = 0;
+        minSize = 0;
+        position = 0;
+        limiterGain = 1;
+        lastReduction = 1;
+    }
+
+    // обрабатывает кадр frame[0, length) на месте. maxGain - потолок усиления АРУ (ручной множитель)
+    public void process(@NotNull ByteBuffer frame, int length, float maxGain) {
+        int frames = length / bytesPerFrame;
+        if (frames == 0) {
+            return;
+        }
+        int bytesPerSample = SampleFormat.getBytesPerSample(encoding);
+        // усиление плавно меняется за кадр, даже если потолок опустили на ходу - без щелчка
+        float startGain = gain;
+        float endGain = nextGain(frame, frames, bytesPerSample, Math.max(0, maxGain));
+        float gainStep = (endGain - startGain) / frames;
+        float reduction = 1;
+
+        for (int f = 0, at = 0; f < frames; f++) {
+            float frameGain = startGain + gainStep * (f + 1);
+            // пик кадра после АРУ
+            float peak = 0;
+            for (int channel = 0; channel < channels; channel++) {
+                float sample = SampleConverter.getSample(frame, at + channel * bytesPerSample, encoding) * frameGain;
+                input[channel] = sample;
+                peak = Math.max(peak, Math.abs(sample));
+            }
+            float required = peak > threshold
+                    ? (threshold + knee * (float) Math.tanh((peak - threshold) / knee)) / peak
+                    : 1;
+            pushMinimum(required);
+            float minimum = minValues[minHead];
+            int box = (int) (position % window);
+            boxSum += minimum - boxValues[box];
+            boxValues[box] = minimum;
+            // среднее минимумов по окну, которое кончается текущим кадром, - не больше нужного
+            // ослабления кадра lookahead назад: он входит в окно каждого из этих минимумов
+            float target = (float) Math.min(1.0, boxSum / window);
+            // атака - сразу по среднему, отпускание - плавно снизу
+            limiterGain = target < limiterGain ? target : limiterGain + (target - limiterGain) * release;
+            if (target == 1 && limiterGain > RELEASED) {
+                // экспонента не доходит до 1 сама
+                limiterGain = 1;
+            }
+            // кадр уходит в линию задержки, из неё на его место - кадр lookahead назад
+            int slot = (int) (position % lookahead) * channels;
+            for (int channel = 0; channel < channels; channel++) {
+                SampleConverter.putSample(frame, at + channel * bytesPerSample, encoding,
+                        delay[slot + channel] * limiterGain);
+                delay[slot + channel] = input[channel];
+            }
+            reduction = Math.min(reduction, limiterGain);
+            position++;
+            at += bytesPerFrame;
+        }
+        gain = endGain;
+        lastReduction = reduction;
+    }
+
+    // усиление к концу кадра: средний уровень кадра ведёт усиление АРУ к цели не быстрее
+    // GAIN_RISE/FALL_DB_PER_SECOND, на выход идёт не больше maxGain
+    private float nextGain(ByteBuffer frame, int frames, int bytesPerSample, float maxGain) {
+        int samples = frames * channels;
+        double energy = 0;
+        for (int i = 0; i < samples; i++) {
+            float sample = SampleConverter.getSample(frame, i * bytesPerSample, encoding);
+            energy += sample * sample;
+        }
+        double levelDb = 10 * Math.log10(Math.max(energy / samples, Double.MIN_NORMAL));
+        double gainDb = 20 * Math.log10(agcGain);
+        if (levelDb > GATE_DB) {
+            double seconds = (double) frames / sampleRate;
+            double wantedDb = TARGET_LEVEL_DB - levelDb;
+            if (wantedDb > gainDb) {
+                gainDb = Math.min(wantedDb, gainDb + GAIN_RISE_DB_PER_SECOND * seconds);
+            } else {
+                gainDb = Math.max(wantedDb, gainDb - GAIN_FALL_DB_PER_SECOND * seconds);
+            }
+        }
+        agcGain = (float) Math.pow(10, gainDb / 20);
+        return Math.min(maxGain, agcGain);
+    }
+
+    // кладёт в очередь ослабление текущего кадра и убирает из неё вышедшие из окна
+    private void pushMinimum(float value) {
+        while (minSize > 0 && minValues[(minHead + minSize - 1) % window] >= value) {
+            minSize--;
+        }
+        int tail = (minHead + minSize) % window;
+        minValues[tail] = value;
+        minPositions[tail] = position;
+        minSize++;
+        while (minPositions[minHead] <= position - window) {
+            minHead = (minHead + 1) % window;
+            minSize--;
+        }
+    }
+
+    // усиление на последнем кадре в дБ (с потолком, без ограничителя); -бесконечность, если звук заглушён
+    public double getGainDb() {
+        return 20 * Math.log10(gain);
+    }
+
+    // наибольшее ослабление ограничителя за последний кадр, дБ (0 - ограничитель не работал)
+    public double getGainReductionDb() {
+        return -20 * Math.log10(lastReduction);
+    }
+
+    // ослаблял ли ограничитель последний кадр
+    public boolean isLimiting() {
+        return lastReduction < 1;
+    }
+
+    // задержка выхода относительно входа, в кадрах
+    public int getDelayFrames() {
+        return lookahead;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public @SampleFormat.encoding int getEncoding() {
+        return encoding;
+    }
+}
@@ -0,0 +1,73 @@
+package com.andreydymko.nomic;
+
+// сопоставляет номер сэмпла захвата со временем System.nanoTime и замечает переполнения
+// буфера AudioRecord. Звук приходит с постоянной частотой, поэтому к моменту, когда read()
+// вернулся, должно было накопиться (now - origin) * sampleRate кадров. Если прочитано меньше,
+// чем накоплено, на целый буфер AudioRecord - недостающее потеряно при переполнении.
+// Расписание (origin) сдвигается так, чтобы прочитанное никогда не обгоняло его,
+// - так учитываются и задержка начала захвата, и расхождение часов звука с системными
+public class CaptureClock {
+
+    private final int sampleRate;
+    private final long bufferFrames;
+    // время захвата кадра с номером 0, в наносекундах System.nanoTime
+    private long origin;
+    private boolean started;
+
+    private long overruns;
+    private long lostFrames;
+
+    // bufferFrames - сколько кадров вмещает буфер AudioRecord
+    public CaptureClock(int sampleRate, long bufferFrames) {
+        this.sampleRate = sampleRate;
+        this.bufferFrames = bufferFrames;
+    }
+
+    // read() вернулся в nowNanos, всего прочитано position кадров.
+    // Возвращает, сколько кадров потеряно в буфере AudioRecord перед этим чтением
+    public long onRead(long position, long nowNanos) {
+        long readTime = timeOfUnchecked(position);
+        if (!started || readTime > nowNanos) {
+            // последний прочитанный кадр не может быть захвачен позже, чем его прочитали
+            origin = nowNanos - framesToNanos(position);
+            started = true;
+            return 0;
+        }
+        long behind = nanosToFrames(nowNanos - readTime);
+        if (behind <= bufferFrames) {
+            return 0;
+        }
+        // столько кадров буфер уже не вместил; дальше они не приходят, расписание сдвигается
+        long lost = behind - bufferFrames;
+        origin += framesToNanos(lost);
+        overruns++;
+        lostFrames += lost;
+        return lost;
+    }
+
+    // время захвата кадра с номером position, либо 0, если захват ещё не начался
+    public long timeOf(long position) {
+        return started ? timeOfUnchecked(position) : 0;
+    }
+
+    private long timeOfUnchecked(long position) {
+        return origin + framesToNanos(position);
+    }
+
+    // без переполнения long даже для суток звука на высокой частоте
+    private long framesToNanos(long frames) {
+        return frames / sampleRate * 1_000_000_000L + frames % sampleRate * 1_000_000_000L / sampleRate;
+    }
+
+    private long nanosToFrames(long nanos) {
+        return nanos * sampleRate / 1_000_000_000L;
+    }
+
+    public long getOverruns() {
+        return overruns;
+    }
+
+    public long getLostFrames() {
+        return lostFrames;
+    }
+}
@@ -0,0 +1,67 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// планирование потоков одного сеанса захвата: каждый поток конвейера (захват, обработка,
+// отправка каждому слушателю) в начале работы вызывает enter() - политика настраивает
+// его приоритет и ядра, а сам поток получает свой учёт пропущенных сроков
+public class CaptureScheduler {
+
+    // наименьший допуск опоздания: AudioRecord на многих устройствах отдаёт звук пачками
+    // по 20 мс, даже если кадр короче
+    public final static long MIN_TOLERANCE_NS = 20_000_000L;
+
+    private final SchedulingPolicy policy;
+    private final DeadlineMonitor.Clock clock;
+    private final long periodNanos;
+    private final long toleranceNanos;
+    private final List<DeadlineMonitor> monitors = new CopyOnWriteArrayList<>();
+
+    // periodNanos - длительность кадра захвата; допуск - не меньше периода и MIN_TOLERANCE_NS
+    public CaptureScheduler(@NotNull SchedulingPolicy policy, @NotNull DeadlineMonitor.Clock clock, long periodNanos) {
+        this(policy, clock, periodNanos, Math.max(periodNanos, MIN_TOLERANCE_NS));
+    }
+
+    public CaptureScheduler(@NotNull SchedulingPolicy policy, @NotNull DeadlineMonitor.Clock clock,
+                            long periodNanos, long toleranceNanos) {
+        this.policy = policy;
+        this.clock = clock;
+        this.periodNanos = periodNanos;
+        this.toleranceNanos = toleranceNanos;
+    }
+
+    // вызывается потоком ступени stage в начале его работы
+    public DeadlineMonitor enter(@SchedulingPolicy.stage int stage, @NotNull String name) {
+        policy.onThreadStart(stage);
+        DeadlineMonitor monitor = new DeadlineMonitor(name, stage, clock, periodNanos, toleranceNanos);
+        monitors.add(monitor);
+        return monitor;
+    }
+
+    // поток ступени завершился, его счётчики больше не нужны
+    public void leave(@NotNull DeadlineMonitor monitor) {
+        monitors.remove(monitor);
+    }
+
+    public List<DeadlineMonitor> getMonitors() {
+        return monitors;
+    }
+
+    // сколько сроков пропустили работающие потоки ступени stage
+    public long getMissedDeadlines(@SchedulingPolicy.stage int stage) {
+        long missed = 0;
+        for (DeadlineMonitor monitor : monitors) {
+            if (monitor.getStage() == stage) {
+                missed += monitor.getMissedDeadlines();
+            }
+        }
+        return missed;
+    }
+
+    public long getPeriodNanos() {
+        return periodNanos;
+    }
+}
@@ -0,0 +1,292 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// поток захвата звука и весь конвейер за ним, без привязки к платформе. Захват, обработка
+// и отправка идут в разных потоках, соединённых кольцами FrameRing:
+// CaptureThread (AudioSource.read) -> ProcessingThread (фильтры, шумоподавление, усиление)
+// -> SubscriberThread (отправка), по одному на слушателя.
+// Захват только копирует кадр в кольцо и никогда не ждёт ни обработку, ни сеть;
+// слушатели подключаются и отключаются во время работы через SubscriberRegistry.
+// Рядом со слушателями обработанный звук может писаться в WAV-файл (RecorderThread),
+// тоже без ожидания.
+// Приоритет и ядра всех потоков конвейера задаёт SchedulingPolicy, каждый поток ведёт учёт
+// пропущенных сроков (CaptureScheduler).
+// На устройстве источник - AudioRecord (MicThread), на JVM - ToneSource или WavFileSource
+public class CaptureThread extends Thread {
+
+    // как часто сообщать о состоянии конвейера (onStatistics)
+    private static final long STATS_PERIOD_NS = 5_000_000_000L;
+    // сколько захваченного звука может ждать обработки
+    private static final int PROCESSING_QUEUE_US = 100_000;
+    // сколько обработанного звука может ждать записи на диск
+    private static final int RECORDING_QUEUE_US = 1_000_000;
+    // сколько ждать отправки уже захваченного звука, когда источник кончился
+    private static final long DRAIN_TIMEOUT_NS = 1_000_000_000L;
+
+    private final AudioSource source;
+    private final int frameDurationUs;
+    private final int frameBytes;
+    private final SubscriberRegistry registry = new SubscriberRegistry();
+    // кольцо между захватом и обработкой и сам поток обработки, хранит множитель громкости
+    private final FrameRing captured;
+    private final ProcessingThread processing;
+    private final CaptureScheduler scheduler;
+
+    // frameDurationUs - длительность одного кадра (см. FramePacketizer)
+    public CaptureThread(@NotNull String name, @NotNull AudioSource source, int frameDurationUs,
+                         @NotNull SchedulingPolicy policy) {
+        super(name);
+        this.source = source;
+        this.frameDurationUs = frameDurationUs;
+        this.frameBytes = FramePacketizer.getFrameBytes(source.getSampleRate(), frameDurationUs,
+                source.getBytesPerFrame());
+        this.scheduler = new CaptureScheduler(policy, DeadlineMonitor.SYSTEM_CLOCK,
+                TimeUnit.MICROSECONDS.toNanos(frameDurationUs));
+        registry.setScheduler(scheduler);
+        this.captured = new FrameRing(Math.max(4, PROCESSING_QUEUE_US / frameDurationUs), frameBytes);
+        this.processing = new ProcessingThread(captured, registry, 10.0f, source.getEncoding());
+    }
+
+    public void run() {
+        DeadlineMonitor deadlines = scheduler.enter(SchedulingPolicy.STAGE.CAPTURE, getName());
+        int bytesPerFrame = source.getBytesPerFrame();
+        // внутренний буфер источника - только запас на случай задержек отправки,
+        // на размер пакета и задержку захвата он не влияет
+        int bufferBytes = source.getBufferFrames() * bytesPerFrame;
+        // нарезает то, что отдаёт источник, на пакеты одинаковой длительности.
+        // Источник пишет прямо в его слоты, оттуда кадры и раздаются слушателям
+        FramePacketizer packetizer = new FramePacketizer(frameBytes, bufferBytes + frameBytes);
+        // время захвата каждого кадра и переполнения буфера источника
+        CaptureClock clock = new CaptureClock(source.getSampleRate(), source.getBufferFrames());
+        MetricsRegistry metrics = registry.getMetrics();
+        // сколько кадров (сэмплов всех каналов) прочитано и с какого начинается следующий пакет
+        long position = 0;
+        long framePosition = 0;
+        boolean endOfStream = false;
+        IOException failure = null;
+
+        // начинаем захват
+        processing.start();
+        try {
+            source.start();
+            onCaptureStarted(bufferBytes);
+
+            long lastStats = System.nanoTime();
+
+            // пока поток не попросили остановиться извне
+            while (!Thread.interrupted()) {
+                // читаем звук не больше одного пакета за раз, чтобы не копить задержку
+                ByteBuffer region = packetizer.captureRegion();
+                long readStart = System.nanoTime();
+                int read = source.read(region, region.capacity());
+                long readEnd = System.nanoTime();
+                metrics.captureRead.record(readEnd - readStart);
+                if (read < 0) {
+                    endOfStream = true;
+                    break;
+                }
+                if (read == 0) {
+                    continue;
+                }
+                packetizer.commitCapture(read);
+                position += read / bytesPerFrame;
+                long lost = clock.onRead(position, readEnd);
+                if (lost > 0) {
+                    metrics.captureOverruns.increment();
+                    metrics.captureOverrunFrames.add(lost);
+                }
+
+                // передаём все накопившиеся целые пакеты на обработку. Если обработка не успевает,
+                // кадр выбрасывается - захват не ждёт никогда
+                ByteBuffer frame;
+                while ((frame = packetizer.peekFrame()) != null) {
+                    captured.offer(frame, frameBytes, clock.timeOf(framePosition));
+                    framePosition += frameBytes / bytesPerFrame;
+                    packetizer.releaseFrame();
+                    deadlines.onPeriodDone();
+                }
+                long now = System.nanoTime();
+                if (now - lastStats > STATS_PERIOD_NS) {
+                    lastStats = now;
+                    onStatistics(packetizer.getOverflowBytes());
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            failure = e;
+        }
+
+        if (endOfStream) {
+            // звук кончился сам - даём отправить то, что уже захвачено
+            drain();
+        }
+        // останавливаем обработку и отключаем всех слушателей
+        processing.interrupt();
+        try {
+            processing.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        registry.clear();
+        stopRecording();
+        // завершаем захват
+        source.release();
+        scheduler.leave(deadlines);
+        if (failure != null) {
+            onCaptureFailed(failure);
+        }
+    }
+
+    // ждёт, пока обработка и все слушатели разберут свои кольца
+    private void drain() {
+        long deadline = System.nanoTime() + DRAIN_TIMEOUT_NS;
+        while (System.nanoTime() - deadline < 0 && !Thread.currentThread().isInterrupted()) {
+            boolean pending = captured.size() > 0;
+            for (SubscriberThread subscriber : registry.getSubscribers()) {
+                pending |= subscriber.getQueuedFrames() > 0;
+            }
+            RecorderThread recorder = processing.getRecorder();
+            pending |= recorder != null && recorder.getQueuedFrames() > 0;
+            if (!pending) {
+                return;
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // источник запущен; bufferBytes - размер его внутреннего буфера
+    protected void onCaptureStarted(int bufferBytes) {
+    }
+
+    // источник перестал отдавать звук из-за ошибки (например, микрофон забрало другое приложение);
+    // весь конвейер к этому моменту уже остановлен
+    protected void onCaptureFailed(@NotNull IOException e) {
+    }
+
+    // раз в несколько секунд; packetizerOverflowBytes - сколько захваченного звука не поместилось
+    // в нарезку на кадры
+    protected void onStatistics(long packetizerOverflowBytes) {
+    }
+
+    public AudioSource getSource() {
+        return source;
+    }
+
+    public int getFrameDurationUs() {
+        return frameDurationUs;
+    }
+
+    // размер одного кадра в байтах
+    public int getFrameBytes() {
+        return frameBytes;
+    }
+
+    public SubscriberRegistry getRegistry() {
+        return registry;
+    }
+
+    public void setSoundVolumeMultiplier(float multiplier) {
+        processing.setSoundVolumeMultiplier(multiplier);
+    }
+
+    public float getSoundVolumeMultiplier() {
+        return processing.getSoundVolumeMultiplier();
+    }
+
+    // автоматическая регулировка усиления с ограничителем вместо постоянного множителя;
+    // множитель громкости остаётся потолком. Включается и выключается на ходу
+    public void setAutomaticGainControl(boolean enabled) {
+        processing.setAutomaticGainControl(enabled
+                ? new AutomaticGainControl(source.getSampleRate(), source.getChannelCount(), source.getEncoding())
+                : null);
+    }
+
+    public boolean isAutomaticGainControlEnabled() {
+        return processing.getAutomaticGainControl() != null;
+    }
+
+    // подавление шума с ослаблением не больше maxAttenuationDb, 0 - выключено.
+    // Включается и выключается на ходу
+    public void setNoiseSuppression(float maxAttenuationDb) {
+        processing.setNoiseSuppressor(maxAttenuationDb > 0
+                ? new NoiseSuppressor(source.getSampleRate(), source.getChannelCount(), source.getEncoding(),
+                maxAttenuationDb)
+                : null);
+    }
+
+    public float getNoiseSuppressionDb() {
+        NoiseSuppressor suppressor = processing.getNoiseSuppressor();
+        return suppressor == null ? 0 : suppressor.getMaxAttenuationDb();
+    }
+
+    // цепочка фильтров (FilterStage), пустая - без фильтров. Ступени, которым не хватает частоты
+    // захвата, пропускаются (FilterStage.fitChain). Меняется на ходу, состояние фильтров
+    // при этом начинается заново
+    public void setFilterStages(@NotNull List<FilterStage> stages) {
+        List<FilterStage> usable = FilterStage.fitChain(stages, source.getSampleRate());
+        processing.setFilterGraph(usable.isEmpty()
+                ? null
+                : new FilterGraph(source.getSampleRate(), source.getChannelCount(), source.getEncoding(), usable));
+    }
+
+    public List<FilterStage> getFilterStages() {
+        FilterGraph graph = processing.getFilterGraph();
+        return graph == null ? Collections.<FilterStage>emptyList() : graph.getStages();
+    }
+
+    // начинает записывать обработанный звук (тот, что получают слушатели) в WAV-файл в формате
+    // захвата; прежняя запись, если была, завершается. Можно звать и до запуска, и на ходу
+    public synchronized RecorderThread startRecording(@NotNull File file) throws IOException {
+        stopRecording();
+        WavFileWriter writer = new WavFileWriter(file, source.getSampleRate(), source.getChannelCount(),
+                source.getEncoding());
+        RecorderThread recorder = new RecorderThread(writer, frameBytes,
+                Math.max(4, RECORDING_QUEUE_US / frameDurationUs));
+        recorder.start();
+        processing.setRecorder(recorder);
+        return recorder;
+    }
+
+    // завершает запись и ждёт, пока файл будет закрыт
+    public synchronized void stopRecording() {
+        RecorderThread recorder = processing.getRecorder();
+        if (recorder == null) {
+            return;
+        }
+        processing.setRecorder(null);
+        try {
+            recorder.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public RecorderThread getRecorder() {
+        return processing.getRecorder();
+    }
+
+    public MetricsRegistry getMetrics() {
+        return registry.getMetrics();
+    }
+
+    public CaptureScheduler getScheduler() {
+        return scheduler;
+    }
+
+    // кольцо между захватом и обработкой, для счётчиков переполнения и опустошения
+    public FrameRing getCapturedFrames() {
+        return captured;
+    }
+}
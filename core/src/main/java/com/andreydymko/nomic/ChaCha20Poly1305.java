@@ -0,0 +1,301 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// AEAD ChaCha20-Poly1305 по RFC 8439, на месте в ByteBuffer'е и без выделения памяти:
+// всё состояние шифра и MAC - поля объекта, так что шифровать можно из потока отправки каждый пакет.
+// Своя реализация, а не javax.crypto: шифр из JCE на каждый пакет требует нового init
+// (новый nonce) и выделяет память, а ChaCha20-Poly1305 там есть только с Java 11 и Android 9.
+// Nonce (96 бит) - nonceConstant (32 бита) и nonceCounter (64 бита), оба как в RFC, little-endian.
+// Пара (ключ, nonce) не должна повторяться - за этим следит вызывающий (PacketCipher).
+// Объект не потокобезопасен
+public class ChaCha20Poly1305 {
+
+    public final static int KEY_SIZE = 32;
+    public final static int TAG_SIZE = 16;
+
+    private final static int BLOCK_SIZE = 64;
+    private final static long MASK_26 = 0x3ffffff;
+
+    // "expand 32-byte k", ключ, номер блока, nonce
+    private final int[] state = new int[16];
+    private final int[] block = new int[16];
+    // ключ Poly1305 (r по 26 бит, s) и аккумулятор
+    private long r0, r1, r2, r3, r4;
+    private long s0, s1, s2, s3;
+    private long h0, h1, h2, h3, h4;
+    // хвост данных MAC, дополненный нулями до 16 байт, и длины
+    private final byte[] padded = new byte[16];
+
+    public ChaCha20Poly1305(@NotNull byte[] key) {
+        if (key.length != KEY_SIZE) {
+            throw new IllegalArgumentException("ChaCha20-Poly1305 key must be " + KEY_SIZE + " bytes, not " + key.length);
+        }
+        state[0] = 0x61707865;
+        state[1] = 0x3320646e;
+        state[2] = 0x79622d32;
+        state[3] = 0x6b206574;
+        for (int i = 0; i < 8; i++) {
+            state[4 + i] = (key[4 * i] & 0xFF) | (key[4 * i + 1] & 0xFF) << 8
+                    | (key[4 * i + 2] & 0xFF) << 16 | (key[4 * i + 3] & 0xFF) << 24;
+        }
+    }
+
+    // шифрует buffer[offset, offset + length) на месте и пишет метку (TAG_SIZE байт) сразу за ним.
+    // buffer[aadOffset, aadOffset + aadLength) - дополнительные данные: не шифруются, но защищены меткой
+    public void seal(int nonceConstant, long nonceCounter, @NotNull ByteBuffer buffer,
+                     int aadOffset, int aadLength, int offset, int length) {
+        start(nonceConstant, nonceCounter);
+        xor(buffer, offset, length);
+        authenticate(buffer, aadOffset, aadLength, offset, length);
+        writeTag(buffer, offset + length);
+    }
+
+    // проверяет метку за buffer[offset, offset + length) и, если она верна, расшифровывает данные на месте.
+    // Если метка неверна, данные не трогаются и возвращается false
+    public boolean open(int nonceConstant, long nonceCounter, @NotNull ByteBuffer buffer,
+                        int aadOffset, int aadLength, int offset, int length) {
+        start(nonceConstant, nonceCounter);
+        authenticate(buffer, aadOffset, aadLength, offset, length);
+        if (!checkTag(buffer, offset + length)) {
+            return false;
+        }
+        xor(buffer, offset, length);
+        return true;
+    }
+
+    // ключ Poly1305 - первые 32 байта блока 0, шифрование начинается с блока 1
+    private void start(int nonceConstant, long nonceCounter) {
+        state[13] = nonceConstant;
+        state[14] = (int) nonceCounter;
+        state[15] = (int) (nonceCounter >>> 32);
+        keystream(0);
+        long t0 = block[0] & 0xFFFFFFFFL;
+        long t1 = block[1] & 0xFFFFFFFFL;
+        long t2 = block[2] & 0xFFFFFFFFL;
+        long t3 = block[3] & 0xFFFFFFFFL;
+        // r с обнулёнными по RFC битами
+        r0 = t0 & 0x3ffffff;
+        r1 = ((t0 >>> 26) | (t1 << 6)) & 0x3ffff03;
+        r2 = ((t1 >>> 20) | (t2 << 12)) & 0x3ffc0ff;
+        r3 = ((t2 >>> 14) | (t3 << 18)) & 0x3f03fff;
+        r4 = (t3 >>> 8) & 0x00fffff;
+        s0 = block[4] & 0xFFFFFFFFL;
+        s1 = block[5] & 0xFFFFFFFFL;
+        s2 = block[6] & 0xFFFFFFFFL;
+        s3 = block[7] & 0xFFFFFFFFL;
+        h0 = h1 = h2 = h3 = h4 = 0;
+    }
+
+    // блок ключевого потока с номером counter в block
+    private void keystream(int counter) {
+        state[12] = counter;
+        int x0 = state[0], x1 = state[1], x2 = state[2], x3 = state[3];
+        int x4 = state[4], x5 = state[5], x6 = state[6], x7 = state[7];
+        int x8 = state[8], x9 = state[9], x10 = state[10], x11 = state[11];
+        int x12 = state[12], x13 = state[13], x14 = state[14], x15 = state[15];
+        for (int i = 0; i < 10; i++) {
+            // столбцы
+            x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 16); x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 12);
+            x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 8); x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 7);
+            x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 16); x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 12);
+            x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 8); x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 7);
+            x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 16); x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 12);
+            x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 8); x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 7);
+            x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 16); x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 12);
+            x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 8); x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 7);
+            // диагонали
+            x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 16); x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 12);
+            x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 8); x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 7);
+            x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 16); x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 12);
+            x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 8); x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 7);
+            x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 16); x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 12);
+            x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 8); x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 7);
+            x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 16); x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 12);
+            x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 8); x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 7);
+        }
+        block[0] = x0 + state[0];
+        block[1] = x1 + state[1];
+        block[2] = x2 + state[2];
+        block[3] = x3 + state[3];
+        block[4] = x4 + state[4];
+        block[5] = x5 + state[5];
+        block[6] = x6 + state[6];
+        block[7] = x7 + state[7];
+        block[8] = x8 + state[8];
+        block[9] = x9 + state[9];
+        block[10] = x10 + state[10];
+        block[11] = x11 + state[11];
+        block[12] = x12 + state[12];
+        block[13] = x13 + state[13];
+        block[14] = x14 + state[14];
+        block[15] = x15 + state[15];
+    }
+
+    // накладывает ключевой поток с блока 1 на buffer[offset, offset + length).
+    // По 4 байта за раз: побайтный доступ к прямому буферу в несколько раз медленнее
+    private void xor(ByteBuffer buffer, int offset, int length) {
+        boolean swap = buffer.order() != ByteOrder.LITTLE_ENDIAN;
+        int counter = 1;
+        for (int done = 0; done < length; done += BLOCK_SIZE, counter++) {
+            keystream(counter);
+            int chunk = Math.min(BLOCK_SIZE, length - done);
+            int at = offset + done;
+            int i = 0;
+            for (; i + 4 <= chunk; i += 4, at += 4) {
+                int word = swap ? Integer.reverseBytes(block[i >> 2]) : block[i >> 2];
+                buffer.putInt(at, buffer.getInt(at) ^ word);
+            }
+            for (; i < chunk; i++, at++) {
+                buffer.put(at, (byte) (buffer.get(at) ^ (block[i >> 2] >>> ((i & 3) * 8))));
+            }
+        }
+    }
+
+    // Poly1305 от aad, дополнения до 16 байт, шифротекста, дополнения и длин обоих
+    private void authenticate(ByteBuffer buffer, int aadOffset, int aadLength, int offset, int length) {
+        absorb(buffer, aadOffset, aadLength);
+        absorb(buffer, offset, length);
+        for (int i = 0; i < 8; i++) {
+            padded[i] = (byte) ((long) aadLength >>> (8 * i));
+            padded[8 + i] = (byte) ((long) length >>> (8 * i));
+        }
+        polyBlock(padded);
+    }
+
+    // целые блоки из буфера, хвост - дополненный нулями
+    private void absorb(ByteBuffer buffer, int offset, int length) {
+        boolean swap = buffer.order() != ByteOrder.LITTLE_ENDIAN;
+        int end = offset + length;
+        int at = offset;
+        for (; at + 16 <= end; at += 16) {
+            polyBlock(le32(buffer, at, swap), le32(buffer, at + 4, swap),
+                    le32(buffer, at + 8, swap), le32(buffer, at + 12, swap));
+        }
+        if (at < end) {
+            for (int i = 0; i < 16; i++) {
+                padded[i] = at + i < end ? buffer.get(at + i) : 0;
+            }
+            polyBlock(padded);
+        }
+    }
+
+    private void polyBlock(byte[] bytes) {
+        polyBlock(le32(bytes, 0), le32(bytes, 4), le32(bytes, 8), le32(bytes, 12));
+    }
+
+    // h = (h + блок + 2^128) * r mod 2^130 - 5, в пяти 26-битных частях
+    private void polyBlock(long t0, long t1, long t2, long t3) {
+        h0 += t0 & MASK_26;
+        h1 += ((t0 >>> 26) | (t1 << 6)) & MASK_26;
+        h2 += ((t1 >>> 20) | (t2 << 12)) & MASK_26;
+        h3 += ((t2 >>> 14) | (t3 << 18)) & MASK_26;
+        h4 += (t3 >>> 8) | (1 << 24);
+
+        long m1 = r1 * 5, m2 = r2 * 5, m3 = r3 * 5, m4 = r4 * 5;
+        long d0 = h0 * r0 + h1 * m4 + h2 * m3 + h3 * m2 + h4 * m1;
+        long d1 = h0 * r1 + h1 * r0 + h2 * m4 + h3 * m3 + h4 * m2;
+        long d2 = h0 * r2 + h1 * r1 + h2 * r0 + h3 * m4 + h4 * m3;
+        long d3 = h0 * r3 + h1 * r2 + h2 * r1 + h3 * r0 + h4 * m4;
+        long d4 = h0 * r4 + h1 * r3 + h2 * r2 + h3 * r1 + h4 * r0;
+
+        d1 += d0 >>> 26;
+        h0 = d0 & MASK_26;
+        d2 += d1 >>> 26;
+        h1 = d1 & MASK_26;
+        d3 += d2 >>> 26;
+        h2 = d2 & MASK_26;
+        d4 += d3 >>> 26;
+        h3 = d3 & MASK_26;
+        h0 += (d4 >>> 26) * 5;
+        h4 = d4 & MASK_26;
+        h1 += h0 >>> 26;
+        h0 &= MASK_26;
+    }
+
+    // окончательное значение h + s mod 2^128 - четыре 32-битных слова в padded
+    private void finish() {
+        long c = h1 >>> 26;
+        h1 &= MASK_26;
+        h2 += c;
+        c = h2 >>> 26;
+        h2 &= MASK_26;
+        h3 += c;
+        c = h3 >>> 26;
+        h3 &= MASK_26;
+        h4 += c;
+        c = h4 >>> 26;
+        h4 &= MASK_26;
+        h0 += c * 5;
+        c = h0 >>> 26;
+        h0 &= MASK_26;
+        h1 += c;
+
+        // g = h - (2^130 - 5); если не ушло в минус - берём его, без ветвлений
+        long g0 = h0 + 5;
+        c = g0 >>> 26;
+        g0 &= MASK_26;
+        long g1 = h1 + c;
+        c = g1 >>> 26;
+        g1 &= MASK_26;
+        long g2 = h2 + c;
+        c = g2 >>> 26;
+        g2 &= MASK_26;
+        long g3 = h3 + c;
+        c = g3 >>> 26;
+        g3 &= MASK_26;
+        long g4 = h4 + c - (1 << 26);
+        long useH = g4 >> 63;
+        h0 = (h0 & useH) | (g0 & ~useH);
+        h1 = (h1 & useH) | (g1 & ~useH);
+        h2 = (h2 & useH) | (g2 & ~useH);
+        h3 = (h3 & useH) | (g3 & ~useH);
+        h4 = (h4 & useH) | (g4 & ~useH & MASK_26);
+
+        long f0 = ((h0 | (h1 << 26)) & 0xFFFFFFFFL) + s0;
+        long f1 = (((h1 >>> 6) | (h2 << 20)) & 0xFFFFFFFFL) + s1 + (f0 >>> 32);
+        long f2 = (((h2 >>> 12) | (h3 << 14)) & 0xFFFFFFFFL) + s2 + (f1 >>> 32);
+        long f3 = (((h3 >>> 18) | (h4 << 8)) & 0xFFFFFFFFL) + s3 + (f2 >>> 32);
+        putLe32(padded, 0, f0);
+        putLe32(padded, 4, f1);
+        putLe32(padded, 8, f2);
+        putLe32(padded, 12, f3);
+    }
+
+    private void writeTag(ByteBuffer buffer, int at) {
+        finish();
+        for (int i = 0; i < TAG_SIZE; i++) {
+            buffer.put(at + i, padded[i]);
+        }
+    }
+
+    // сравнение за одинаковое время, где бы ни было первое расхождение
+    private boolean checkTag(ByteBuffer buffer, int at) {
+        finish();
+        int difference = 0;
+        for (int i = 0; i < TAG_SIZE; i++) {
+            difference |= buffer.get(at + i) ^ padded[i];
+        }
+        return difference == 0;
+    }
+
+    private static long le32(ByteBuffer buffer, int at, boolean swap) {
+        int word = buffer.getInt(at);
+        return (swap ? Integer.reverseBytes(word) : word) & 0xFFFFFFFFL;
+    }
+
+    private static long le32(byte[] bytes, int at) {
+        return (bytes[at] & 0xFF) | (bytes[at + 1] & 0xFF) << 8
+                | (bytes[at + 2] & 0xFF) << 16 | (bytes[at + 3] & 0xFFL) << 24;
+    }
+
+    private static void putLe32(byte[] bytes, int at, long value) {
+        bytes[at] = (byte) value;
+        bytes[at + 1] = (byte) (value >>> 8);
+        bytes[at + 2] = (byte) (value >>> 16);
+        bytes[at + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,50 @@
+package com.andreydymko.nomic;
+
+// считает стоимость кодирования: время на кадр и степень сжатия.
+// Запись идёт из потока захвата, чтение - из любого потока, поэтому поля volatile
+public class CodecStatistics {
+
+    private volatile long frames;
+    private volatile long totalNanos;
+    private volatile long maxNanos;
+    private volatile long pcmBytes;
+    private volatile long encodedBytes;
+
+    // вызывается только из потока захвата
+    public void record(long nanos, int pcmLength, int encodedLength) {
+        frames++;
+        totalNanos += nanos;
+        if (nanos > maxNanos) {
+            maxNanos = nanos;
+        }
+        pcmBytes += pcmLength;
+        encodedBytes += encodedLength;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getAverageNanosPerFrame() {
+        long count = frames;
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    public long getMaxNanosPerFrame() {
+        return maxNanos;
+    }
+
+    // во сколько раз закодированные данные меньше исходного PCM
+    public double getCompressionRatio() {
+        long encoded = encodedBytes;
+        return encoded == 0 ? 1.0 : (double) pcmBytes / encoded;
+    }
+
+    @Override
+    public String toString() {
+        return "frames: " + frames
+                + ", avg encode: " + getAverageNanosPerFrame() / 1000 + " us"
+                + ", max encode: " + maxNanos / 1000 + " us"
+                + ", compression: " + String.format("%.2f", getCompressionRatio());
+    }
+}
@@ -0,0 +1,52 @@
+package com.andreydymko.nomic;
+
+// разобранное сообщение управляющего протокола. Заполнены только поля, относящиеся к типу
+public class ControlMessage {
+
+    @ControlProtocol.messageType int type;
+    int version;
+    StreamFormat format;
+    final ReceiverReport report = new ReceiverReport();
+    float volume;
+    int payloadType;
+    int bitrate;
+    int sampleRate;
+    long keepAliveTimestamp;
+
+    public @ControlProtocol.messageType int getType() {
+        return type;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public StreamFormat getFormat() {
+        return format;
+    }
+
+    public ReceiverReport getReport() {
+        return report;
+    }
+
+    public float getVolume() {
+        return volume;
+    }
+
+    public int getPayloadType() {
+        return payloadType;
+    }
+
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    // метка времени отправителя keep-alive, либо -1, если её нет (отправитель версии без RTT)
+    public long getKeepAliveTimestamp() {
+        return keepAliveTimestamp;
+    }
+}
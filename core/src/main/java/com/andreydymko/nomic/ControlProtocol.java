@@ -0,0 +1,229 @@
+package com.andreydymko.nomic;
+
+import androidx.annotation.IntDef;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+// двоичный управляющий протокол, на который клиент может переключить TCP-соединение
+// после текстового рукопожатия (см. TCPServerMicThread). Каждое сообщение:
+// |  длина (16 бит)  | тип (8 бит) | данные (длина - 1 байт) |
+// все числа передаются в сетевом порядке байт (big-endian).
+// Версии совместимы вперёд: новые поля дописываются в конец сообщения, а неизвестные
+// типы и лишние байты пропускаются по длине, поэтому старая сторона их просто игнорирует
+public class ControlProtocol {
+    @Retention(SOURCE)
+    @IntDef({MESSAGE_TYPE.HELLO,
+            MESSAGE_TYPE.KEEP_ALIVE,
+            MESSAGE_TYPE.FORMAT,
+            MESSAGE_TYPE.RECEIVER_REPORT,
+            MESSAGE_TYPE.SET_VOLUME,
+            MESSAGE_TYPE.SET_CODEC,
+            MESSAGE_TYPE.SET_SAMPLE_RATE,
+            MESSAGE_TYPE.BYE})
+    public @interface messageType {}
+
+    // версия протокола, которую поддерживает эта сторона
+    public final static int VERSION = 1;
+    // слово, которым стороны договариваются о переходе на протокол в текстовом рукопожатии
+    public final static String UPGRADE_TOKEN = "control";
+    // сообщения длиннее считаются ошибкой потока
+    public final static int MAX_MESSAGE_LENGTH = 1024;
+
+    private ControlProtocol() {
+    }
+
+    // читает одно сообщение в out. Блокируется до прихода сообщения
+    public static void read(@NotNull DataInputStream in, @NotNull ControlMessage out) throws IOException {
+        int length = in.readUnsignedShort();
+        if (length < 1 || length > MAX_MESSAGE_LENGTH) {
+            throw new IOException("Bad control message length " + length);
+        }
+        out.type = in.readUnsignedByte();
+        int remaining = length - 1;
+        int known;
+        switch (out.type) {
+            case MESSAGE_TYPE.HELLO:
+                known = 1;
+                if (remaining >= known) {
+                    out.version = in.readUnsignedByte();
+                }
+                break;
+            case MESSAGE_TYPE.FORMAT:
+                known = 1 + 4 + 1 + 4 + 4 + 4;
+                if (remaining >= known) {
+                    out.format = new StreamFormat(in.readUnsignedByte(), in.readInt(), in.readUnsignedByte(),
+                            in.readInt(), in.readInt(), in.readInt());
+                }
+                break;
+            case MESSAGE_TYPE.RECEIVER_REPORT:
+                known = 4 + 4 + 4 + 4 + 2 + 2 + 4 + 4;
+                if (remaining >= known) {
+                    out.report.set(
+                            in.readInt() & 0xFFFFFFFFL,
+                            in.readInt() & 0xFFFFFFFFL,
+                            in.readInt() & 0xFFFFFFFFL,
+                            in.readInt() & 0xFFFFFFFFL,
+                            in.readUnsignedShort(),
+                            in.readUnsignedShort(),
+                            in.readInt() & 0xFFFFFFFFL,
+                            in.readInt() & 0xFFFFFFFFL);
+                    if (remaining >= known + 4 + 4) {
+                        // отклик на метку keep-alive, необязательное поле
+                        out.report.setEcho(in.readInt() & 0xFFFFFFFFL, in.readInt());
+                        known += 4 + 4;
+                    }
+                }
+                break;
+            case MESSAGE_TYPE.SET_VOLUME:
+                known = 4;
+                if (remaining >= known) {
+                    out.volume = in.readFloat();
+                }
+                break;
+            case MESSAGE_TYPE.SET_CODEC:
+                known = 1 + 4;
+                if (remaining >= known) {
+                    out.payloadType = in.readUnsignedByte();
+                    out.bitrate = in.readInt();
+                }
+                break;
+            case MESSAGE_TYPE.SET_SAMPLE_RATE:
+                known = 4;
+                if (remaining >= known) {
+                    out.sampleRate = in.readInt();
+                }
+                break;
+            case MESSAGE_TYPE.KEEP_ALIVE:
+                // метка времени необязательна
+                known = remaining >= 4 ? 4 : 0;
+                out.keepAliveTimestamp = known > 0 ? in.readInt() & 0xFFFFFFFFL : -1;
+                break;
+            case MESSAGE_TYPE.BYE:
+            default:
+                known = 0;
+                break;
+        }
+        if (remaining < known) {
+            throw new IOException("Truncated control message of type " + out.type);
+        }
+        // поля более новых версий протокола
+        skip(in, remaining - known);
+    }
+
+    public static void writeHello(@NotNull DataOutputStream out) throws IOException {
+        header(out, MESSAGE_TYPE.HELLO, 1);
+        out.writeByte(VERSION);
+        out.flush();
+    }
+
+    public static void writeKeepAlive(@NotNull DataOutputStream out) throws IOException {
+        header(out, MESSAGE_TYPE.KEEP_ALIVE, 0);
+        out.flush();
+    }
+
+    // keep-alive с меткой времени отправителя в миллисекундах: получатель возвращает её
+    // в следующем отчёте (ReceiverReport.setEcho), а отправитель по ней считает RTT
+    public static void writeKeepAlive(@NotNull DataOutputStream out, long timestampMillis) throws IOException {
+        header(out, MESSAGE_TYPE.KEEP_ALIVE, 4);
+        out.writeInt((int) timestampMillis);
+        out.flush();
+    }
+
+    public static void writeBye(@NotNull DataOutputStream out) throws IOException {
+        header(out, MESSAGE_TYPE.BYE, 0);
+        out.flush();
+    }
+
+    public static void writeFormat(@NotNull DataOutputStream out, @NotNull StreamFormat format) throws IOException {
+        header(out, MESSAGE_TYPE.FORMAT, 1 + 4 + 1 + 4 + 4 + 4);
+        out.writeByte(format.getPayloadType());
+        out.writeInt(format.getSampleRate());
+        out.writeByte(format.getChannels());
+        out.writeInt(format.getFrameDurationUs());
+        out.writeInt(format.getBitrate());
+        out.writeInt(format.getSsrc());
+        out.flush();
+    }
+
+    public static void writeReceiverReport(@NotNull DataOutputStream out, @NotNull ReceiverReport report) throws IOException {
+        boolean echo = report.getEchoTimestamp() >= 0;
+        header(out, MESSAGE_TYPE.RECEIVER_REPORT, 4 + 4 + 4 + 4 + 2 + 2 + 4 + 4 + (echo ? 4 + 4 : 0));
+        out.writeInt((int) report.getHighestSequence());
+        out.writeInt((int) report.getReceived());
+        out.writeInt((int) report.getLost());
+        out.writeInt((int) report.getJitterMicros());
+        out.writeShort(Math.min(0xFFFF, report.getBufferedMillis()));
+        out.writeShort(Math.min(0xFFFF, report.getTargetDelayMillis()));
+        out.writeInt((int) report.getUnderruns());
+        out.writeInt((int) report.getConcealedFrames());
+        if (echo) {
+            out.writeInt((int) report.getEchoTimestamp());
+            out.writeInt(report.getEchoDelayMillis());
+        }
+        out.flush();
+    }
+
+    public static void writeSetVolume(@NotNull DataOutputStream out, float volume) throws IOException {
+        header(out, MESSAGE_TYPE.SET_VOLUME, 4);
+        out.writeFloat(volume);
+        out.flush();
+    }
+
+    public static void writeSetCodec(@NotNull DataOutputStream out, @AudioPacket.payloadType int payloadType,
+                                     int bitrate) throws IOException {
+        header(out, MESSAGE_TYPE.SET_CODEC, 1 + 4);
+        out.writeByte(payloadType);
+        out.writeInt(bitrate);
+        out.flush();
+    }
+
+    public static void writeSetSampleRate(@NotNull DataOutputStream out, int sampleRate) throws IOException {
+        header(out, MESSAGE_TYPE.SET_SAMPLE_RATE, 4);
+        out.writeInt(sampleRate);
+        out.flush();
+    }
+
+    private static void header(DataOutputStream out, @messageType int type, int payloadLength) throws IOException {
+        out.writeShort(1 + payloadLength);
+        out.writeByte(type);
+    }
+
+    private static void skip(DataInputStream in, int bytes) throws IOException {
+        while (bytes > 0) {
+            int skipped = in.skipBytes(bytes);
+            if (skipped <= 0) {
+                // skipBytes может вернуть 0, не дойдя до конца потока
+                in.readByte();
+                skipped = 1;
+            }
+            bytes -= skipped;
+        }
+    }
+
+    // класс перечисления типов сообщений
+    public static class MESSAGE_TYPE {
+        // обе стороны: версия протокола, первое сообщение после перехода
+        public final static int HELLO = 1;
+        // обе стороны: "я на связи". Сервер добавляет метку времени для замера RTT
+        public final static int KEEP_ALIVE = 2;
+        // сервер: текущий формат потока, в ответ на HELLO и на каждую команду
+        public final static int FORMAT = 3;
+        // клиент: обратная связь о приёме (ReceiverReport), по ней сервер подстраивает качество
+        public final static int RECEIVER_REPORT = 4;
+        // клиент: множитель громкости
+        public final static int SET_VOLUME = 5;
+        // клиент: сменить кодек и битрейт
+        public final static int SET_CODEC = 6;
+        // клиент: сменить частоту дискретизации потока
+        public final static int SET_SAMPLE_RATE = 7;
+        // обе стороны: соединение закрывается намеренно
+        public final static int BYE = 8;
+    }
+}
@@ -0,0 +1,203 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+// долгоживущее управляющее соединение с одним слушателем (см. ControlProtocol).
+// Отправляет keep-alive, принимает обратную связь и команды, а команды смены формата
+// передаёт реализации Handler, не останавливая захват. Если от клиента ничего
+// не приходит дольше TIMEOUT_MS, соединение считается потерянным
+public class ControlSession extends Thread {
+
+    private static final String NAME = "ControlSession";
+    // как часто отправлять keep-alive
+    public final static int KEEP_ALIVE_INTERVAL_MS = 1000;
+    // через сколько молчания клиента соединение закрывается
+    public final static int TIMEOUT_MS = 5000;
+
+    private final Socket socket;
+    private final SubscriberThread subscriber;
+    private final Handler handler;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    // версия протокола, о которой договорились (меньшая из двух сторон)
+    private volatile int version = ControlProtocol.VERSION;
+    private volatile ReceiverReport lastReport;
+    private volatile long lastReceivedNanos;
+    // от этого момента отсчитываются метки keep-alive
+    private final long startNanos = System.nanoTime();
+    // RTT по последнему отчёту с откликом на keep-alive, либо -1
+    private volatile int roundTripMillis = -1;
+
+    // subscriber - поток, который получает звук этот клиент
+    public ControlSession(@NotNull Socket socket, @NotNull SubscriberThread subscriber, @NotNull Handler handler) throws IOException {
+        super(NAME + " " + subscriber.getRemoteINetAddress());
+        this.socket = socket;
+        this.subscriber = subscriber;
+        this.handler = handler;
+        // после текстового рукопожатия в потоке не осталось непрочитанных байт,
+        // поэтому двоичный протокол можно читать с того же сокета
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    public void run() {
+        Exception cause = null;
+        ControlMessage message = new ControlMessage();
+        try {
+            socket.setSoTimeout(KEEP_ALIVE_INTERVAL_MS);
+            socket.setTcpNoDelay(true);
+            ControlProtocol.writeHello(out);
+            sendFormat(subscriber.getFormat());
+            long now = System.nanoTime();
+            lastReceivedNanos = now;
+            long lastSentNanos = now;
+            boolean bye = false;
+            while (!bye && !Thread.interrupted()) {
+                try {
+                    ControlProtocol.read(in, message);
+                    lastReceivedNanos = System.nanoTime();
+                    bye = dispatch(message);
+                } catch (SocketTimeoutException e) {
+                    if (System.nanoTime() - lastReceivedNanos > TIMEOUT_MS * 1_000_000L) {
+                        throw new IOException("Client is silent for more than " + TIMEOUT_MS + " ms");
+                    }
+                }
+                now = System.nanoTime();
+                if (!bye && now - lastSentNanos >= KEEP_ALIVE_INTERVAL_MS * 1_000_000L) {
+                    ControlProtocol.writeKeepAlive(out, sessionMillis(now));
+                    lastSentNanos = now;
+                }
+            }
+            if (!bye) {
+                // соединение закрываем мы - прощаемся с клиентом
+                ControlProtocol.writeBye(out);
+            }
+        } catch (EOFException e) {
+            // клиент закрыл соединение, не попрощавшись
+            cause = e;
+        } catch (IOException e) {
+            // соединение потеряно
+            cause = e;
+        } finally {
+            closeSocket();
+        }
+        handler.onSessionClosed(this, cause);
+    }
+
+    // возвращает true, если клиент попрощался
+    private boolean dispatch(ControlMessage message) throws IOException {
+        switch (message.getType()) {
+            case ControlProtocol.MESSAGE_TYPE.HELLO:
+                version = Math.min(ControlProtocol.VERSION, message.getVersion());
+                break;
+            case ControlProtocol.MESSAGE_TYPE.RECEIVER_REPORT:
+                ReceiverReport report = new ReceiverReport(message.getReport());
+                if (report.getEchoTimestamp() >= 0) {
+                    // RTT = сейчас - метка keep-alive - сколько он пролежал у клиента
+                    long roundTrip = (sessionMillis(System.nanoTime()) - report.getEchoTimestamp()
+                            - report.getEchoDelayMillis()) & 0xFFFFFFFFL;
+                    roundTripMillis = (int) Math.min(Integer.MAX_VALUE, roundTrip);
+                }
+                lastReport = report;
+                // если по отчёту поток перестроен - сообщаем клиенту новый формат
+                StreamFormat adapted = handler.onReceiverReport(this, report);
+                if (adapted != null) {
+                    sendFormat(adapted);
+                }
+                break;
+            case ControlProtocol.MESSAGE_TYPE.SET_VOLUME:
+                // громкость из сети проверяется так же, как с ползунка: она становится множителем
+                // для всех слушателей, а NaN и бесконечность нативное усиление не определяет
+                float volume = message.getVolume();
+                if (!Float.isNaN(volume) && !Float.isInfinite(volume)) {
+                    handler.onSetVolume(this, Math.max(0.0f, Math.min(GainProcessor.MAX_MULTIPLIER, volume)));
+                }
+                break;
+            case ControlProtocol.MESSAGE_TYPE.SET_CODEC:
+                // на отказ отвечаем текущим форматом, чтобы клиент знал, что ничего не поменялось
+                sendFormat(handler.onSetCodec(this, message.getPayloadType(), message.getBitrate()));
+                break;
+            case ControlProtocol.MESSAGE_TYPE.SET_SAMPLE_RATE:
+                sendFormat(handler.onSetSampleRate(this, message.getSampleRate()));
+                break;
+            case ControlProtocol.MESSAGE_TYPE.BYE:
+                return true;
+            case ControlProtocol.MESSAGE_TYPE.KEEP_ALIVE:
+            case ControlProtocol.MESSAGE_TYPE.FORMAT:
+            default:
+                // неизвестные сообщения более новых версий игнорируем
+                break;
+        }
+        return false;
+    }
+
+    // время сессии в миллисекундах, по модулю 2^32 как в метке keep-alive
+    private long sessionMillis(long nowNanos) {
+        return ((nowNanos - startNanos) / 1_000_000L) & 0xFFFFFFFFL;
+    }
+
+    private void sendFormat(StreamFormat format) throws IOException {
+        StreamFormat current = format != null ? format : subscriber.getFormat();
+        if (current != null) {
+            ControlProtocol.writeFormat(out, current);
+        }
+    }
+
+    // просит закрыть соединение, попрощавшись с клиентом. Можно вызывать из любого потока;
+    // соединение закроется не позже чем через KEEP_ALIVE_INTERVAL_MS
+    public void close() {
+        interrupt();
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // игнорируем ошибку
+        }
+    }
+
+    public SubscriberThread getSubscriber() {
+        return subscriber;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    // последняя обратная связь от клиента, либо null
+    public ReceiverReport getLastReport() {
+        return lastReport;
+    }
+
+    // RTT управляющего соединения, либо -1, если клиент не возвращает метки keep-alive
+    public int getRoundTripMillis() {
+        return roundTripMillis;
+    }
+
+    // методы вызываются из потока управляющего соединения
+    public interface Handler {
+        void onSetVolume(ControlSession session, float volume);
+
+        // возвращают новый формат потока, либо null, если команда не может быть выполнена
+        StreamFormat onSetCodec(ControlSession session, @AudioPacket.payloadType int payloadType, int bitrate);
+
+        StreamFormat onSetSampleRate(ControlSession session, int sampleRate);
+
+        // возвращает новый формат, если поток перестроен по обратной связи, иначе null
+        StreamFormat onReceiverReport(ControlSession session, ReceiverReport report);
+
+        // cause - причина разрыва, либо null, если клиент попрощался или соединение закрыли мы
+        void onSessionClosed(ControlSession session, Exception cause);
+    }
+}
@@ -0,0 +1,58 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+// сведения о ядрах процессора из sysfs Linux. У большинства телефонов ядра разные
+// (big.LITTLE): потоки звука лучше держать на быстрых, где их реже вытесняют
+// и где они быстрее справляются со своим периодом
+public class CpuTopology {
+
+    // каталог ядер на устройстве
+    public final static String SYSFS_CPU = "/sys/devices/system/cpu";
+    // больше ядер маска long не вмещает
+    private final static int MAX_CPUS = 64;
+
+    private CpuTopology() {
+    }
+
+    // маска ядер с наибольшей максимальной частотой (бит i - ядро cpu<i>), либо 0,
+    // если частоты неизвестны или все ядра одинаковы и выбирать не из чего
+    public static long fastCoreMask(@NotNull File cpuRoot) {
+        long[] maxFrequencies = new long[MAX_CPUS];
+        long fastest = 0;
+        int cpus = 0;
+        for (int cpu = 0; cpu < MAX_CPUS; cpu++) {
+            File core = new File(cpuRoot, "cpu" + cpu);
+            if (!core.isDirectory()) {
+                break;
+            }
+            maxFrequencies[cpu] = readLong(new File(core, "cpufreq/cpuinfo_max_freq"));
+            fastest = Math.max(fastest, maxFrequencies[cpu]);
+            cpus++;
+        }
+        long mask = 0;
+        int fastCount = 0;
+        for (int cpu = 0; cpu < cpus; cpu++) {
+            if (fastest > 0 && maxFrequencies[cpu] == fastest) {
+                mask |= 1L << cpu;
+                fastCount++;
+            }
+        }
+        return fastCount == 0 || fastCount == cpus ? 0 : mask;
+    }
+
+    // первое число из файла, либо 0, если его нет (ядро выключено, нет доступа)
+    private static long readLong(File file) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            return line == null ? 0 : Long.parseLong(line.trim());
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+// отправка по UDP через подключённый к получателю (или к multicast-группе) канал.
+// Собирающая запись канала отправляет заголовок и нагрузку одной датаграммой без копирования
+public class DatagramTransport implements Transport {
+
+    private final DatagramChannel channel;
+
+    public DatagramTransport(@NotNull DatagramChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public long write(@NotNull ByteBuffer[] srcs) throws IOException {
+        return channel.write(srcs);
+    }
+
+    @Override
+    public long write(@NotNull ByteBuffer src) throws IOException {
+        return channel.write(src);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public DatagramChannel getChannel() {
+        return channel;
+    }
+}
@@ -0,0 +1,110 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+// учёт пропущенных сроков одной ступени конвейера. Ступень должна справляться с кадром
+// за каждый период (длительность кадра захвата); после каждого кадра она вызывает onPeriodDone().
+// Если кадр готов позже своего срока больше чем на допуск - сроки пропущены: по одному
+// на каждый период опоздания сверх допуска. Небольшие опоздания (пачки от AudioRecord,
+// расхождение часов звука и системы) сдвигают расписание и ошибкой не считаются.
+// Время берётся из Clock, поэтому учёт проверяется в тестах без настоящего ожидания
+public class DeadlineMonitor {
+
+    // источник монотонного времени в наносекундах
+    public interface Clock {
+        long nanoTime();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    private final String name;
+    private final @SchedulingPolicy.stage int stage;
+    private final Clock clock;
+    private final long periodNanos;
+    private final long toleranceNanos;
+
+    // расписание: когда должен был быть готов кадр 0 и сколько кадров прошло с тех пор.
+    // Меняются только потоком ступени
+    private long origin;
+    private long periodsSinceOrigin = -1;
+
+    // счётчики пишет только поток ступени, читать их можно из любого потока
+    private volatile long periods;
+    private volatile long missedDeadlines;
+    private volatile long worstLatenessNanos;
+
+    public DeadlineMonitor(@NotNull String name, @SchedulingPolicy.stage int stage, @NotNull Clock clock,
+                           long periodNanos, long toleranceNanos) {
+        if (periodNanos <= 0) {
+            throw new IllegalArgumentException("Period must be positive");
+        }
+        this.name = name;
+        this.stage = stage;
+        this.clock = clock;
+        this.periodNanos = periodNanos;
+        this.toleranceNanos = toleranceNanos;
+    }
+
+    // ступень закончила работу над очередным кадром
+    public void onPeriodDone() {
+        long now = clock.nanoTime();
+        periods++;
+        if (periodsSinceOrigin < 0) {
+            // первый кадр задаёт расписание
+            origin = now;
+            periodsSinceOrigin = 1;
+            return;
+        }
+        long lateness = now - (origin + periodsSinceOrigin * periodNanos);
+        if (lateness > 0) {
+            if (lateness > toleranceNanos) {
+                missedDeadlines += (lateness - toleranceNanos) / periodNanos + 1;
+            }
+            if (lateness > worstLatenessNanos) {
+                worstLatenessNanos = lateness;
+            }
+            // дальше сроки отсчитываются от этого кадра: одно опоздание не считается дважды
+            origin += lateness;
+        }
+        periodsSinceOrigin++;
+    }
+
+    // ступень простаивала не по своей вине (например, не было слушателей) -
+    // расписание начнётся заново со следующего кадра
+    public void restart() {
+        periodsSinceOrigin = -1;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public @SchedulingPolicy.stage int getStage() {
+        return stage;
+    }
+
+    // сколько кадров обработала ступень
+    public long getPeriods() {
+        return periods;
+    }
+
+    public long getMissedDeadlines() {
+        return missedDeadlines;
+    }
+
+    // наибольшее опоздание кадра относительно расписания
+    public long getWorstLatenessNanos() {
+        return worstLatenessNanos;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + missedDeadlines + " missed deadlines in " + periods + " periods, worst lateness "
+                + worstLatenessNanos / 1000 + " us";
+    }
+}
@@ -0,0 +1,66 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// шифрующая обёртка над Transport: каждая датаграмма собирается в заранее выделенный буфер,
+// шифруется в нём на месте (PacketCipher) и уходит дальше одной датаграммой.
+// Буферы отправителя не меняются: по ним же PacketSender потом считает чётность (FecEncoder),
+// а кадр PCM может быть слотом кольца. Отправитель - один поток, как и у самого Transport
+public class EncryptedTransport implements Transport {
+
+    // наибольшая полезная нагрузка датаграммы UDP
+    public final static int MAX_DATAGRAM_BYTES = 65507;
+
+    private final Transport transport;
+    private final PacketCipher cipher;
+    private final ByteBuffer datagram = ByteBuffer.allocateDirect(MAX_DATAGRAM_BYTES);
+    // для отправки одного буфера без выделения массива
+    private final ByteBuffer[] single = new ByteBuffer[1];
+
+    public EncryptedTransport(@NotNull Transport transport, @NotNull PacketCipher cipher) {
+        this.transport = transport;
+        this.cipher = cipher;
+    }
+
+    @Override
+    public long write(@NotNull ByteBuffer[] srcs) throws IOException {
+        long length = 0;
+        for (ByteBuffer src : srcs) {
+            length += src.remaining();
+        }
+        if (length > MAX_DATAGRAM_BYTES - PacketCipher.OVERHEAD) {
+            throw new IOException("Datagram of " + length + " bytes is too long to encrypt");
+        }
+        datagram.clear();
+        datagram.position(PacketCipher.PREFIX_SIZE);
+        for (ByteBuffer src : srcs) {
+            datagram.put(src);
+        }
+        int sealed = cipher.seal(datagram, (int) length);
+        datagram.limit(sealed).position(0);
+        transport.write(datagram);
+        return sealed;
+    }
+
+    @Override
+    public long write(@NotNull ByteBuffer src) throws IOException {
+        single[0] = src;
+        return write(single);
+    }
+
+    @Override
+    public void close() throws IOException {
+        transport.close();
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public PacketCipher getCipher() {
+        return cipher;
+    }
+}
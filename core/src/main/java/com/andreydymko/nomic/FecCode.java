@@ -0,0 +1,230 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// систематический код Рида-Соломона над GF(2^8) для восстановления потерянных пакетов.
+// K пакетов данных дополняются M пакетами чётности: parity[j] = sum(C[j][i] * data[i]),
+// где C - матрица Коши, столбцы которой нормированы так, чтобы первая строка была из единиц.
+// Поэтому при M = 1 чётность - обычный XOR пакетов, а при любом M любые K пакетов
+// из K + M восстанавливают блок целиком. Сложение в поле - XOR, пакеты разной длины
+// считаются дополненными нулями до длины самого длинного
+public class FecCode {
+
+    // K + M не может превышать число элементов поля
+    public final static int MAX_PACKETS = 256;
+    // неприводимый многочлен x^8 + x^4 + x^3 + x^2 + 1
+    private final static int POLYNOMIAL = 0x11D;
+
+    private final static int[] EXP = new int[512];
+    private final static int[] LOG = new int[256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if ((x & 0x100) != 0) {
+                x ^= POLYNOMIAL;
+            }
+        }
+        for (int i = 255; i < EXP.length; i++) {
+            EXP[i] = EXP[i - 255];
+        }
+    }
+
+    private final int dataPackets;
+    private final int parityPackets;
+    private final int[][] coefficients;
+    // промежуточные данные восстановления, поэтому recover() не потокобезопасен
+    private byte[][] scratch;
+
+    public FecCode(int dataPackets, int parityPackets) {
+        if (dataPackets < 1 || parityPackets < 1 || dataPackets + parityPackets > MAX_PACKETS) {
+            throw new IllegalArgumentException("Unsupported FEC block " + dataPackets + "+" + parityPackets);
+        }
+        this.dataPackets = dataPackets;
+        this.parityPackets = parityPackets;
+        this.coefficients = new int[parityPackets][dataPackets];
+        // C[j][i] = 1 / (x_j + y_i), x_j = K + j, y_i = i: все x и y различны, поэтому
+        // любая квадратная подматрица обратима. Деление столбца на его первый элемент
+        // этого свойства не меняет
+        for (int i = 0; i < dataPackets; i++) {
+            int first = inverse(dataPackets ^ i);
+            for (int j = 0; j < parityPackets; j++) {
+                coefficients[j][i] = divide(inverse((dataPackets + j) ^ i), first);
+            }
+        }
+        this.scratch = new byte[parityPackets][0];
+    }
+
+    static int multiply(int a, int b) {
+        if (a == 0 || b == 0) {
+            return 0;
+        }
+        return EXP[LOG[a] + LOG[b]];
+    }
+
+    static int divide(int a, int b) {
+        if (b == 0) {
+            throw new ArithmeticException("Division by zero in GF(256)");
+        }
+        if (a == 0) {
+            return 0;
+        }
+        return EXP[LOG[a] + 255 - LOG[b]];
+    }
+
+    static int inverse(int a) {
+        return divide(1, a);
+    }
+
+    // out[outOffset, outOffset + length) += coefficient * in[inOffset, inOffset + length)
+    static void multiplyAdd(int coefficient, @NotNull byte[] in, int inOffset,
+                            @NotNull byte[] out, int outOffset, int length) {
+        if (coefficient == 0) {
+            return;
+        }
+        if (coefficient == 1) {
+            for (int i = 0; i < length; i++) {
+                out[outOffset + i] ^= in[inOffset + i];
+            }
+            return;
+        }
+        int logCoefficient = LOG[coefficient];
+        for (int i = 0; i < length; i++) {
+            int value = in[inOffset + i] & 0xFF;
+            if (value != 0) {
+                out[outOffset + i] ^= EXP[logCoefficient + LOG[value]];
+            }
+        }
+    }
+
+    // то же для данных в ByteBuffer по абсолютному смещению
+    static void multiplyAdd(int coefficient, @NotNull ByteBuffer in, int inOffset,
+                            @NotNull byte[] out, int outOffset, int length) {
+        if (coefficient == 0) {
+            return;
+        }
+        int logCoefficient = LOG[coefficient];
+        for (int i = 0; i < length; i++) {
+            int value = in.get(inOffset + i) & 0xFF;
+            if (value != 0) {
+                out[outOffset + i] ^= coefficient == 1 ? value : EXP[logCoefficient + LOG[value]];
+            }
+        }
+    }
+
+    // коэффициент, с которым пакет данных index входит в пакет чётности parity
+    public int getCoefficient(int parity, int index) {
+        return coefficients[parity][index];
+    }
+
+    // восстанавливает потерянные пакеты данных блока. packets[i] при i < K - пакеты данных,
+    // packets[K + j] - пакеты чётности; present - какие из них пришли, lengths - длины
+    // пришедших пакетов данных (дальше считаются нулями), length - длина чётности.
+    // Восстановленные пакеты пишутся в packets[i] (массивы должны вмещать length байт).
+    // Возвращает false, если пришло меньше K пакетов из K + M
+    public boolean recover(@NotNull byte[][] packets, @NotNull int[] lengths, @NotNull boolean[] present, int length) {
+        int[] missing = new int[parityPackets];
+        int missingCount = 0;
+        for (int i = 0; i < dataPackets; i++) {
+            if (!present[i]) {
+                if (missingCount == parityPackets) {
+                    return false;
+                }
+                missing[missingCount++] = i;
+            }
+        }
+        if (missingCount == 0) {
+            return true;
+        }
+        int[] parity = new int[missingCount];
+        int parityCount = 0;
+        for (int j = 0; j < parityPackets && parityCount < missingCount; j++) {
+            if (present[dataPackets + j]) {
+                parity[parityCount++] = j;
+            }
+        }
+        if (parityCount < missingCount) {
+            return false;
+        }
+
+        // правая часть: чётность без вклада пришедших пакетов данных
+        for (int r = 0; r < missingCount; r++) {
+            if (scratch[r].length < length) {
+                scratch[r] = new byte[length];
+            }
+            System.arraycopy(packets[dataPackets + parity[r]], 0, scratch[r], 0, length);
+            for (int i = 0; i < dataPackets; i++) {
+                if (present[i]) {
+                    multiplyAdd(coefficients[parity[r]][i], packets[i], 0, scratch[r], 0, Math.min(lengths[i], length));
+                }
+            }
+        }
+        // левая часть - подматрица коэффициентов при потерянных пакетах, её и обращаем
+        int[][] matrix = new int[missingCount][missingCount];
+        for (int r = 0; r < missingCount; r++) {
+            for (int c = 0; c < missingCount; c++) {
+                matrix[r][c] = coefficients[parity[r]][missing[c]];
+            }
+        }
+        int[][] inverse = invert(matrix);
+        for (int c = 0; c < missingCount; c++) {
+            byte[] out = packets[missing[c]];
+            for (int i = 0; i < length; i++) {
+                out[i] = 0;
+            }
+            for (int r = 0; r < missingCount; r++) {
+                multiplyAdd(inverse[c][r], scratch[r], 0, out, 0, length);
+            }
+        }
+        return true;
+    }
+
+    // обращение матрицы методом Гаусса-Жордана
+    private static int[][] invert(int[][] matrix) {
+        int n = matrix.length;
+        int[][] a = new int[n][2 * n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(matrix[r], 0, a[r], 0, n);
+            a[r][n + r] = 1;
+        }
+        for (int column = 0; column < n; column++) {
+            int pivot = column;
+            while (a[pivot][column] == 0) {
+                pivot++;
+            }
+            int[] swap = a[pivot];
+            a[pivot] = a[column];
+            a[column] = swap;
+            int scale = inverse(a[column][column]);
+            for (int c = 0; c < 2 * n; c++) {
+                a[column][c] = multiply(a[column][c], scale);
+            }
+            for (int r = 0; r < n; r++) {
+                int factor = a[r][column];
+                if (r != column && factor != 0) {
+                    for (int c = 0; c < 2 * n; c++) {
+                        a[r][c] ^= multiply(factor, a[column][c]);
+                    }
+                }
+            }
+        }
+        int[][] result = new int[n][n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(a[r], n, result[r], 0, n);
+        }
+        return result;
+    }
+
+    public int getDataPackets() {
+        return dataPackets;
+    }
+
+    public int getParityPackets() {
+        return parityPackets;
+    }
+}
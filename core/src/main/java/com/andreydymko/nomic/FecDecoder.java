@@ -0,0 +1,299 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+// прямая коррекция ошибок на стороне получателя (см. FecEncoder). Хранит копии последних
+// принятых пакетов потока и пакеты чётности незавершённых блоков. Как только в блоке набралось
+// K пакетов из K + M, потерянные пакеты восстанавливаются и отдаются через pollRecovered(),
+// после чего их разбирают так же, как принятые (PacketDecoder / JitterBuffer)
+public class FecDecoder {
+
+    // сколько последних пакетов потока хранится (степень двойки), блок должен в них помещаться
+    private final static int HISTORY_SIZE = 512;
+    // сколько блоков могут одновременно ждать недостающих пакетов
+    private final static int BLOCK_COUNT = 8;
+    // сколько восстановленных пакетов может ждать, пока их заберут
+    private final static int RECOVERED_SIZE = FecCode.MAX_PACKETS;
+
+    // копии пакетов в защищаемом виде: два байта длины и датаграмма
+    private final byte[][] history = new byte[HISTORY_SIZE][0];
+    private final int[] historySequence = new int[HISTORY_SIZE];
+    private final int[] historyLength = new int[HISTORY_SIZE];
+    private final Block[] blocks = new Block[BLOCK_COUNT];
+    private int nextBlock;
+    private long ssrc = -1;
+
+    private final byte[][] recovered = new byte[RECOVERED_SIZE][];
+    private final int[] recoveredLength = new int[RECOVERED_SIZE];
+    private int recoveredRead;
+    private int recoveredCount;
+
+    private long recoveredPackets;
+    private long unrecoverableBlocks;
+
+    public FecDecoder() {
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            blocks[i] = new Block();
+        }
+        clear();
+    }
+
+    // является ли датаграмма пакетом чётности
+    public static boolean isParityPacket(@NotNull byte[] data, int offset, int length) {
+        return length >= AudioPacket.HEADER_SIZE + FecEncoder.FEC_HEADER_SIZE
+                && ((data[offset] & 0xFF) >> 6) == AudioPacket.VERSION
+                && (data[offset + 1] & 0x7F) == AudioPacket.PAYLOAD_TYPE.FEC;
+    }
+
+    // запоминает принятый пакет потока. Если он был последним недостающим для блока,
+    // восстановленные пакеты появятся в pollRecovered()
+    public void onMediaPacket(@NotNull byte[] data, int offset, int length) {
+        long packetSsrc = PacketDecoder.peekSsrc(data, offset, length);
+        if (packetSsrc < 0 || length > 0xFFFF) {
+            return;
+        }
+        checkSource(packetSsrc);
+        int sequence = ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+        if (isInHistory(sequence)) {
+            return;
+        }
+        remember(sequence, data, offset, length);
+        for (Block block : blocks) {
+            if (block.contains(sequence)) {
+                tryRecover(block);
+            }
+        }
+    }
+
+    // принимает пакет чётности и пытается восстановить его блок
+    public void onParityPacket(@NotNull byte[] data, int offset, int length) {
+        if (!isParityPacket(data, offset, length)) {
+            return;
+        }
+        checkSource(PacketDecoder.peekSsrc(data, offset, length));
+        int at = offset + AudioPacket.HEADER_SIZE;
+        int baseSequence = ((data[at] & 0xFF) << 8) | (data[at + 1] & 0xFF);
+        int dataPackets = data[at + 2] & 0xFF;
+        int parityPackets = data[at + 3] & 0xFF;
+        int index = data[at + 4] & 0xFF;
+        int parityLength = ((data[at + 6] & 0xFF) << 8) | (data[at + 7] & 0xFF);
+        at += FecEncoder.FEC_HEADER_SIZE;
+        if (dataPackets < 1 || parityPackets < 1 || dataPackets + parityPackets > FecCode.MAX_PACKETS
+                || dataPackets > HISTORY_SIZE / 2 || index >= parityPackets
+                || parityLength > offset + length - at) {
+            return;
+        }
+        Block block = findBlock(baseSequence, dataPackets, parityPackets, parityLength);
+        if (block.done || block.present[dataPackets + index]) {
+            return;
+        }
+        System.arraycopy(data, at, block.packets[dataPackets + index], 0, parityLength);
+        block.present[dataPackets + index] = true;
+        tryRecover(block);
+    }
+
+    // забирает следующий восстановленный пакет в out[offset, ...). Возвращает его длину, либо -1
+    public int pollRecovered(@NotNull byte[] out, int offset) {
+        if (recoveredCount == 0) {
+            return -1;
+        }
+        int length = recoveredLength[recoveredRead];
+        System.arraycopy(recovered[recoveredRead], 0, out, offset, length);
+        recoveredRead = (recoveredRead + 1) % RECOVERED_SIZE;
+        recoveredCount--;
+        return length;
+    }
+
+    private void tryRecover(Block block) {
+        if (block.done) {
+            return;
+        }
+        int dataPackets = block.code.getDataPackets();
+        int received = 0;
+        int missing = 0;
+        for (int i = 0; i < dataPackets; i++) {
+            int sequence = (block.baseSequence + i) & 0xFFFF;
+            if (isInHistory(sequence)) {
+                int slot = sequence & (HISTORY_SIZE - 1);
+                block.packets[i] = history[slot];
+                block.lengths[i] = historyLength[slot];
+                block.present[i] = true;
+                received++;
+            } else {
+                block.present[i] = false;
+                missing++;
+            }
+        }
+        for (int j = 0; j < block.code.getParityPackets(); j++) {
+            if (block.present[dataPackets + j]) {
+                received++;
+            }
+        }
+        if (missing == 0) {
+            block.done = true;
+            return;
+        }
+        if (received < dataPackets) {
+            return;
+        }
+        // недостающие пакеты восстанавливаются в собственные буферы блока
+        for (int i = 0; i < dataPackets; i++) {
+            if (!block.present[i]) {
+                block.packets[i] = block.scratch(i);
+            }
+        }
+        block.done = true;
+        if (!block.code.recover(block.packets, block.lengths, block.present, block.length)) {
+            return;
+        }
+        for (int i = 0; i < dataPackets; i++) {
+            if (block.present[i]) {
+                continue;
+            }
+            byte[] unit = block.packets[i];
+            int length = ((unit[0] & 0xFF) << 8) | (unit[1] & 0xFF);
+            if (length < AudioPacket.HEADER_SIZE || length + FecEncoder.LENGTH_PREFIX > block.length) {
+                continue;
+            }
+            int sequence = (block.baseSequence + i) & 0xFFFF;
+            remember(sequence, unit, FecEncoder.LENGTH_PREFIX, length);
+            offerRecovered(unit, FecEncoder.LENGTH_PREFIX, length);
+            recoveredPackets++;
+        }
+    }
+
+    private void offerRecovered(byte[] data, int offset, int length) {
+        if (recoveredCount == RECOVERED_SIZE) {
+            // никто не забирает - выбрасываем самый старый
+            recoveredRead = (recoveredRead + 1) % RECOVERED_SIZE;
+            recoveredCount--;
+        }
+        int slot = (recoveredRead + recoveredCount) % RECOVERED_SIZE;
+        if (recovered[slot] == null || recovered[slot].length < length) {
+            recovered[slot] = new byte[length];
+        }
+        System.arraycopy(data, offset, recovered[slot], 0, length);
+        recoveredLength[slot] = length;
+        recoveredCount++;
+    }
+
+    private void remember(int sequence, byte[] data, int offset, int length) {
+        int slot = sequence & (HISTORY_SIZE - 1);
+        int unitLength = FecEncoder.LENGTH_PREFIX + length;
+        if (history[slot].length < unitLength) {
+            history[slot] = new byte[unitLength];
+        }
+        byte[] unit = history[slot];
+        unit[0] = (byte) (length >> 8);
+        unit[1] = (byte) length;
+        System.arraycopy(data, offset, unit, FecEncoder.LENGTH_PREFIX, length);
+        historySequence[slot] = sequence;
+        historyLength[slot] = unitLength;
+    }
+
+    private boolean isInHistory(int sequence) {
+        return historySequence[sequence & (HISTORY_SIZE - 1)] == sequence;
+    }
+
+    private Block findBlock(int baseSequence, int dataPackets, int parityPackets, int parityLength) {
+        for (Block block : blocks) {
+            if (block.baseSequence == baseSequence && block.code != null
+                    && block.code.getDataPackets() == dataPackets && block.code.getParityPackets() == parityPackets) {
+                block.grow(parityLength);
+                return block;
+            }
+        }
+        Block block = blocks[nextBlock];
+        nextBlock = (nextBlock + 1) % BLOCK_COUNT;
+        if (block.code != null && !block.done) {
+            unrecoverableBlocks++;
+        }
+        block.start(baseSequence, dataPackets, parityPackets, parityLength);
+        return block;
+    }
+
+    // у нового источника свои номера пакетов - прежние блоки и история ему не подходят
+    private void checkSource(long packetSsrc) {
+        if (packetSsrc != ssrc) {
+            clear();
+            ssrc = packetSsrc;
+        }
+    }
+
+    private void clear() {
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            historySequence[i] = -1;
+        }
+        for (Block block : blocks) {
+            block.baseSequence = -1;
+            block.done = true;
+        }
+    }
+
+    // сколько пакетов восстановлено
+    public long getRecoveredPackets() {
+        return recoveredPackets;
+    }
+
+    // сколько блоков было вытеснено, так и не восстановившись (потерь больше, чем чётности)
+    public long getUnrecoverableBlocks() {
+        return unrecoverableBlocks;
+    }
+
+    private static class Block {
+        int baseSequence = -1;
+        FecCode code;
+        int length;
+        boolean done = true;
+        byte[][] packets = new byte[0][];
+        int[] lengths = new int[0];
+        boolean[] present = new boolean[0];
+        // буферы под восстановленные пакеты данных
+        byte[][] recoveredData = new byte[0][];
+
+        void start(int baseSequence, int dataPackets, int parityPackets, int parityLength) {
+            this.baseSequence = baseSequence;
+            if (code == null || code.getDataPackets() != dataPackets || code.getParityPackets() != parityPackets) {
+                code = new FecCode(dataPackets, parityPackets);
+                packets = new byte[dataPackets + parityPackets][];
+                lengths = new int[dataPackets];
+                present = new boolean[dataPackets + parityPackets];
+                recoveredData = new byte[dataPackets][];
+                for (int j = 0; j < parityPackets; j++) {
+                    packets[dataPackets + j] = new byte[0];
+                }
+            }
+            for (int i = 0; i < present.length; i++) {
+                present[i] = false;
+            }
+            length = 0;
+            done = false;
+            grow(parityLength);
+        }
+
+        void grow(int parityLength) {
+            int dataPackets = code.getDataPackets();
+            if (parityLength > length) {
+                length = parityLength;
+            }
+            for (int j = dataPackets; j < packets.length; j++) {
+                if (packets[j].length < length) {
+                    byte[] grown = new byte[length];
+                    System.arraycopy(packets[j], 0, grown, 0, packets[j].length);
+                    packets[j] = grown;
+                }
+            }
+        }
+
+        byte[] scratch(int index) {
+            if (recoveredData[index] == null || recoveredData[index].length < length) {
+                recoveredData[index] = new byte[length];
+            }
+            return recoveredData[index];
+        }
+
+        boolean contains(int sequence) {
+            return !done && code != null && ((sequence - baseSequence) & 0xFFFF) < code.getDataPackets();
+        }
+    }
+}
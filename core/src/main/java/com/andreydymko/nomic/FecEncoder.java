@@ -0,0 +1,134 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// прямая коррекция ошибок на стороне отправителя: после каждых K отправленных
+// пакетов потока выдаёт M пакетов чётности (см. FecCode). Пакет чётности:
+// | заголовок AudioPacket: PT = FEC, свой номер пакета, timestamp и SSRC первого пакета блока |
+// | номер первого пакета блока (16) | K (8) | M (8) | индекс чётности (8) | 0 (8) | длина чётности (16) |
+// | чётность |
+// Защищается датаграмма целиком, вместе с заголовком и двумя байтами её длины впереди,
+// поэтому получатель (FecDecoder) восстанавливает пакет в точности таким, каким он был отправлен.
+// Чётность считается по мере отправки пакетов, сами пакеты блока не хранятся
+public class FecEncoder {
+
+    // размер заголовка FEC после заголовка AudioPacket
+    public final static int FEC_HEADER_SIZE = 8;
+    // два байта длины защищаемой датаграммы
+    final static int LENGTH_PREFIX = 2;
+
+    private final FecCode code;
+    private byte[][] parity;
+    // номер пакета потока чётности
+    private int sequenceNumber;
+
+    private int packetsInBlock;
+    private int blockLength;
+    // заголовок первого пакета блока: его номер, timestamp и SSRC попадают в пакеты чётности
+    private final byte[] firstHeader = new byte[AudioPacket.HEADER_SIZE];
+
+    private long parityPacketsWritten;
+
+    public FecEncoder(@NotNull FecCode code, int initialSequenceNumber) {
+        this.code = code;
+        this.sequenceNumber = initialSequenceNumber & 0xFFFF;
+        this.parity = new byte[code.getParityPackets()][0];
+    }
+
+    // учитывает отправленный пакет: заголовок header[0, HEADER_SIZE) и нагрузка body[0, bodyLength).
+    // Возвращает true, если блок собран и пора отправлять его пакеты чётности
+    public boolean add(@NotNull ByteBuffer header, @NotNull ByteBuffer body, int bodyLength) {
+        int datagramLength = AudioPacket.HEADER_SIZE + bodyLength;
+        int unitLength = LENGTH_PREFIX + datagramLength;
+        ensureCapacity(unitLength);
+        if (packetsInBlock == 0) {
+            for (int i = 0; i < firstHeader.length; i++) {
+                firstHeader[i] = header.get(i);
+            }
+        }
+        int index = packetsInBlock;
+        for (int j = 0; j < parity.length; j++) {
+            int coefficient = code.getCoefficient(j, index);
+            byte[] out = parity[j];
+            out[0] ^= FecCode.multiply(coefficient, (datagramLength >> 8) & 0xFF);
+            out[1] ^= FecCode.multiply(coefficient, datagramLength & 0xFF);
+            FecCode.multiplyAdd(coefficient, header, 0, out, LENGTH_PREFIX, AudioPacket.HEADER_SIZE);
+            FecCode.multiplyAdd(coefficient, body, 0, out, LENGTH_PREFIX + AudioPacket.HEADER_SIZE, bodyLength);
+        }
+        blockLength = Math.max(blockLength, unitLength);
+        return ++packetsInBlock == code.getDataPackets();
+    }
+
+    // пишет пакет чётности index собранного блока в out с нулевого смещения и возвращает его размер.
+    // После последнего пакета чётности начинается следующий блок
+    public int writeParityPacket(int index, @NotNull ByteBuffer out) {
+        int offset = 0;
+        out.put(offset++, (byte) (AudioPacket.VERSION << 6));
+        out.put(offset++, (byte) AudioPacket.PAYLOAD_TYPE.FEC);
+        out.put(offset++, (byte) (sequenceNumber >> 8));
+        out.put(offset++, (byte) sequenceNumber);
+        // timestamp и SSRC первого пакета блока
+        for (int i = 4; i < AudioPacket.HEADER_SIZE; i++) {
+            out.put(offset++, firstHeader[i]);
+        }
+        out.put(offset++, firstHeader[2]);
+        out.put(offset++, firstHeader[3]);
+        out.put(offset++, (byte) code.getDataPackets());
+        out.put(offset++, (byte) code.getParityPackets());
+        out.put(offset++, (byte) index);
+        out.put(offset++, (byte) 0);
+        out.put(offset++, (byte) (blockLength >> 8));
+        out.put(offset++, (byte) blockLength);
+        byte[] data = parity[index];
+        for (int i = 0; i < blockLength; i++) {
+            out.put(offset++, data[i]);
+        }
+        sequenceNumber = (sequenceNumber + 1) & 0xFFFF;
+        parityPacketsWritten++;
+        if (index == parity.length - 1) {
+            startBlock();
+        }
+        return offset;
+    }
+
+    // наибольший размер пакета чётности для текущего блока
+    public int getMaxParityPacketSize() {
+        return AudioPacket.HEADER_SIZE + FEC_HEADER_SIZE + blockLength;
+    }
+
+    // забывает недособранный блок, например при смене кодека: его пакеты останутся без защиты
+    public void reset() {
+        startBlock();
+    }
+
+    private void startBlock() {
+        for (byte[] data : parity) {
+            for (int i = 0; i < blockLength; i++) {
+                data[i] = 0;
+            }
+        }
+        packetsInBlock = 0;
+        blockLength = 0;
+    }
+
+    private void ensureCapacity(int unitLength) {
+        if (parity[0].length >= unitLength) {
+            return;
+        }
+        for (int j = 0; j < parity.length; j++) {
+            byte[] grown = new byte[unitLength];
+            System.arraycopy(parity[j], 0, grown, 0, parity[j].length);
+            parity[j] = grown;
+        }
+    }
+
+    public FecCode getCode() {
+        return code;
+    }
+
+    public long getParityPacketsWritten() {
+        return parityPacketsWritten;
+    }
+}
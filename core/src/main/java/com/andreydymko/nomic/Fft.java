@@ -0,0 +1,85 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+// быстрое преобразование Фурье по основанию 2, на месте. Таблицы синусов и перестановки
+// считаются один раз в конструкторе, преобразование память не выделяет.
+// Прямое - без нормировки, обратное делит на size, так что inverse(forward(x)) = x.
+// Та же схема - в nomic::Fft (noiseSuppressor.h)
+public class Fft {
+
+    private final int size;
+    // cos и sin угла 2 * pi * k / size для k < size / 2
+    private final float[] cos;
+    private final float[] sin;
+    // номер, на место которого переезжает каждый элемент при двоичной перестановке
+    private final int[] reversed;
+
+    public Fft(int size) {
+        if (size < 2 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+        }
+        this.size = size;
+        this.cos = new float[size / 2];
+        this.sin = new float[size / 2];
+        for (int k = 0; k < size / 2; k++) {
+            cos[k] = (float) Math.cos(2 * Math.PI * k / size);
+            sin[k] = (float) Math.sin(2 * Math.PI * k / size);
+        }
+        this.reversed = new int[size];
+        int bits = Integer.numberOfTrailingZeros(size);
+        for (int i = 0; i < size; i++) {
+            reversed[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    // X[k] = sum x[n] * e^(-2 pi i k n / size)
+    public void forward(@NotNull float[] re, @NotNull float[] im) {
+        transform(re, im, -1);
+    }
+
+    // x[n] = sum X[k] * e^(2 pi i k n / size) / size
+    public void inverse(@NotNull float[] re, @NotNull float[] im) {
+        transform(re, im, 1);
+        float scale = 1.0f / size;
+        for (int i = 0; i < size; i++) {
+            re[i] *= scale;
+            im[i] *= scale;
+        }
+    }
+
+    private void transform(float[] re, float[] im, int sign) {
+        for (int i = 0; i < size; i++) {
+            int j = reversed[i];
+            if (j > i) {
+                float t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        for (int half = 1; half < size; half <<= 1) {
+            int step = size / (2 * half);
+            for (int start = 0; start < size; start += 2 * half) {
+                for (int k = 0; k < half; k++) {
+                    float wr = cos[k * step];
+                    float wi = sign * sin[k * step];
+                    int a = start + k;
+                    int b = a + half;
+                    float tr = re[b] * wr - im[b] * wi;
+                    float ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
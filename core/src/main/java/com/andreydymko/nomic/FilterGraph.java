@@ -0,0 +1,116 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// цепочка фильтров (FilterStage), собранная в один проход: каждый сэмпл читается из кадра один раз,
+// проходит все ступени подряд в double и один раз записывается обратно - без промежуточных массивов
+// и без округления до формата между ступенями. Коэффициенты ступеней и их состояние лежат
+// в плоских массивах [ступень * channels + канал]; ступени - транспонированная прямая форма II.
+// Всё выделяется в конструкторе, каналы фильтруются независимо. Кадр - в формате encoding
+// (SampleFormat) с чередованием каналов
+public class FilterGraph {
+
+    private final int sampleRate;
+    private final int channels;
+    private final int encoding;
+    private final int bytesPerSample;
+    private final List<FilterStage> stages;
+
+    // по ступеням: b0, b1, b2, a1, a2
+    private final double[] b0;
+    private final double[] b1;
+    private final double[] b2;
+    private final double[] a1;
+    private final double[] a2;
+    // по ступеням и каналам: два элемента задержки
+    private final double[] z1;
+    private final double[] z2;
+
+    public FilterGraph(int sampleRate, int channels, @SampleFormat.encoding int encoding,
+                       @NotNull List<FilterStage> stages) {
+        if (sampleRate <= 0 || channels <= 0) {
+            throw new IllegalArgumentException("Bad filter graph " + sampleRate + " Hz, " + channels + " channels");
+        }
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.encoding = encoding;
+        this.bytesPerSample = SampleFormat.getBytesPerSample(encoding);
+        this.stages = Collections.unmodifiableList(new ArrayList<>(stages));
+        int count = stages.size();
+        b0 = new double[count];
+        b1 = new double[count];
+        b2 = new double[count];
+        a1 = new double[count];
+        a2 = new double[count];
+        for (int s = 0; s < count; s++) {
+            double[] coefficients = stages.get(s).getCoefficients(sampleRate);
+            b0[s] = coefficients[0];
+            b1[s] = coefficients[1];
+            b2[s] = coefficients[2];
+            a1[s] = coefficients[3];
+            a2[s] = coefficients[4];
+        }
+        z1 = new double[count * channels];
+        z2 = new double[count * channels];
+    }
+
+    // фильтрует кадр frame[0, length) на месте
+    public void process(@NotNull ByteBuffer frame, int length) {
+        int count = b0.length;
+        if (count == 0) {
+            return;
+        }
+        int samples = length / bytesPerSample / channels * channels;
+        for (int i = 0, channel = 0; i < samples; i++) {
+            int at = i * bytesPerSample;
+            double x = SampleConverter.getSample(frame, at, encoding);
+            for (int s = 0, state = channel; s < count; s++, state += channels) {
+                double y = b0[s] * x + z1[state];
+                z1[state] = b1[s] * x - a1[s] * y + z2[state];
+                z2[state] = b2[s] * x - a2[s] * y;
+                x = y;
+            }
+            SampleConverter.putSample(frame, at, encoding, (float) x);
+            if (++channel == channels) {
+                channel = 0;
+            }
+        }
+    }
+
+    // забывает прошлые сэмплы, как после создания
+    public void reset() {
+        Arrays.fill(z1, 0);
+        Arrays.fill(z2, 0);
+    }
+
+    public boolean isEmpty() {
+        return stages.isEmpty();
+    }
+
+    public List<FilterStage> getStages() {
+        return stages;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public @SampleFormat.encoding int getEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public String toString() {
+        return FilterStage.toChain(stages);
+    }
+}
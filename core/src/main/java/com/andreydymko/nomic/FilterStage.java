@@ -0,0 +1,246 @@
+package com.andreydymko.nomic;
+
+import androidx.annotation.IntDef;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.annotation.Retention;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+// одна ступень цепочки фильтров (FilterGraph) - только описание, без состояния.
+// Все ступени - биквадратные фильтры по формулам из "Audio EQ Cookbook" (R. Bristow-Johnson),
+// блокировщик постоянной составляющей - вырожденный биквад первого порядка.
+// Цепочка записывается строкой "dc:10;highpass:80:0.707;peaking:3000:4:1" - так её хранят настройки:
+// dc:частота, highpass:частота:добротность, peaking|lowshelf|highshelf:частота:усиление_дБ:добротность
+public class FilterStage {
+    @Retention(SOURCE)
+    @IntDef({TYPE.DC_BLOCKER,
+            TYPE.HIGH_PASS,
+            TYPE.PEAKING,
+            TYPE.LOW_SHELF,
+            TYPE.HIGH_SHELF})
+    public @interface type {}
+
+    private static final String[] NAMES = {"dc", "highpass", "peaking", "lowshelf", "highshelf"};
+
+    private final int type;
+    private final float frequency;
+    private final float gainDb;
+    private final float q;
+
+    public FilterStage(@type int type, float frequency, float gainDb, float q) {
+        if (type < TYPE.DC_BLOCKER || type > TYPE.HIGH_SHELF || !(frequency > 0) || !(q > 0)
+                || Float.isInfinite(frequency) || Float.isNaN(gainDb) || Float.isInfinite(gainDb)) {
+            throw new IllegalArgumentException("Bad filter stage " + type + ", " + frequency + " Hz, "
+                    + gainDb + " dB, Q " + q);
+        }
+        this.type = type;
+        this.frequency = frequency;
+        this.gainDb = gainDb;
+        this.q = q;
+    }
+
+    // блокировщик постоянной составляющей: y[n] = x[n] - x[n-1] + R * y[n-1], срез около frequency
+    public static FilterStage dcBlocker(float frequency) {
+        return new FilterStage(TYPE.DC_BLOCKER, frequency, 0, 1);
+    }
+
+    public static FilterStage highPass(float frequency, float q) {
+        return new FilterStage(TYPE.HIGH_PASS, frequency, 0, q);
+    }
+
+    public static FilterStage peaking(float frequency, float gainDb, float q) {
+        return new FilterStage(TYPE.PEAKING, frequency, gainDb, q);
+    }
+
+    public static FilterStage lowShelf(float frequency, float gainDb, float q) {
+        return new FilterStage(TYPE.LOW_SHELF, frequency, gainDb, q);
+    }
+
+    public static FilterStage highShelf(float frequency, float gainDb, float q) {
+        return new FilterStage(TYPE.HIGH_SHELF, frequency, gainDb, q);
+    }
+
+    // разбирает цепочку "ступень;ступень;..."; пустая строка - пустая цепочка
+    public static List<FilterStage> parseChain(@NotNull String chain) {
+        List<FilterStage> stages = new ArrayList<>();
+        for (String stage : chain.split(";")) {
+            if (!stage.trim().isEmpty()) {
+                stages.add(parse(stage.trim()));
+            }
+        }
+        return Collections.unmodifiableList(stages);
+    }
+
+    // ступени chain, которые работают на частоте sampleRate; ступени на половине частоты и выше
+    // (полка 6 кГц при захвате 8 кГц) пропускаются
+    public static List<FilterStage> fitChain(@NotNull List<FilterStage> chain, int sampleRate) {
+        List<FilterStage> stages = new ArrayList<>();
+        for (FilterStage stage : chain) {
+            if (stage.fits(sampleRate)) {
+                stages.add(stage);
+            }
+        }
+        return Collections.unmodifiableList(stages);
+    }
+
+    public static String toChain(@NotNull List<FilterStage> stages) {
+        StringBuilder chain = new StringBuilder();
+        for (FilterStage stage : stages) {
+            if (chain.length() > 0) {
+                chain.append(';');
+            }
+            chain.append(stage);
+        }
+        return chain.toString();
+    }
+
+    public static FilterStage parse(@NotNull String stage) {
+        String[] parts = stage.split(":");
+        int type = -1;
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(parts[0])) {
+                type = i;
+            }
+        }
+        int expected = type == TYPE.DC_BLOCKER ? 2 : type == TYPE.HIGH_PASS ? 3 : 4;
+        if (type < 0 || parts.length != expected) {
+            throw new IllegalArgumentException("Bad filter stage \"" + stage + "\"");
+        }
+        try {
+            float frequency = Float.parseFloat(parts[1]);
+            switch (type) {
+                case TYPE.DC_BLOCKER:
+                    return dcBlocker(frequency);
+                case TYPE.HIGH_PASS:
+                    return highPass(frequency, Float.parseFloat(parts[2]));
+                default:
+                    return new FilterStage(type, frequency, Float.parseFloat(parts[2]), Float.parseFloat(parts[3]));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad filter stage \"" + stage + "\"", e);
+        }
+    }
+
+    // коэффициенты для частоты sampleRate, нормированные на a0: {b0, b1, b2, a1, a2}.
+    // y[n] = b0 x[n] + b1 x[n-1] + b2 x[n-2] - a1 y[n-1] - a2 y[n-2]
+    public double[] getCoefficients(int sampleRate) {
+        if (!fits(sampleRate)) {
+            throw new IllegalArgumentException("Filter stage " + this + " is above Nyquist at " + sampleRate + " Hz");
+        }
+        double w0 = 2 * Math.PI * frequency / sampleRate;
+        double cos = Math.cos(w0);
+        double alpha = Math.sin(w0) / (2 * q);
+        double a = Math.pow(10, gainDb / 40);
+        double b0, b1, b2, a0, a1, a2;
+        switch (type) {
+            case TYPE.DC_BLOCKER: {
+                double r = Math.exp(-w0);
+                return new double[]{1, -1, 0, -r, 0};
+            }
+            case TYPE.HIGH_PASS:
+                b0 = (1 + cos) / 2;
+                b1 = -(1 + cos);
+                b2 = (1 + cos) / 2;
+                a0 = 1 + alpha;
+                a1 = -2 * cos;
+                a2 = 1 - alpha;
+                break;
+            case TYPE.PEAKING:
+                b0 = 1 + alpha * a;
+                b1 = -2 * cos;
+                b2 = 1 - alpha * a;
+                a0 = 1 + alpha / a;
+                a1 = -2 * cos;
+                a2 = 1 - alpha / a;
+                break;
+            case TYPE.LOW_SHELF: {
+                double root = 2 * Math.sqrt(a) * alpha;
+                b0 = a * ((a + 1) - (a - 1) * cos + root);
+                b1 = 2 * a * ((a - 1) - (a + 1) * cos);
+                b2 = a * ((a + 1) - (a - 1) * cos - root);
+                a0 = (a + 1) + (a - 1) * cos + root;
+                a1 = -2 * ((a - 1) + (a + 1) * cos);
+                a2 = (a + 1) + (a - 1) * cos - root;
+                break;
+            }
+            case TYPE.HIGH_SHELF:
+            default: {
+                double root = 2 * Math.sqrt(a) * alpha;
+                b0 = a * ((a + 1) + (a - 1) * cos + root);
+                b1 = -2 * a * ((a - 1) + (a + 1) * cos);
+                b2 = a * ((a + 1) + (a - 1) * cos - root);
+                a0 = (a + 1) - (a - 1) * cos + root;
+                a1 = 2 * ((a - 1) - (a + 1) * cos);
+                a2 = (a + 1) - (a - 1) * cos - root;
+                break;
+            }
+        }
+        return new double[]{b0 / a0, b1 / a0, b2 / a0, a1 / a0, a2 / a0};
+    }
+
+    // ниже ли частота ступени половины sampleRate - иначе коэффициентов для неё нет
+    public boolean fits(int sampleRate) {
+        return frequency < sampleRate / 2.0f;
+    }
+
+    public @type int getType() {
+        return type;
+    }
+
+    public float getFrequency() {
+        return frequency;
+    }
+
+    public float getGainDb() {
+        return gainDb;
+    }
+
+    public float getQ() {
+        return q;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FilterStage)) {
+            return false;
+        }
+        FilterStage stage = (FilterStage) o;
+        return type == stage.type && frequency == stage.frequency && gainDb == stage.gainDb && q == stage.q;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((type * 31 + Float.floatToIntBits(frequency)) * 31 + Float.floatToIntBits(gainDb)) * 31
+                + Float.floatToIntBits(q);
+    }
+
+    // в том же виде, что разбирает parse
+    @Override
+    public String toString() {
+        switch (type) {
+            case TYPE.DC_BLOCKER:
+                return NAMES[type] + ":" + number(frequency);
+            case TYPE.HIGH_PASS:
+                return NAMES[type] + ":" + number(frequency) + ":" + number(q);
+            default:
+                return NAMES[type] + ":" + number(frequency) + ":" + number(gainDb) + ":" + number(q);
+        }
+    }
+
+    private static String number(float value) {
+        return value == (int) value ? String.valueOf((int) value) : String.valueOf(value);
+    }
+
+    public static class TYPE {
+        public final static int DC_BLOCKER = 0;
+        public final static int HIGH_PASS = 1;
+        public final static int PEAKING = 2;
+        public final static int LOW_SHELF = 3;
+        public final static int HIGH_SHELF = 4;
+    }
+}
@@ -0,0 +1,169 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// нарезает захваченный звук на кадры фиксированной длительности.
+// AudioRecord отдаёт данные кусками, размер которых зависит от устройства,
+// поэтому между захватом и отправкой стоит кольцевой буфер: захват дописывает
+// в него сколько получилось прочитать, а отправка забирает ровно по одному кадру.
+// Буфер лежит в прямой (нативной) памяти, а его размер кратен размеру кадра,
+// поэтому каждый кадр занимает непрерывный участок - "слот". Для слотов заранее
+// созданы ByteBuffer'ы, так что AudioRecord может писать прямо в слот
+// (captureRegion / commitCapture), а отправка - обрабатывать и отправлять
+// кадр на месте (peekFrame / releaseFrame), без копирования и выделения памяти
+public class FramePacketizer {
+
+    // допустимые длительности кадра в микросекундах
+    public final static int[] FRAME_DURATIONS_US = {2500, 5000, 10000, 20000};
+
+    private final int frameBytes;
+    private final int capacity;
+    private final ByteBuffer ring;
+    // заранее созданные окна на каждый слот кольцевого буфера
+    private final ByteBuffer[] slots;
+    private int readPosition;
+    private int writePosition;
+    private int size;
+
+    private long overflowBytes;
+    // сколько байт прошло через копирующие write / readFrame
+    private long copiedBytes;
+    // сколько раз пришлось создать окно не на границе слота (после неполного чтения)
+    private long sliceAllocations;
+
+    // frameBytes - размер кадра в байтах, capacityBytes - размер кольцевого буфера
+    public FramePacketizer(int frameBytes, int capacityBytes) {
+        if (frameBytes <= 0) {
+            throw new IllegalArgumentException("Frame size must be positive");
+        }
+        this.frameBytes = frameBytes;
+        // в буфер всегда помещается хотя бы два кадра, а его размер кратен кадру
+        int slotCount = Math.max(2, (capacityBytes + frameBytes - 1) / frameBytes);
+        this.capacity = slotCount * frameBytes;
+        this.ring = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        this.slots = new ByteBuffer[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = slice(i * frameBytes, frameBytes);
+        }
+    }
+
+    // размер кадра в байтах для данной частоты, длительности кадра и размера сэмпла всех каналов
+    public static int getFrameBytes(int sampleRate, int frameDurationUs, int bytesPerFrame) {
+        return Math.max(1, (int) ((long) sampleRate * frameDurationUs / 1_000_000L)) * bytesPerFrame;
+    }
+
+    // дописывает захваченные данные. Если места нет - выбрасывает самые старые кадры,
+    // т.к. для живого звука свежие данные важнее
+    public void write(@NotNull byte[] src, int offset, int length) {
+        if (length > capacity) {
+            overflowBytes += length - capacity;
+            offset += length - capacity;
+            length = capacity;
+        }
+        makeRoom(length);
+        int first = Math.min(length, capacity - writePosition);
+        ring.position(writePosition);
+        ring.put(src, offset, first);
+        ring.position(0);
+        ring.put(src, offset + first, length - first);
+        writePosition = (writePosition + length) % capacity;
+        size += length;
+        copiedBytes += length;
+    }
+
+    // забирает один кадр в dst[offset, offset + getFrameBytes()).
+    // Возвращает false, если целого кадра ещё не накопилось
+    public boolean readFrame(@NotNull byte[] dst, int offset) {
+        if (size < frameBytes) {
+            return false;
+        }
+        // кадр никогда не переходит через конец буфера
+        ring.position(readPosition);
+        ring.get(dst, offset, frameBytes);
+        releaseFrame();
+        copiedBytes += frameBytes;
+        return true;
+    }
+
+    // возвращает непрерывный участок буфера, в который захват может писать напрямую
+    // (например, AudioRecord.read(ByteBuffer, int)), не больше одного кадра.
+    // Данные пишутся с начала возвращённого буфера, затем вызывается commitCapture()
+    public ByteBuffer captureRegion() {
+        makeRoom(frameBytes - writePosition % frameBytes);
+        int slot = writePosition / frameBytes;
+        int inSlot = writePosition % frameBytes;
+        if (inSlot == 0) {
+            return slots[slot];
+        }
+        // предыдущее чтение было неполным - дочитываем остаток слота
+        sliceAllocations++;
+        return slice(writePosition, frameBytes - inSlot);
+    }
+
+    // отмечает, что в участок из captureRegion() записано bytes байт
+    public void commitCapture(int bytes) {
+        writePosition = (writePosition + bytes) % capacity;
+        size += bytes;
+    }
+
+    // возвращает слот с самым старым целым кадром без копирования, либо null.
+    // Кадр можно изменять на месте; после обработки вызывается releaseFrame()
+    public ByteBuffer peekFrame() {
+        if (size < frameBytes) {
+            return null;
+        }
+        return slots[readPosition / frameBytes];
+    }
+
+    public void releaseFrame() {
+        readPosition = (readPosition + frameBytes) % capacity;
+        size -= frameBytes;
+    }
+
+    private void makeRoom(int length) {
+        int free = capacity - size;
+        if (length > free) {
+            int drop = length - free;
+            // выбрасываем целое число кадров, чтобы не сбить границы сэмплов
+            drop = Math.min(size, (drop + frameBytes - 1) / frameBytes * frameBytes);
+            readPosition = (readPosition + drop) % capacity;
+            size -= drop;
+            overflowBytes += drop;
+        }
+    }
+
+    private ByteBuffer slice(int position, int length) {
+        ByteBuffer window = ring.duplicate();
+        window.limit(position + length).position(position);
+        return window.slice().order(ByteOrder.nativeOrder());
+    }
+
+    public int getFrameBytes() {
+        return frameBytes;
+    }
+
+    // сколько байт накоплено и ещё не отправлено
+    public int available() {
+        return size;
+    }
+
+    // сколько байт было выброшено из-за переполнения
+    public long getOverflowBytes() {
+        return overflowBytes;
+    }
+
+    public long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    public long getSliceAllocations() {
+        return sliceAllocations;
+    }
+
+    public void clear() {
+        readPosition = writePosition = size = 0;
+    }
+}
@@ -0,0 +1,196 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+// кольцо заранее выделенных кадров между двумя потоками конвейера: ровно один поток
+// пишет (производитель) и ровно один читает (потребитель). Блокировок нет: каждый поток
+// двигает только свой счётчик, а чужой читает через volatile. Производитель никогда не ждёт:
+// если кольцо заполнено, кадр выбрасывается и учитывается как переполнение, а его длина
+// передаётся со следующим кадром (skippedBytes), чтобы получатель увидел разрыв.
+// Потребитель, найдя кольцо пустым, засыпает в await() до следующего кадра (опустошение)
+public class FrameRing {
+
+    // ByteBuffer'ы слотов в прямой памяти, их число - степень двойки
+    private final ByteBuffer[] slots;
+    private final int[] lengths;
+    private final int[] skippedBytes;
+    // время захвата первого сэмпла кадра (System.nanoTime), 0 - неизвестно
+    private final long[] timestamps;
+    private final int mask;
+
+    // сколько кадров записано и сколько прочитано за всё время; пишет каждый только свой
+    private volatile long writeCount;
+    private volatile long readCount;
+    // поток-потребитель, если он спит в await()
+    private volatile Thread waiter;
+
+    // счётчики меняет только один поток (свой для каждого), остальные их только читают
+    private volatile long overflows;
+    private volatile long underflows;
+    // длина выброшенных кадров, ещё не переданная со следующим кадром. Только производитель
+    private int pendingSkippedBytes;
+
+    // slotCount - сколько кадров помещается (округляется вверх до степени двойки),
+    // slotBytes - наибольший размер кадра
+    public FrameRing(int slotCount, int slotBytes) {
+        if (slotCount <= 0 || slotBytes <= 0) {
+            throw new IllegalArgumentException("Ring must hold at least one frame");
+        }
+        int capacity = Integer.highestOneBit(slotCount);
+        if (capacity < slotCount) {
+            capacity <<= 1;
+        }
+        this.mask = capacity - 1;
+        this.slots = new ByteBuffer[capacity];
+        this.lengths = new int[capacity];
+        this.skippedBytes = new int[capacity];
+        this.timestamps = new long[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = ByteBuffer.allocateDirect(slotBytes);
+        }
+    }
+
+    // ---- производитель ----
+
+    // копирует кадр frame[0, length) в кольцо, никогда не блокируясь.
+    // Возвращает false, если кольцо заполнено и кадр выброшен
+    public boolean offer(@NotNull ByteBuffer frame, int length) {
+        return offer(frame, length, 0);
+    }
+
+    // то же, с временем захвата первого сэмпла кадра (System.nanoTime)
+    public boolean offer(@NotNull ByteBuffer frame, int length, long timestampNanos) {
+        ByteBuffer slot = claim();
+        if (slot == null) {
+            drop(length);
+            return false;
+        }
+        // копирование между прямыми буферами, звук не покидает нативную память
+        frame.limit(length).position(0);
+        slot.put(frame);
+        frame.clear();
+        slot.clear();
+        publish(length, timestampNanos);
+        return true;
+    }
+
+    // свободный слот, в который производитель может писать с нулевого смещения, либо null.
+    // Затем вызывается publish(), либо drop(), если кадр решено не отправлять
+    public ByteBuffer claim() {
+        long write = writeCount;
+        if (write - readCount > mask) {
+            return null;
+        }
+        ByteBuffer slot = slots[(int) write & mask];
+        slot.clear();
+        return slot;
+    }
+
+    // делает записанный в слот claim() кадр длины length видимым потребителю.
+    // timestampNanos - время захвата первого сэмпла кадра, 0 - неизвестно
+    public void publish(int length, long timestampNanos) {
+        long write = writeCount;
+        int index = (int) write & mask;
+        lengths[index] = length;
+        timestamps[index] = timestampNanos;
+        skippedBytes[index] = pendingSkippedBytes;
+        pendingSkippedBytes = 0;
+        // запись в volatile публикует содержимое слота потребителю
+        writeCount = write + 1;
+        Thread sleeping = waiter;
+        if (sleeping != null) {
+            LockSupport.unpark(sleeping);
+        }
+    }
+
+    // отмечает, что кадр длины length не попал в кольцо (переполнение),
+    // либо что его выбросили раньше (skip) - получатель увидит разрыв со следующим кадром
+    public void drop(int length) {
+        overflows++;
+        skip(length);
+    }
+
+    // добавляет разрыв длиной length байт перед следующим кадром, не считая его переполнением
+    public void skip(int length) {
+        pendingSkippedBytes += length;
+    }
+
+    // ---- потребитель ----
+
+    // ждёт кадр не дольше timeoutNanos. Возвращает true, если кадр есть (см. peek()).
+    // Прерывание потока будит его, флаг прерывания сохраняется
+    public boolean await(long timeoutNanos) {
+        if (writeCount != readCount) {
+            return true;
+        }
+        underflows++;
+        waiter = Thread.currentThread();
+        // проверяем ещё раз уже после того, как назвались: иначе можно проспать publish()
+        if (writeCount == readCount) {
+            LockSupport.parkNanos(this, timeoutNanos);
+        }
+        waiter = null;
+        return writeCount != readCount;
+    }
+
+    // самый старый кадр, либо null, если кольцо пусто. Данные лежат с нулевого смещения,
+    // их можно менять на месте; после обработки вызывается release()
+    public ByteBuffer peek() {
+        long read = readCount;
+        if (read == writeCount) {
+            return null;
+        }
+        return slots[(int) read & mask];
+    }
+
+    // длина кадра из peek()
+    public int peekLength() {
+        return lengths[(int) readCount & mask];
+    }
+
+    // сколько байт звука выброшено перед кадром из peek()
+    public int peekSkippedBytes() {
+        return skippedBytes[(int) readCount & mask];
+    }
+
+    // время захвата кадра из peek(), 0 - неизвестно
+    public long peekTimestamp() {
+        return timestamps[(int) readCount & mask];
+    }
+
+    // возвращает слот кадра из peek() производителю
+    public void release() {
+        long read = readCount;
+        slots[(int) read & mask].clear();
+        readCount = read + 1;
+    }
+
+    // ---- счётчики, можно читать из любого потока ----
+
+    // сколько кадров ждут потребителя
+    public int size() {
+        return (int) (writeCount - readCount);
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    // сколько кадров выброшено производителем из-за того, что кольцо было заполнено
+    public long getOverflows() {
+        return overflows;
+    }
+
+    // сколько раз потребитель находил кольцо пустым и ждал
+    public long getUnderflows() {
+        return underflows;
+    }
+
+    // сколько кадров прошло через кольцо
+    public long getFramesRead() {
+        return readCount;
+    }
+}
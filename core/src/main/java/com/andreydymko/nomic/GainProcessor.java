@@ -0,0 +1,179 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// усиление звука в n раз с насыщением: громкий вход упирается в предел,
+// а не переполняется в щелчки. Обработка идёт на месте, без выделения памяти.
+// Форматы - см. SampleFormat: PCM 16 бит, 24 бита (по три байта) и float, который
+// ограничивается диапазоном [-1, 1]. Усиление не зависит от числа каналов: каналы
+// чередуются, и каждый сэмпл умножается независимо.
+// Основная реализация нативная (NEON / SSE2, см. soundVolumeIncreaser.h);
+// если библиотека не загрузилась (например, в тестах на JVM) - используется
+// скалярная реализация на Java с тем же результатом
+public class GainProcessor {
+
+    // наибольший множитель громкости - и с ползунка, и по управляющему протоколу
+    public static final float MAX_MULTIPLIER = 20.0f;
+
+    private static final int SAMPLE_24_MAX = (1 << 23) - 1;
+    private static final int SAMPLE_24_MIN = -(1 << 23);
+
+    private static final boolean nativeAvailable;
+
+    static {
+        boolean loaded;
+        try {
+            System.loadLibrary("soundVolumeIncreaser");
+            loaded = true;
+        } catch (UnsatisfiedLinkError e) {
+            loaded = false;
+        }
+        nativeAvailable = loaded;
+    }
+
+    public static boolean isNativeAvailable() {
+        return nativeAvailable;
+    }
+
+    // усиливает buffer[offset, offset + length), сэмплы little-endian
+    public static void apply(@NotNull byte[] buffer, int offset, int length, float multiplier) {
+        if (nativeAvailable) {
+            nativeApplyBytes(buffer, offset, length, multiplier);
+        } else {
+            applyScalar(buffer, offset, length, multiplier);
+        }
+    }
+
+    // усиливает байты [offset, offset + length) ByteBuffer'а; прямые буферы обрабатываются нативно
+    public static void apply(@NotNull ByteBuffer buffer, int offset, int length, float multiplier) {
+        if (nativeAvailable && buffer.isDirect()) {
+            nativeApplyDirect(buffer, offset, length, multiplier);
+        } else {
+            applyScalar(buffer, offset, length, multiplier);
+        }
+    }
+
+    // усиливает байты [offset, offset + length) звука в формате encoding
+    public static void apply(@NotNull ByteBuffer buffer, int offset, int length, float multiplier,
+                             @SampleFormat.encoding int encoding) {
+        switch (encoding) {
+            case SampleFormat.ENCODING.PCM_24_PACKED:
+                if (nativeAvailable && buffer.isDirect()) {
+                    nativeApplyDirect24(buffer, offset, length, multiplier);
+                } else {
+                    applyScalar24(buffer, offset, length, multiplier);
+                }
+                break;
+            case SampleFormat.ENCODING.PCM_FLOAT:
+                if (nativeAvailable && buffer.isDirect()) {
+                    nativeApplyDirectFloat(buffer, offset, length, multiplier);
+                } else {
+                    applyScalarFloat(buffer, offset, length, multiplier);
+                }
+                break;
+            case SampleFormat.ENCODING.PCM_16:
+            default:
+                apply(buffer, offset, length, multiplier);
+                break;
+        }
+    }
+
+    public static void apply(@NotNull short[] samples, int offset, int count, float multiplier) {
+        if (nativeAvailable) {
+            nativeApplyShorts(samples, offset, count, multiplier);
+        } else {
+            applyScalar(samples, offset, count, multiplier);
+        }
+    }
+
+    // один сэмпл: усечение к нулю и насыщение, как в nomic::gainSample
+    public static short gainSample(int sample, float multiplier) {
+        int value = (int) (sample * multiplier);
+        if (value > Short.MAX_VALUE) {
+            return Short.MAX_VALUE;
+        }
+        if (value < Short.MIN_VALUE) {
+            return Short.MIN_VALUE;
+        }
+        return (short) value;
+    }
+
+    // сэмпл 24 бит, как nomic::gainSample24
+    public static int gainSample24(int sample, float multiplier) {
+        int value = (int) (sample * multiplier);
+        if (value > SAMPLE_24_MAX) {
+            return SAMPLE_24_MAX;
+        }
+        if (value < SAMPLE_24_MIN) {
+            return SAMPLE_24_MIN;
+        }
+        return value;
+    }
+
+    // сэмпл float, как nomic::gainSampleFloat
+    public static float gainSampleFloat(float sample, float multiplier) {
+        float value = sample * multiplier;
+        return value > 1f ? 1f : value < -1f ? -1f : value;
+    }
+
+    public static void applyScalar(@NotNull byte[] buffer, int offset, int length, float multiplier) {
+        int end = offset + (length & ~1);
+        for (int i = offset; i < end; i += 2) {
+            short sample = gainSample((short) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8)), multiplier);
+            buffer[i] = (byte) sample;
+            buffer[i + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    // сэмплы little-endian, как их отдаёт AudioRecord на всех поддерживаемых устройствах
+    public static void applyScalar(@NotNull ByteBuffer buffer, int offset, int length, float multiplier) {
+        int end = offset + (length & ~1);
+        for (int i = offset; i < end; i += 2) {
+            short sample = gainSample((short) ((buffer.get(i) & 0xFF) | (buffer.get(i + 1) << 8)), multiplier);
+            buffer.put(i, (byte) sample);
+            buffer.put(i + 1, (byte) (sample >> 8));
+        }
+    }
+
+    public static void applyScalar24(@NotNull ByteBuffer buffer, int offset, int length, float multiplier) {
+        int end = offset + length - length % 3;
+        for (int i = offset; i < end; i += 3) {
+            int sample = gainSample24((buffer.get(i) & 0xFF) | (buffer.get(i + 1) & 0xFF) << 8 | buffer.get(i + 2) << 16,
+                    multiplier);
+            buffer.put(i, (byte) sample);
+            buffer.put(i + 1, (byte) (sample >> 8));
+            buffer.put(i + 2, (byte) (sample >> 16));
+        }
+    }
+
+    // float читается целиком, 4 байта за раз; порядок байт буфера не меняется
+    public static void applyScalarFloat(@NotNull ByteBuffer buffer, int offset, int length, float multiplier) {
+        boolean swap = buffer.order() != ByteOrder.LITTLE_ENDIAN;
+        int end = offset + (length & ~3);
+        for (int i = offset; i < end; i += 4) {
+            int bits = buffer.getInt(i);
+            float sample = gainSampleFloat(Float.intBitsToFloat(swap ? Integer.reverseBytes(bits) : bits), multiplier);
+            bits = Float.floatToRawIntBits(sample);
+            buffer.putInt(i, swap ? Integer.reverseBytes(bits) : bits);
+        }
+    }
+
+    public static void applyScalar(@NotNull short[] samples, int offset, int count, float multiplier) {
+        for (int i = offset; i < offset + count; i++) {
+            samples[i] = gainSample(samples[i], multiplier);
+        }
+    }
+
+    private static native void nativeApplyBytes(byte[] buffer, int offset, int length, float multiplier);
+
+    private static native void nativeApplyDirect(ByteBuffer buffer, int offset, int length, float multiplier);
+
+    private static native void nativeApplyShorts(short[] samples, int offset, int count, float multiplier);
+
+    private static native void nativeApplyDirect24(ByteBuffer buffer, int offset, int length, float multiplier);
+
+    private static native void nativeApplyDirectFloat(ByteBuffer buffer, int offset, int length, float multiplier);
+}
@@ -0,0 +1,147 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// гистограмма длительностей в наносекундах с фиксированными границами корзин 1-2-5
+// (от 1 мкс до 5 с). Запись не выделяет память и не блокируется, поэтому её можно
+// вызывать из потоков конвейера, в том числе из нескольких сразу. Чтение (snapshot)
+// выделяет память и нужно только для отображения и выгрузки
+public class Histogram {
+
+    // верхние границы корзин включительно, последняя корзина - всё, что больше
+    public final static long[] BOUNDS_NS = {
+            1_000L, 2_000L, 5_000L,
+            10_000L, 20_000L, 50_000L,
+            100_000L, 200_000L, 500_000L,
+            1_000_000L, 2_000_000L, 5_000_000L,
+            10_000_000L, 20_000_000L, 50_000_000L,
+            100_000_000L, 200_000_000L, 500_000_000L,
+            1_000_000_000L, 2_000_000_000L, 5_000_000_000L
+    };
+
+    private final String name;
+    private final String help;
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_NS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public Histogram(@NotNull String name, @NotNull String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    // учитывает одно значение; отрицательные считаются нулём
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long current;
+        while (nanos > (current = max.get())) {
+            if (max.compareAndSet(current, nanos)) {
+                break;
+            }
+        }
+    }
+
+    // номер корзины: первая граница, не меньшая значения (двоичный поиск)
+    static int bucketOf(long nanos) {
+        int low = 0;
+        int high = BOUNDS_NS.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (BOUNDS_NS[middle] < nanos) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHelp() {
+        return help;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return new Snapshot(counts, sum.get(), max.get());
+    }
+
+    // копия гистограммы на один момент. Счётчики корзин читаются по одному,
+    // поэтому при одновременной записи копия может отставать на несколько значений
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(@NotNull long[] counts, long sum, long max) {
+            this.counts = counts;
+            long total = 0;
+            for (long bucket : counts) {
+                total += bucket;
+            }
+            this.count = total;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long[] getCounts() {
+            return counts;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        // оценка квантиля quantile (0..1): линейно внутри корзины, не больше максимума
+        public long getQuantile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            double rank = quantile * count;
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0 || seen + counts[i] < rank) {
+                    seen += counts[i];
+                    continue;
+                }
+                long lower = i == 0 ? 0 : BOUNDS_NS[i - 1];
+                long upper = i < BOUNDS_NS.length ? BOUNDS_NS[i] : max;
+                long estimate = lower + (long) ((upper - lower) * ((rank - seen) / counts[i]));
+                return Math.min(estimate, max);
+            }
+            return max;
+        }
+    }
+}
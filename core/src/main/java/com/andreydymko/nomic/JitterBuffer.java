@@ -0,0 +1,377 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// буфер компенсации джиттера для получателя потока MicThread.
+// Принимает пакеты AudioPacket в любом порядке и с любым размером, раскладывает
+// сэмплы по их timestamp в кольцевой буфер и отдаёт ровный поток PCM 16 бит
+// (принимаются пакеты PCM 16 бит и G.711 mu-law)
+// кусками фиксированного размера. Задержка воспроизведения подстраивается под
+// измеренный разброс времени прихода пакетов, а пропуски маскируются повтором
+// последнего звучавшего фрагмента с затуханием. Если отправитель подавляет тишину
+// (пакеты комфортного шума AudioPacket.PAYLOAD_TYPE.CN), паузы заполняются шумом его уровня.
+// Класс не потокобезопасен: put() и read() должны вызываться из одного потока,
+// либо снаружи под общей блокировкой
+public class JitterBuffer {
+
+    // по скольким последним пакетам оценивается разброс задержки
+    private final static int DELAY_WINDOW = 128;
+    // какая доля пакетов из окна должна успевать к воспроизведению
+    private final static double DELAY_QUANTILE = 0.95;
+    // на сколько медленнее целевая задержка уменьшается, чем растёт
+    private final static int DELAY_DECAY = 32;
+
+    private final int sampleRate;
+    private final int channels;
+    private final int bytesPerFrame;
+    private final int minDelayFrames;
+    private final int maxDelayFrames;
+
+    // кольцевой буфер сэмплов, адресуемый timestamp'ом кадра
+    private final int capacity;
+    private final int mask;
+    private final short[] ring;
+    private final boolean[] filled;
+
+    // последний звучавший фрагмент для маскировки потерь
+    private final short[] history;
+    private final int historyFrames;
+    private int historyPosition;
+    // за сколько кадров маскировка затухает до тишины
+    private final int concealFadeFrames;
+    private int concealedRun;
+    // отправитель замолчал (пришёл пакет комфортного шума) и амплитуда шума, который он прислал
+    private boolean comfortNoise;
+    private float comfortNoiseAmplitude;
+    private final Random noise = new Random();
+
+    // относительные задержки пакетов в тактах
+    private final long[] transits = new long[DELAY_WINDOW];
+    private final long[] sortScratch = new long[DELAY_WINDOW];
+    private int transitCount;
+    private int transitPosition;
+    private boolean targetDirty;
+
+    private final PacketDecoder decoder;
+    private final AudioPacket packet = new AudioPacket();
+
+    private boolean started;
+    private boolean buffering;
+    private long ssrc;
+    // номер следующего воспроизводимого кадра в шкале timestamp (с учётом переполнений)
+    private long playoutPosition;
+    // конец самого нового принятого пакета
+    private long highestEnd;
+    // самый длинный принятый пакет в кадрах
+    private int maxPacketFrames;
+    private int targetDelayFrames;
+
+    private long underruns;
+    private long concealedFrames;
+    private long droppedFrames;
+    private long latePackets;
+    private long resyncs;
+    private long comfortNoiseFrames;
+
+    // sampleRate и channels - параметры потока из рукопожатия,
+    // minDelayMs / maxDelayMs - границы адаптивной задержки воспроизведения
+    public JitterBuffer(int sampleRate, int channels, int minDelayMs, int maxDelayMs) {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bytesPerFrame = 2 * channels;
+        this.minDelayFrames = msToFrames(minDelayMs);
+        this.maxDelayFrames = Math.max(minDelayFrames, msToFrames(maxDelayMs));
+        this.targetDelayFrames = minDelayFrames;
+        // буфер вмещает удвоенную максимальную задержку, чтобы запоздавшие пакеты
+        // не затирали ещё не проигранные кадры
+        this.capacity = Integer.highestOneBit(Math.max(2 * maxDelayFrames, 1024) - 1) << 1;
+        this.mask = capacity - 1;
+        this.ring = new short[capacity * channels];
+        this.filled = new boolean[capacity];
+        this.historyFrames = Math.max(1, msToFrames(10));
+        this.history = new short[historyFrames * channels];
+        this.concealFadeFrames = Math.max(1, msToFrames(40));
+        this.decoder = new PacketDecoder(sampleRate);
+    }
+
+    // кладёт в буфер пакет data[offset, offset + length), полученный в момент arrivalNanos.
+    // Возвращает false, если пакет отброшен (чужой, дубликат или опоздал)
+    public boolean put(@NotNull byte[] data, int offset, int length, long arrivalNanos) {
+        long packetSsrc = PacketDecoder.peekSsrc(data, offset, length);
+        if (packetSsrc < 0) {
+            return false;
+        }
+        if (started && packetSsrc != ssrc) {
+            // отправитель начал новый поток - начинаем заново
+            reset();
+        }
+        if (!decoder.decode(data, offset, length, arrivalNanos, packet)) {
+            return false;
+        }
+        if (packet.getPayloadType() == AudioPacket.PAYLOAD_TYPE.CN) {
+            // до следующего звука паузы заполняются шумом уровня из пакета (-dBov, RFC 3389)
+            if (packet.getPayloadLength() > 0) {
+                int level = packet.getData()[packet.getPayloadOffset()] & 0x7F;
+                comfortNoiseAmplitude = (float) (Short.MAX_VALUE * Math.pow(10, -level / 20.0));
+            }
+            comfortNoise = true;
+            return true;
+        }
+        // размер закодированного кадра в байтах: PCM 16 бит либо G.711 (8 бит на сэмпл)
+        int encodedFrameBytes;
+        switch (packet.getPayloadType()) {
+            case AudioPacket.PAYLOAD_TYPE.PCM_16_LE:
+                encodedFrameBytes = bytesPerFrame;
+                break;
+            case AudioPacket.PAYLOAD_TYPE.PCMU:
+                encodedFrameBytes = channels;
+                break;
+            default:
+                // сжатые форматы нужно декодировать до буфера
+                return false;
+        }
+        boolean ulaw = packet.getPayloadType() == AudioPacket.PAYLOAD_TYPE.PCMU;
+        int frames = packet.getPayloadLength() / encodedFrameBytes;
+        if (frames == 0) {
+            return false;
+        }
+        if (!started) {
+            started = true;
+            buffering = true;
+            ssrc = packetSsrc;
+            playoutPosition = packet.getTimestamp();
+            highestEnd = playoutPosition;
+        }
+        long timestamp = playoutPosition + (int) (packet.getTimestamp() - (int) playoutPosition);
+        long end = timestamp + frames;
+        comfortNoise = false;
+
+        if (packet.isMarker() && buffering && playoutPosition >= highestEnd && timestamp > playoutPosition) {
+            // начало речи после тишины: всё проиграно, и воспроизведение продолжится с этого
+            // пакета, а не с места, где звук кончился, - пауза не превращается в задержку
+            playoutPosition = timestamp;
+            highestEnd = timestamp;
+        }
+
+        if (end <= playoutPosition) {
+            latePackets++;
+            return false;
+        }
+        if (end - playoutPosition > capacity) {
+            // пакет слишком далеко впереди (долгий разрыв связи) - перескакиваем к нему
+            resyncs++;
+            Arrays.fill(filled, false);
+            playoutPosition = timestamp;
+            highestEnd = timestamp;
+            buffering = true;
+        }
+
+        maxPacketFrames = Math.max(maxPacketFrames, frames);
+        recordTransit(timestamp, arrivalNanos);
+
+        byte[] payload = packet.getData();
+        int payloadOffset = packet.getPayloadOffset();
+        // кадры, которые уже проиграны, пропускаем
+        int first = (int) Math.max(0, playoutPosition - timestamp);
+        for (int frame = first; frame < frames; frame++) {
+            int index = (int) ((timestamp + frame) & mask);
+            int src = payloadOffset + frame * encodedFrameBytes;
+            int dst = index * channels;
+            if (ulaw) {
+                for (int channel = 0; channel < channels; channel++, src++) {
+                    ring[dst + channel] = G711Encoder.ulawToLinear(payload[src]);
+                }
+            } else {
+                for (int channel = 0; channel < channels; channel++, src += 2) {
+                    ring[dst + channel] = (short) ((payload[src] & 0xFF) | (payload[src + 1] << 8));
+                }
+            }
+            filled[index] = true;
+        }
+        highestEnd = Math.max(highestEnd, end);
+        return true;
+    }
+
+    // записывает в out ровно frames кадров PCM 16 бит little-endian.
+    // Вызывается с постоянным темпом устройства воспроизведения
+    public int read(@NotNull byte[] out, int offset, int frames) {
+        if (!started) {
+            Arrays.fill(out, offset, offset + frames * bytesPerFrame, (byte) 0);
+            return frames;
+        }
+        updateTargetDelay();
+        long depth = highestEnd - playoutPosition;
+
+        if (buffering) {
+            if (depth < targetDelayFrames) {
+                // ждём, пока наберётся нужная задержка, тем временем маскируем тишину
+                conceal(out, offset, frames);
+                return frames;
+            }
+            buffering = false;
+        } else if (depth > targetDelayFrames + frames) {
+            // задержка больше нужной - понемногу выбрасываем кадры, чтобы догнать отправителя
+            int skip = (int) Math.min(depth - targetDelayFrames - frames, Math.max(1, frames / 8));
+            for (int i = 0; i < skip; i++) {
+                filled[(int) (playoutPosition++ & mask)] = false;
+            }
+            droppedFrames += skip;
+        }
+
+        int written = 0;
+        while (written < frames) {
+            if (playoutPosition >= highestEnd) {
+                // данных больше нет - оставшееся маскируем и снова копим задержку
+                underruns++;
+                buffering = true;
+                conceal(out, offset + written * bytesPerFrame, frames - written);
+                break;
+            }
+            int index = (int) (playoutPosition & mask);
+            int dst = offset + written * bytesPerFrame;
+            if (filled[index]) {
+                filled[index] = false;
+                int src = index * channels;
+                int hist = historyPosition * channels;
+                for (int channel = 0; channel < channels; channel++, dst += 2) {
+                    short sample = ring[src + channel];
+                    history[hist + channel] = sample;
+                    out[dst] = (byte) sample;
+                    out[dst + 1] = (byte) (sample >> 8);
+                }
+                historyPosition = (historyPosition + 1) % historyFrames;
+                concealedRun = 0;
+            } else {
+                // кадр потерян, но за ним есть данные - маскируем один кадр и идём дальше
+                conceal(out, dst, 1);
+            }
+            playoutPosition++;
+            written++;
+        }
+        return frames;
+    }
+
+    // повторяет последние проигранные кадры, плавно уменьшая громкость до тишины.
+    // Если отправитель замолчал сам - играет комфортный шум
+    private void conceal(byte[] out, int offset, int frames) {
+        if (comfortNoise) {
+            playComfortNoise(out, offset, frames);
+            return;
+        }
+        concealedFrames += frames;
+        int dst = offset;
+        for (int frame = 0; frame < frames; frame++) {
+            int gain = Math.max(0, concealFadeFrames - concealedRun);
+            int hist = ((historyPosition + concealedRun) % historyFrames) * channels;
+            for (int channel = 0; channel < channels; channel++, dst += 2) {
+                int sample = history[hist + channel] * gain / concealFadeFrames;
+                out[dst] = (byte) sample;
+                out[dst + 1] = (byte) (sample >> 8);
+            }
+            if (concealedRun < concealFadeFrames) {
+                concealedRun++;
+            }
+        }
+    }
+
+    // белый шум с действующим значением comfortNoiseAmplitude (у равномерного шума оно в корень
+    // из трёх раз меньше размаха)
+    private void playComfortNoise(byte[] out, int offset, int frames) {
+        comfortNoiseFrames += frames;
+        float range = 2 * (float) Math.sqrt(3) * comfortNoiseAmplitude;
+        for (int i = 0, dst = offset; i < frames * channels; i++, dst += 2) {
+            int sample = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, (noise.nextFloat() - 0.5f) * range));
+            out[dst] = (byte) sample;
+            out[dst + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    private void recordTransit(long timestamp, long arrivalNanos) {
+        transits[transitPosition] = PacketDecoder.nanosToTicks(arrivalNanos, sampleRate) - timestamp;
+        transitPosition = (transitPosition + 1) % DELAY_WINDOW;
+        transitCount = Math.min(transitCount + 1, DELAY_WINDOW);
+        targetDirty = true;
+    }
+
+    // целевая задержка = квантиль разброса задержек пакетов + длина самого длинного пакета
+    private void updateTargetDelay() {
+        if (!targetDirty) {
+            return;
+        }
+        targetDirty = false;
+        System.arraycopy(transits, 0, sortScratch, 0, transitCount);
+        Arrays.sort(sortScratch, 0, transitCount);
+        long spread = sortScratch[(int) ((transitCount - 1) * DELAY_QUANTILE)] - sortScratch[0];
+        int candidate = (int) Math.max(minDelayFrames, Math.min(maxDelayFrames, spread + maxPacketFrames));
+        if (candidate > targetDelayFrames) {
+            targetDelayFrames = candidate;
+        } else {
+            targetDelayFrames -= (targetDelayFrames - candidate) / DELAY_DECAY;
+        }
+    }
+
+    public void reset() {
+        started = false;
+        buffering = false;
+        Arrays.fill(filled, false);
+        decoder.reset();
+        transitCount = 0;
+        transitPosition = 0;
+        maxPacketFrames = 0;
+        targetDelayFrames = minDelayFrames;
+        concealedRun = 0;
+        comfortNoise = false;
+    }
+
+    private int msToFrames(int ms) {
+        return (int) ((long) sampleRate * ms / 1000);
+    }
+
+    // текущая задержка воспроизведения: сколько принятого звука ещё не проиграно
+    public double getBufferedMillis() {
+        return started ? (highestEnd - playoutPosition) * 1000.0 / sampleRate : 0;
+    }
+
+    // timestamp следующего воспроизводимого кадра, позволяет посчитать полную задержку
+    // от захвата звука до его воспроизведения
+    public long getPlayoutTimestamp() {
+        return playoutPosition & 0xFFFFFFFFL;
+    }
+
+    public double getTargetDelayMillis() {
+        return targetDelayFrames * 1000.0 / sampleRate;
+    }
+
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    public long getConcealedFrames() {
+        return concealedFrames;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public long getLatePackets() {
+        return latePackets;
+    }
+
+    public long getResyncs() {
+        return resyncs;
+    }
+
+    // сколько кадров заполнено комфортным шумом, пока отправитель молчал
+    public long getComfortNoiseFrames() {
+        return comfortNoiseFrames;
+    }
+
+    // статистика потока: потери, переупорядочивание и джиттер
+    public PacketDecoder getStreamStatistics() {
+        return decoder;
+    }
+}
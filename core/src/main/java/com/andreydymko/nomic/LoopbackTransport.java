@@ -0,0 +1,85 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+
+// "сеть" в памяти для тестов и замеров на JVM: отправленные датаграммы складываются в FrameRing
+// и забираются получателем в другом потоке. Как и у UDP-сокета, буфер ограничен: если получатель
+// не успевает, датаграмма теряется. Отправитель - один поток (SubscriberThread), получатель - тоже один
+public class LoopbackTransport implements Transport {
+
+    private final FrameRing datagrams;
+    private final int maxDatagramBytes;
+    // для отправки одного буфера без выделения массива
+    private final ByteBuffer[] single = new ByteBuffer[1];
+    private volatile boolean closed;
+
+    // capacity - сколько датаграмм помещается в буфер, maxDatagramBytes - наибольший размер датаграммы
+    public LoopbackTransport(int capacity, int maxDatagramBytes) {
+        this.datagrams = new FrameRing(capacity, maxDatagramBytes);
+        this.maxDatagramBytes = maxDatagramBytes;
+    }
+
+    @Override
+    public long write(@NotNull ByteBuffer[] srcs) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        long length = 0;
+        for (ByteBuffer src : srcs) {
+            length += src.remaining();
+        }
+        if (length > maxDatagramBytes) {
+            throw new IOException("Datagram of " + length + " bytes exceeds " + maxDatagramBytes);
+        }
+        ByteBuffer slot = datagrams.claim();
+        if (slot == null) {
+            // буфер получателя полон - датаграмма пропадает, но считается отправленной
+            for (ByteBuffer src : srcs) {
+                src.position(src.limit());
+            }
+            datagrams.drop((int) length);
+            return length;
+        }
+        for (ByteBuffer src : srcs) {
+            slot.put(src);
+        }
+        slot.clear();
+        // время отправки - для замера задержки получателем
+        datagrams.publish((int) length, System.nanoTime());
+        return length;
+    }
+
+    @Override
+    public long write(@NotNull ByteBuffer src) throws IOException {
+        single[0] = src;
+        return write(single);
+    }
+
+    // ждёт датаграмму не дольше timeoutNanos и копирует её в dst с нулевого смещения.
+    // Возвращает её размер, либо -1, если датаграммы нет
+    public int receive(@NotNull byte[] dst, long timeoutNanos) {
+        if (!datagrams.await(timeoutNanos)) {
+            return -1;
+        }
+        int length = datagrams.peekLength();
+        ByteBuffer datagram = datagrams.peek();
+        datagram.limit(length).position(0);
+        datagram.get(dst, 0, length);
+        datagrams.release();
+        return length;
+    }
+
+    // сколько датаграмм потеряно из-за того, что получатель не успевал
+    public long getDropped() {
+        return datagrams.getOverflows();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,209 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// метрики одного сеанса захвата. Все метрики создаются вместе с реестром, потоки конвейера
+// держат ссылки на них и только увеличивают счётчики - без выделения памяти и блокировок.
+// Снаружи метрики видны через StreamingService: привязкой (LocalBinder), редкими
+// широковещательными снимками (MetricsSnapshot в модуле app) и текстом для сбора (writeText, dumpsys)
+public class MetricsRegistry {
+
+    private final List<Histogram> histograms = new ArrayList<>();
+    private final List<Counter> counters = new ArrayList<>();
+    private final List<Gauge> gauges = new ArrayList<>();
+
+    // сколько длился AudioRecord.read
+    public final Histogram captureRead = histogram("nomic_capture_read_seconds",
+            "Duration of AudioRecord.read calls");
+    // сколько заняла обработка кадра (усиление)
+    public final Histogram processing = histogram("nomic_processing_seconds",
+            "Time spent processing one captured frame");
+    // сколько заняло кодирование и отправка одного пакета
+    public final Histogram send = histogram("nomic_send_seconds",
+            "Time spent encoding and sending one packet");
+    // возраст звука: от захвата первого сэмпла пакета до ухода пакета в сеть
+    public final Histogram frameAge = histogram("nomic_frame_age_seconds",
+            "Time from capture of a packet's first sample until the packet is sent");
+    // возобновление сеанса (SessionTable): от запроса до первого пакета по новому каналу
+    public final Histogram sessionResume = histogram("nomic_session_resume_seconds",
+            "Time from a session resume request until the first packet is sent on the new channel");
+
+    public final Counter packetsSent = counter("nomic_packets_sent_total",
+            "Datagrams sent to listeners, parity packets included");
+    public final Counter bytesSent = counter("nomic_bytes_sent_total",
+            "Bytes sent to listeners, parity packets included");
+    public final Counter sendErrors = counter("nomic_send_errors_total",
+            "Listeners dropped or suspended because sending to them failed");
+    public final Counter captureOverruns = counter("nomic_capture_overruns_total",
+            "Times AudioRecord's buffer overflowed before it was read");
+    public final Counter captureOverrunFrames = counter("nomic_capture_overrun_frames_total",
+            "Audio frames lost in AudioRecord's buffer overflows");
+    // подавление тишины (VoiceActivityDetector): сколько кадров не ушло и сколько байт это сберегло
+    public final Counter vadSuppressedFrames = counter("nomic_vad_suppressed_frames_total",
+            "Captured frames not sent to listeners because they were silent");
+    public final Counter vadSavedBytes = counter("nomic_vad_saved_bytes_total",
+            "Estimated bytes not sent to listeners because of silence suppression");
+    public final Counter comfortNoisePackets = counter("nomic_comfort_noise_packets_total",
+            "Comfort noise packets sent in place of suppressed silence");
+    // автоматическая регулировка усиления и ограничитель (AutomaticGainControl)
+    public final Counter limiterEngagedFrames = counter("nomic_limiter_engaged_frames_total",
+            "Captured frames the limiter had to attenuate");
+
+    public final Gauge agcGain = gauge("nomic_agc_gain_db",
+            "Gain applied by automatic gain control, in dB");
+    public final Gauge limiterGainReduction = gauge("nomic_limiter_gain_reduction_db",
+            "Largest limiter gain reduction in the last processed frame, in dB");
+
+    private Histogram histogram(String name, String help) {
+        Histogram histogram = new Histogram(name, help);
+        histograms.add(histogram);
+        return histogram;
+    }
+
+    private Counter counter(String name, String help) {
+        Counter counter = new Counter(name, help);
+        counters.add(counter);
+        return counter;
+    }
+
+    private Gauge gauge(String name, String help) {
+        Gauge gauge = new Gauge(name, help);
+        gauges.add(gauge);
+        return gauge;
+    }
+
+    public List<Histogram> getHistograms() {
+        return Collections.unmodifiableList(histograms);
+    }
+
+    public List<Counter> getCounters() {
+        return Collections.unmodifiableList(counters);
+    }
+
+    public List<Gauge> getGauges() {
+        return Collections.unmodifiableList(gauges);
+    }
+
+    // выгружает все метрики в текстовом формате Prometheus (text exposition format 0.0.4).
+    // Длительности - в секундах
+    public void writeText(@NotNull Appendable out) throws IOException {
+        for (Counter counter : counters) {
+            out.append("# HELP ").append(counter.getName()).append(' ').append(counter.getHelp()).append('\n');
+            out.append("# TYPE ").append(counter.getName()).append(" counter\n");
+            out.append(counter.getName()).append(' ').append(String.valueOf(counter.get())).append('\n');
+        }
+        for (Gauge gauge : gauges) {
+            out.append("# HELP ").append(gauge.getName()).append(' ').append(gauge.getHelp()).append('\n');
+            out.append("# TYPE ").append(gauge.getName()).append(" gauge\n");
+            out.append(gauge.getName()).append(' ').append(number(gauge.get())).append('\n');
+        }
+        for (Histogram histogram : histograms) {
+            String name = histogram.getName();
+            Histogram.Snapshot snapshot = histogram.snapshot();
+            out.append("# HELP ").append(name).append(' ').append(histogram.getHelp()).append('\n');
+            out.append("# TYPE ").append(name).append(" histogram\n");
+            long[] counts = snapshot.getCounts();
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                String bound = i < Histogram.BOUNDS_NS.length ? seconds(Histogram.BOUNDS_NS[i]) : "+Inf";
+                out.append(name).append("_bucket{le=\"").append(bound).append("\"} ")
+                        .append(String.valueOf(cumulative)).append('\n');
+            }
+            out.append(name).append("_sum ").append(seconds(snapshot.getSum())).append('\n');
+            out.append(name).append("_count ").append(String.valueOf(snapshot.getCount())).append('\n');
+        }
+    }
+
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        try {
+            writeText(text);
+        } catch (IOException e) {
+            // StringBuilder не бросает исключений
+            throw new IllegalStateException(e);
+        }
+        return text.toString();
+    }
+
+    static String seconds(long nanos) {
+        return BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+    }
+
+    static String number(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    // монотонный счётчик, увеличивается из любых потоков
+    public static class Counter {
+        private final String name;
+        private final String help;
+        private final AtomicLong value = new AtomicLong();
+
+        Counter(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHelp() {
+            return help;
+        }
+    }
+
+    // текущее значение, которое может и расти, и падать; пишет один поток, читают любые
+    public static class Gauge {
+        private final String name;
+        private final String help;
+        private volatile double value;
+
+        Gauge(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        public void set(double value) {
+            this.value = value;
+        }
+
+        public double get() {
+            return value;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHelp() {
+            return help;
+        }
+    }
+}
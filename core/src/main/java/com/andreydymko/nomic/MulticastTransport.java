@@ -0,0 +1,63 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+
+// отправка одного потока на multicast-группу: одна датаграмма на кадр обслуживает
+// любое количество слушателей в сети, поэтому стоимость отправки не зависит от их числа
+public class MulticastTransport {
+
+    // группа по умолчанию из диапазона "administratively scoped" (RFC 2365), не выходит за пределы организации
+    public final static String DEFAULT_GROUP = "239.255.42.99";
+    public final static int DEFAULT_PORT = 8127;
+    // TTL 1 - пакеты не покидают локальную сеть
+    public final static int DEFAULT_TTL = 1;
+
+    private MulticastTransport() {
+    }
+
+    // открывает канал, направленный на группу group:port. ttl - сколько маршрутизаторов
+    // могут переслать пакет, networkInterface - через какой интерфейс отправлять (null - по выбору системы).
+    // Требует Android 7.0 (API 24) из-за DatagramChannel.setOption
+    public static DatagramChannel openSender(@NotNull InetAddress group, int port, int ttl,
+                                             NetworkInterface networkInterface) throws IOException {
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        try {
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+            if (networkInterface != null) {
+                channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+            }
+            channel.socket().bind(null);
+            channel.connect(new InetSocketAddress(group, port));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    // то же для старых версий Android: TTL и интерфейс остаются системными (TTL 1)
+    public static DatagramChannel openDefaultSender(@NotNull InetAddress group, int port) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.socket().bind(null);
+            channel.connect(new InetSocketAddress(group, port));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    // строка с параметрами multicast-потока, отправляемая клиенту при рукопожатии
+    public static String describe(@NotNull InetAddress group, int port, int ttl) {
+        return "multicast " + group.getHostAddress() + " " + port + " " + ttl;
+    }
+}
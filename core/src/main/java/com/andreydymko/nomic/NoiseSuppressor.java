@@ -0,0 +1,281 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// подавление шума спектральным вычитанием (винеровский фильтр с априорным SNR по схеме
+// "decision-directed"). Звук режется на окна windowSize = 2^k не длиннее MAX_WINDOW_MS с
+// перекрытием в половину (окно - корень из Ханна на анализе и на синтезе, так что без
+// подавления звук восстанавливается точно). Шум в каждой полосе оценивается минимумом
+// сглаженного спектра мощности, который медленно ползёт вверх, - отдельного детектора речи
+// не нужно, а шум, ставший громче, догоняется за секунды. Ослабление полосы - не больше
+// maxAttenuationDb, так что остаток шума ровный, без "музыкальных" призвуков.
+// Задержка - ровно одно окно (getDelayFrames), всё выделяется в конструкторе.
+// Основная реализация нативная (nomic::NoiseSuppressor в noiseSuppressor.h), здесь же -
+// эталонная на Java: она работает, если библиотека не загрузилась (например, в тестах на JVM).
+// Нативная копия создаётся первым process() - в потоке, который обрабатывает звук, - и живёт
+// до release(); подавитель, который так и не обработал ни кадра, её не держит.
+// Формат - encoding (SampleFormat) с чередованием каналов, каналы обрабатываются независимо
+public class NoiseSuppressor {
+
+    // окно анализа не длиннее этого - так ограничена задержка
+    private final static double MAX_WINDOW_MS = 12;
+    // сглаживание спектра мощности по окнам перед поиском минимума
+    private final static float POWER_SMOOTHING = 0.7f;
+    // с какой скоростью оценка шума может расти, пока сглаженный спектр не опустился до неё
+    private final static double NOISE_RISE_DB_PER_SECOND = 3;
+    // первые полсекунды оценка шума просто следует за сглаженным спектром: иначе она начинается
+    // с минимума первых окон и поднимается к шуму несколько секунд
+    private final static double STARTUP_S = 0.5;
+    // минимум сглаженного спектра лежит ниже среднего уровня шума - во столько раз
+    private final static float NOISE_BIAS = 2.0f;
+    // доля прошлого окна в априорном SNR: больше - меньше "музыкального" шума, но медленнее атака
+    private final static float PRIORI_SMOOTHING = 0.98f;
+    // мощность полосы, ниже которой шум не оценивается (цифровой ноль)
+    private final static float POWER_FLOOR = 1e-12f;
+
+    private static final boolean nativeAvailable;
+
+    static {
+        boolean loaded;
+        try {
+            System.loadLibrary("noiseSuppressor");
+            loaded = true;
+        } catch (UnsatisfiedLinkError e) {
+            loaded = false;
+        }
+        nativeAvailable = loaded;
+    }
+
+    private final int sampleRate;
+    private final int channels;
+    private final int encoding;
+    private final int bytesPerFrame;
+    private final float maxAttenuationDb;
+    private final float minGain;
+    private final float noiseRise;
+    private final int startupWindows;
+    private final int windowSize;
+    private final int hop;
+    private final int bins;
+
+    // можно ли создать нативную копию и создана ли она (0 - работает реализация на Java)
+    private final boolean allowNative;
+    private long handle;
+    // после release() нативная копия больше не создаётся
+    private boolean released;
+    // прямой буфер для кадров из кучи, если работает нативная реализация
+    private ByteBuffer direct;
+
+    private final Fft fft;
+    private final float[] window;
+    private final float[] re;
+    private final float[] im;
+    // по каналам: последние windowSize сэмплов входа, сумма перекрывающихся окон выхода
+    // и готовый выход на текущий шаг
+    private final float[][] input;
+    private final float[][] overlap;
+    private final float[][] ready;
+    // по каналам и полосам: сглаженная мощность, её минимум и |G|^2 * SNR прошлого окна
+    private final float[][] smoothed;
+    private final float[][] minimum;
+    private final float[][] previous;
+    // сколько сэмплов текущего шага уже пришло
+    private int filled;
+    // сколько окон уже обработано (до startupWindows)
+    private int windows;
+
+    public NoiseSuppressor(int sampleRate, int channels, @SampleFormat.encoding int encoding,
+                           float maxAttenuationDb) {
+        this(sampleRate, channels, encoding, maxAttenuationDb, true);
+    }
+
+    // allowNative = false - всегда эталонная реализация на Java
+    public NoiseSuppressor(int sampleRate, int channels, @SampleFormat.encoding int encoding,
+                           float maxAttenuationDb, boolean allowNative) {
+        if (sampleRate <= 0 || channels <= 0 || maxAttenuationDb < 0) {
+            throw new IllegalArgumentException("Bad noise suppressor " + sampleRate + " Hz, " + channels
+                    + " channels, " + maxAttenuationDb + " dB");
+        }
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.encoding = encoding;
+        this.bytesPerFrame = SampleFormat.getBytesPerSample(encoding) * channels;
+        this.maxAttenuationDb = maxAttenuationDb;
+        this.minGain = (float) Math.pow(10, -maxAttenuationDb / 20);
+        this.windowSize = getWindowSize(sampleRate);
+        this.hop = windowSize / 2;
+        this.bins = windowSize / 2 + 1;
+        this.noiseRise = (float) Math.pow(10, NOISE_RISE_DB_PER_SECOND * hop / sampleRate / 10);
+        this.startupWindows = (int) (STARTUP_S * sampleRate / hop);
+
+        this.fft = new Fft(windowSize);
+        this.window = new float[windowSize];
+        for (int n = 0; n < windowSize; n++) {
+            window[n] = (float) Math.sqrt(0.5 - 0.5 * Math.cos(2 * Math.PI * n / windowSize));
+        }
+        this.re = new float[windowSize];
+        this.im = new float[windowSize];
+        this.input = new float[channels][windowSize];
+        this.overlap = new float[channels][windowSize];
+        this.ready = new float[channels][hop];
+        this.smoothed = new float[channels][bins];
+        this.minimum = new float[channels][bins];
+        this.previous = new float[channels][bins];
+        this.allowNative = allowNative && nativeAvailable;
+    }
+
+    public static boolean isNativeAvailable() {
+        return nativeAvailable;
+    }
+
+    // окно анализа для частоты sampleRate: наибольшая степень двойки не длиннее MAX_WINDOW_MS
+    public static int getWindowSize(int sampleRate) {
+        return Math.max(16, Integer.highestOneBit((int) (sampleRate * MAX_WINDOW_MS / 1000)));
+    }
+
+    // подавляет шум в кадре frame[0, length) на месте; выход задержан на getDelayFrames() кадров
+    public void process(@NotNull ByteBuffer frame, int length) {
+        int frames = length / bytesPerFrame;
+        if (frames == 0) {
+            return;
+        }
+        if (handle == 0 && allowNative && !released) {
+            handle = nativeCreate(sampleRate, channels, windowSize, maxAttenuationDb);
+        }
+        if (handle != 0) {
+            processNative(frame, frames * bytesPerFrame);
+            return;
+        }
+        int bytesPerSample = SampleFormat.getBytesPerSample(encoding);
+        for (int f = 0, at = 0; f < frames; f++) {
+            for (int channel = 0; channel < channels; channel++, at += bytesPerSample) {
+                input[channel][hop + filled] = SampleConverter.getSample(frame, at, encoding);
+                SampleConverter.putSample(frame, at, encoding, ready[channel][filled]);
+            }
+            if (++filled == hop) {
+                filled = 0;
+                for (int channel = 0; channel < channels; channel++) {
+                    processWindow(channel);
+                }
+                if (windows < startupWindows) {
+                    windows++;
+                }
+            }
+        }
+    }
+
+    private void processNative(ByteBuffer frame, int length) {
+        if (frame.isDirect()) {
+            nativeProcess(handle, frame, 0, length, encoding);
+            return;
+        }
+        if (direct == null || direct.capacity() < length) {
+            direct = ByteBuffer.allocateDirect(length);
+        }
+        for (int i = 0; i < length; i++) {
+            direct.put(i, frame.get(i));
+        }
+        nativeProcess(handle, direct, 0, length, encoding);
+        for (int i = 0; i < length; i++) {
+            frame.put(i, direct.get(i));
+        }
+    }
+
+    // одно окно канала: спектр, оценка шума, усиление полос и сложение с предыдущим окном
+    private void processWindow(int channel) {
+        float[] in = input[channel];
+        for (int n = 0; n < windowSize; n++) {
+            re[n] = in[n] * window[n];
+            im[n] = 0;
+        }
+        fft.forward(re, im);
+
+        float[] channelSmoothed = smoothed[channel];
+        float[] channelMinimum = minimum[channel];
+        float[] channelPrevious = previous[channel];
+        for (int k = 0; k < bins; k++) {
+            float power = re[k] * re[k] + im[k] * im[k];
+            if (windows == 0) {
+                channelSmoothed[k] = power;
+            } else {
+                channelSmoothed[k] = POWER_SMOOTHING * channelSmoothed[k] + (1 - POWER_SMOOTHING) * power;
+            }
+            channelMinimum[k] = windows < startupWindows
+                    ? channelSmoothed[k]
+                    : Math.min(channelSmoothed[k], channelMinimum[k] * noiseRise);
+            float noise = Math.max(NOISE_BIAS * channelMinimum[k], POWER_FLOOR);
+            float posteriori = power / noise;
+            float priori = PRIORI_SMOOTHING * channelPrevious[k]
+                    + (1 - PRIORI_SMOOTHING) * Math.max(posteriori - 1, 0);
+            float gain = Math.max(priori / (1 + priori), minGain);
+            channelPrevious[k] = gain * gain * posteriori;
+            re[k] *= gain;
+            im[k] *= gain;
+            // вход вещественный: вторая половина спектра - сопряжённое отражение первой
+            if (k > 0 && k < windowSize / 2) {
+                re[windowSize - k] *= gain;
+                im[windowSize - k] *= gain;
+            }
+        }
+
+        fft.inverse(re, im);
+        float[] sum = overlap[channel];
+        for (int n = 0; n < windowSize; n++) {
+            sum[n] += re[n] * window[n];
+        }
+        // первая половина суммы больше не изменится - это выход следующего шага
+        System.arraycopy(sum, 0, ready[channel], 0, hop);
+        System.arraycopy(sum, hop, sum, 0, hop);
+        for (int n = hop; n < windowSize; n++) {
+            sum[n] = 0;
+        }
+        System.arraycopy(in, hop, in, 0, hop);
+    }
+
+    // освобождает нативную копию, если она была; после этого подавитель работает на Java с чистого листа
+    public void release() {
+        released = true;
+        if (handle != 0) {
+            nativeDestroy(handle);
+            handle = 0;
+        }
+    }
+
+    // работает ли сейчас нативная копия - до первого кадра её ещё нет
+    public boolean isNative() {
+        return handle != 0;
+    }
+
+    // задержка выхода относительно входа, в кадрах
+    public int getDelayFrames() {
+        return windowSize;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public float getMaxAttenuationDb() {
+        return maxAttenuationDb;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public @SampleFormat.encoding int getEncoding() {
+        return encoding;
+    }
+
+    private static native long nativeCreate(int sampleRate, int channels, int windowSize, float maxAttenuationDb);
+
+    private static native void nativeProcess(long handle, ByteBuffer buffer, int offset, int length, int encoding);
+
+    private static native void nativeDestroy(long handle);
+}
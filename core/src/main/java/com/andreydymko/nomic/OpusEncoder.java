@@ -0,0 +1,114 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// кодек Opus через JNI. Исходников libopus в репозитории нет: нативная библиотека собирается
+// по запросу, если их положить в app/src/main/cpp/opus и собирать с -PwithOpus (см. CMakeLists.txt).
+// Без неё, в том числе в тестах на JVM, isSupported() всегда false, Opus не предлагается
+// в рукопожатии и настройках, и поток передаётся другим кодеком (AudioEncoders)
+public class OpusEncoder implements AudioEncoder {
+
+    // наибольший размер одного пакета Opus по RFC 6716
+    private final static int MAX_PACKET_SIZE = 1275;
+
+    private static final boolean available;
+
+    static {
+        boolean loaded;
+        try {
+            System.loadLibrary("opusEncoder");
+            loaded = true;
+        } catch (UnsatisfiedLinkError e) {
+            loaded = false;
+        }
+        available = loaded;
+    }
+
+    private final int channels;
+    private final int frameBytes;
+    private long handle;
+
+    // frameDurationMs должна быть одной из длительностей кадра Opus: 2.5, 5, 10, 20, 40, 60 мс
+    public OpusEncoder(int sampleRate, int channels, int bitrate, float frameDurationMs) {
+        if (!isSupported(sampleRate, channels)) {
+            throw new IllegalArgumentException("Opus does not support " + sampleRate + " Hz, " + channels + " channels");
+        }
+        this.channels = channels;
+        this.frameBytes = Math.round(sampleRate * frameDurationMs / 1000) * 2 * channels;
+        this.handle = nativeCreate(sampleRate, channels, bitrate);
+        if (handle == 0) {
+            throw new IllegalStateException("Cannot create Opus encoder");
+        }
+    }
+
+    // собрана ли нативная библиотека (сборка с -PwithOpus)
+    public static boolean isAvailable() {
+        return available;
+    }
+
+    public static boolean isSupported(int sampleRate, int channels) {
+        if (!available || channels < 1 || channels > 2) {
+            return false;
+        }
+        switch (sampleRate) {
+            case 8000:
+            case 12000:
+            case 16000:
+            case 24000:
+            case 48000:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public int getPayloadType() {
+        return AudioPacket.PAYLOAD_TYPE.OPUS;
+    }
+
+    @Override
+    public int getFrameBytes() {
+        return frameBytes;
+    }
+
+    @Override
+    public int getMaxEncodedSize(int pcmLength) {
+        return MAX_PACKET_SIZE;
+    }
+
+    // оба буфера должны быть прямыми: кодек работает с их нативными адресами
+    @Override
+    public int encode(@NotNull ByteBuffer pcm, int pcmOffset, int pcmLength, @NotNull ByteBuffer out, int outOffset) {
+        int encoded = nativeEncode(handle, pcm, pcmOffset, pcmLength / (2 * channels), out, outOffset,
+                Math.min(MAX_PACKET_SIZE, out.capacity() - outOffset));
+        if (encoded < 0) {
+            throw new IllegalStateException("Opus encoding failed with code " + encoded);
+        }
+        return encoded;
+    }
+
+    @Override
+    public void setBitrate(int bitrate) {
+        nativeSetBitrate(handle, bitrate);
+    }
+
+    @Override
+    public void release() {
+        if (handle != 0) {
+            nativeDestroy(handle);
+            handle = 0;
+        }
+    }
+
+    private static native long nativeCreate(int sampleRate, int channels, int bitrate);
+
+    private static native int nativeEncode(long handle, ByteBuffer pcm, int pcmOffset, int frameCount,
+                                           ByteBuffer out, int outOffset, int maxLength);
+
+    private static native void nativeSetBitrate(long handle, int bitrate);
+
+    private static native void nativeDestroy(long handle);
+}
@@ -0,0 +1,116 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+// основа синтетических источников звука. В режиме реального времени read() отдаёт звук
+// не быстрее, чем его отдавал бы микрофон: кадр с номером n становится доступен через
+// n / sampleRate секунд после start(). Иначе звук отдаётся сразу - так замеряется
+// пропускная способность конвейера
+public abstract class PacedSource implements AudioSource {
+
+    private final int sampleRate;
+    private final int channels;
+    private final int encoding;
+    private final boolean realTime;
+    // сколько кадров уже отдано
+    private long position;
+    private long startNanos;
+
+    protected PacedSource(int sampleRate, int channels, boolean realTime) {
+        this(sampleRate, channels, SampleFormat.ENCODING.PCM_16, realTime);
+    }
+
+    protected PacedSource(int sampleRate, int channels, @SampleFormat.encoding int encoding, boolean realTime) {
+        if (sampleRate <= 0 || channels <= 0) {
+            throw new IllegalArgumentException("Bad format: " + sampleRate + " Hz, " + channels + " channels");
+        }
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.encoding = encoding;
+        this.realTime = realTime;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channels;
+    }
+
+    @Override
+    public int getEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public int getBytesPerFrame() {
+        return SampleFormat.getBytesPerSample(encoding) * channels;
+    }
+
+    // как у AudioRecord с минимальным буфером: около 40 мс
+    @Override
+    public int getBufferFrames() {
+        return Math.max(1, sampleRate / 25);
+    }
+
+    @Override
+    public void start() {
+        position = 0;
+        startNanos = System.nanoTime();
+    }
+
+    @Override
+    public int read(@NotNull ByteBuffer buffer, int length) {
+        int frames = Math.min(length, buffer.capacity()) / getBytesPerFrame();
+        if (frames == 0) {
+            return 0;
+        }
+        if (realTime && !awaitCaptured(position + frames)) {
+            return 0;
+        }
+        int filled = fill(buffer, frames);
+        if (filled < 0) {
+            return -1;
+        }
+        position += filled;
+        return filled * getBytesPerFrame();
+    }
+
+    // ждёт, пока "микрофон" захватит кадр с номером frames - 1. false - поток прервали
+    private boolean awaitCaptured(long frames) {
+        long due = startNanos + frames / sampleRate * 1_000_000_000L + frames % sampleRate * 1_000_000_000L / sampleRate;
+        long remaining;
+        while ((remaining = due - System.nanoTime()) > 0) {
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+        return true;
+    }
+
+    // пишет в buffer с нулевого смещения не больше frames кадров и возвращает их число,
+    // либо -1, если звук кончился
+    protected abstract int fill(@NotNull ByteBuffer buffer, int frames);
+
+    // сколько кадров отдано с начала захвата
+    public long getPosition() {
+        return position;
+    }
+
+    // когда начался захват (System.nanoTime): в реальном времени кадр n захвачен
+    // в getStartNanos() + n / sampleRate
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    @Override
+    public void release() {
+    }
+}
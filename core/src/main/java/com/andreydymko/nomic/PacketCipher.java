@@ -0,0 +1,94 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// шифрование датаграмм потока ключом сеанса (SessionKeyAgreement). Шифруется вся датаграмма
+// целиком - пакет звука, комфортного шума или чётности, вместе с заголовком RTP:
+// | номер датаграммы (64 бита, big-endian) | зашифрованная датаграмма | метка Poly1305 (16 байт) |
+// Номер идёт подряд с нуля и служит nonce, поэтому на каждый ключ он не повторяется никогда;
+// он же защищён меткой. Получатель отбрасывает поддельные и повторно присланные датаграммы:
+// помнит наибольший номер и REPLAY_WINDOW номеров перед ним, так что переупорядочивание в сети
+// не мешает. Шифрование и расшифровка - на месте, без выделения памяти.
+// Один объект - одно направление: либо только seal, либо только open, из одного потока
+public class PacketCipher {
+
+    // номер перед данными
+    public final static int PREFIX_SIZE = 8;
+    // на сколько байт датаграмма становится длиннее
+    public final static int OVERHEAD = PREFIX_SIZE + ChaCha20Poly1305.TAG_SIZE;
+    // сколько номеров перед наибольшим принятым ещё принимаются (по одному биту на номер)
+    public final static int REPLAY_WINDOW = 64;
+    // постоянная часть nonce: поток от сервера к клиенту
+    private final static int DIRECTION = 0x6e6f6d31;
+
+    private final ChaCha20Poly1305 aead;
+    // номер следующей отправляемой датаграммы
+    private long sendCounter;
+    // наибольший принятый номер (-1 - ещё ничего не принято) и биты принятых номеров перед ним:
+    // бит i - номер highestReceived - i
+    private long highestReceived = -1;
+    private long receivedMask;
+
+    // пишет поток приёма, читают из других потоков
+    private volatile long rejected;
+
+    public PacketCipher(@NotNull byte[] key) {
+        this.aead = new ChaCha20Poly1305(key);
+    }
+
+    // шифрует датаграмму datagram[PREFIX_SIZE, PREFIX_SIZE + length) на месте: дописывает перед ней номер,
+    // а после неё - метку. Возвращает размер зашифрованной датаграммы (length + OVERHEAD)
+    public int seal(@NotNull ByteBuffer datagram, int length) {
+        long counter = sendCounter++;
+        for (int i = 0; i < PREFIX_SIZE; i++) {
+            datagram.put(i, (byte) (counter >>> (8 * (PREFIX_SIZE - 1 - i))));
+        }
+        aead.seal(DIRECTION, counter, datagram, 0, PREFIX_SIZE, PREFIX_SIZE, length);
+        return length + OVERHEAD;
+    }
+
+    // проверяет и расшифровывает на месте датаграмму datagram[0, length). Возвращает размер исходной
+    // датаграммы, которая теперь лежит в datagram[PREFIX_SIZE, ...), либо -1, если датаграмма
+    // короткая, поддельная или уже была
+    public int open(@NotNull ByteBuffer datagram, int length) {
+        if (length < OVERHEAD) {
+            rejected++;
+            return -1;
+        }
+        // побайтно: порядок байт буфера получателя может быть любым
+        long counter = 0;
+        for (int i = 0; i < PREFIX_SIZE; i++) {
+            counter = counter << 8 | (datagram.get(i) & 0xFF);
+        }
+        if (counter < 0 || isReplay(counter)
+                || !aead.open(DIRECTION, counter, datagram, 0, PREFIX_SIZE, PREFIX_SIZE, length - OVERHEAD)) {
+            rejected++;
+            return -1;
+        }
+        // окно сдвигаем только по подлинной датаграмме
+        if (counter > highestReceived) {
+            long shift = counter - highestReceived;
+            receivedMask = shift >= REPLAY_WINDOW ? 0 : receivedMask << shift;
+            receivedMask |= 1;
+            highestReceived = counter;
+        } else {
+            receivedMask |= 1L << (highestReceived - counter);
+        }
+        return length - OVERHEAD;
+    }
+
+    private boolean isReplay(long counter) {
+        if (counter > highestReceived) {
+            return false;
+        }
+        long age = highestReceived - counter;
+        return age >= REPLAY_WINDOW || (receivedMask & (1L << age)) != 0;
+    }
+
+    // сколько датаграмм отвергнуто open
+    public long getRejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,175 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+// разбирает заголовок пакета на стороне получателя и ведёт статистику потока:
+// потери, переупорядочивание, дубликаты и межпакетный джиттер (RFC 3550, A.8)
+public class PacketDecoder {
+
+    // сколько последних номеров пакетов помнит окно для поиска дубликатов
+    private final static int WINDOW_SIZE = 64;
+
+    // частота тактов timestamp, т.е. частота дискретизации
+    private final int clockRate;
+
+    private boolean started = false;
+    // наибольший принятый номер пакета с учётом переполнений 16-битного счётчика
+    private long maxExtendedSequence;
+    // битовая маска принятых пакетов: бит i означает пакет (maxExtendedSequence - i)
+    private long receivedWindow;
+
+    private long received;
+    private long lost;
+    private long reordered;
+    private long duplicates;
+    private long late;
+
+    // джиттер в тактах timestamp
+    private double jitter;
+    private int lastTransit;
+
+    public PacketDecoder(int clockRate) {
+        this.clockRate = clockRate;
+    }
+
+    // забывает состояние потока, например при смене источника (SSRC)
+    public void reset() {
+        started = false;
+        maxExtendedSequence = 0;
+        receivedWindow = 0;
+        received = lost = reordered = duplicates = late = 0;
+        jitter = 0;
+        lastTransit = 0;
+    }
+
+    // возвращает SSRC пакета без его разбора, либо -1 если это не аудио-пакет
+    public static long peekSsrc(@NotNull byte[] data, int offset, int length) {
+        if (length < AudioPacket.HEADER_SIZE || ((data[offset] & 0xFF) >> 6) != AudioPacket.VERSION) {
+            return -1;
+        }
+        return getUnsignedInt(data, offset + 8);
+    }
+
+    // переводит время System.nanoTime() в такты частоты clockRate без переполнения
+    static long nanosToTicks(long nanos, int clockRate) {
+        return (nanos / 1_000_000_000L) * clockRate + (nanos % 1_000_000_000L) * clockRate / 1_000_000_000L;
+    }
+
+    // разбирает пакет data[offset, offset + length) в out.
+    // arrivalNanos - время получения пакета (System.nanoTime()), нужно для оценки джиттера.
+    // Возвращает false, если это не аудио-пакет, либо пакет является дубликатом
+    public boolean decode(@NotNull byte[] data, int offset, int length, long arrivalNanos, @NotNull AudioPacket out) {
+        if (length < AudioPacket.HEADER_SIZE || ((data[offset] & 0xFF) >> 6) != AudioPacket.VERSION) {
+            return false;
+        }
+        int sequenceNumber = ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+        long timestamp = getUnsignedInt(data, offset + 4);
+
+        if (!updateSequence(sequenceNumber)) {
+            return false;
+        }
+        updateJitter(timestamp, arrivalNanos);
+
+        out.set(data[offset + 1] & 0x7F,
+                (data[offset + 1] & 0x80) != 0,
+                sequenceNumber,
+                timestamp,
+                getUnsignedInt(data, offset + 8),
+                data,
+                offset + AudioPacket.HEADER_SIZE,
+                length - AudioPacket.HEADER_SIZE);
+        return true;
+    }
+
+    // номер последнего принятого пакета с учётом переполнений, либо -1 если пакетов не было
+    public long getMaxExtendedSequence() {
+        return started ? maxExtendedSequence : -1;
+    }
+
+    // возвращает номер пакета с учётом переполнений, ближайший к последнему принятому
+    public long extendSequence(int sequenceNumber) {
+        return maxExtendedSequence + (short) (sequenceNumber - (int) maxExtendedSequence);
+    }
+
+    private boolean updateSequence(int sequenceNumber) {
+        if (!started) {
+            started = true;
+            maxExtendedSequence = sequenceNumber;
+            receivedWindow = 1;
+            received++;
+            return true;
+        }
+        long extended = extendSequence(sequenceNumber);
+        long delta = extended - maxExtendedSequence;
+        if (delta > 0) {
+            // пакет новее всех принятых - всё, что между ними, считаем потерянным
+            lost += delta - 1;
+            receivedWindow = delta >= WINDOW_SIZE ? 1 : (receivedWindow << delta) | 1;
+            maxExtendedSequence = extended;
+        } else {
+            long index = -delta;
+            if (index >= WINDOW_SIZE) {
+                // слишком старый пакет, мы уже не можем отличить его от дубликата
+                late++;
+                return false;
+            }
+            if ((receivedWindow & (1L << index)) != 0) {
+                duplicates++;
+                return false;
+            }
+            // пакет пришёл не по порядку и закрыл дыру, которую мы посчитали потерей
+            receivedWindow |= 1L << index;
+            lost--;
+            reordered++;
+        }
+        received++;
+        return true;
+    }
+
+    private void updateJitter(long timestamp, long arrivalNanos) {
+        // вычисления в 32 битах, чтобы переполнение timestamp не давало скачка джиттера
+        int arrival = (int) nanosToTicks(arrivalNanos, clockRate);
+        int transit = arrival - (int) timestamp;
+        if (received > 1) {
+            int d = Math.abs(transit - lastTransit);
+            jitter += (d - jitter) / 16.0;
+        }
+        lastTransit = transit;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getLost() {
+        return lost;
+    }
+
+    public long getReordered() {
+        return reordered;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public long getLate() {
+        return late;
+    }
+
+    // джиттер в тактах частоты дискретизации
+    public double getJitter() {
+        return jitter;
+    }
+
+    public double getJitterMillis() {
+        return jitter * 1000.0 / clockRate;
+    }
+
+    private static long getUnsignedInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFFL) << 24)
+                | ((data[offset + 1] & 0xFFL) << 16)
+                | ((data[offset + 2] & 0xFFL) << 8)
+                | (data[offset + 3] & 0xFFL);
+    }
+}
@@ -0,0 +1,99 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// записывает RTP-подобный заголовок перед звуковыми данными пакета,
+// ведёт порядковый номер и часы сэмплов отправителя
+public class PacketEncoder {
+
+    private final @AudioPacket.payloadType int payloadType;
+    private final int ssrc;
+    private int sequenceNumber;
+    private int timestamp;
+    private boolean marker = true;
+
+    public PacketEncoder(@AudioPacket.payloadType int payloadType, int ssrc, int initialSequenceNumber, int initialTimestamp) {
+        this.payloadType = payloadType;
+        this.ssrc = ssrc;
+        this.sequenceNumber = initialSequenceNumber & 0xFFFF;
+        this.timestamp = initialTimestamp;
+    }
+
+    // записывает заголовок в начало packet[offset], после чего сдвигает номер пакета
+    // и часы на количество сэмплов (кадров), лежащих в пакете
+    public int writeHeader(@NotNull byte[] packet, int offset, int framesInPacket) {
+        packet[offset] = (byte) (AudioPacket.VERSION << 6);
+        packet[offset + 1] = (byte) ((marker ? 0x80 : 0) | (payloadType & 0x7F));
+        packet[offset + 2] = (byte) (sequenceNumber >> 8);
+        packet[offset + 3] = (byte) sequenceNumber;
+        putInt(packet, offset + 4, timestamp);
+        putInt(packet, offset + 8, ssrc);
+
+        marker = false;
+        sequenceNumber = (sequenceNumber + 1) & 0xFFFF;
+        timestamp += framesInPacket;
+        return AudioPacket.HEADER_SIZE;
+    }
+
+    // то же, что writeHeader(byte[], ...), но для ByteBuffer по абсолютному смещению
+    public int writeHeader(@NotNull ByteBuffer packet, int offset, int framesInPacket) {
+        writeHeader(packet, offset, framesInPacket, payloadType, marker);
+        marker = false;
+        return AudioPacket.HEADER_SIZE;
+    }
+
+    // заголовок пакета комфортного шума (AudioPacket.PAYLOAD_TYPE.CN), заменяющего framesInPacket
+    // кадров тишины. Маркер на нём не ставится: им помечается следующий пакет звука - начало речи
+    public int writeComfortNoiseHeader(@NotNull ByteBuffer packet, int offset, int framesInPacket) {
+        writeHeader(packet, offset, framesInPacket, AudioPacket.PAYLOAD_TYPE.CN, false);
+        marker = true;
+        return AudioPacket.HEADER_SIZE;
+    }
+
+    private void writeHeader(ByteBuffer packet, int offset, int framesInPacket, int type, boolean markerBit) {
+        packet.put(offset, (byte) (AudioPacket.VERSION << 6));
+        packet.put(offset + 1, (byte) ((markerBit ? 0x80 : 0) | (type & 0x7F)));
+        packet.put(offset + 2, (byte) (sequenceNumber >> 8));
+        packet.put(offset + 3, (byte) sequenceNumber);
+        putInt(packet, offset + 4, timestamp);
+        putInt(packet, offset + 8, ssrc);
+
+        sequenceNumber = (sequenceNumber + 1) & 0xFFFF;
+        timestamp += framesInPacket;
+    }
+
+    // пропускает кадры без отправки (например, при переполнении), не трогая номер пакета.
+    // Следующий пакет будет помечен маркером разрыва
+    public void skipFrames(int frames) {
+        timestamp += frames;
+        marker = true;
+    }
+
+    public int getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public long getTimestamp() {
+        return timestamp & 0xFFFFFFFFL;
+    }
+
+    public long getSsrc() {
+        return ssrc & 0xFFFFFFFFL;
+    }
+
+    private static void putInt(ByteBuffer packet, int offset, int value) {
+        packet.put(offset, (byte) (value >> 24));
+        packet.put(offset + 1, (byte) (value >> 16));
+        packet.put(offset + 2, (byte) (value >> 8));
+        packet.put(offset + 3, (byte) value);
+    }
+
+    private static void putInt(byte[] packet, int offset, int value) {
+        packet[offset] = (byte) (value >> 24);
+        packet[offset + 1] = (byte) (value >> 16);
+        packet[offset + 2] = (byte) (value >> 8);
+        packet[offset + 3] = (byte) value;
+    }
+}
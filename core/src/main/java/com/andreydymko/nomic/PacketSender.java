@@ -0,0 +1,226 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+// собирает и отправляет пакет из кадра, лежащего в прямом буфере захвата.
+// Заголовок и полезная нагрузка живут в разных буферах и уходят одной
+// датаграммой через "собирающую" запись (Transport), так что PCM без сжатия
+// отправляется прямо из слота FramePacketizer, ни разу не копируясь в Java-куче
+public class PacketSender {
+
+    // меняется при возобновлении сеанса (setTransport), читается и из других потоков
+    private volatile Transport transport;
+    private AudioEncoder encoder;
+    private PacketEncoder packetEncoder;
+    private final CodecStatistics codecStatistics;
+    // размер одного кадра (сэмпл всех каналов) в байтах, в формате, который ждёт кодек
+    // (см. SampleFormat.ofPayloadType), и число каналов
+    private int bytesPerFrame;
+    private final int channels;
+    // PCM без сжатия отправляем как есть, не вызывая кодек
+    private boolean passThrough;
+
+    private final ByteBuffer header = ByteBuffer.allocateDirect(AudioPacket.HEADER_SIZE);
+    // сжатая полезная нагрузка, для PCM не используется
+    private ByteBuffer payload;
+    // заранее созданный массив для собирающей записи: [заголовок, нагрузка]
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+    // нагрузка пакета комфортного шума - байт уровня шума
+    private final ByteBuffer comfortNoise = ByteBuffer.allocateDirect(1);
+
+    // пакеты чётности, если слушатель согласился на прямую коррекцию ошибок, иначе null
+    private FecEncoder fec;
+    private ByteBuffer parityPacket;
+
+    // пишет только поток отправки, читают счётчики из других потоков
+    private volatile long sentPackets;
+    private volatile long sentBytes;
+
+    // channel - подключённый к получателю UDP-канал, frameBytes - размер звуковых данных пакета,
+    // bytesPerFrame - размер кадра в формате, который ждёт кодек encoder
+    public PacketSender(@NotNull DatagramChannel channel, @NotNull AudioEncoder encoder,
+                        @NotNull PacketEncoder packetEncoder, @NotNull CodecStatistics codecStatistics,
+                        int frameBytes, int bytesPerFrame) {
+        this(new DatagramTransport(channel), encoder, packetEncoder, codecStatistics, frameBytes, bytesPerFrame);
+    }
+
+    public PacketSender(@NotNull Transport transport, @NotNull AudioEncoder encoder,
+                        @NotNull PacketEncoder packetEncoder, @NotNull CodecStatistics codecStatistics,
+                        int frameBytes, int bytesPerFrame) {
+        this.transport = transport;
+        this.codecStatistics = codecStatistics;
+        this.channels = bytesPerFrame / SampleFormat.getBytesPerSample(
+                SampleFormat.ofPayloadType(encoder.getPayloadType()));
+        gather[0] = header;
+        setEncoder(encoder, packetEncoder, frameBytes);
+    }
+
+    // меняет кодек и нумерацию пакетов на лету, освобождая прежний кодек.
+    // frameBytes - размер звука пакета в формате нового кодека.
+    // Вызывается из того же потока, что и send()
+    public void setEncoder(@NotNull AudioEncoder encoder, @NotNull PacketEncoder packetEncoder, int frameBytes) {
+        if (this.encoder != null && this.encoder != encoder) {
+            this.encoder.release();
+        }
+        this.encoder = encoder;
+        this.packetEncoder = packetEncoder;
+        this.passThrough = SampleFormat.isPcm(encoder.getPayloadType());
+        this.bytesPerFrame = channels * SampleFormat.getBytesPerSample(
+                SampleFormat.ofPayloadType(encoder.getPayloadType()));
+        if (fec != null) {
+            // у нового потока свои номера пакетов - недособранный блок уже не восстановить
+            fec.reset();
+        }
+        int encodedSize = encoder.getMaxEncodedSize(frameBytes);
+        if (!passThrough && (payload == null || payload.capacity() < encodedSize)) {
+            payload = ByteBuffer.allocateDirect(encodedSize);
+        }
+    }
+
+    // переводит поток на новый канал, закрывая прежний: номера пакетов, часы и кодек остаются,
+    // поэтому получатель продолжает тот же поток (SessionTable).
+    // Вызывается из того же потока, что и send()
+    public void setTransport(@NotNull Transport transport) {
+        Transport previous = this.transport;
+        this.transport = transport;
+        if (previous != transport) {
+            closeTransport(previous);
+        }
+        if (fec != null) {
+            // блок, начатый на прежнем канале, получатель уже не соберёт
+            fec.reset();
+        }
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    // включает отправку пакетов чётности (null - выключает)
+    public void setFec(FecEncoder fec) {
+        this.fec = fec;
+    }
+
+    // меняет битрейт текущего кодека, не начиная новый поток.
+    // Вызывается из того же потока, что и send()
+    public void setBitrate(int bitrate) {
+        encoder.setBitrate(bitrate);
+    }
+
+    // кодирует кадр frame[0, frameBytes) и отправляет его одним пакетом.
+    // Возвращает размер отправленной датаграммы
+    public int send(@NotNull ByteBuffer frame, int frameBytes) throws IOException {
+        // кодируем звук и замеряем, сколько это стоило
+        long encodeStart = System.nanoTime();
+        ByteBuffer body = passThrough ? frame : payload;
+        int encoded = passThrough ? frameBytes : encoder.encode(frame, 0, frameBytes, payload, 0);
+        codecStatistics.record(System.nanoTime() - encodeStart, frameBytes, encoded);
+
+        // записываем заголовок с номером пакета и временем первого сэмпла
+        packetEncoder.writeHeader(header, 0, frameBytes / bytesPerFrame);
+        header.clear();
+        body.limit(encoded).position(0);
+        gather[1] = body;
+        int sent = (int) transport.write(gather);
+        // положение буферов сдвинулось записью - возвращаем кадр в исходное состояние
+        body.clear();
+
+        sentPackets++;
+        sentBytes += sent;
+        if (fec != null && fec.add(header, body, encoded)) {
+            sendParity();
+        }
+        return sent;
+    }
+
+    // отправляет вместо frameBytes байт тишины пакет комфортного шума (RFC 3389) с уровнем
+    // level в -dBov: получатель подставит шум этого уровня, пока не придёт звук.
+    // Номер пакета идёт подряд со звуком и защищается чётностью, как обычный пакет.
+    // Возвращает размер отправленной датаграммы
+    public int sendComfortNoise(int level, int frameBytes) throws IOException {
+        packetEncoder.writeComfortNoiseHeader(header, 0, frameBytes / bytesPerFrame);
+        header.clear();
+        comfortNoise.put(0, (byte) level);
+        gather[1] = comfortNoise;
+        int sent = (int) transport.write(gather);
+        comfortNoise.clear();
+
+        sentPackets++;
+        sentBytes += sent;
+        if (fec != null && fec.add(header, comfortNoise, 1)) {
+            sendParity();
+        }
+        return sent;
+    }
+
+    // сколько байт заняла бы датаграмма с frameBytes байт звука: заголовок и нагрузка,
+    // сжатая так, как кодек в среднем сжимал до сих пор
+    public int estimateDatagramBytes(int frameBytes) {
+        return AudioPacket.HEADER_SIZE + (int) Math.round(frameBytes / codecStatistics.getCompressionRatio());
+    }
+
+    // блок собран: отправляем его пакеты чётности сразу за последним пакетом блока
+    private void sendParity() throws IOException {
+        int size = fec.getMaxParityPacketSize();
+        if (parityPacket == null || parityPacket.capacity() < size) {
+            parityPacket = ByteBuffer.allocateDirect(size);
+        }
+        int parityPackets = fec.getCode().getParityPackets();
+        for (int j = 0; j < parityPackets; j++) {
+            int length = fec.writeParityPacket(j, parityPacket);
+            parityPacket.limit(length).position(0);
+            sentBytes += transport.write(parityPacket);
+            parityPacket.clear();
+        }
+    }
+
+    // отмечает, что frameBytes байт звука не будут отправлены этому получателю
+    public void skip(int frameBytes) {
+        packetEncoder.skipFrames(frameBytes / bytesPerFrame);
+    }
+
+    // тип полезной нагрузки текущего кодека
+    public @AudioPacket.payloadType int getPayloadType() {
+        return encoder.getPayloadType();
+    }
+
+    public CodecStatistics getCodecStatistics() {
+        return codecStatistics;
+    }
+
+    // закрывает канал, не трогая кодек: поток ждёт нового канала (setTransport)
+    public void closeTransport() {
+        closeTransport(transport);
+    }
+
+    private static void closeTransport(Transport transport) {
+        try {
+            transport.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // закрывает канал и освобождает кодек
+    public void close() {
+        closeTransport(transport);
+        encoder.release();
+    }
+
+    public long getSentPackets() {
+        return sentPackets;
+    }
+
+    // сколько байт отправлено, вместе с пакетами чётности
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    public long getSentParityPackets() {
+        return fec == null ? 0 : fec.getParityPacketsWritten();
+    }
+}
@@ -0,0 +1,57 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// "кодек" без сжатия: PCM передаётся как есть, в формате encoding (см. SampleFormat).
+// Если звук уже лежит на месте полезной нагрузки пакета, копирования не происходит
+public class PcmEncoder implements AudioEncoder {
+
+    private final int encoding;
+
+    public PcmEncoder() {
+        this(SampleFormat.ENCODING.PCM_16);
+    }
+
+    public PcmEncoder(@SampleFormat.encoding int encoding) {
+        this.encoding = encoding;
+    }
+
+    @Override
+    public int getPayloadType() {
+        return SampleFormat.getPcmPayloadType(encoding);
+    }
+
+    public @SampleFormat.encoding int getEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public int getFrameBytes() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxEncodedSize(int pcmLength) {
+        return pcmLength;
+    }
+
+    @Override
+    public int encode(@NotNull ByteBuffer pcm, int pcmOffset, int pcmLength, @NotNull ByteBuffer out, int outOffset) {
+        if (pcm != out || pcmOffset != outOffset) {
+            for (int i = 0; i < pcmLength; i++) {
+                out.put(outOffset + i, pcm.get(pcmOffset + i));
+            }
+        }
+        return pcmLength;
+    }
+
+    @Override
+    public void setBitrate(int bitrate) {
+    }
+
+    @Override
+    public void release() {
+    }
+}
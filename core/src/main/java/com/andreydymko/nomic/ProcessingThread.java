@@ -0,0 +1,174 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// средняя ступень конвейера: забирает кадры, захваченные CaptureThread, обрабатывает их
+// (цепочка фильтров, подавление шума, затем усиление либо АРУ с ограничителем) один раз
+// для всех и раздаёт слушателям. С обеих сторон - FrameRing, поэтому ни захват,
+// ни обработка никогда не ждут отправку по сети
+public class ProcessingThread extends Thread {
+
+    private static final String NAME = "ProcessingThread";
+    // как долго поток ждёт кадр, прежде чем проверить, не попросили ли его остановиться
+    private static final long POLL_TIMEOUT_NS = 100_000_000L;
+
+    private final FrameRing captured;
+    private final SubscriberRegistry registry;
+    // формат захваченного звука (SampleFormat)
+    private final int encoding;
+    // множитель громкости меняется из интерфейса и по командам клиентов, поэтому volatile
+    private volatile float soundVolumeMultiplier;
+    // автоматическая регулировка усиления с ограничителем; null - постоянный множитель.
+    // С ней множитель громкости - потолок усиления
+    private volatile AutomaticGainControl automaticGainControl;
+    // подавление шума до усиления, чтобы усиление не поднимало шум комнаты; null - выключено.
+    // Нативная копия подавителя появляется на первом кадре в этом потоке, и освобождает её этот же
+    // поток, когда подавитель заменили или поток кончился. Подавитель, заменённый до того, как
+    // поток его увидел (или пока поток не запущен), нативной копии не заводил - освобождать нечего
+    private volatile NoiseSuppressor noiseSuppressor;
+    // цепочка фильтров (постоянная составляющая, гул, эквалайзер) перед всем остальным; null - без неё
+    private volatile FilterGraph filterGraph;
+    // местная запись обработанного звука рядом с отправкой; null - не пишется
+    private volatile RecorderThread recorder;
+
+    public ProcessingThread(@NotNull FrameRing captured, @NotNull SubscriberRegistry registry,
+                            float soundVolumeMultiplier) {
+        this(captured, registry, soundVolumeMultiplier, SampleFormat.ENCODING.PCM_16);
+    }
+
+    public ProcessingThread(@NotNull FrameRing captured, @NotNull SubscriberRegistry registry,
+                            float soundVolumeMultiplier, @SampleFormat.encoding int encoding) {
+        super(NAME);
+        this.captured = captured;
+        this.registry = registry;
+        this.soundVolumeMultiplier = soundVolumeMultiplier;
+        this.encoding = encoding;
+    }
+
+    public void run() {
+        CaptureScheduler scheduler = registry.getScheduler();
+        MetricsRegistry metrics = registry.getMetrics();
+        DeadlineMonitor deadlines = scheduler == null ? null : scheduler.enter(SchedulingPolicy.STAGE.PROCESSING, getName());
+        NoiseSuppressor suppressor = null;
+        while (!Thread.interrupted()) {
+            if (!captured.await(POLL_TIMEOUT_NS)) {
+                // захват стоит - это не опоздание обработки
+                if (deadlines != null) {
+                    deadlines.restart();
+                }
+                continue;
+            }
+            ByteBuffer frame = captured.peek();
+            int length = captured.peekLength();
+            long start = System.nanoTime();
+            FilterGraph filters = filterGraph;
+            if (filters != null) {
+                filters.process(frame, length);
+            }
+            if (suppressor != noiseSuppressor) {
+                // подавитель заменили или выключили на ходу
+                if (suppressor != null) {
+                    suppressor.release();
+                }
+                suppressor = noiseSuppressor;
+            }
+            if (suppressor != null) {
+                suppressor.process(frame, length);
+            }
+            AutomaticGainControl agc = automaticGainControl;
+            if (agc != null) {
+                // ведём громкость к цели, не выше множителя и без перегрузки - один раз для всех слушателей
+                agc.process(frame, length, soundVolumeMultiplier);
+                metrics.agcGain.set(agc.getGainDb());
+                metrics.limiterGainReduction.set(agc.getGainReductionDb());
+                if (agc.isLimiting()) {
+                    metrics.limiterEngagedFrames.increment();
+                }
+            } else {
+                // увеличиваем громкость звука в n раз один раз для всех слушателей
+                GainProcessor.apply(frame, 0, length, soundVolumeMultiplier, encoding);
+            }
+            metrics.processing.record(System.nanoTime() - start);
+            registry.publish(frame, length, captured.peekSkippedBytes(), captured.peekTimestamp());
+            RecorderThread recording = recorder;
+            if (recording != null) {
+                recording.offer(frame, length, captured.peekSkippedBytes());
+            }
+            captured.release();
+            if (deadlines != null) {
+                deadlines.onPeriodDone();
+            }
+        }
+        if (suppressor != null) {
+            suppressor.release();
+        }
+        if (noiseSuppressor != null && noiseSuppressor != suppressor) {
+            noiseSuppressor.release();
+        }
+        if (deadlines != null) {
+            scheduler.leave(deadlines);
+        }
+    }
+
+    public void setSoundVolumeMultiplier(float multiplier) {
+        this.soundVolumeMultiplier = multiplier;
+    }
+
+    public float getSoundVolumeMultiplier() {
+        return soundVolumeMultiplier;
+    }
+
+    // включает (agc) или выключает (null) автоматическую регулировку усиления на ходу.
+    // agc должна быть в формате захваченного звука
+    public void setAutomaticGainControl(AutomaticGainControl agc) {
+        if (agc != null && agc.getEncoding() != encoding) {
+            throw new IllegalArgumentException("Gain control encoding " + agc.getEncoding() + " != " + encoding);
+        }
+        this.automaticGainControl = agc;
+    }
+
+    public AutomaticGainControl getAutomaticGainControl() {
+        return automaticGainControl;
+    }
+
+    // включает (suppressor) или выключает (null) подавление шума на ходу.
+    // suppressor должен быть в формате захваченного звука
+    public void setNoiseSuppressor(NoiseSuppressor suppressor) {
+        if (suppressor != null && suppressor.getEncoding() != encoding) {
+            throw new IllegalArgumentException("Noise suppressor encoding " + suppressor.getEncoding() + " != " + encoding);
+        }
+        this.noiseSuppressor = suppressor;
+    }
+
+    public NoiseSuppressor getNoiseSuppressor() {
+        return noiseSuppressor;
+    }
+
+    // задаёт (graph) или убирает (null) цепочку фильтров на ходу.
+    // graph должен быть в формате захваченного звука
+    public void setFilterGraph(FilterGraph graph) {
+        if (graph != null && graph.getEncoding() != encoding) {
+            throw new IllegalArgumentException("Filter graph encoding " + graph.getEncoding() + " != " + encoding);
+        }
+        this.filterGraph = graph;
+    }
+
+    public FilterGraph getFilterGraph() {
+        return filterGraph;
+    }
+
+    // начинает (recorder) или прекращает (null) отдавать кадры записи на ходу.
+    // recorder должен писать в формате захваченного звука
+    public void setRecorder(RecorderThread recorder) {
+        if (recorder != null && recorder.getWriter().getEncoding() != encoding) {
+            throw new IllegalArgumentException("Recorder encoding " + recorder.getWriter().getEncoding() + " != " + encoding);
+        }
+        this.recorder = recorder;
+    }
+
+    public RecorderThread getRecorder() {
+        return recorder;
+    }
+}
@@ -0,0 +1,244 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// подстраивает поток одного слушателя под состояние сети по его обратной связи (ReceiverReport).
+// Качество выбирается из "лестницы" уровней - от настроенного пользователем к самому экономному.
+// Потери или рост RTT (очередь в сети) понижают уровень после двух плохих оценок подряд,
+// сильные потери - сразу. Повышение пробуется только после спокойного периода, который
+// удваивается каждый раз, когда проба тут же привела к потерям, поэтому на канале,
+// пропускная способность которого между двумя уровнями, качество не "скачет"
+public class QualityController {
+
+    // доля потерь, при которой уровень понижается
+    public final static double LOSS_HIGH = 0.05;
+    // доля потерь, при которой уровень понижается сразу на два шага
+    public final static double LOSS_SEVERE = 0.20;
+    // доля потерь, при которой канал считается чистым и можно пробовать повышение
+    public final static double LOSS_LOW = 0.01;
+    // насколько RTT может превышать наименьший замеченный, прежде чем считать, что в сети очередь
+    public final static int RTT_QUEUE_MS = 100;
+    // по скольким пакетам (не меньше) оцениваются потери, чтобы единичные потери не меняли уровень
+    public final static int MIN_LOSS_WINDOW_PACKETS = 100;
+    // сколько плохих оценок подряд нужно для понижения
+    public final static int BAD_ESTIMATES_TO_DOWNGRADE = 2;
+    // сколько после смены уровня отчёты ещё описывают прежний поток
+    public final static long SETTLE_MS = 1500;
+    // сколько канал должен быть чистым перед повышением, и до скольких этот срок растёт
+    public final static long UPGRADE_HOLD_MS = 5000;
+    public final static long MAX_UPGRADE_HOLD_MS = 60000;
+    // если в течение этого времени после повышения пришлось понизить - проба неудачна
+    public final static long FAILED_PROBE_WINDOW_MS = 10000;
+    // наибольшая длительность пакета при сборке нескольких кадров захвата в один
+    public final static int MAX_PACKET_DURATION_US = 40000;
+    // ниже этого битрейта Opus заметно теряет разборчивость речи
+    public final static int MIN_OPUS_BITRATE = 12000;
+
+    // частоты, до которых можно понизить поток без сжатия
+    private final static int[] PCM_SAMPLE_RATES = {48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000};
+
+    private final List<Level> ladder;
+    private int levelIndex;
+
+    private long previousSequence = -1;
+    private long previousReceived;
+    private long previousLost;
+    private long windowExpected;
+    private long windowLost;
+    private int minRoundTripMillis = Integer.MAX_VALUE;
+    private int badEstimates;
+    private long cleanSinceMillis = -1;
+    private long lastChangeMillis = Long.MIN_VALUE / 2;
+    private long lastUpgradeMillis = Long.MIN_VALUE / 2;
+    private boolean probing;
+    private long upgradeHoldMillis = UPGRADE_HOLD_MS;
+    private double lastLoss;
+
+    // ladder - уровни от лучшего к худшему; поток начинается с первого
+    public QualityController(@NotNull List<Level> ladder) {
+        if (ladder.isEmpty()) {
+            throw new IllegalArgumentException("Quality ladder is empty");
+        }
+        this.ladder = Collections.unmodifiableList(new ArrayList<>(ladder));
+    }
+
+    // строит лестницу для потока с кодеком payloadType, который сейчас идёт с частотой sampleRate
+    // и битрейтом bitrate. Частота может быть понижена до любой, в которую кадр захвата переводится
+    // целым числом сэмплов (Resampler.canResample), frameDurationUs и framesPerPacket - длительность
+    // и число сэмплов одного кадра захвата
+    public static List<Level> buildLadder(@AudioPacket.payloadType int payloadType, int captureRate, int sampleRate,
+                                          int channels, int bitrate, int frameDurationUs, int framesPerPacket) {
+        List<Level> ladder = new ArrayList<>();
+        boolean canAggregate = frameDurationUs * 2 <= MAX_PACKET_DURATION_US;
+        if (payloadType == AudioPacket.PAYLOAD_TYPE.OPUS) {
+            // Opus сам сужает полосу на низком битрейте, поэтому частоту не трогаем,
+            // а битрейт снижаем на треть за шаг
+            ladder.add(new Level(bitrate, sampleRate, 1));
+            for (int step = bitrate * 2 / 3 / 1000 * 1000; step >= MIN_OPUS_BITRATE; step = step * 2 / 3 / 1000 * 1000) {
+                ladder.add(new Level(step, sampleRate, 1));
+            }
+        } else {
+            // у потока без сжатия битрейт задаётся частотой
+            int bitsPerSample = payloadType == AudioPacket.PAYLOAD_TYPE.PCMU
+                    ? 8 : 8 * SampleFormat.getBytesPerSample(SampleFormat.ofPayloadType(payloadType));
+            ladder.add(new Level(sampleRate * bitsPerSample * channels, sampleRate, 1));
+            for (int rate : PCM_SAMPLE_RATES) {
+                if (rate < sampleRate && Resampler.canResample(captureRate, rate, framesPerPacket)) {
+                    ladder.add(new Level(rate * bitsPerSample * channels, rate, 1));
+                }
+            }
+        }
+        if (canAggregate) {
+            // последний шаг - вдвое реже пакеты: меньше заголовков и меньше нагрузка на Wi-Fi
+            Level lowest = ladder.get(ladder.size() - 1);
+            ladder.add(new Level(lowest.bitrate, lowest.sampleRate, 2));
+        }
+        return ladder;
+    }
+
+    // обрабатывает отчёт получателя. roundTripMillis - RTT управляющего соединения, либо -1,
+    // nowMillis - монотонное время прихода отчёта. Возвращает уровень, на который нужно
+    // перейти, либо null, если поток менять не нужно
+    public Level onReport(@NotNull ReceiverReport report, int roundTripMillis, long nowMillis) {
+        long sequence = report.getHighestSequence();
+        if (previousSequence < 0 || sequence < previousSequence || report.getReceived() < previousReceived
+                || report.getLost() < previousLost) {
+            // первый отчёт, либо получатель начал считать заново (новый поток после смены формата)
+            remember(report);
+            windowExpected = 0;
+            windowLost = 0;
+            return null;
+        }
+        windowExpected += sequence - previousSequence;
+        windowLost += report.getLost() - previousLost;
+        remember(report);
+        if (nowMillis - lastChangeMillis < SETTLE_MS) {
+            // отчёт описывает ещё прежний уровень
+            windowExpected = 0;
+            windowLost = 0;
+            return null;
+        }
+
+        boolean queueing = false;
+        boolean calm = true;
+        if (roundTripMillis >= 0) {
+            minRoundTripMillis = Math.min(minRoundTripMillis, roundTripMillis);
+            queueing = roundTripMillis - minRoundTripMillis > RTT_QUEUE_MS;
+            calm = roundTripMillis - minRoundTripMillis <= RTT_QUEUE_MS / 2;
+        }
+        if (windowExpected < MIN_LOSS_WINDOW_PACKETS && !queueing) {
+            // пакетов пока слишком мало для оценки потерь
+            return null;
+        }
+        lastLoss = windowExpected > 0 ? Math.min(1.0, (double) windowLost / windowExpected) : 0;
+        windowExpected = 0;
+        windowLost = 0;
+
+        if (lastLoss > LOSS_HIGH || queueing) {
+            cleanSinceMillis = -1;
+            badEstimates++;
+            // неудачную пробу повышения откатываем по первой же плохой оценке
+            boolean failedProbe = probing && nowMillis - lastUpgradeMillis < FAILED_PROBE_WINDOW_MS;
+            if ((badEstimates >= BAD_ESTIMATES_TO_DOWNGRADE || lastLoss > LOSS_SEVERE || failedProbe)
+                    && levelIndex < ladder.size() - 1) {
+                if (failedProbe) {
+                    // канал не потянул повышение - в следующий раз ждём дольше
+                    upgradeHoldMillis = Math.min(MAX_UPGRADE_HOLD_MS, upgradeHoldMillis * 2);
+                }
+                probing = false;
+                int step = lastLoss > LOSS_SEVERE ? 2 : 1;
+                return change(Math.min(ladder.size() - 1, levelIndex + step), nowMillis);
+            }
+            return null;
+        }
+        badEstimates = 0;
+        if (lastLoss > LOSS_LOW || !calm) {
+            // между порогами уровень не меняется ни в одну сторону
+            cleanSinceMillis = -1;
+            return null;
+        }
+        if (probing && nowMillis - lastUpgradeMillis >= FAILED_PROBE_WINDOW_MS) {
+            // повышение прижилось
+            probing = false;
+            upgradeHoldMillis = UPGRADE_HOLD_MS;
+        }
+        if (cleanSinceMillis < 0) {
+            cleanSinceMillis = nowMillis;
+        }
+        if (levelIndex > 0 && nowMillis - cleanSinceMillis >= upgradeHoldMillis) {
+            probing = true;
+            lastUpgradeMillis = nowMillis;
+            return change(levelIndex - 1, nowMillis);
+        }
+        return null;
+    }
+
+    private void remember(ReceiverReport report) {
+        previousSequence = report.getHighestSequence();
+        previousReceived = report.getReceived();
+        previousLost = report.getLost();
+    }
+
+    private Level change(int newIndex, long nowMillis) {
+        levelIndex = newIndex;
+        lastChangeMillis = nowMillis;
+        badEstimates = 0;
+        cleanSinceMillis = -1;
+        return ladder.get(levelIndex);
+    }
+
+    public Level getLevel() {
+        return ladder.get(levelIndex);
+    }
+
+    public int getLevelIndex() {
+        return levelIndex;
+    }
+
+    public List<Level> getLadder() {
+        return ladder;
+    }
+
+    // доля потерь по последней оценке
+    public double getLastLoss() {
+        return lastLoss;
+    }
+
+    public long getUpgradeHoldMillis() {
+        return upgradeHoldMillis;
+    }
+
+    // одна ступень качества: битрейт кодека, частота потока и сколько кадров захвата в пакете
+    public static class Level {
+        private final int bitrate;
+        private final int sampleRate;
+        private final int packetFrames;
+
+        public Level(int bitrate, int sampleRate, int packetFrames) {
+            this.bitrate = bitrate;
+            this.sampleRate = sampleRate;
+            this.packetFrames = packetFrames;
+        }
+
+        public int getBitrate() {
+            return bitrate;
+        }
+
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        public int getPacketFrames() {
+            return packetFrames;
+        }
+
+        @Override
+        public String toString() {
+            return bitrate + " bps, " + sampleRate + " Hz, x" + packetFrames;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// ступень смены частоты в потоке слушателя (SubscriberThread) - полифазный передискретизатор
+// для любого отношения частот (Resampler). Обрабатывает кадр за кадром, сохраняя состояние между ними
+public interface RateConverter {
+
+    // обрабатывает in[0, length) и пишет результат в out с начала. Возвращает размер результата в байтах
+    int process(@NotNull ByteBuffer in, int length, @NotNull ByteBuffer out);
+
+    // сколько байт даёт inputBytes байт входа (для кадров захвата - ровно, см. canResample)
+    int getOutputBytes(int inputBytes);
+}
@@ -0,0 +1,119 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+// обратная связь от получателя: что дошло, что потеряно и сколько звука у него в буфере.
+// Получатель отправляет её по управляющему каналу примерно раз в секунду
+public class ReceiverReport {
+
+    // наибольший расширенный номер принятого пакета
+    private long highestSequence;
+    private long received;
+    private long lost;
+    // межпакетный джиттер (RFC 3550) в микросекундах
+    private long jitterMicros;
+    // сколько звука накоплено в буфере получателя и сколько он хочет держать
+    private int bufferedMillis;
+    private int targetDelayMillis;
+    private long underruns;
+    private long concealedFrames;
+    // метка последнего keep-alive сервера и сколько миллисекунд прошло с его прихода
+    // до отправки отчёта (как LSR / DLSR в RTCP), по ним сервер считает RTT. -1 - метки нет
+    private long echoTimestamp = -1;
+    private int echoDelayMillis;
+
+    public ReceiverReport() {
+    }
+
+    public ReceiverReport(long highestSequence, long received, long lost, long jitterMicros,
+                          int bufferedMillis, int targetDelayMillis, long underruns, long concealedFrames) {
+        set(highestSequence, received, lost, jitterMicros, bufferedMillis, targetDelayMillis, underruns, concealedFrames);
+    }
+
+    public ReceiverReport(@NotNull ReceiverReport other) {
+        this(other.highestSequence, other.received, other.lost, other.jitterMicros,
+                other.bufferedMillis, other.targetDelayMillis, other.underruns, other.concealedFrames);
+        setEcho(other.echoTimestamp, other.echoDelayMillis);
+    }
+
+    // снимок состояния буфера получателя
+    public static ReceiverReport from(@NotNull JitterBuffer jitterBuffer) {
+        PacketDecoder statistics = jitterBuffer.getStreamStatistics();
+        return new ReceiverReport(
+                statistics.getMaxExtendedSequence(),
+                statistics.getReceived(),
+                statistics.getLost(),
+                Math.round(statistics.getJitterMillis() * 1000),
+                (int) Math.round(jitterBuffer.getBufferedMillis()),
+                (int) Math.round(jitterBuffer.getTargetDelayMillis()),
+                jitterBuffer.getUnderruns(),
+                jitterBuffer.getConcealedFrames()
+        );
+    }
+
+    void set(long highestSequence, long received, long lost, long jitterMicros,
+             int bufferedMillis, int targetDelayMillis, long underruns, long concealedFrames) {
+        this.highestSequence = highestSequence;
+        this.received = received;
+        this.lost = lost;
+        this.jitterMicros = jitterMicros;
+        this.bufferedMillis = bufferedMillis;
+        this.targetDelayMillis = targetDelayMillis;
+        this.underruns = underruns;
+        this.concealedFrames = concealedFrames;
+        this.echoTimestamp = -1;
+        this.echoDelayMillis = 0;
+    }
+
+    // timestamp - метка из последнего KEEP_ALIVE сервера, delayMillis - сколько он пролежал у получателя
+    public void setEcho(long timestamp, int delayMillis) {
+        this.echoTimestamp = timestamp;
+        this.echoDelayMillis = delayMillis;
+    }
+
+    public long getHighestSequence() {
+        return highestSequence;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getLost() {
+        return lost;
+    }
+
+    public long getJitterMicros() {
+        return jitterMicros;
+    }
+
+    public int getBufferedMillis() {
+        return bufferedMillis;
+    }
+
+    public int getTargetDelayMillis() {
+        return targetDelayMillis;
+    }
+
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    public long getConcealedFrames() {
+        return concealedFrames;
+    }
+
+    public long getEchoTimestamp() {
+        return echoTimestamp;
+    }
+
+    public int getEchoDelayMillis() {
+        return echoDelayMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "received " + received + ", lost " + lost + ", jitter " + jitterMicros + " us, buffer "
+                + bufferedMillis + "/" + targetDelayMillis + " ms, underruns " + underruns;
+    }
+}
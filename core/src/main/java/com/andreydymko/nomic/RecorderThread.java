@@ -0,0 +1,105 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// местная запись того же звука, что уходит слушателям. Поток обработки только кладёт кадр
+// в кольцо записи (как и слушателям, SubscriberThread) и никогда не ждёт диск; этот поток
+// переписывает кадры в WavFileWriter и раз в SYNC_PERIOD_NS объявляет записанное в заголовке.
+// Если диск не успевает, теряются кадры записи, а не захват: на их месте в файле - тишина
+// той же длины, чтобы запись не сдвигалась во времени. После остановки (interrupt) дописывает
+// то, что уже в кольце, и закрывает файл
+public class RecorderThread extends Thread {
+
+    private static final String NAME = "RecorderThread";
+    // как долго поток ждёт кадр, прежде чем проверить, не попросили ли его остановиться
+    private static final long POLL_TIMEOUT_NS = 100_000_000L;
+    // как часто записанное объявляется в заголовке: столько звука может потеряться при падении
+    private static final long SYNC_PERIOD_NS = 1_000_000_000L;
+
+    private final WavFileWriter writer;
+    private final FrameRing frames;
+    // ошибка записи (например, кончилось место), после которой запись остановилась
+    private volatile IOException error;
+
+    // frameBytes - наибольший размер кадра, queueFrames - сколько кадров может ждать записи
+    public RecorderThread(@NotNull WavFileWriter writer, int frameBytes, int queueFrames) {
+        super(NAME);
+        this.writer = writer;
+        this.frames = new FrameRing(queueFrames, frameBytes);
+    }
+
+    // вызывается потоком обработки: копирует кадр в кольцо записи, не блокируясь.
+    // Перед кадром уже было выброшено skippedBytes байт звука
+    public boolean offer(@NotNull ByteBuffer frame, int length, int skippedBytes) {
+        if (skippedBytes > 0) {
+            frames.skip(skippedBytes);
+        }
+        return frames.offer(frame, length);
+    }
+
+    public void run() {
+        long lastSync = System.nanoTime();
+        try {
+            while (!Thread.interrupted()) {
+                if (frames.await(POLL_TIMEOUT_NS)) {
+                    writeFrame();
+                }
+                long now = System.nanoTime();
+                if (now - lastSync >= SYNC_PERIOD_NS) {
+                    lastSync = now;
+                    writer.sync();
+                }
+            }
+            // запись остановили: кадры, уже отданные ей, тоже попадают в файл
+            while (frames.peek() != null) {
+                writeFrame();
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+    }
+
+    private void writeFrame() throws IOException {
+        int skippedBytes = frames.peekSkippedBytes();
+        if (skippedBytes > 0) {
+            writer.writeSilence(skippedBytes);
+        }
+        writer.write(frames.peek(), frames.peekLength());
+        frames.release();
+    }
+
+    // останавливает запись и ждёт, пока файл будет закрыт
+    public void finish() throws InterruptedException {
+        interrupt();
+        join();
+    }
+
+    public WavFileWriter getWriter() {
+        return writer;
+    }
+
+    public IOException getError() {
+        return error;
+    }
+
+    // сколько кадров выброшено из-за того, что запись не успевала
+    public long getDroppedFrames() {
+        return frames.getOverflows();
+    }
+
+    // сколько кадров ждут записи
+    public int getQueuedFrames() {
+        return frames.size();
+    }
+}
@@ -0,0 +1,228 @@
+package com.andreydymko.nomic;
+
+import androidx.annotation.IntDef;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.annotation.Retention;
+import java.nio.ByteBuffer;
+
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+// полифазный передискретизатор: меняет частоту в рациональное число раз L / M (частоты
+// делятся на их НОД), чтобы частота в сети не зависела от частоты захвата (например,
+// 48 кГц -> 16 кГц для речи или 44,1 кГц -> 48 кГц).
+// Фильтр - sinc с окном Кайзера, срез на rolloff * половины меньшей из частот. Таблица
+// коэффициентов считается один раз в конструкторе: для каждой из L фаз - свой набор из taps
+// отводов, нормированный на единичное усиление постоянного тока. Обработка идёт во float,
+// входной и выходной формат - encoding (SampleFormat), каналы чередуются.
+// Выход задержан на половину фильтра, зато каждый блок из n кадров даёт ровно n * L / M кадров,
+// если это целое (canResample): пакеты слушателя остаются одной длины.
+// Память выделяется только в конструкторе и при первом блоке большего размера
+public class Resampler implements RateConverter {
+    @Retention(SOURCE)
+    @IntDef({QUALITY.LOW,
+            QUALITY.MEDIUM,
+            QUALITY.HIGH})
+    public @interface quality {}
+
+    private final int inputRate;
+    private final int outputRate;
+    private final int channels;
+    private final int encoding;
+    private final int bytesPerFrame;
+    // частота повышается в up раз и понижается в down раз
+    private final int up;
+    private final int down;
+    private final int taps;
+    // коэффициенты фазы p - [p * taps, (p + 1) * taps)
+    private final float[] coefficients;
+
+    // входные кадры, которые ещё понадобятся, во float с чередованием каналов.
+    // Начинается с taps - 1 нулевых кадров - так выход задержан, а не укорочен
+    private float[] history;
+    private int historyFrames;
+    // фаза следующего выходного кадра и его первый входной кадр в history
+    private int phase;
+    private int base;
+
+    public Resampler(int inputRate, int outputRate, int channels, @SampleFormat.encoding int encoding) {
+        this(inputRate, outputRate, channels, encoding, QUALITY.MEDIUM);
+    }
+
+    public Resampler(int inputRate, int outputRate, int channels, @SampleFormat.encoding int encoding,
+                     @quality int quality) {
+        if (inputRate <= 0 || outputRate <= 0 || channels <= 0) {
+            throw new IllegalArgumentException("Bad resampling " + inputRate + " -> " + outputRate + " Hz, "
+                    + channels + " channels");
+        }
+        this.inputRate = inputRate;
+        this.outputRate = outputRate;
+        this.channels = channels;
+        this.encoding = encoding;
+        this.bytesPerFrame = SampleFormat.getBytesPerSample(encoding) * channels;
+        int gcd = gcd(inputRate, outputRate);
+        this.up = outputRate / gcd;
+        this.down = inputRate / gcd;
+
+        int zeroCrossings;
+        double beta;
+        double rolloff;
+        switch (quality) {
+            case QUALITY.LOW:
+                zeroCrossings = 8;
+                beta = 5;
+                rolloff = 0.85;
+                break;
+            case QUALITY.HIGH:
+                zeroCrossings = 32;
+                beta = 10;
+                rolloff = 0.95;
+                break;
+            case QUALITY.MEDIUM:
+            default:
+                zeroCrossings = 16;
+                beta = 8;
+                rolloff = 0.92;
+                break;
+        }
+        // при понижении частоты срез ниже, а фильтр во столько же раз длиннее
+        double scale = Math.min(1.0, (double) outputRate / inputRate);
+        int half = (int) Math.ceil(zeroCrossings / scale);
+        this.taps = 2 * half;
+        this.coefficients = buildCoefficients(up, half, scale * rolloff, beta);
+        this.history = new float[2 * taps * channels];
+        reset();
+    }
+
+    // можно ли отдавать кадр захвата из framesPerPacket сэмплов целым числом кадров частоты outputRate
+    public static boolean canResample(int inputRate, int outputRate, int framesPerPacket) {
+        return inputRate > 0 && outputRate > 0 && (long) framesPerPacket * outputRate % inputRate == 0;
+    }
+
+    // коэффициент отвода k фазы p - значение фильтра на расстоянии k - half + 1 - p / up входных кадров
+    private static float[] buildCoefficients(int up, int half, double cutoff, double beta) {
+        int taps = 2 * half;
+        float[] coefficients = new float[up * taps];
+        double[] phase = new double[taps];
+        double i0Beta = besselI0(beta);
+        for (int p = 0; p < up; p++) {
+            double sum = 0;
+            for (int k = 0; k < taps; k++) {
+                double x = k - half + 1 - (double) p / up;
+                double ratio = x / half;
+                double window = Math.abs(ratio) >= 1 ? 0 : besselI0(beta * Math.sqrt(1 - ratio * ratio)) / i0Beta;
+                phase[k] = cutoff * sinc(cutoff * x) * window;
+                sum += phase[k];
+            }
+            for (int k = 0; k < taps; k++) {
+                coefficients[p * taps + k] = (float) (phase[k] / sum);
+            }
+        }
+        return coefficients;
+    }
+
+    private static double sinc(double x) {
+        return x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+    }
+
+    // модифицированная функция Бесселя первого рода нулевого порядка, рядом
+    private static double besselI0(double x) {
+        double sum = 1;
+        double term = 1;
+        for (int k = 1; k < 50 && term > sum * 1e-12; k++) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    // забывает накопленный звук: следующий блок начинается с тишины, как первый
+    public void reset() {
+        historyFrames = taps - 1;
+        for (int i = 0; i < historyFrames * channels; i++) {
+            history[i] = 0;
+        }
+        phase = 0;
+        base = 0;
+    }
+
+    @Override
+    public int process(@NotNull ByteBuffer in, int length, @NotNull ByteBuffer out) {
+        int inFrames = length / bytesPerFrame;
+        int bytesPerSample = SampleFormat.getBytesPerSample(encoding);
+        int needed = (historyFrames + inFrames) * channels;
+        if (history.length < needed) {
+            float[] grown = new float[needed];
+            System.arraycopy(history, 0, grown, 0, historyFrames * channels);
+            history = grown;
+        }
+        int at = historyFrames * channels;
+        for (int i = 0; i < inFrames * channels; i++) {
+            history[at + i] = SampleConverter.getSample(in, i * bytesPerSample, encoding);
+        }
+        historyFrames += inFrames;
+
+        int written = 0;
+        while (base + taps <= historyFrames) {
+            int offset = phase * taps;
+            int start = base * channels;
+            for (int channel = 0; channel < channels; channel++) {
+                float sum = 0;
+                for (int k = 0, i = start + channel; k < taps; k++, i += channels) {
+                    sum += coefficients[offset + k] * history[i];
+                }
+                SampleConverter.putSample(out, written, encoding, sum);
+                written += bytesPerSample;
+            }
+            phase += down;
+            base += phase / up;
+            phase %= up;
+        }
+
+        // кадры до base больше не понадобятся
+        historyFrames -= base;
+        System.arraycopy(history, base * channels, history, 0, historyFrames * channels);
+        base = 0;
+        return written;
+    }
+
+    @Override
+    public int getOutputBytes(int inputBytes) {
+        return (int) ((long) (inputBytes / bytesPerFrame) * up / down) * bytesPerFrame;
+    }
+
+    public int getInputRate() {
+        return inputRate;
+    }
+
+    public int getOutputRate() {
+        return outputRate;
+    }
+
+    public @SampleFormat.encoding int getEncoding() {
+        return encoding;
+    }
+
+    // задержка выхода относительно входа, в кадрах входа
+    public int getDelayFrames() {
+        return taps / 2;
+    }
+
+    public static class QUALITY {
+        // 8 переходов через ноль на сторону: дёшево, для речи
+        public final static int LOW = 0;
+        public final static int MEDIUM = 1;
+        // 32 перехода через ноль: наложение подавляется больше чем на 100 дБ (см. ResamplerTest)
+        public final static int HIGH = 2;
+    }
+}
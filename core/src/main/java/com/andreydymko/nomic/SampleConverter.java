@@ -0,0 +1,111 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// преобразование звука между форматами SampleFormat: для слушателя, чей кодек ждёт не тот
+// формат, в котором идёт захват (например, 16 бит для старого клиента при захвате в float).
+// Понижение разрядности - отбрасыванием младших бит (24 -> 16) или округлением с насыщением
+// (float -> целые), повышение - без потерь. Чтение и запись по абсолютным индексам:
+// position, limit и порядок байт буферов не меняются
+public class SampleConverter {
+
+    private static final float SCALE_16 = 32768f;
+    private static final float SCALE_24 = 8388608f;
+
+    private SampleConverter() {
+    }
+
+    // преобразует in[0, length) из формата inEncoding в формат outEncoding и пишет результат
+    // в out с начала. Возвращает размер результата в байтах
+    public static int convert(@NotNull ByteBuffer in, int length, @SampleFormat.encoding int inEncoding,
+                              @NotNull ByteBuffer out, @SampleFormat.encoding int outEncoding) {
+        int inBytes = SampleFormat.getBytesPerSample(inEncoding);
+        int outBytes = SampleFormat.getBytesPerSample(outEncoding);
+        int samples = length / inBytes;
+        if (inEncoding == outEncoding) {
+            for (int i = 0; i < samples * inBytes; i++) {
+                out.put(i, in.get(i));
+            }
+        } else if (inEncoding == SampleFormat.ENCODING.PCM_24_PACKED && outEncoding == SampleFormat.ENCODING.PCM_16) {
+            // самый частый случай - старшие два байта из трёх
+            for (int i = 0, o = 0; i < samples * 3; i += 3, o += 2) {
+                out.put(o, in.get(i + 1));
+                out.put(o + 1, in.get(i + 2));
+            }
+        } else {
+            for (int i = 0; i < samples; i++) {
+                putSample(out, i * outBytes, outEncoding, getSample(in, i * inBytes, inEncoding));
+            }
+        }
+        return samples * outBytes;
+    }
+
+    // сэмпл по смещению at, приведённый к диапазону [-1, 1)
+    public static float getSample(@NotNull ByteBuffer buffer, int at, @SampleFormat.encoding int encoding) {
+        switch (encoding) {
+            case SampleFormat.ENCODING.PCM_24_PACKED:
+                return getSample24(buffer, at) / SCALE_24;
+            case SampleFormat.ENCODING.PCM_FLOAT:
+                return getFloat(buffer, at);
+            case SampleFormat.ENCODING.PCM_16:
+            default:
+                return getSample16(buffer, at) / SCALE_16;
+        }
+    }
+
+    // пишет сэмпл из диапазона [-1, 1] по смещению at; в целых форматах значения за пределами
+    // упираются в предел, float пишется как есть
+    public static void putSample(@NotNull ByteBuffer buffer, int at, @SampleFormat.encoding int encoding,
+                                 float sample) {
+        switch (encoding) {
+            case SampleFormat.ENCODING.PCM_24_PACKED:
+                putSample24(buffer, at, clamp(Math.round(sample * SCALE_24), -(1 << 23), (1 << 23) - 1));
+                break;
+            case SampleFormat.ENCODING.PCM_FLOAT:
+                putFloat(buffer, at, sample);
+                break;
+            case SampleFormat.ENCODING.PCM_16:
+            default:
+                putSample16(buffer, at, clamp(Math.round(sample * SCALE_16), Short.MIN_VALUE, Short.MAX_VALUE));
+                break;
+        }
+    }
+
+    public static int getSample16(@NotNull ByteBuffer buffer, int at) {
+        return (short) ((buffer.get(at) & 0xFF) | (buffer.get(at + 1) << 8));
+    }
+
+    public static void putSample16(@NotNull ByteBuffer buffer, int at, int sample) {
+        buffer.put(at, (byte) sample);
+        buffer.put(at + 1, (byte) (sample >> 8));
+    }
+
+    public static int getSample24(@NotNull ByteBuffer buffer, int at) {
+        return (buffer.get(at) & 0xFF) | (buffer.get(at + 1) & 0xFF) << 8 | buffer.get(at + 2) << 16;
+    }
+
+    public static void putSample24(@NotNull ByteBuffer buffer, int at, int sample) {
+        buffer.put(at, (byte) sample);
+        buffer.put(at + 1, (byte) (sample >> 8));
+        buffer.put(at + 2, (byte) (sample >> 16));
+    }
+
+    public static float getFloat(@NotNull ByteBuffer buffer, int at) {
+        return Float.intBitsToFloat((buffer.get(at) & 0xFF) | (buffer.get(at + 1) & 0xFF) << 8
+                | (buffer.get(at + 2) & 0xFF) << 16 | buffer.get(at + 3) << 24);
+    }
+
+    public static void putFloat(@NotNull ByteBuffer buffer, int at, float sample) {
+        int bits = Float.floatToRawIntBits(sample);
+        buffer.put(at, (byte) bits);
+        buffer.put(at + 1, (byte) (bits >> 8));
+        buffer.put(at + 2, (byte) (bits >> 16));
+        buffer.put(at + 3, (byte) (bits >> 24));
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return value < min ? min : Math.min(value, max);
+    }
+}
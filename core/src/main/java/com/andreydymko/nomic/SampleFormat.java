@@ -0,0 +1,85 @@
+package com.andreydymko.nomic;
+
+import androidx.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+// формат сэмплов звука в конвейере: PCM 16 бит, 24 бита без выравнивания (по три байта) либо float.
+// Все форматы little-endian, каналы чередуются. Формат захвата задаёт источник (AudioSource),
+// формат в пакете - тип полезной нагрузки (AudioPacket.PAYLOAD_TYPE)
+public class SampleFormat {
+    @Retention(SOURCE)
+    @IntDef({ENCODING.PCM_16,
+            ENCODING.PCM_24_PACKED,
+            ENCODING.PCM_FLOAT})
+    public @interface encoding {}
+
+    private SampleFormat() {
+    }
+
+    public static int getBytesPerSample(@encoding int encoding) {
+        switch (encoding) {
+            case ENCODING.PCM_24_PACKED:
+                return 3;
+            case ENCODING.PCM_FLOAT:
+                return 4;
+            case ENCODING.PCM_16:
+            default:
+                return 2;
+        }
+    }
+
+    // имя формата для рукопожатия
+    public static String getName(@encoding int encoding) {
+        switch (encoding) {
+            case ENCODING.PCM_24_PACKED:
+                return "s24le";
+            case ENCODING.PCM_FLOAT:
+                return "f32le";
+            case ENCODING.PCM_16:
+            default:
+                return "s16le";
+        }
+    }
+
+    // тип полезной нагрузки, в котором звук этого формата передаётся без преобразования
+    public static @AudioPacket.payloadType int getPcmPayloadType(@encoding int encoding) {
+        switch (encoding) {
+            case ENCODING.PCM_24_PACKED:
+                return AudioPacket.PAYLOAD_TYPE.PCM_24_LE;
+            case ENCODING.PCM_FLOAT:
+                return AudioPacket.PAYLOAD_TYPE.PCM_FLOAT_LE;
+            case ENCODING.PCM_16:
+            default:
+                return AudioPacket.PAYLOAD_TYPE.PCM_16_LE;
+        }
+    }
+
+    // в каком формате кодек полезной нагрузки ждёт звук: PCM передаётся в своём формате,
+    // сжимающие кодеки (mu-law, Opus) принимают 16 бит
+    public static @encoding int ofPayloadType(@AudioPacket.payloadType int payloadType) {
+        switch (payloadType) {
+            case AudioPacket.PAYLOAD_TYPE.PCM_24_LE:
+                return ENCODING.PCM_24_PACKED;
+            case AudioPacket.PAYLOAD_TYPE.PCM_FLOAT_LE:
+                return ENCODING.PCM_FLOAT;
+            default:
+                return ENCODING.PCM_16;
+        }
+    }
+
+    // передаётся ли звук в полезной нагрузке без сжатия
+    public static boolean isPcm(@AudioPacket.payloadType int payloadType) {
+        return payloadType == AudioPacket.PAYLOAD_TYPE.PCM_16_LE
+                || payloadType == AudioPacket.PAYLOAD_TYPE.PCM_24_LE
+                || payloadType == AudioPacket.PAYLOAD_TYPE.PCM_FLOAT_LE;
+    }
+
+    public static class ENCODING {
+        public final static int PCM_16 = 0;
+        public final static int PCM_24_PACKED = 1;
+        public final static int PCM_FLOAT = 2;
+    }
+}
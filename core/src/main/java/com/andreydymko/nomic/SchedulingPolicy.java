@@ -0,0 +1,38 @@
+package com.andreydymko.nomic;
+
+import androidx.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+// как планировщик ОС должен обращаться с потоками конвейера (приоритет, ядра процессора).
+// Вызывается самим потоком в начале его работы. На устройстве это AudioThreadPolicy,
+// в тестах на JVM - NONE или подделка, записывающая вызовы
+public interface SchedulingPolicy {
+    @Retention(SOURCE)
+    @IntDef({STAGE.CAPTURE,
+            STAGE.PROCESSING,
+            STAGE.SENDING})
+    @interface stage {}
+
+    // ничего не меняет: потоки работают с приоритетом по умолчанию
+    SchedulingPolicy NONE = new SchedulingPolicy() {
+        @Override
+        public void onThreadStart(@stage int stage) {
+        }
+    };
+
+    // настраивает текущий поток как поток ступени stage
+    void onThreadStart(@stage int stage);
+
+    // класс перечисления ступеней конвейера
+    class STAGE {
+        // CaptureThread: AudioSource.read
+        public final static int CAPTURE = 0;
+        // ProcessingThread: обработка звука
+        public final static int PROCESSING = 1;
+        // SubscriberThread: кодирование и отправка одному слушателю
+        public final static int SENDING = 2;
+    }
+}
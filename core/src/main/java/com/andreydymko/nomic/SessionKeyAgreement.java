@@ -0,0 +1,126 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Locale;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// ключ шифрования потока (PacketCipher), о котором договариваются в текстовом рукопожатии:
+// каждая сторона создаёт одноразовую пару ключей ECDH на кривой P-256 и пересылает открытый ключ
+// (X.509, шестнадцатеричной строкой). Из общего секрета HKDF-SHA256 выводит ключ ChaCha20-Poly1305;
+// солью служат оба открытых ключа (сначала сервера, потом клиента), так что ключ привязан
+// к этому рукопожатию. Защищает от подслушивания: подмену ключей активным посредником
+// в сети это само по себе не обнаруживает. P-256 и HMAC есть и в Java 8, и в Android 4.4
+public class SessionKeyAgreement {
+
+    // название шифра в рукопожатии
+    public final static String CIPHER_NAME = "chacha20-poly1305";
+    private final static String CURVE = "secp256r1";
+    private final static byte[] INFO = {'n', 'o', 'm', 'i', 'c', ' ', 's', 't', 'r', 'e', 'a', 'm', ' ', 'k', 'e', 'y'};
+    private final static byte[] RESUME_INFO = {'n', 'o', 'm', 'i', 'c', ' ', 'r', 'e', 's', 'u', 'm', 'e'};
+
+    private final KeyPair keyPair;
+
+    public SessionKeyAgreement() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec(CURVE));
+        keyPair = generator.generateKeyPair();
+    }
+
+    // свой открытый ключ для рукопожатия
+    public String getPublicKey() {
+        return toHex(keyPair.getPublic().getEncoded());
+    }
+
+    // ключ сеанса из открытого ключа другой стороны. server - эта сторона сервер
+    public byte[] deriveKey(@NotNull String peerPublicKey, boolean server) throws GeneralSecurityException {
+        byte[] peerEncoded = fromHex(peerPublicKey);
+        PublicKey peer = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(peerEncoded));
+        KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+        agreement.init(keyPair.getPrivate());
+        agreement.doPhase(peer, true);
+        byte[] secret = agreement.generateSecret();
+
+        byte[] own = keyPair.getPublic().getEncoded();
+        byte[] serverKey = server ? own : peerEncoded;
+        byte[] clientKey = server ? peerEncoded : own;
+        byte[] salt = new byte[serverKey.length + clientKey.length];
+        System.arraycopy(serverKey, 0, salt, 0, serverKey.length);
+        System.arraycopy(clientKey, 0, salt, serverKey.length, clientKey.length);
+        // HKDF (RFC 5869): извлечение, затем один блок расширения - ровно 32 байта
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(salt, "HmacSHA256"));
+        byte[] pseudoRandomKey = mac.doFinal(secret);
+        mac.init(new SecretKeySpec(pseudoRandomKey, "HmacSHA256"));
+        mac.update(INFO);
+        mac.update((byte) 1);
+        return mac.doFinal();
+    }
+
+    // подтверждение того, что клиент, который просит продолжить сеанс token (SessionTable),
+    // знает его ключ: HMAC-SHA256 от обоих токенов на ключе, выведенном из ключа потока
+    // (расширение HKDF с другой меткой - ключ шифра ни для чего другого не используется).
+    // newToken выдаётся в каждом рукопожатии заново, поэтому подслушанное подтверждение
+    // в другом рукопожатии не годится
+    public static String resumeProof(@NotNull byte[] sessionKey, @NotNull String token, @NotNull String newToken)
+            throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(sessionKey, "HmacSHA256"));
+        mac.update(RESUME_INFO);
+        mac.update((byte) 1);
+        mac.init(new SecretKeySpec(mac.doFinal(), "HmacSHA256"));
+        mac.update((token + " " + newToken).getBytes(Charset.forName("US-ASCII")));
+        return toHex(mac.doFinal());
+    }
+
+    // проверка подтверждения за постоянное время; proof == null - подтверждения нет
+    public static boolean verifyResumeProof(@NotNull byte[] sessionKey, @NotNull String token,
+                                            @NotNull String newToken, String proof) {
+        if (proof == null) {
+            return false;
+        }
+        try {
+            return MessageDigest.isEqual(resumeProof(sessionKey, token, newToken).getBytes(Charset.forName("US-ASCII")),
+                    proof.toLowerCase(Locale.US).getBytes(Charset.forName("US-ASCII")));
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] fromHex(String hex) throws InvalidKeyException {
+        if (hex.length() % 2 != 0) {
+            throw new InvalidKeyException("Odd-length public key");
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new InvalidKeyException("Public key is not hexadecimal");
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,151 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// сеансы слушателей, которые можно продолжить после потери связи. При рукопожатии клиент
+// получает токен сеанса; пропав (закрылось управляющее соединение или отправка не удалась),
+// он не отключается, а приостанавливается (SubscriberThread.suspendSession), и захват с обработкой
+// продолжают идти. Вернувшийся клиент называет токен в следующем рукопожатии и получает
+// тот же поток по новому каналу (resume) - без нового кодека, SSRC и ключа шифрования.
+// Приостановленный дольше timeoutNanos сеанс отдаётся expire() на отключение.
+// Токен - 128 случайных бит (SecureRandom): угадать его нельзя, но рукопожатие идёт открытым
+// текстом, и токен может подслушать любой в сети. Поэтому зашифрованный сеанс продолжается
+// только по подтверждению, что клиент знает ключ потока (SessionKeyAgreement.resumeProof):
+// иначе подслушавший мог бы перевести чужой поток на себя. Открытый сеанс продолжается по
+// одному токену - его звук и так слышен всей сети; там, где это недопустимо, шифрование
+// обязательно (TCPServerMicThread.ENCRYPTION.REQUIRED) и открытых сеансов нет
+public class SessionTable {
+
+    // длина токена в байтах; в рукопожатии он передаётся шестнадцатеричной строкой
+    public final static int TOKEN_BYTES = 16;
+
+    private final long timeoutNanos;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Session> sessions = new HashMap<>();
+    // сколько просьб продолжить сеанс отвергнуто из-за неверного подтверждения
+    private long rejected;
+
+    // timeoutNanos - сколько приостановленный сеанс ждёт своего клиента
+    public SessionTable(long timeoutNanos) {
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    // новый токен, ещё не выданный ни одному сеансу
+    public synchronized String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        String token;
+        do {
+            random.nextBytes(bytes);
+            token = SessionKeyAgreement.toHex(bytes);
+        } while (sessions.containsKey(token));
+        return token;
+    }
+
+    // запоминает сеанс слушателя под token; с этих пор при потере связи слушатель ждёт возвращения.
+    // sessionKey - ключ шифрования потока, либо null, если поток открытый
+    public synchronized void register(@NotNull String token, @NotNull SubscriberThread subscriber,
+                                      byte[] sessionKey) {
+        subscriber.setResumable(true);
+        sessions.put(token, new Session(subscriber, sessionKey));
+    }
+
+    // продолжает сеанс token по новому каналу transport; отныне сеанс называется newToken.
+    // proof - подтверждение ключа (SessionKeyAgreement.resumeProof от token и newToken),
+    // обязательное для зашифрованного сеанса. Зашифрованный поток продолжается тем же PacketCipher:
+    // номера пакетов под одним ключом не должны повторяться, а получатель помнит, какие уже видел.
+    // Возвращает слушателя, либо null, если такого сеанса нет или подтверждение неверно
+    // (тогда transport не тронут, а сеанс ждёт дальше)
+    public synchronized SubscriberThread resume(@NotNull String token, @NotNull String newToken, String proof,
+                                                @NotNull Transport transport) {
+        Session session = sessions.get(token);
+        if (session == null || !session.subscriber.isAlive()) {
+            return null;
+        }
+        if (session.key != null && !SessionKeyAgreement.verifyResumeProof(session.key, token, newToken, proof)) {
+            rejected++;
+            return null;
+        }
+        SubscriberThread subscriber = session.subscriber;
+        Transport current = subscriber.getTransport();
+        if (current instanceof EncryptedTransport) {
+            transport = new EncryptedTransport(transport, ((EncryptedTransport) current).getCipher());
+        }
+        sessions.remove(token);
+        sessions.put(newToken, session);
+        subscriber.resumeSession(transport);
+        return subscriber;
+    }
+
+    // приостанавливает сеанс слушателя, если он возобновляемый. Иначе возвращает false
+    public synchronized boolean suspend(@NotNull SubscriberThread subscriber) {
+        if (find(subscriber) == null) {
+            return false;
+        }
+        subscriber.suspendSession();
+        return true;
+    }
+
+    // забывает сеанс слушателя (например, он отключён)
+    public synchronized void remove(@NotNull SubscriberThread subscriber) {
+        Iterator<Session> iterator = sessions.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().subscriber == subscriber) {
+                iterator.remove();
+            }
+        }
+    }
+
+    // забывает и возвращает сеансы, приостановленные дольше timeoutNanos на момент nowNanos
+    // (System.nanoTime); отключить их - дело вызывающего
+    public synchronized List<SubscriberThread> expire(long nowNanos) {
+        List<SubscriberThread> expired = new ArrayList<>();
+        Iterator<Session> iterator = sessions.values().iterator();
+        while (iterator.hasNext()) {
+            SubscriberThread subscriber = iterator.next().subscriber;
+            if (subscriber.isSuspended() && nowNanos - subscriber.getSuspendedNanos() > timeoutNanos) {
+                iterator.remove();
+                expired.add(subscriber);
+            }
+        }
+        return expired;
+    }
+
+    // токен сеанса слушателя, либо null
+    public synchronized String getToken(@NotNull SubscriberThread subscriber) {
+        return find(subscriber);
+    }
+
+    private String find(SubscriberThread subscriber) {
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            if (entry.getValue().subscriber == subscriber) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    public synchronized int size() {
+        return sessions.size();
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    private static class Session {
+        final SubscriberThread subscriber;
+        final byte[] key;
+
+        Session(SubscriberThread subscriber, byte[] key) {
+            this.subscriber = subscriber;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.andreydymko.nomic;
+
+// формат потока, который сейчас получает слушатель. Меняется целиком при смене кодека
+// или частоты, вместе с идентификатором источника, т.к. у нового потока свои часы
+public class StreamFormat {
+
+    private final @AudioPacket.payloadType int payloadType;
+    private final int sampleRate;
+    private final int channels;
+    private final int frameDurationUs;
+    private final int bitrate;
+    private final int ssrc;
+
+    public StreamFormat(@AudioPacket.payloadType int payloadType, int sampleRate, int channels,
+                        int frameDurationUs, int bitrate, int ssrc) {
+        this.payloadType = payloadType;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.frameDurationUs = frameDurationUs;
+        this.bitrate = bitrate;
+        this.ssrc = ssrc;
+    }
+
+    public @AudioPacket.payloadType int getPayloadType() {
+        return payloadType;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getFrameDurationUs() {
+        return frameDurationUs;
+    }
+
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    public int getSsrc() {
+        return ssrc;
+    }
+
+    @Override
+    public String toString() {
+        return "payload type " + payloadType + ", " + sampleRate + " Hz x" + channels
+                + ", " + frameDurationUs + " us, " + bitrate + " bps, ssrc " + (ssrc & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,114 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// список слушателей одного сеанса захвата. Слушатели добавляются и удаляются
+// из любых потоков, а поток обработки рассылает кадры по снимку списка без блокировок
+public class SubscriberRegistry {
+
+    // снимок списка заменяется целиком, поэтому обход в publish() не требует синхронизации
+    private volatile SubscriberThread[] subscribers = new SubscriberThread[0];
+    private SubscriberListener listener;
+    // планирование потоков отправки, либо null - приоритет по умолчанию и без учёта сроков
+    private volatile CaptureScheduler scheduler;
+    // метрики сеанса, их пополняют потоки обработки и отправки
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    public void setSubscriberListener(SubscriberListener listener) {
+        this.listener = listener;
+    }
+
+    public void setScheduler(CaptureScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public CaptureScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    // добавляет слушателя и запускает его поток отправки
+    public void add(@NotNull SubscriberThread subscriber) {
+        int count;
+        synchronized (this) {
+            SubscriberThread[] current = subscribers;
+            SubscriberThread[] updated = new SubscriberThread[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = subscriber;
+            subscriber.setRegistry(this);
+            subscriber.start();
+            subscribers = updated;
+            count = updated.length;
+        }
+        if (listener != null) {
+            listener.onSubscriberJoined(subscriber, count);
+        }
+    }
+
+    // останавливает и удаляет слушателя; cause - причина, либо null, если его отключили намеренно
+    public boolean remove(@NotNull SubscriberThread subscriber, Exception cause) {
+        int count;
+        synchronized (this) {
+            SubscriberThread[] current = subscribers;
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == subscriber) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return false;
+            }
+            SubscriberThread[] updated = new SubscriberThread[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, updated.length - index);
+            subscribers = updated;
+            count = updated.length;
+        }
+        subscriber.interrupt();
+        if (listener != null) {
+            listener.onSubscriberLeft(subscriber, cause, count);
+        }
+        return true;
+    }
+
+    // останавливает всех слушателей
+    public void clear() {
+        for (SubscriberThread subscriber : subscribers) {
+            remove(subscriber, null);
+        }
+    }
+
+    // вызывается потоком обработки: раздаёт кадр frame[0, length) всем слушателям
+    public void publish(@NotNull ByteBuffer frame, int length) {
+        publish(frame, length, 0, 0);
+    }
+
+    // то же, но перед кадром было выброшено skippedBytes байт звука (переполнение до раздачи),
+    // а первый сэмпл кадра захвачен в timestampNanos (System.nanoTime, 0 - неизвестно)
+    public void publish(@NotNull ByteBuffer frame, int length, int skippedBytes, long timestampNanos) {
+        for (SubscriberThread subscriber : subscribers) {
+            subscriber.offer(frame, length, skippedBytes, timestampNanos);
+        }
+    }
+
+    public SubscriberThread[] getSubscribers() {
+        return subscribers.clone();
+    }
+
+    public int size() {
+        return subscribers.length;
+    }
+
+    public interface SubscriberListener {
+        void onSubscriberJoined(SubscriberThread subscriber, int subscriberCount);
+
+        void onSubscriberLeft(SubscriberThread subscriber, Exception cause, int subscriberCount);
+    }
+}
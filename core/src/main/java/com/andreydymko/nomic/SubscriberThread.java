@@ -0,0 +1,493 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.concurrent.atomic.AtomicReference;
+
+// один слушатель потока: своё кольцо кадров (FrameRing), свой кодек и свой поток отправки.
+// Поток обработки только кладёт кадр в кольцо и никогда не ждёт отправку,
+// поэтому медленный слушатель теряет свои кадры, не задерживая остальных.
+// Слушатель, которого можно возобновить (SessionTable), при потере связи не отключается,
+// а ждёт нового канала (suspendSession/resumeSession): кадры в это время выбрасываются, но часы потока идут,
+// так что вернувшийся клиент получает тот же поток - тот же SSRC, кодек и номера пакетов подряд
+public class SubscriberThread extends Thread {
+
+    private static final String NAME = "SubscriberThread";
+    // как долго поток отправки ждёт кадр, прежде чем проверить, не попросили ли его остановиться
+    private static final long POLL_TIMEOUT_NS = 100_000_000L;
+
+    // адрес слушателя, для отображения и логов
+    private final String remoteINetAddress;
+    private final PacketSender sender;
+    private final int frameBytes;
+    // формат захвата и формат, который ждёт кодек слушателя: если они разные, кадр
+    // сначала преобразуется (SampleConverter), а понижение частоты идёт уже в формате кодека
+    private final int captureEncoding;
+    private int wireEncoding;
+    private ByteBuffer converted;
+
+    // заранее выделенные кадры, ожидающие отправки: пишет поток обработки, читает поток отправки
+    private final FrameRing frames;
+    private SubscriberRegistry registry;
+
+    // формат, который слушатель получает (начиная со следующего пакета), и ожидающая применения смена
+    private volatile StreamFormat format;
+    private final AtomicReference<Reconfiguration> pendingReconfiguration = new AtomicReference<>();
+    // смена частоты для слушателя, которому нужна не частота захвата (Resampler)
+    private RateConverter rateConverter;
+    private ByteBuffer rateConverted;
+    // сколько кадров захвата собирается в один пакет и недособранный пакет
+    private int packetFrames = 1;
+    private ByteBuffer aggregate;
+    private int aggregatedBytes;
+    private int aggregatedFrames;
+    // время захвата первого кадра недособранного пакета
+    private long aggregateTimestamp;
+    // метрики сеанса (из реестра слушателей), меняются только потоком отправки
+    private MetricsRegistry metrics;
+    // подавление тишины (null - выключено): кадры без речи не отправляются, вместо них
+    // изредка уходит пакет комфортного шума. silentFrames - сколько кадров тишины подряд
+    private VoiceActivityDetector voiceActivityDetector;
+    private int comfortNoiseIntervalFrames;
+    private long silentFrames;
+    // возобновляемый слушатель при ошибке отправки не отключается, а приостанавливается
+    private volatile boolean resumable;
+    // приостановлен ли поток (нет канала к слушателю) и с какого момента (System.nanoTime)
+    private volatile boolean suspended;
+    private volatile long suspendedNanos;
+    // попросили приостановить, и новый канал, ожидающий применения потоком отправки, с временем запроса
+    private volatile boolean suspendRequested;
+    private final AtomicReference<Transport> pendingTransport = new AtomicReference<>();
+    private volatile long resumeRequestNanos;
+    // первый пакет после возобновления ещё не ушёл
+    private boolean resuming;
+
+    // queueFrames - сколько кадров может ждать отправки, прежде чем новые начнут выбрасываться
+    // (округляется вверх до степени двойки)
+    public SubscriberThread(@NotNull String remoteINetAddress, @NotNull PacketSender sender, int frameBytes, int queueFrames) {
+        this(remoteINetAddress, sender, frameBytes, queueFrames, SampleFormat.ENCODING.PCM_16);
+    }
+
+    // frameBytes - размер кадра захвата в формате captureEncoding
+    public SubscriberThread(@NotNull String remoteINetAddress, @NotNull PacketSender sender, int frameBytes, int queueFrames,
+                            @SampleFormat.encoding int captureEncoding) {
+        this(remoteINetAddress, sender, frameBytes, queueFrames, captureEncoding, null);
+    }
+
+    // rateConverter - смена частоты с самого начала потока (null - частота захвата),
+    // в формате кодека слушателя
+    public SubscriberThread(@NotNull String remoteINetAddress, @NotNull PacketSender sender, int frameBytes, int queueFrames,
+                            @SampleFormat.encoding int captureEncoding, RateConverter rateConverter) {
+        super(NAME + " " + remoteINetAddress);
+        this.remoteINetAddress = remoteINetAddress;
+        this.sender = sender;
+        this.frameBytes = frameBytes;
+        this.captureEncoding = captureEncoding;
+        this.frames = new FrameRing(queueFrames, frameBytes);
+        setWireEncoding(SampleFormat.ofPayloadType(sender.getPayloadType()));
+        setRateConverter(rateConverter);
+    }
+
+    private void setRateConverter(RateConverter rateConverter) {
+        this.rateConverter = rateConverter;
+        rateConverted = rateConverter == null ? null
+                : ByteBuffer.allocateDirect(rateConverter.getOutputBytes(getWireFrameBytes()));
+    }
+
+    // преобразование нужно, только если кодек ждёт не тот формат, в котором идёт захват
+    private void setWireEncoding(@SampleFormat.encoding int encoding) {
+        wireEncoding = encoding;
+        if (encoding == captureEncoding) {
+            converted = null;
+        } else if (converted == null || converted.capacity() < getWireFrameBytes()) {
+            converted = ByteBuffer.allocateDirect(getWireFrameBytes());
+        }
+    }
+
+    // размер кадра захвата в формате кодека
+    private int getWireFrameBytes() {
+        return toWireBytes(frameBytes);
+    }
+
+    // сколько байт в формате кодека занимают bytes байт звука в формате захвата
+    private int toWireBytes(int bytes) {
+        return bytes / SampleFormat.getBytesPerSample(captureEncoding) * SampleFormat.getBytesPerSample(wireEncoding);
+    }
+
+    // сколько байт после смены частоты занимают bytes байт звука в формате кодека
+    private int toRateBytes(int bytes) {
+        return rateConverter == null ? bytes : rateConverter.getOutputBytes(bytes);
+    }
+
+    // включает подавление тишины: кадры захвата, в которых detector не слышит речи, не отправляются.
+    // В начале тишины и дальше каждые comfortNoiseIntervalFrames её кадров вместо звука уходит
+    // пакет комфортного шума (RFC 3389) - получатель знает, какой шум подставить и что поток жив.
+    // Вызывается до запуска потока
+    public void setSilenceSuppression(VoiceActivityDetector detector, int comfortNoiseIntervalFrames) {
+        this.voiceActivityDetector = detector;
+        this.comfortNoiseIntervalFrames = Math.max(1, comfortNoiseIntervalFrames);
+    }
+
+    // слушатель, потерявший связь, будет ждать нового канала (resumeSession), а не отключится.
+    // Вызывается до запуска потока
+    public void setResumable(boolean resumable) {
+        this.resumable = resumable;
+    }
+
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    // приостанавливает поток: канал закрывается перед следующим кадром, кадры выбрасываются,
+    // пока не придёт новый канал. Новый канал, ещё не применённый, закрывается тоже
+    public synchronized void suspendSession() {
+        closeQuietly(pendingTransport.getAndSet(null));
+        suspendRequested = true;
+    }
+
+    // продолжает поток по новому каналу, начиная со следующего кадра. Канал применяется потоком
+    // отправки, прежний канал закрывается. Можно звать и когда поток не приостановлен -
+    // тогда клиент просто переходит на новый канал
+    public synchronized void resumeSession(@NotNull Transport transport) {
+        resumeRequestNanos = System.nanoTime();
+        closeQuietly(pendingTransport.getAndSet(transport));
+        suspendRequested = false;
+    }
+
+    private static void closeQuietly(Transport transport) {
+        if (transport == null) {
+            return;
+        }
+        try {
+            transport.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void applyTransportChange() {
+        Transport transport = pendingTransport.getAndSet(null);
+        if (transport != null) {
+            sender.setTransport(transport);
+            suspended = false;
+            resuming = true;
+        } else if (suspendRequested && !suspended) {
+            enterSuspension();
+        }
+    }
+
+    // канал к слушателю потерян: закрываем его и ждём нового. Недособранный пакет пропадает
+    private void enterSuspension() {
+        sender.closeTransport();
+        sender.skip(aggregatedBytes);
+        aggregatedBytes = 0;
+        aggregatedFrames = 0;
+        suspendedNanos = System.nanoTime();
+        suspended = true;
+    }
+
+    void setRegistry(SubscriberRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void setFormat(StreamFormat format) {
+        this.format = format;
+    }
+
+    public StreamFormat getFormat() {
+        return format;
+    }
+
+    // меняет кодек и частоту потока этого слушателя на лету. Смена применяется потоком отправки
+    // перед следующим кадром; частоту меняет готовый rateConverter (null - частота захвата) в формате
+    // кодека encoder, его таблицы построены заранее, в потоке вызывающего, а не в потоке отправки.
+    // packetFrames - сколько кадров захвата отправлять одним пакетом
+    public void reconfigure(@NotNull AudioEncoder encoder, @NotNull PacketEncoder packetEncoder,
+                            RateConverter rateConverter, int packetFrames, @NotNull StreamFormat format) {
+        schedule(new Reconfiguration(encoder, packetEncoder, rateConverter, packetFrames, format));
+    }
+
+    // меняет только битрейт текущего кодека: поток продолжается с теми же номерами пакетов и часами
+    public void changeBitrate(@NotNull StreamFormat format) {
+        schedule(new Reconfiguration(null, null, null, 1, format));
+    }
+
+    private synchronized void schedule(Reconfiguration reconfiguration) {
+        format = reconfiguration.format;
+        Reconfiguration replaced = pendingReconfiguration.getAndSet(null);
+        if (replaced != null) {
+            if (reconfiguration.encoder == null && replaced.encoder != null) {
+                // новый кодек ещё не применён: битрейт задаётся ему, а смена кодека остаётся в силе
+                replaced.encoder.setBitrate(reconfiguration.format.getBitrate());
+                reconfiguration = new Reconfiguration(replaced.encoder, replaced.packetEncoder,
+                        replaced.rateConverter, replaced.packetFrames, reconfiguration.format);
+            } else {
+                // предыдущая смена так и не применилась
+                replaced.release();
+            }
+        }
+        pendingReconfiguration.set(reconfiguration);
+    }
+
+    private void applyReconfiguration() {
+        Reconfiguration reconfiguration = pendingReconfiguration.getAndSet(null);
+        if (reconfiguration == null) {
+            return;
+        }
+        if (reconfiguration.encoder == null) {
+            sender.setBitrate(reconfiguration.format.getBitrate());
+            return;
+        }
+        setWireEncoding(SampleFormat.ofPayloadType(reconfiguration.encoder.getPayloadType()));
+        setRateConverter(reconfiguration.rateConverter);
+        int packetBytes = (rateConverter == null ? getWireFrameBytes() : rateConverted.capacity())
+                * reconfiguration.packetFrames;
+        sender.setEncoder(reconfiguration.encoder, reconfiguration.packetEncoder, packetBytes);
+        packetFrames = reconfiguration.packetFrames;
+        // недособранный пакет прежнего формата не отправляется: у нового потока свои часы
+        aggregate = packetFrames > 1 ? ByteBuffer.allocateDirect(packetBytes) : null;
+        aggregatedBytes = 0;
+        aggregatedFrames = 0;
+    }
+
+    // вызывается потоком обработки: копирует кадр в кольцо слушателя, не блокируясь.
+    // Если кольцо заполнено - кадр выбрасывается, а получатель увидит разрыв по маркеру
+    public boolean offer(@NotNull ByteBuffer frame, int length) {
+        return offer(frame, length, 0, 0);
+    }
+
+    // то же, но перед кадром уже было выброшено skippedBytes байт звука,
+    // а первый сэмпл кадра захвачен в timestampNanos (System.nanoTime, 0 - неизвестно)
+    public boolean offer(@NotNull ByteBuffer frame, int length, int skippedBytes, long timestampNanos) {
+        if (skippedBytes > 0) {
+            frames.skip(skippedBytes);
+        }
+        return frames.offer(frame, length, timestampNanos);
+    }
+
+    public void run() {
+        CaptureScheduler scheduler = registry == null ? null : registry.getScheduler();
+        DeadlineMonitor deadlines = scheduler == null ? null : scheduler.enter(SchedulingPolicy.STAGE.SENDING, getName());
+        metrics = registry == null ? new MetricsRegistry() : registry.getMetrics();
+        Exception cause = null;
+        try {
+            while (!Thread.interrupted()) {
+                if (!frames.await(POLL_TIMEOUT_NS)) {
+                    // кадров нет не по вине отправки - расписание начнётся заново
+                    if (deadlines != null) {
+                        deadlines.restart();
+                    }
+                    continue;
+                }
+                applyReconfiguration();
+                applyTransportChange();
+                ByteBuffer data = frames.peek();
+                int length = frames.peekLength();
+                try {
+                    if (suspended) {
+                        // слушателя нет, но его часы идут - вернувшись, он услышит звук вовремя
+                        sender.skip(toRateBytes(toWireBytes(length + frames.peekSkippedBytes())));
+                    } else if (voiceActivityDetector != null && !voiceActivityDetector.process(data, length)) {
+                        suppress(length, frames.peekSkippedBytes());
+                    } else {
+                        silentFrames = 0;
+                        sendFrame(data, length, frames.peekSkippedBytes(), frames.peekTimestamp());
+                    }
+                } catch (ClosedByInterruptException e) {
+                    throw e;
+                } catch (IOException e) {
+                    if (!resumable) {
+                        throw e;
+                    }
+                    // слушатель пропал, но может вернуться по токену сеанса - ждём его
+                    metrics.sendErrors.increment();
+                    enterSuspension();
+                }
+                frames.release();
+                if (deadlines != null) {
+                    deadlines.onPeriodDone();
+                }
+            }
+        } catch (ClosedByInterruptException ignored) {
+            // слушателя отключили
+        } catch (IOException e) {
+            // слушатель недоступен (например, порт закрыт) - отключаем только его,
+            // причину получит SubscriberListener
+            metrics.sendErrors.increment();
+            cause = e;
+        } finally {
+            sender.close();
+            closeQuietly(pendingTransport.getAndSet(null));
+            Reconfiguration pending = pendingReconfiguration.getAndSet(null);
+            if (pending != null) {
+                pending.release();
+            }
+            if (deadlines != null) {
+                scheduler.leave(deadlines);
+            }
+        }
+        if (cause != null && registry != null) {
+            registry.remove(this, cause);
+        }
+    }
+
+    // переводит кадр захвата в формат и частоту кодека и отправляет его - сразу или в пакете из
+    // packetFrames кадров. Перед кадром было выброшено skippedBytes байт звука в формате захвата
+    private void sendFrame(ByteBuffer data, int length, int skippedBytes, long timestamp) throws IOException {
+        if (converted != null) {
+            length = SampleConverter.convert(data, length, captureEncoding, converted, wireEncoding);
+            data = converted;
+            skippedBytes = toWireBytes(skippedBytes);
+        }
+        if (rateConverter != null) {
+            length = rateConverter.process(data, length, rateConverted);
+            data = rateConverted;
+            skippedBytes = rateConverter.getOutputBytes(skippedBytes);
+        }
+        if (skippedBytes > 0) {
+            // внутри пакета разрывов быть не может - недособранная часть тоже пропускается
+            sender.skip(skippedBytes + aggregatedBytes);
+            aggregatedBytes = 0;
+            aggregatedFrames = 0;
+        }
+        if (aggregate == null) {
+            send(data, length, timestamp);
+        } else {
+            if (aggregatedFrames == 0) {
+                aggregateTimestamp = timestamp;
+            }
+            // копирование между прямыми буферами, только когда пакет длиннее кадра захвата
+            data.limit(length).position(0);
+            aggregate.position(aggregatedBytes);
+            aggregate.put(data);
+            data.clear();
+            aggregate.clear();
+            aggregatedBytes += length;
+            if (++aggregatedFrames == packetFrames) {
+                // пакет считается ушедшим, даже если отправка не удалась: его время уже занято
+                int packetBytes = aggregatedBytes;
+                aggregatedBytes = 0;
+                aggregatedFrames = 0;
+                send(aggregate, packetBytes, aggregateTimestamp);
+            }
+        }
+    }
+
+    // кадр тишины не отправляется, но часы потока идут дальше. Недособранный пакет тоже
+    // не отправляется: он - конец hangover, а короткий пакет не всякий кодек примет
+    private void suppress(int length, int skippedBytes) throws IOException {
+        int wireBytes = toRateBytes(toWireBytes(length));
+        int skipped = toRateBytes(toWireBytes(skippedBytes)) + aggregatedBytes;
+        aggregatedBytes = 0;
+        aggregatedFrames = 0;
+        if (skipped > 0) {
+            sender.skip(skipped);
+        }
+        metrics.vadSuppressedFrames.increment();
+        metrics.vadSavedBytes.add(sender.estimateDatagramBytes(wireBytes * packetFrames) / packetFrames);
+        if (silentFrames++ % comfortNoiseIntervalFrames != 0) {
+            sender.skip(wireBytes);
+            return;
+        }
+        long packets = sender.getSentPackets() + sender.getSentParityPackets();
+        long bytes = sender.getSentBytes();
+        sender.sendComfortNoise(voiceActivityDetector.getComfortNoiseLevel(), wireBytes);
+        onPacketSent(System.nanoTime());
+        metrics.comfortNoisePackets.increment();
+        metrics.packetsSent.add(sender.getSentPackets() + sender.getSentParityPackets() - packets);
+        metrics.bytesSent.add(sender.getSentBytes() - bytes);
+    }
+
+    // отправляет пакет и учитывает его в метриках: время отправки, возраст звука, пакеты и байты
+    private void send(ByteBuffer data, int length, long timestamp) throws IOException {
+        long packets = sender.getSentPackets() + sender.getSentParityPackets();
+        long bytes = sender.getSentBytes();
+        long start = System.nanoTime();
+        sender.send(data, length);
+        long end = System.nanoTime();
+        metrics.send.record(end - start);
+        onPacketSent(end);
+        if (timestamp != 0) {
+            metrics.frameAge.record(end - timestamp);
+        }
+        metrics.packetsSent.add(sender.getSentPackets() + sender.getSentParityPackets() - packets);
+        metrics.bytesSent.add(sender.getSentBytes() - bytes);
+    }
+
+    // нет ли сейчас канала к слушателю
+    public boolean isSuspended() {
+        return suspended;
+    }
+
+    // с какого момента (System.nanoTime) поток приостановлен
+    public long getSuspendedNanos() {
+        return suspendedNanos;
+    }
+
+    // текущий канал к слушателю (закрытый, если поток приостановлен)
+    public Transport getTransport() {
+        return sender.getTransport();
+    }
+
+    // первый пакет после возобновления - конец возобновления
+    private void onPacketSent(long nanos) {
+        if (resuming) {
+            resuming = false;
+            metrics.sessionResume.record(nanos - resumeRequestNanos);
+        }
+    }
+
+    public String getRemoteINetAddress() {
+        return remoteINetAddress;
+    }
+
+    public CodecStatistics getCodecStatistics() {
+        return sender.getCodecStatistics();
+    }
+
+    public long getSentPackets() {
+        return sender.getSentPackets();
+    }
+
+    // сколько кадров выброшено из-за того, что слушатель не успевал их забирать
+    public long getDroppedFrames() {
+        return frames.getOverflows();
+    }
+
+    // сколько раз поток отправки ждал кадр, потому что кольцо было пусто
+    public long getUnderflows() {
+        return frames.getUnderflows();
+    }
+
+    // сколько кадров ждут отправки
+    public int getQueuedFrames() {
+        return frames.size();
+    }
+
+    // encoder == null - меняется только битрейт
+    private static class Reconfiguration {
+        final AudioEncoder encoder;
+        final PacketEncoder packetEncoder;
+        final RateConverter rateConverter;
+        final int packetFrames;
+        final StreamFormat format;
+
+        Reconfiguration(AudioEncoder encoder, PacketEncoder packetEncoder, RateConverter rateConverter,
+                        int packetFrames, StreamFormat format) {
+            this.encoder = encoder;
+            this.packetEncoder = packetEncoder;
+            this.rateConverter = rateConverter;
+            this.packetFrames = packetFrames;
+            this.format = format;
+        }
+
+        void release() {
+            if (encoder != null) {
+                encoder.release();
+            }
+        }
+    }
+}
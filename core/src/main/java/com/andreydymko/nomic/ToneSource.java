@@ -0,0 +1,74 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// синтетический источник: синусоида одной частоты, одинаковая во всех каналах, в любом формате
+// SampleFormat. Сэмпл с номером n всегда один и тот же (sampleAt), поэтому получатель может сверить звук
+public class ToneSource extends PacedSource {
+
+    private final double frequency;
+    private final double amplitude;
+
+    // amplitude - доля полной шкалы, от 0 до 1
+    public ToneSource(int sampleRate, int channels, double frequency, double amplitude, boolean realTime) {
+        this(sampleRate, channels, SampleFormat.ENCODING.PCM_16, frequency, amplitude, realTime);
+    }
+
+    public ToneSource(int sampleRate, int channels, @SampleFormat.encoding int encoding, double frequency,
+                      double amplitude, boolean realTime) {
+        super(sampleRate, channels, encoding, realTime);
+        this.frequency = frequency;
+        this.amplitude = amplitude;
+    }
+
+    // сэмпл кадра с номером position, PCM 16 бит
+    public short sampleAt(long position) {
+        return (short) Math.round(amplitude * Short.MAX_VALUE * sine(position));
+    }
+
+    // сэмпл кадра с номером position, PCM 24 бита
+    public int sample24At(long position) {
+        return (int) Math.round(amplitude * ((1 << 23) - 1) * sine(position));
+    }
+
+    // сэмпл кадра с номером position, float
+    public float sampleFloatAt(long position) {
+        return (float) (amplitude * sine(position));
+    }
+
+    private double sine(long position) {
+        // остаток от целого числа периодов не даёт фазе терять точность на длинных сеансах
+        double cycles = (double) (position * (long) (frequency * 1000) % (getSampleRate() * 1000L))
+                / (getSampleRate() * 1000L);
+        return Math.sin(2 * Math.PI * cycles);
+    }
+
+    @Override
+    protected int fill(@NotNull ByteBuffer buffer, int frames) {
+        long position = getPosition();
+        int channels = getChannelCount();
+        int encoding = getEncoding();
+        int bytesPerSample = SampleFormat.getBytesPerSample(encoding);
+        int offset = 0;
+        for (int i = 0; i < frames; i++) {
+            for (int c = 0; c < channels; c++) {
+                switch (encoding) {
+                    case SampleFormat.ENCODING.PCM_24_PACKED:
+                        SampleConverter.putSample24(buffer, offset, sample24At(position + i));
+                        break;
+                    case SampleFormat.ENCODING.PCM_FLOAT:
+                        SampleConverter.putFloat(buffer, offset, sampleFloatAt(position + i));
+                        break;
+                    case SampleFormat.ENCODING.PCM_16:
+                    default:
+                        SampleConverter.putSample16(buffer, offset, sampleAt(position + i));
+                        break;
+                }
+                offset += bytesPerSample;
+            }
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,20 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// куда PacketSender отправляет пакеты одного получателя: каждый вызов write - ровно одна датаграмма.
+// На устройстве это UDP-канал (DatagramTransport), на JVM - LoopbackTransport, передающий
+// пакеты в памяти, чтобы замерять конвейер без сети
+public interface Transport {
+
+    // отправляет одной датаграммой содержимое буферов от position до limit, сдвигая их position.
+    // Возвращает размер датаграммы
+    long write(@NotNull ByteBuffer[] srcs) throws IOException;
+
+    long write(@NotNull ByteBuffer src) throws IOException;
+
+    void close() throws IOException;
+}
@@ -0,0 +1,151 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// детектор речи для подавления тишины: решает по каждому кадру захвата, есть ли в нём звук,
+// который стоит отправлять. Признаки кадра - энергия и наклон спектра (доля энергии первой
+// разности: около 0 у низких частот, 1 у белого шума, до 2 у частот около Найквиста).
+// Уровень шума комнаты отслеживается сам: сглаживается по кадрам без речи (вниз быстрее, чем
+// вверх) и медленно поднимается во время речи, если шум стал громче навсегда (включили вентилятор).
+// Речь - кадр громче шума на THRESHOLD_DB, либо громче на SPECTRAL_THRESHOLD_DB, но заметно
+// "ярче" шума (тихие шипящие на фоне гула). Более "тёмные" громкие кадры так не считаются:
+// у шума комнаты громкие кадры - обычно как раз всплески низких частот. Начало речи отдаётся сразу,
+// а конец - только через hangover: паузы между словами и затухающие окончания не режутся.
+// Кадр - любой длины, в формате encoding (SampleFormat) с чередованием каналов
+public class VoiceActivityDetector {
+
+    // на сколько дБ кадр должен быть громче шума, чтобы считаться речью
+    private final static double THRESHOLD_DB = 9;
+    // порог для кадров, спектр которых не похож на спектр шума
+    private final static double SPECTRAL_THRESHOLD_DB = 6;
+    // насколько наклон спектра такого кадра должен быть больше, чем у шума
+    private final static double TILT_DIFFERENCE = 0.5;
+    // тише этого (dBFS) - тишина при любом шуме: цифровой ноль и выключенный микрофон
+    private final static double ABSOLUTE_FLOOR_DB = -75;
+    // за сколько секунд уровень шума сглаживается по кадрам без речи: вниз быстро, вверх медленно,
+    // чтобы затухающие окончания слов не поднимали его. Сглаживание, а не минимум - тогда
+    // обычные колебания шума от кадра к кадру не выглядят речью
+    private final static double FALL_TIME_CONSTANT_S = 0.08;
+    private final static double RISE_TIME_CONSTANT_S = 1.0;
+    // с какой скоростью уровень шума ползёт вверх во время речи
+    private final static double RISE_DB_PER_SECOND = 2;
+
+    private final int sampleRate;
+    private final int channels;
+    private final int encoding;
+    private final int bytesPerFrame;
+    private final int hangoverFrames;
+    private final double absoluteFloor = Math.pow(10, ABSOLUTE_FLOOR_DB / 10);
+
+    private boolean started;
+    // энергия шума (средний квадрат сэмпла) и наклон его спектра
+    private double noiseEnergy;
+    private double noiseTilt;
+    // сколько кадров (сэмплов каждого канала) ещё считать речью после её конца
+    private int hangoverLeft;
+    private boolean speech;
+    private boolean active;
+
+    public VoiceActivityDetector(int sampleRate, int channels, @SampleFormat.encoding int encoding, int hangoverMs) {
+        if (sampleRate <= 0 || channels <= 0 || hangoverMs < 0) {
+            throw new IllegalArgumentException("Bad detector " + sampleRate + " Hz, " + channels + " channels, "
+                    + hangoverMs + " ms hangover");
+        }
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.encoding = encoding;
+        this.bytesPerFrame = SampleFormat.getBytesPerSample(encoding) * channels;
+        this.hangoverFrames = (int) ((long) sampleRate * hangoverMs / 1000);
+    }
+
+    // разбирает кадр frame[0, length) и возвращает true, если его нужно отправлять:
+    // в нём речь, либо речь закончилась меньше hangover назад
+    public boolean process(@NotNull ByteBuffer frame, int length) {
+        int frames = length / bytesPerFrame;
+        if (frames == 0) {
+            return active;
+        }
+        int bytesPerSample = SampleFormat.getBytesPerSample(encoding);
+        int samples = frames * channels;
+        double energy = 0;
+        double difference = 0;
+        for (int channel = 0; channel < channels; channel++) {
+            float previous = SampleConverter.getSample(frame, channel * bytesPerSample, encoding);
+            energy += previous * previous;
+            for (int i = channel + channels; i < samples; i += channels) {
+                float sample = SampleConverter.getSample(frame, i * bytesPerSample, encoding);
+                energy += sample * sample;
+                difference += (sample - previous) * (sample - previous);
+                previous = sample;
+            }
+        }
+        energy /= samples;
+        double tilt = energy > 0 ? difference / (samples - channels + 1) / energy : 0;
+        double seconds = (double) frames / sampleRate;
+
+        if (!started) {
+            started = true;
+            noiseEnergy = Math.max(energy, absoluteFloor);
+            noiseTilt = tilt;
+        }
+        double aboveNoiseDb = 10 * Math.log10(Math.max(energy, Double.MIN_NORMAL) / noiseEnergy);
+        speech = energy > absoluteFloor
+                && (aboveNoiseDb > THRESHOLD_DB
+                || aboveNoiseDb > SPECTRAL_THRESHOLD_DB && tilt - noiseTilt > TILT_DIFFERENCE);
+
+        if (!speech) {
+            double smoothing = 1 - Math.exp(-seconds
+                    / (energy < noiseEnergy ? FALL_TIME_CONSTANT_S : RISE_TIME_CONSTANT_S));
+            noiseEnergy = Math.max(absoluteFloor, noiseEnergy + (energy - noiseEnergy) * smoothing);
+            noiseTilt += (tilt - noiseTilt) * smoothing;
+        } else {
+            // шум мог стать громче навсегда - уровень медленно ползёт вверх и во время "речи"
+            noiseEnergy = Math.min(energy, noiseEnergy * Math.pow(10, RISE_DB_PER_SECOND * seconds / 10));
+        }
+
+        if (speech) {
+            hangoverLeft = hangoverFrames;
+            active = true;
+        } else if (hangoverLeft > 0) {
+            hangoverLeft -= frames;
+            active = true;
+        } else {
+            active = false;
+        }
+        return active;
+    }
+
+    // забывает уровень шума и незаконченную речь, например при смене источника звука
+    public void reset() {
+        started = false;
+        hangoverLeft = 0;
+        speech = false;
+        active = false;
+    }
+
+    // было ли в последнем кадре что-то громче шума, без учёта hangover
+    public boolean isSpeech() {
+        return speech;
+    }
+
+    // нужно ли было отправлять последний кадр (то же, что вернул process)
+    public boolean isActive() {
+        return active;
+    }
+
+    // текущий уровень шума в dBFS (0 - полная шкала)
+    public double getNoiseLevelDb() {
+        return started ? 10 * Math.log10(noiseEnergy) : ABSOLUTE_FLOOR_DB;
+    }
+
+    // уровень шума для пакета комфортного шума (RFC 3389): -dBov от 0 до 127
+    public int getComfortNoiseLevel() {
+        return (int) Math.max(0, Math.min(127, Math.round(-getNoiseLevelDb())));
+    }
+
+    public int getHangoverMs() {
+        return (int) ((long) hangoverFrames * 1000 / sampleRate);
+    }
+}
@@ -0,0 +1,151 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+// источник из WAV-файла (RIFF: PCM 16 или 24 бита, float 32 бита, в том числе в виде
+// WAVE_FORMAT_EXTENSIBLE): записанный заранее звук для повторяемых замеров.
+// Когда файл кончается, источник либо начинает его сначала (loop), либо сообщает конец звука
+public class WavFileSource extends PacedSource {
+
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+    // настоящий формат - в первых двух байтах GUID подформата
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private final FileChannel channel;
+    private final long dataOffset;
+    private final long dataLength;
+    private final boolean loop;
+    // сколько байт данных уже прочитано в текущем проходе по файлу
+    private long dataPosition;
+
+    public static WavFileSource open(@NotNull File file, boolean loop, boolean realTime) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            return new WavFileSource(channel, Header.read(channel), loop, realTime);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private WavFileSource(FileChannel channel, Header header, boolean loop, boolean realTime) {
+        super(header.sampleRate, header.channels, header.encoding, realTime);
+        this.channel = channel;
+        this.dataOffset = header.dataOffset;
+        // неполный последний кадр не отдаём
+        this.dataLength = header.dataLength - header.dataLength % getBytesPerFrame();
+        this.loop = loop;
+    }
+
+    @Override
+    protected int fill(@NotNull ByteBuffer buffer, int frames) {
+        if (dataPosition == dataLength) {
+            if (!loop || dataLength == 0) {
+                return -1;
+            }
+            dataPosition = 0;
+        }
+        int length = (int) Math.min((long) frames * getBytesPerFrame(), dataLength - dataPosition);
+        // position и limit буфера вызывающего не меняются
+        ByteBuffer target = buffer.duplicate();
+        target.limit(length).position(0);
+        try {
+            while (target.hasRemaining()) {
+                if (channel.read(target, dataOffset + dataPosition + target.position()) < 0) {
+                    return -1;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        }
+        dataPosition += length;
+        return length / getBytesPerFrame();
+    }
+
+    @Override
+    public void release() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // заголовок WAV: ищем чанки "fmt " и "data", остальные пропускаем
+    private static class Header {
+        int sampleRate;
+        int channels;
+        int encoding;
+        long dataOffset;
+        long dataLength;
+
+        static Header read(FileChannel channel) throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, chunk, 0);
+            if (chunk.getInt(0) != 0x46464952 || chunk.getInt(8) != 0x45564157) {
+                throw new IOException("Not a RIFF/WAVE file");
+            }
+            Header header = new Header();
+            boolean haveFormat = false;
+            long offset = 12;
+            ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            while (offset + 8 <= channel.size()) {
+                chunkHeader.clear();
+                readFully(channel, chunkHeader, offset);
+                int id = chunkHeader.getInt(0);
+                long size = chunkHeader.getInt(4) & 0xFFFFFFFFL;
+                offset += 8;
+                if (id == 0x20746D66) {
+                    // "fmt "
+                    ByteBuffer format = ByteBuffer.allocate(size >= 26 ? 26 : 16).order(ByteOrder.LITTLE_ENDIAN);
+                    readFully(channel, format, offset);
+                    int audioFormat = format.getShort(0) & 0xFFFF;
+                    header.channels = format.getShort(2) & 0xFFFF;
+                    header.sampleRate = format.getInt(4);
+                    int bitsPerSample = format.getShort(14) & 0xFFFF;
+                    if (audioFormat == WAVE_FORMAT_EXTENSIBLE && format.capacity() == 26) {
+                        audioFormat = format.getShort(24) & 0xFFFF;
+                    }
+                    if (audioFormat == WAVE_FORMAT_PCM && bitsPerSample == 16) {
+                        header.encoding = SampleFormat.ENCODING.PCM_16;
+                    } else if (audioFormat == WAVE_FORMAT_PCM && bitsPerSample == 24) {
+                        header.encoding = SampleFormat.ENCODING.PCM_24_PACKED;
+                    } else if (audioFormat == WAVE_FORMAT_IEEE_FLOAT && bitsPerSample == 32) {
+                        header.encoding = SampleFormat.ENCODING.PCM_FLOAT;
+                    } else {
+                        throw new IOException("Unsupported WAV format " + audioFormat + ", " + bitsPerSample + " bit");
+                    }
+                    haveFormat = true;
+                } else if (id == 0x61746164) {
+                    // "data"
+                    if (!haveFormat) {
+                        throw new IOException("WAV data before format");
+                    }
+                    header.dataOffset = offset;
+                    header.dataLength = Math.min(size, channel.size() - offset);
+                    return header;
+                }
+                // чанки выровнены по двум байтам
+                offset += size + (size & 1);
+            }
+            throw new IOException("WAV file has no data");
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Truncated WAV file");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// запись звука в WAV-файл (RIFF, PCM 16 или 24 бита, float 32 бита) через отображение в память:
+// файл заранее растягивается кусками по chunkBytes (FileChannel.map), и кадр просто копируется
+// в отображение - без системного вызова на каждый кадр. Размеры в заголовке обновляются в sync()
+// и при переходе к следующему куску, причём сначала на диск сбрасываются данные, а уже потом
+// заголовок. Поэтому файл, оборванный падением процесса или устройства, остаётся правильным WAV
+// со всем, что записано до последнего sync(); хвост нулей за объявленными данными проигрыватели
+// не читают, а close() его обрезает. WAV не бывает больше 4 ГБ - дальше write() бросает IOException.
+// Объект не потокобезопасен: пишет один поток (RecorderThread)
+public class WavFileWriter {
+
+    public final static int HEADER_SIZE = 44;
+    // кусок файла, который отображается за раз: 8 МБ - около пяти секунд 192 кГц стерео float
+    public final static int DEFAULT_CHUNK_BYTES = 8 << 20;
+
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+    // размер RIFF в заголовке 32-битный и включает всё после первых 8 байт
+    private static final long MAX_DATA_BYTES = 0xFFFFFFFFL - (HEADER_SIZE - 8) - 1;
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final int sampleRate;
+    private final int channels;
+    private final int encoding;
+    private final int chunkBytes;
+    // заголовок отображён отдельно на всё время записи
+    private final MappedByteBuffer header;
+    // текущий кусок данных и его смещение в файле
+    private MappedByteBuffer chunk;
+    private long chunkOffset;
+    // сколько байт звука записано и сколько из них уже объявлено в заголовке
+    private long dataBytes;
+    private long syncedBytes;
+
+    public WavFileWriter(@NotNull File file, int sampleRate, int channels,
+                         @SampleFormat.encoding int encoding) throws IOException {
+        this(file, sampleRate, channels, encoding, DEFAULT_CHUNK_BYTES);
+    }
+
+    public WavFileWriter(@NotNull File file, int sampleRate, int channels,
+                         @SampleFormat.encoding int encoding, int chunkBytes) throws IOException {
+        if (chunkBytes <= 0) {
+            throw new IllegalArgumentException("Chunk must be at least one byte");
+        }
+        this.file = file;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.encoding = encoding;
+        this.chunkBytes = chunkBytes;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.channel = randomAccessFile.getChannel();
+        try {
+            randomAccessFile.setLength(0);
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            writeHeader();
+            chunkOffset = HEADER_SIZE;
+            chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkOffset, chunkBytes);
+            header.force();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void writeHeader() {
+        int bytesPerSample = SampleFormat.getBytesPerSample(encoding);
+        // "RIFF", размер, "WAVE"; размеры - в updateHeader()
+        header.putInt(0, 0x46464952);
+        header.putInt(8, 0x45564157);
+        // "fmt " и 16 байт формата
+        header.putInt(12, 0x20746D66);
+        header.putInt(16, 16);
+        header.putShort(20, (short) (encoding == SampleFormat.ENCODING.PCM_FLOAT ? WAVE_FORMAT_IEEE_FLOAT : WAVE_FORMAT_PCM));
+        header.putShort(22, (short) channels);
+        header.putInt(24, sampleRate);
+        header.putInt(28, sampleRate * channels * bytesPerSample);
+        header.putShort(32, (short) (channels * bytesPerSample));
+        header.putShort(34, (short) (8 * bytesPerSample));
+        // "data"
+        header.putInt(36, 0x61746164);
+        updateHeader(0);
+    }
+
+    // объявляет в заголовке dataBytes байт звука; данные нечётной длины дополняются байтом
+    private void updateHeader(long dataBytes) {
+        header.putInt(4, (int) (HEADER_SIZE - 8 + dataBytes + (dataBytes & 1)));
+        header.putInt(40, (int) dataBytes);
+    }
+
+    // дописывает data[0, length)
+    public void write(@NotNull ByteBuffer data, int length) throws IOException {
+        checkSpace(length);
+        data.limit(length).position(0);
+        while (data.hasRemaining()) {
+            if (!chunk.hasRemaining()) {
+                nextChunk();
+            }
+            int piece = Math.min(data.remaining(), chunk.remaining());
+            int limit = data.limit();
+            data.limit(data.position() + piece);
+            chunk.put(data);
+            data.limit(limit);
+        }
+        data.clear();
+        dataBytes += length;
+    }
+
+    // дописывает length байт тишины: на месте потерянного звука, чтобы запись не сдвигалась во времени.
+    // Отображённый файл уже заполнен нулями, а ноль - тишина во всех форматах
+    public void writeSilence(long length) throws IOException {
+        checkSpace(length);
+        long remaining = length;
+        while (remaining > 0) {
+            if (!chunk.hasRemaining()) {
+                nextChunk();
+            }
+            int piece = (int) Math.min(remaining, chunk.remaining());
+            chunk.position(chunk.position() + piece);
+            remaining -= piece;
+        }
+        dataBytes += length;
+    }
+
+    private void checkSpace(long length) throws IOException {
+        if (!channel.isOpen()) {
+            throw new IOException("WAV file " + file + " is closed");
+        }
+        if (dataBytes + length > MAX_DATA_BYTES) {
+            throw new IOException("WAV file " + file + " reached the 4 GB limit");
+        }
+    }
+
+    private void nextChunk() throws IOException {
+        sync();
+        chunkOffset += chunkBytes;
+        // прежнее отображение освободит сборщик мусора: в Java нет явного unmap
+        chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkOffset, chunkBytes);
+    }
+
+    // сбрасывает записанное на диск и объявляет его в заголовке. Данные - раньше заголовка:
+    // заголовок никогда не обещает больше, чем уже лежит в файле
+    public void sync() {
+        if (syncedBytes == dataBytes) {
+            return;
+        }
+        chunk.force();
+        updateHeader(dataBytes);
+        header.force();
+        syncedBytes = dataBytes;
+    }
+
+    // окончательный заголовок; файл обрезается по данным
+    public void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            sync();
+            chunk = null;
+            randomAccessFile.setLength(HEADER_SIZE + dataBytes + (dataBytes & 1));
+        } finally {
+            channel.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channels;
+    }
+
+    public @SampleFormat.encoding int getEncoding() {
+        return encoding;
+    }
+
+    // сколько байт звука записано
+    public long getDataBytes() {
+        return dataBytes;
+    }
+
+    // сколько из них объявлено в заголовке и переживёт падение
+    public long getSyncedBytes() {
+        return syncedBytes;
+    }
+}
@@ -0,0 +1,151 @@
+package com.andreydymko.nomic;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// трасса прихода пакетов (seq,sent_us,arrival_us), прогоняемая через JitterBuffer
+// на виртуальных часах - баланс задержки и опустошений настраивается детерминированно
+class ArrivalTrace {
+
+    static final int SAMPLE_RATE = 48000;
+    static final int PACKET_FRAMES = SAMPLE_RATE / 100;
+
+    final long[] sentMicros;
+    final long[] arrivalMicros;
+
+    private ArrivalTrace(long[] sentMicros, long[] arrivalMicros) {
+        this.sentMicros = sentMicros;
+        this.arrivalMicros = arrivalMicros;
+    }
+
+    static ArrivalTrace load(String resource) throws IOException {
+        List<long[]> rows = new ArrayList<>();
+        try (InputStream in = ArrivalTrace.class.getClassLoader().getResourceAsStream("traces/" + resource);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("seq")) {
+                    continue;
+                }
+                String[] cells = line.split(",");
+                rows.add(new long[]{Long.parseLong(cells[1]), Long.parseLong(cells[2])});
+            }
+        }
+        long[] sent = new long[rows.size()];
+        long[] arrival = new long[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            sent[i] = rows.get(i)[0];
+            arrival[i] = rows.get(i)[1];
+        }
+        return new ArrivalTrace(sent, arrival);
+    }
+
+    // пакеты отправлены каждые 10 мс и пришли с заданными задержками, мкс
+    static ArrivalTrace of(long... delaysMicros) {
+        long[] sent = new long[delaysMicros.length];
+        long[] arrival = new long[delaysMicros.length];
+        for (int i = 0; i < delaysMicros.length; i++) {
+            sent[i] = i * 10_000L;
+            arrival[i] = delaysMicros[i] < 0 ? -1 : sent[i] + delaysMicros[i];
+        }
+        return new ArrivalTrace(sent, arrival);
+    }
+
+    // сэмпл тестового тона для заданного кадра потока
+    static short sampleAt(long frame) {
+        return (short) (8000 * Math.sin(2 * Math.PI * 440 * frame / SAMPLE_RATE));
+    }
+
+    Result replay(JitterBuffer jitterBuffer) {
+        return replay(jitterBuffer, null);
+    }
+
+    // кладёт трассу в буфер и читает её кусками по 10 мс; output может быть null
+    Result replay(JitterBuffer jitterBuffer, short[] output) {
+        PacketEncoder encoder = new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 42, 0, 0);
+        byte[][] packets = new byte[sentMicros.length][AudioPacket.HEADER_SIZE + PACKET_FRAMES * 2];
+        for (int i = 0; i < packets.length; i++) {
+            encoder.writeHeader(packets[i], 0, PACKET_FRAMES);
+            for (int frame = 0; frame < PACKET_FRAMES; frame++) {
+                short sample = sampleAt((long) i * PACKET_FRAMES + frame);
+                packets[i][AudioPacket.HEADER_SIZE + 2 * frame] = (byte) sample;
+                packets[i][AudioPacket.HEADER_SIZE + 2 * frame + 1] = (byte) (sample >> 8);
+            }
+        }
+        Integer[] order = new Integer[packets.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> arrivalMicros[i]));
+
+        Result result = new Result();
+        byte[] chunk = new byte[PACKET_FRAMES * 2];
+        long playoutMicros = 0;
+        long endMicros = 0;
+        for (long arrival : arrivalMicros) {
+            endMicros = Math.max(endMicros, arrival);
+        }
+        int next = 0;
+        while (next < order.length && arrivalMicros[order[next]] < 0) {
+            next++;
+        }
+        int chunkIndex = 0;
+        while (playoutMicros < endMicros) {
+            while (next < order.length && arrivalMicros[order[next]] <= playoutMicros) {
+                byte[] packet = packets[order[next]];
+                jitterBuffer.put(packet, 0, packet.length, arrivalMicros[order[next]] * 1000);
+                next++;
+            }
+            if (next > 0) {
+                // кадр захвачен в момент timestamp / SAMPLE_RATE, а звучит сейчас
+                long capturedMicros = jitterBuffer.getPlayoutTimestamp() * 1_000_000L / SAMPLE_RATE;
+                result.latencySumMillis += (playoutMicros - capturedMicros) / 1000.0;
+                result.latencyChunks++;
+            }
+            jitterBuffer.read(chunk, 0, PACKET_FRAMES);
+            result.chunks++;
+            if (output != null && (chunkIndex + 1) * PACKET_FRAMES <= output.length) {
+                for (int frame = 0; frame < PACKET_FRAMES; frame++) {
+                    output[chunkIndex * PACKET_FRAMES + frame] =
+                            (short) ((chunk[2 * frame] & 0xFF) | (chunk[2 * frame + 1] << 8));
+                }
+            }
+            chunkIndex++;
+            playoutMicros += 10_000;
+        }
+        result.underruns = jitterBuffer.getUnderruns();
+        result.concealedFrames = jitterBuffer.getConcealedFrames();
+        result.lostPackets = jitterBuffer.getStreamStatistics().getLost();
+        return result;
+    }
+
+    static class Result {
+        long chunks;
+        long latencyChunks;
+        long underruns;
+        long concealedFrames;
+        long lostPackets;
+        double latencySumMillis;
+
+        double meanLatencyMillis() {
+            return latencySumMillis / latencyChunks;
+        }
+
+        double concealedRatio() {
+            return (double) concealedFrames / (chunks * PACKET_FRAMES);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("underruns=%d concealed=%.2f%% lost=%d meanLatency=%.1fms",
+                    underruns, concealedRatio() * 100, lostPackets, meanLatencyMillis());
+        }
+    }
+}
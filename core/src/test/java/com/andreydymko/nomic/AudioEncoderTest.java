@@ -0,0 +1,88 @@
+package com.andreydymko.nomic;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AudioEncoderTest {
+
+    private static byte[] tone(int samples) {
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            short sample = (short) (20000 * Math.sin(2 * Math.PI * 300 * i / 48000.0));
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+
+    @Test
+    public void pcm_encodesInPlaceWithoutCopy() {
+        ByteBuffer packet = ByteBuffer.allocateDirect(AudioPacket.HEADER_SIZE + 960);
+        assertEquals(960, new PcmEncoder().encode(packet, AudioPacket.HEADER_SIZE, 960, packet, AudioPacket.HEADER_SIZE));
+        assertEquals(ByteBuffer.allocateDirect(AudioPacket.HEADER_SIZE + 960), packet);
+    }
+
+    @Test
+    public void ulaw_halvesPayloadAndKeepsSignal() {
+        byte[] pcm = tone(480);
+        byte[] encoded = new byte[480];
+        assertEquals(480, new G711Encoder().encode(ByteBuffer.wrap(pcm), 0, pcm.length, ByteBuffer.wrap(encoded), 0));
+        for (int i = 0; i < 480; i++) {
+            short original = (short) ((pcm[2 * i] & 0xFF) | (pcm[2 * i + 1] << 8));
+            short decoded = G711Encoder.ulawToLinear(encoded[i]);
+            // ошибка квантования mu-law не превышает ~3% от амплитуды сэмпла
+            assertTrue(i + ": " + original + " vs " + decoded, Math.abs(original - decoded) <= Math.abs(original) / 32 + 8);
+        }
+        assertEquals(0, G711Encoder.ulawToLinear(G711Encoder.linearToUlaw((short) 0)));
+        assertTrue(G711Encoder.ulawToLinear(G711Encoder.linearToUlaw(Short.MIN_VALUE)) < -32000);
+    }
+
+    @Test
+    public void offeredCodecs_startWithPreferenceAndEndWithPcm() {
+        List<Integer> offered = AudioEncoders.getOfferedPayloadTypes(AudioPacket.PAYLOAD_TYPE.PCMU, 48000, 1);
+        assertEquals(AudioPacket.PAYLOAD_TYPE.PCMU, (int) offered.get(0));
+        assertEquals(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, (int) offered.get(offered.size() - 1));
+        assertEquals(Arrays.asList(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, AudioPacket.PAYLOAD_TYPE.PCMU),
+                AudioEncoders.getOfferedPayloadTypes(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 192000, 1));
+    }
+
+    @Test
+    public void opusWithoutNativeLibrary_fallsBackToPcm() {
+        // на JVM нативной библиотеки нет
+        assertFalse(AudioEncoders.isSupported(AudioPacket.PAYLOAD_TYPE.OPUS, 48000, 1));
+        AudioEncoder encoder = AudioEncoders.create(AudioPacket.PAYLOAD_TYPE.OPUS, 48000, 1, 32000, 20000);
+        assertEquals(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, encoder.getPayloadType());
+    }
+
+    @Test
+    public void jitterBuffer_playsUlawStream() {
+        PacketEncoder packetEncoder = new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCMU, 7, 0, 0);
+        JitterBuffer jitterBuffer = new JitterBuffer(48000, 1, 10, 10);
+        byte[] pcm = tone(480);
+        for (int i = 0; i < 3; i++) {
+            byte[] packet = new byte[AudioPacket.HEADER_SIZE + 480];
+            new G711Encoder().encode(ByteBuffer.wrap(pcm), 0, pcm.length, ByteBuffer.wrap(packet), AudioPacket.HEADER_SIZE);
+            packetEncoder.writeHeader(packet, 0, 480);
+            assertTrue(jitterBuffer.put(packet, 0, packet.length, i * 10_000_000L));
+        }
+        byte[] out = new byte[960];
+        jitterBuffer.read(out, 0, 480);
+        assertEquals(G711Encoder.ulawToLinear(G711Encoder.linearToUlaw((short) ((pcm[200] & 0xFF) | (pcm[201] << 8)))),
+                (short) ((out[200] & 0xFF) | (out[201] << 8)));
+    }
+
+    @Test
+    public void codecStatistics_reportsCostAndCompression() {
+        CodecStatistics statistics = new CodecStatistics();
+        statistics.record(2000, 960, 480);
+        statistics.record(4000, 960, 480);
+        assertEquals(3000, statistics.getAverageNanosPerFrame());
+        assertEquals(4000, statistics.getMaxNanosPerFrame());
+        assertEquals(2.0, statistics.getCompressionRatio(), 1e-9);
+    }
+}
@@ -0,0 +1,225 @@
+package com.andreydymko.nomic;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// АРУ с ограничителем: на синтетических сигналах полной шкалы выход никогда не выходит за потолок,
+// тихий звук поднимается к цели, но не выше ручного множителя, тишина не усиливается
+public class AutomaticGainControlTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    // кадр 10 мс
+    private static final int FRAME_FRAMES = 480;
+    private static final int[] ENCODINGS = {SampleFormat.ENCODING.PCM_16, SampleFormat.ENCODING.PCM_24_PACKED,
+            SampleFormat.ENCODING.PCM_FLOAT};
+
+    private interface Signal {
+        // сэмпл канала channel в кадре n
+        float get(int n, int channel);
+    }
+
+    // полная шкала: синус 1 кГц, меандр 100 Гц и тихая речь, в которую врываются громкие всплески -
+    // АРУ успевает поднять усиление, и всплеск приходит уже усиленным
+    private static final Signal SINE = new Signal() {
+        @Override
+        public float get(int n, int channel) {
+            return (float) Math.sin(2 * Math.PI * 1000 * n / SAMPLE_RATE + channel);
+        }
+    };
+    private static final Signal SQUARE = new Signal() {
+        @Override
+        public float get(int n, int channel) {
+            return n / (SAMPLE_RATE / 200) % 2 == 0 ? 1 : -1;
+        }
+    };
+    private static final Signal BURSTS = new Signal() {
+        @Override
+        public float get(int n, int channel) {
+            double amplitude = n % SAMPLE_RATE < SAMPLE_RATE * 3 / 4 ? 0.01 : 1;
+            return (float) (amplitude * Math.sin(2 * Math.PI * 440 * n / SAMPLE_RATE) * (channel == 0 ? 1 : -1));
+        }
+    };
+
+    private static Signal sine(final double amplitude) {
+        return new Signal() {
+            @Override
+            public float get(int n, int channel) {
+                return (float) (amplitude * Math.sin(2 * Math.PI * 300 * n / SAMPLE_RATE));
+            }
+        };
+    }
+
+    // пропускает seconds секунд signal через agc кадрами по 10 мс и возвращает выход во float
+    private static float[] run(AutomaticGainControl agc, Signal signal, double seconds, float maxGain) {
+        int channels = agc.getChannels();
+        int encoding = agc.getEncoding();
+        int bytesPerSample = SampleFormat.getBytesPerSample(encoding);
+        int frameBytes = FRAME_FRAMES * channels * bytesPerSample;
+        ByteBuffer frame = ByteBuffer.allocateDirect(frameBytes);
+        int frames = (int) (seconds * SAMPLE_RATE) / FRAME_FRAMES;
+        float[] out = new float[frames * FRAME_FRAMES * channels];
+        for (int f = 0; f < frames; f++) {
+            for (int i = 0; i < FRAME_FRAMES * channels; i++) {
+                SampleConverter.putSample(frame, i * bytesPerSample, encoding,
+                        signal.get(f * FRAME_FRAMES + i / channels, i % channels));
+            }
+            agc.process(frame, frameBytes, maxGain);
+            for (int i = 0; i < FRAME_FRAMES * channels; i++) {
+                out[f * FRAME_FRAMES * channels + i] = SampleConverter.getSample(frame, i * bytesPerSample, encoding);
+            }
+        }
+        return out;
+    }
+
+    // наибольший сэмпл, на который округление формата может поднять потолок
+    private static float quantum(int encoding) {
+        switch (encoding) {
+            case SampleFormat.ENCODING.PCM_24_PACKED:
+                return 1.0f / (1 << 23);
+            case SampleFormat.ENCODING.PCM_FLOAT:
+                return 1e-6f;
+            case SampleFormat.ENCODING.PCM_16:
+            default:
+                return 1.0f / (1 << 15);
+        }
+    }
+
+    private static float peak(float[] samples, int from, int to) {
+        float peak = 0;
+        for (int i = from; i < to; i++) {
+            peak = Math.max(peak, Math.abs(samples[i]));
+        }
+        return peak;
+    }
+
+    private static double rmsDb(float[] samples, int from, int to) {
+        double energy = 0;
+        for (int i = from; i < to; i++) {
+            energy += samples[i] * samples[i];
+        }
+        return 10 * Math.log10(energy / (to - from));
+    }
+
+    @Test
+    public void fullScaleSignals_neverExceedCeiling() {
+        Signal[] signals = {SINE, SQUARE, BURSTS};
+        String[] names = {"sine", "square", "bursts"};
+        for (int encoding : ENCODINGS) {
+            for (int channels = 1; channels <= 2; channels++) {
+                for (int s = 0; s < signals.length; s++) {
+                    String name = names[s] + ", encoding " + encoding + ", " + channels + " channels";
+                    AutomaticGainControl agc = new AutomaticGainControl(SAMPLE_RATE, channels, encoding);
+                    float[] out = run(agc, signals[s], 3, 20.0f);
+                    float peak = peak(out, 0, out.length);
+                    assertTrue(name + ": peak " + peak, peak <= AutomaticGainControl.CEILING + quantum(encoding));
+                    // ограничитель срезает пики, а не весь звук
+                    assertTrue(name + ": peak " + peak, peak > 0.8f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void burstAfterQuietSpeech_isCaughtBeforeItReachesTheOutput() {
+        AutomaticGainControl agc = new AutomaticGainControl(SAMPLE_RATE, 1, SampleFormat.ENCODING.PCM_16);
+        // 0,75 с тихой речи поднимают усиление, и первый кадр всплеска приходит усиленным в разы
+        float[] out = run(agc, BURSTS, 0.76, 20.0f);
+        assertTrue(agc.isLimiting());
+        assertTrue(agc.getGainReductionDb() > 6);
+        int burst = SAMPLE_RATE * 3 / 4 + agc.getDelayFrames();
+        assertTrue(peak(out, 0, out.length) <= AutomaticGainControl.CEILING + quantum(SampleFormat.ENCODING.PCM_16));
+        assertTrue(peak(out, burst, out.length) > 0.8f);
+    }
+
+    @Test
+    public void quietInput_isRaisedToTarget() {
+        // синус со средним уровнем -40 dBFS
+        double amplitude = Math.sqrt(2) * Math.pow(10, -40 / 20.0);
+        for (int encoding : ENCODINGS) {
+            AutomaticGainControl agc = new AutomaticGainControl(SAMPLE_RATE, 1, encoding);
+            float[] out = run(agc, sine(amplitude), 4, 20.0f);
+            double level = rmsDb(out, out.length - SAMPLE_RATE, out.length);
+            assertEquals("encoding " + encoding, -18, level, 1);
+            assertEquals(22, agc.getGainDb(), 1);
+            assertFalse(agc.isLimiting());
+        }
+    }
+
+    @Test
+    public void manualMultiplier_isTheCeiling() {
+        double amplitude = Math.sqrt(2) * Math.pow(10, -40 / 20.0);
+        AutomaticGainControl agc = new AutomaticGainControl(SAMPLE_RATE, 1, SampleFormat.ENCODING.PCM_FLOAT);
+        float[] out = run(agc, sine(amplitude), 4, 4.0f);
+        assertEquals(20 * Math.log10(4), agc.getGainDb(), 0.01);
+        assertEquals(-40 + 20 * Math.log10(4), rmsDb(out, out.length - SAMPLE_RATE, out.length), 0.1);
+
+        // потолок опустили на ходу - за один кадр усиление спускается под него
+        out = run(agc, sine(amplitude), 0.1, 2.0f);
+        assertEquals(20 * Math.log10(2), agc.getGainDb(), 0.01);
+        assertTrue(peak(out, out.length / 2, out.length) <= 2 * amplitude + 1e-6);
+    }
+
+    @Test
+    public void unlimitedQuietSignal_isOnlyDelayed() {
+        // АРУ хочет больше, чем разрешено, - усиление ровно 1, ограничителю нечего делать
+        AutomaticGainControl agc = new AutomaticGainControl(SAMPLE_RATE, 2, SampleFormat.ENCODING.PCM_16);
+        Signal signal = sine(0.05);
+        float[] out = run(agc, signal, 0.5, 1.0f);
+        int delay = agc.getDelayFrames();
+        assertEquals(SAMPLE_RATE * 5 / 1000, delay);
+        for (int n = 0; n < out.length / 2; n++) {
+            float expected = n < delay ? 0 : Math.round(signal.get(n - delay, 0) * 32768) / 32768.0f;
+            assertEquals("frame " + n, expected, out[2 * n], 0);
+            assertEquals("frame " + n, expected, out[2 * n + 1], 0);
+        }
+    }
+
+    @Test
+    public void roomNoise_isNotBoosted() {
+        final Random random = new Random(3);
+        // шум около -70 dBFS - ниже порога
+        Signal noise = new Signal() {
+            @Override
+            public float get(int n, int channel) {
+                return (float) (random.nextGaussian() * Math.pow(10, -70 / 20.0));
+            }
+        };
+        AutomaticGainControl agc = new AutomaticGainControl(SAMPLE_RATE, 1, SampleFormat.ENCODING.PCM_FLOAT);
+        run(agc, noise, 3, 20.0f);
+        assertEquals(0, agc.getGainDb(), 1e-6);
+    }
+
+    @Test
+    public void zeroMultiplier_mutes() {
+        AutomaticGainControl agc = new AutomaticGainControl(SAMPLE_RATE, 1, SampleFormat.ENCODING.PCM_16);
+        run(agc, SINE, 0.5, 10.0f);
+        float[] out = run(agc, SINE, 0.5, 0.0f);
+        // первый кадр затухает плавно, задержанный звук выходит с ним
+        assertEquals(0, peak(out, FRAME_FRAMES + agc.getDelayFrames(), out.length), 0);
+        assertEquals(Double.NEGATIVE_INFINITY, agc.getGainDb(), 0);
+    }
+
+    @Test
+    public void unmute_restoresGainAtOnce() {
+        double amplitude = Math.sqrt(2) * Math.pow(10, -40 / 20.0);
+        AutomaticGainControl agc = new AutomaticGainControl(SAMPLE_RATE, 1, SampleFormat.ENCODING.PCM_FLOAT);
+        run(agc, sine(amplitude), 4, 20.0f);
+        run(agc, sine(amplitude), 1, 0.0f);
+        // за время глушения АРУ своё усиление не теряет - звук возвращается с первым кадром
+        float[] out = run(agc, sine(amplitude), 0.1, 10.0f);
+        assertEquals(20, agc.getGainDb(), 0.01);
+        assertEquals(-20, rmsDb(out, out.length / 2, out.length), 0.5);
+
+        // звук тише порога: АРУ усиление не трогает, и после глушения он идёт как есть
+        agc = new AutomaticGainControl(SAMPLE_RATE, 1, SampleFormat.ENCODING.PCM_FLOAT);
+        Signal quiet = sine(Math.pow(10, -60 / 20.0));
+        run(agc, quiet, 0.5, 0.0f);
+        out = run(agc, quiet, 0.1, 10.0f);
+        assertEquals(0, agc.getGainDb(), 1e-6);
+        assertEquals(Math.pow(10, -60 / 20.0), peak(out, out.length / 2, out.length), 1e-4);
+    }
+}
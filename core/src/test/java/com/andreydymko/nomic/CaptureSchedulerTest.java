@@ -0,0 +1,208 @@
+package com.andreydymko.nomic;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CaptureSchedulerTest {
+
+    private static final long PERIOD_NS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long TOLERANCE_NS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static class FakeClock implements DeadlineMonitor.Clock {
+        long now = 1_000_000_000L;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        void advanceMillis(double millis) {
+            now += (long) (millis * 1_000_000);
+        }
+    }
+
+    // записывает, какой поток какой ступенью назвался
+    private static class RecordingPolicy implements SchedulingPolicy {
+        final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void onThreadStart(@stage int stage) {
+            calls.add(stage + " " + Thread.currentThread().getName());
+        }
+    }
+
+    private final FakeClock clock = new FakeClock();
+
+    private DeadlineMonitor monitor() {
+        return new DeadlineMonitor("capture", SchedulingPolicy.STAGE.CAPTURE, clock, PERIOD_NS, TOLERANCE_NS);
+    }
+
+    @Test
+    public void jitterWithinTolerance_missesNothing() {
+        DeadlineMonitor monitor = monitor();
+        for (int i = 0; i < 1000; i++) {
+            // то раньше, то позже на 5 мс
+            clock.advanceMillis(i % 2 == 0 ? 15 : 5);
+            monitor.onPeriodDone();
+        }
+        assertEquals(1000, monitor.getPeriods());
+        assertEquals(0, monitor.getMissedDeadlines());
+    }
+
+    @Test
+    public void burstyDelivery_missesNothing() {
+        DeadlineMonitor monitor = monitor();
+        for (int i = 0; i < 100; i++) {
+            // AudioRecord отдаёт по два кадра раз в 20 мс
+            clock.advanceMillis(20);
+            monitor.onPeriodDone();
+            monitor.onPeriodDone();
+        }
+        assertEquals(0, monitor.getMissedDeadlines());
+    }
+
+    @Test
+    public void stall_countsEveryMissedPeriodOnce() {
+        DeadlineMonitor monitor = monitor();
+        for (int i = 0; i < 10; i++) {
+            clock.advanceMillis(10);
+            monitor.onPeriodDone();
+        }
+        // поток вытеснили на 75 мс: следующий кадр опоздал на 65 мс, это 45 мс сверх допуска -
+        // сроки пяти периодов пропущены
+        clock.advanceMillis(75);
+        monitor.onPeriodDone();
+        assertEquals(5, monitor.getMissedDeadlines());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(65), monitor.getWorstLatenessNanos());
+        // накопившиеся кадры приходят пачкой, а затем поток снова успевает - новых пропусков нет
+        for (int i = 0; i < 6; i++) {
+            monitor.onPeriodDone();
+        }
+        for (int i = 0; i < 100; i++) {
+            clock.advanceMillis(10);
+            monitor.onPeriodDone();
+        }
+        assertEquals(5, monitor.getMissedDeadlines());
+        assertEquals(117, monitor.getPeriods());
+    }
+
+    @Test
+    public void slowAudioClock_isNotReportedAsMisses() {
+        DeadlineMonitor monitor = monitor();
+        // часы звука отстают от системных на 0.1% - за 100 секунд набегает 100 мс
+        for (int i = 0; i < 10_000; i++) {
+            clock.advanceMillis(10.01);
+            monitor.onPeriodDone();
+        }
+        assertEquals(0, monitor.getMissedDeadlines());
+    }
+
+    @Test
+    public void restart_startsANewSchedule() {
+        DeadlineMonitor monitor = monitor();
+        clock.advanceMillis(10);
+        monitor.onPeriodDone();
+        monitor.restart();
+        clock.advanceMillis(1000);
+        monitor.onPeriodDone();
+        clock.advanceMillis(10);
+        monitor.onPeriodDone();
+        assertEquals(0, monitor.getMissedDeadlines());
+    }
+
+    @Test
+    public void scheduler_appliesPolicyAndSumsMissesPerStage() {
+        RecordingPolicy policy = new RecordingPolicy();
+        CaptureScheduler scheduler = new CaptureScheduler(policy, clock, PERIOD_NS);
+        DeadlineMonitor capture = scheduler.enter(SchedulingPolicy.STAGE.CAPTURE, "capture");
+        DeadlineMonitor first = scheduler.enter(SchedulingPolicy.STAGE.SENDING, "first");
+        DeadlineMonitor second = scheduler.enter(SchedulingPolicy.STAGE.SENDING, "second");
+        assertEquals(3, policy.calls.size());
+
+        for (DeadlineMonitor monitor : new DeadlineMonitor[]{capture, first, second}) {
+            monitor.onPeriodDone();
+        }
+        // захват успевает каждый период, а отправка обоим слушателям застряла на 100 мс
+        for (int i = 0; i < 10; i++) {
+            clock.advanceMillis(10);
+            capture.onPeriodDone();
+        }
+        first.onPeriodDone();
+        second.onPeriodDone();
+        assertEquals(0, scheduler.getMissedDeadlines(SchedulingPolicy.STAGE.CAPTURE));
+        // опоздание 90 мс, допуск 20 мс: по 8 пропусков у каждого
+        assertEquals(16, scheduler.getMissedDeadlines(SchedulingPolicy.STAGE.SENDING));
+
+        scheduler.leave(first);
+        assertEquals(8, scheduler.getMissedDeadlines(SchedulingPolicy.STAGE.SENDING));
+        assertEquals(2, scheduler.getMonitors().size());
+    }
+
+    @Test
+    public void pipelineThreads_enterTheirOwnStage() throws Exception {
+        RecordingPolicy policy = new RecordingPolicy();
+        CaptureScheduler scheduler = new CaptureScheduler(policy, DeadlineMonitor.SYSTEM_CLOCK, PERIOD_NS);
+        SubscriberRegistry registry = new SubscriberRegistry();
+        registry.setScheduler(scheduler);
+        FrameRing captured = new FrameRing(4, 16);
+        ProcessingThread processing = new ProcessingThread(captured, registry, 1.0f);
+        processing.start();
+        captured.offer(ByteBuffer.allocateDirect(16), 16);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (scheduler.getMonitors().isEmpty() || scheduler.getMonitors().get(0).getPeriods() == 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        processing.interrupt();
+        processing.join(2000);
+
+        // политику применил сам поток обработки, а по его завершении учёт убран
+        assertEquals(Collections.singletonList(SchedulingPolicy.STAGE.PROCESSING + " " + processing.getName()),
+                policy.calls);
+        assertTrue(scheduler.getMonitors().isEmpty());
+    }
+
+    private void writeMaxFrequency(File root, int cpu, String frequency) throws IOException {
+        File cpufreq = new File(root, "cpu" + cpu + "/cpufreq");
+        assertTrue(cpufreq.mkdirs());
+        if (frequency != null) {
+            try (FileWriter writer = new FileWriter(new File(cpufreq, "cpuinfo_max_freq"))) {
+                writer.write(frequency + "\n");
+            }
+        }
+    }
+
+    @Test
+    public void fastCores_areTheOnesWithHighestMaxFrequency() throws IOException {
+        File bigLittle = folder.newFolder("bigLittle");
+        // четыре медленных ядра, три средних и одно самое быстрое, ещё одно выключено
+        String[] frequencies = {"1800000", "1800000", "1800000", "1800000",
+                "2400000", "2400000", "2400000", "2840000", null};
+        for (int cpu = 0; cpu < frequencies.length; cpu++) {
+            writeMaxFrequency(bigLittle, cpu, frequencies[cpu]);
+        }
+        assertEquals(1L << 7, CpuTopology.fastCoreMask(bigLittle));
+
+        File uniform = folder.newFolder("uniform");
+        for (int cpu = 0; cpu < 4; cpu++) {
+            writeMaxFrequency(uniform, cpu, "2000000");
+        }
+        assertEquals(0, CpuTopology.fastCoreMask(uniform));
+        assertEquals(0, CpuTopology.fastCoreMask(folder.newFolder("empty")));
+    }
+}
@@ -0,0 +1,291 @@
+package com.andreydymko.nomic;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ControlSessionTest {
+
+    private static final int FRAME_BYTES = 960;
+
+    private final SubscriberRegistry registry = new SubscriberRegistry();
+    private DatagramChannel audioReceiver;
+    private SubscriberThread subscriber;
+    private Socket client;
+    private DataInputStream fromServer;
+    private DataOutputStream toServer;
+    private ControlSession session;
+    private final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+
+    // имитирует StreamingService: применяет команды к слушателю и записывает события
+    private final ControlSession.Handler handler = new ControlSession.Handler() {
+        @Override
+        public void onSetVolume(ControlSession session, float volume) {
+            events.add(volume);
+        }
+
+        @Override
+        public StreamFormat onSetCodec(ControlSession session, int payloadType, int bitrate) {
+            if (payloadType != AudioPacket.PAYLOAD_TYPE.PCMU) {
+                return null;
+            }
+            StreamFormat format = new StreamFormat(payloadType, 48000, 1, 10000, bitrate, 2);
+            session.getSubscriber().reconfigure(new G711Encoder(),
+                    new PacketEncoder(payloadType, 2, 0, 0), null, 1, format);
+            return format;
+        }
+
+        @Override
+        public StreamFormat onSetSampleRate(ControlSession session, int sampleRate) {
+            StreamFormat format = new StreamFormat(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, sampleRate, 1, 10000, 0, 3);
+            session.getSubscriber().reconfigure(new PcmEncoder(),
+                    new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 3, 0, 0),
+                    new Resampler(48000, sampleRate, 1, SampleFormat.ENCODING.PCM_16, Resampler.QUALITY.LOW), 1, format);
+            return format;
+        }
+
+        // отчёт с потерями перестраивает поток на пакеты по два кадра
+        @Override
+        public StreamFormat onReceiverReport(ControlSession session, ReceiverReport report) {
+            events.add(report);
+            if (report.getLost() == 0) {
+                return null;
+            }
+            StreamFormat format = new StreamFormat(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 48000, 1, 20000, 0, 4);
+            session.getSubscriber().reconfigure(new PcmEncoder(),
+                    new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 4, 0, 0), null, 2, format);
+            return format;
+        }
+
+        @Override
+        public void onSessionClosed(ControlSession session, Exception cause) {
+            events.add(cause == null ? "closed" : cause);
+        }
+    };
+
+    @Before
+    public void connect() throws IOException {
+        audioReceiver = DatagramChannel.open();
+        audioReceiver.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        audioReceiver.socket().setSoTimeout(2000);
+        DatagramChannel channel = DatagramChannel.open();
+        channel.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), audioReceiver.socket().getLocalPort()));
+        subscriber = new SubscriberThread("client", new PacketSender(channel, new PcmEncoder(),
+                new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 1, 0, 0), new CodecStatistics(), FRAME_BYTES, 2),
+                FRAME_BYTES, 8);
+        subscriber.setFormat(new StreamFormat(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 48000, 1, 10000, 0, 1));
+        registry.add(subscriber);
+
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+            session = new ControlSession(server.accept(), subscriber, handler);
+            session.start();
+        }
+        client.setSoTimeout(3000);
+        fromServer = new DataInputStream(client.getInputStream());
+        toServer = new DataOutputStream(client.getOutputStream());
+    }
+
+    @After
+    public void close() throws IOException {
+        registry.clear();
+        client.close();
+        audioReceiver.close();
+    }
+
+    private ControlMessage read(int expectedType) throws IOException {
+        ControlMessage message = new ControlMessage();
+        do {
+            ControlProtocol.read(fromServer, message);
+        } while (message.getType() == ControlProtocol.MESSAGE_TYPE.KEEP_ALIVE
+                && expectedType != ControlProtocol.MESSAGE_TYPE.KEEP_ALIVE);
+        assertEquals(expectedType, message.getType());
+        return message;
+    }
+
+    // отправляет кадр через слушателя и возвращает принятый пакет
+    private AudioPacket sendFrame() throws IOException {
+        return sendFrames(1);
+    }
+
+    private AudioPacket sendFrames(int count) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocateDirect(FRAME_BYTES);
+        for (int i = 0; i < FRAME_BYTES / 2; i++) {
+            frame.put(2 * i, (byte) 100);
+        }
+        for (int i = 0; i < count; i++) {
+            registry.publish(frame, FRAME_BYTES);
+        }
+        byte[] data = new byte[2048];
+        java.net.DatagramPacket datagram = new java.net.DatagramPacket(data, data.length);
+        audioReceiver.socket().receive(datagram);
+        AudioPacket packet = new AudioPacket();
+        assertTrue(new PacketDecoder(48000).decode(data, 0, datagram.getLength(), 0, packet));
+        return packet;
+    }
+
+    @Test
+    public void messages_roundTripAndSkipUnknownFields() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        // сообщение неизвестного типа из будущей версии
+        out.writeShort(4);
+        out.writeByte(99);
+        out.write(new byte[]{1, 2, 3});
+        // HELLO будущей версии с дополнительным полем
+        out.writeShort(3);
+        out.writeByte(ControlProtocol.MESSAGE_TYPE.HELLO);
+        out.writeByte(7);
+        out.writeByte(42);
+        ControlProtocol.writeReceiverReport(out, new ReceiverReport(70000, 69990, 10, 1500, 40, 35, 2, 960));
+        ReceiverReport echoed = new ReceiverReport(1, 1, 0, 0, 0, 0, 0, 0);
+        echoed.setEcho(0xFFFFFFF0L, 12);
+        ControlProtocol.writeReceiverReport(out, echoed);
+        ControlProtocol.writeKeepAlive(out);
+        ControlProtocol.writeKeepAlive(out, 123456);
+        ControlProtocol.writeSetVolume(out, 2.5f);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        ControlMessage message = new ControlMessage();
+        ControlProtocol.read(in, message);
+        assertEquals(99, message.getType());
+        ControlProtocol.read(in, message);
+        assertEquals(ControlProtocol.MESSAGE_TYPE.HELLO, message.getType());
+        assertEquals(7, message.getVersion());
+        ControlProtocol.read(in, message);
+        assertEquals(ControlProtocol.MESSAGE_TYPE.RECEIVER_REPORT, message.getType());
+        assertEquals(70000, message.getReport().getHighestSequence());
+        assertEquals(10, message.getReport().getLost());
+        assertEquals(1500, message.getReport().getJitterMicros());
+        assertEquals(40, message.getReport().getBufferedMillis());
+        assertEquals(-1, message.getReport().getEchoTimestamp());
+        ControlProtocol.read(in, message);
+        assertEquals(0xFFFFFFF0L, message.getReport().getEchoTimestamp());
+        assertEquals(12, message.getReport().getEchoDelayMillis());
+        ControlProtocol.read(in, message);
+        assertEquals(-1, message.getKeepAliveTimestamp());
+        ControlProtocol.read(in, message);
+        assertEquals(123456, message.getKeepAliveTimestamp());
+        ControlProtocol.read(in, message);
+        assertEquals(2.5f, message.getVolume(), 0);
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    public void session_announcesFormatAndKeepsAlive() throws IOException {
+        assertEquals(ControlProtocol.VERSION, read(ControlProtocol.MESSAGE_TYPE.HELLO).getVersion());
+        StreamFormat format = read(ControlProtocol.MESSAGE_TYPE.FORMAT).getFormat();
+        assertEquals(48000, format.getSampleRate());
+        assertEquals(1, format.getSsrc());
+        read(ControlProtocol.MESSAGE_TYPE.KEEP_ALIVE);
+    }
+
+    @Test
+    public void reportEchoingKeepAlive_measuresRoundTrip() throws Exception {
+        read(ControlProtocol.MESSAGE_TYPE.HELLO);
+        read(ControlProtocol.MESSAGE_TYPE.FORMAT);
+        long timestamp = read(ControlProtocol.MESSAGE_TYPE.KEEP_ALIVE).getKeepAliveTimestamp();
+        assertTrue(timestamp >= 0);
+        assertEquals(-1, session.getRoundTripMillis());
+        Thread.sleep(50);
+        // клиент держал метку 30 мс, значит RTT не меньше 20 мс и заметно меньше секунды
+        ReceiverReport report = new ReceiverReport(5, 5, 0, 100, 20, 20, 0, 0);
+        report.setEcho(timestamp, 30);
+        ControlProtocol.writeReceiverReport(toServer, report);
+        assertEquals(timestamp, ((ReceiverReport) events.poll(2, TimeUnit.SECONDS)).getEchoTimestamp());
+        assertTrue(String.valueOf(session.getRoundTripMillis()), session.getRoundTripMillis() >= 20);
+        assertTrue(String.valueOf(session.getRoundTripMillis()), session.getRoundTripMillis() < 500);
+    }
+
+    @Test
+    public void adaptationFromReport_isAnnouncedAndApplied() throws Exception {
+        read(ControlProtocol.MESSAGE_TYPE.HELLO);
+        read(ControlProtocol.MESSAGE_TYPE.FORMAT);
+        ControlProtocol.writeReceiverReport(toServer, new ReceiverReport(100, 90, 10, 100, 20, 20, 0, 0));
+        assertEquals(20000, read(ControlProtocol.MESSAGE_TYPE.FORMAT).getFormat().getFrameDurationUs());
+        // два кадра захвата уходят одним пакетом
+        AudioPacket packet = sendFrames(2);
+        assertEquals(4, packet.getSsrc());
+        assertEquals(2 * FRAME_BYTES, packet.getPayloadLength());
+    }
+
+    @Test
+    public void commands_changeStreamWithoutRestart() throws Exception {
+        read(ControlProtocol.MESSAGE_TYPE.HELLO);
+        read(ControlProtocol.MESSAGE_TYPE.FORMAT);
+        assertEquals(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, sendFrame().getPayloadType());
+
+        ControlProtocol.writeHello(toServer);
+        ControlProtocol.writeSetVolume(toServer, 3.0f);
+        assertEquals(3.0f, (Float) events.poll(2, TimeUnit.SECONDS), 0);
+        ControlProtocol.writeReceiverReport(toServer, new ReceiverReport(5, 5, 0, 100, 20, 20, 0, 0));
+        assertEquals(5, ((ReceiverReport) events.poll(2, TimeUnit.SECONDS)).getReceived());
+
+        // смена кодека: сервер отвечает новым форматом, следующий пакет уже в mu-law
+        ControlProtocol.writeSetCodec(toServer, AudioPacket.PAYLOAD_TYPE.PCMU, 0);
+        assertEquals(AudioPacket.PAYLOAD_TYPE.PCMU, read(ControlProtocol.MESSAGE_TYPE.FORMAT).getFormat().getPayloadType());
+        AudioPacket packet = sendFrame();
+        assertEquals(AudioPacket.PAYLOAD_TYPE.PCMU, packet.getPayloadType());
+        assertEquals(2, packet.getSsrc());
+        assertEquals(FRAME_BYTES / 2, packet.getPayloadLength());
+
+        // неподдерживаемый кодек: формат не меняется
+        ControlProtocol.writeSetCodec(toServer, AudioPacket.PAYLOAD_TYPE.OPUS, 32000);
+        assertEquals(AudioPacket.PAYLOAD_TYPE.PCMU, read(ControlProtocol.MESSAGE_TYPE.FORMAT).getFormat().getPayloadType());
+
+        // смена частоты: 24 кГц из 48 кГц захвата, пакет вдвое короче
+        ControlProtocol.writeSetSampleRate(toServer, 24000);
+        assertEquals(24000, read(ControlProtocol.MESSAGE_TYPE.FORMAT).getFormat().getSampleRate());
+        packet = sendFrame();
+        assertEquals(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, packet.getPayloadType());
+        assertEquals(FRAME_BYTES / 2, packet.getPayloadLength());
+        // выход Resampler задержан на половину фильтра - постоянный уровень виден к концу пакета
+        int last = packet.getPayloadOffset() + packet.getPayloadLength() - 2;
+        assertEquals(100, (short) ((packet.getData()[last] & 0xFF) | (packet.getData()[last + 1] << 8)), 1);
+
+        ControlProtocol.writeBye(toServer);
+        assertEquals("closed", events.poll(3, TimeUnit.SECONDS));
+    }
+
+    // громкость из сети - множитель для всех слушателей: мусор отбрасывается, остальное
+    // ограничивается тем же пределом, что и ползунок
+    @Test
+    public void setVolume_rejectsNaNAndClampsRange() throws Exception {
+        read(ControlProtocol.MESSAGE_TYPE.HELLO);
+        ControlProtocol.writeSetVolume(toServer, Float.NaN);
+        ControlProtocol.writeSetVolume(toServer, Float.POSITIVE_INFINITY);
+        ControlProtocol.writeSetVolume(toServer, 1e9f);
+        assertEquals(GainProcessor.MAX_MULTIPLIER, (Float) events.poll(2, TimeUnit.SECONDS), 0);
+        ControlProtocol.writeSetVolume(toServer, -5.0f);
+        assertEquals(0.0f, (Float) events.poll(2, TimeUnit.SECONDS), 0);
+        ControlProtocol.writeSetVolume(toServer, 4.5f);
+        assertEquals(4.5f, (Float) events.poll(2, TimeUnit.SECONDS), 0);
+        // NaN и бесконечность не дошли до обработчика вовсе
+        assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void droppedConnection_isReported() throws Exception {
+        read(ControlProtocol.MESSAGE_TYPE.HELLO);
+        client.close();
+        Object event = events.poll(3, TimeUnit.SECONDS);
+        assertTrue(String.valueOf(event), event instanceof IOException);
+    }
+}
@@ -0,0 +1,238 @@
+package com.andreydymko.nomic;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FecTest {
+
+    private static final int PACKETS = 20000;
+
+    // модель потерь: решает для каждого пакета, потерян ли он
+    private interface LossModel {
+        boolean lose();
+    }
+
+    // независимые потери с вероятностью p
+    private static LossModel randomLoss(final Random random, final double p) {
+        return new LossModel() {
+            @Override
+            public boolean lose() {
+                return random.nextDouble() < p;
+            }
+        };
+    }
+
+    // модель Гилберта-Эллиотта: в "плохом" состоянии теряется всё, средняя длина пачки - meanBurst
+    private static LossModel burstLoss(final Random random, final double lossRate, final double meanBurst) {
+        return new LossModel() {
+            private boolean bad;
+            private final double leaveBad = 1 / meanBurst;
+            private final double enterBad = lossRate * leaveBad / (1 - lossRate);
+
+            @Override
+            public boolean lose() {
+                bad = bad ? random.nextDouble() >= leaveBad : random.nextDouble() < enterBad;
+                return bad;
+            }
+        };
+    }
+
+    private static class Result {
+        long lost;
+        long delivered;
+
+        double residualLoss() {
+            return 1.0 - (double) delivered / PACKETS;
+        }
+    }
+
+    private static void copy(ByteBuffer from, int fromOffset, byte[] to, int toOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            to[toOffset + i] = from.get(fromOffset + i);
+        }
+    }
+
+    // отправляет поток через FecEncoder, теряет пакеты (и звука, и чётности) по модели и считает,
+    // сколько пакетов звука получатель в итоге получил. Восстановленные пакеты сверяются с отправленными
+    private static Result simulate(FecCode code, LossModel loss, long seed) {
+        Random random = new Random(seed);
+        PacketEncoder packetEncoder = new PacketEncoder(AudioPacket.PAYLOAD_TYPE.OPUS, 0x1234, 65000, 0);
+        FecEncoder fecEncoder = code == null ? null : new FecEncoder(code, 7);
+        FecDecoder fecDecoder = new FecDecoder();
+        ByteBuffer header = ByteBuffer.allocateDirect(AudioPacket.HEADER_SIZE);
+        ByteBuffer body = ByteBuffer.allocateDirect(400);
+        ByteBuffer parity = ByteBuffer.allocateDirect(1024);
+        byte[][] sent = new byte[65536][];
+        boolean[] delivered = new boolean[65536];
+        byte[] datagram = new byte[1024];
+        Result result = new Result();
+
+        for (int n = 0; n < PACKETS; n++) {
+            int bodyLength = 40 + random.nextInt(200);
+            for (int i = 0; i < bodyLength; i++) {
+                body.put(i, (byte) random.nextInt());
+            }
+            packetEncoder.writeHeader(header, 0, 480);
+            int sequence = ((header.get(2) & 0xFF) << 8) | (header.get(3) & 0xFF);
+            byte[] packet = new byte[AudioPacket.HEADER_SIZE + bodyLength];
+            for (int i = 0; i < AudioPacket.HEADER_SIZE; i++) {
+                packet[i] = header.get(i);
+            }
+            for (int i = 0; i < bodyLength; i++) {
+                packet[AudioPacket.HEADER_SIZE + i] = body.get(i);
+            }
+            sent[sequence] = packet;
+            delivered[sequence] = false;
+
+            if (loss.lose()) {
+                result.lost++;
+            } else {
+                fecDecoder.onMediaPacket(packet, 0, packet.length);
+                delivered[sequence] = true;
+                result.delivered++;
+            }
+            if (fecEncoder != null && fecEncoder.add(header, body, bodyLength)) {
+                for (int j = 0; j < code.getParityPackets(); j++) {
+                    int length = fecEncoder.writeParityPacket(j, parity);
+                    if (!loss.lose()) {
+                        copy(parity, 0, datagram, 0, length);
+                        fecDecoder.onParityPacket(datagram, 0, length);
+                    }
+                }
+            }
+            int length;
+            while ((length = fecDecoder.pollRecovered(datagram, 0)) > 0) {
+                int recoveredSequence = ((datagram[2] & 0xFF) << 8) | (datagram[3] & 0xFF);
+                assertFalse("recovered a packet that was received", delivered[recoveredSequence]);
+                assertArrayEquals(sent[recoveredSequence], Arrays.copyOf(datagram, length));
+                delivered[recoveredSequence] = true;
+                result.delivered++;
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void singleParity_isPlainXor() {
+        FecCode code = new FecCode(5, 1);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(1, code.getCoefficient(0, i));
+        }
+    }
+
+    @Test
+    public void anyDataPacketsOfBlock_rebuildIt() {
+        int dataPackets = 6;
+        int parityPackets = 3;
+        FecCode code = new FecCode(dataPackets, parityPackets);
+        Random random = new Random(3);
+        int length = 64;
+        byte[][] original = new byte[dataPackets][length];
+        int[] lengths = new int[dataPackets];
+        for (int i = 0; i < dataPackets; i++) {
+            // пакеты разной длины: хвост считается нулями
+            lengths[i] = 16 + random.nextInt(length - 16);
+            for (int b = 0; b < lengths[i]; b++) {
+                original[i][b] = (byte) random.nextInt();
+            }
+        }
+        byte[][] parity = new byte[parityPackets][length];
+        for (int j = 0; j < parityPackets; j++) {
+            for (int i = 0; i < dataPackets; i++) {
+                FecCode.multiplyAdd(code.getCoefficient(j, i), original[i], 0, parity[j], 0, lengths[i]);
+            }
+        }
+        // все варианты потерь, при которых пришло не меньше K пакетов
+        int total = dataPackets + parityPackets;
+        int patterns = 0;
+        for (int mask = 0; mask < 1 << total; mask++) {
+            if (Integer.bitCount(mask) > parityPackets) {
+                continue;
+            }
+            byte[][] packets = new byte[total][];
+            boolean[] present = new boolean[total];
+            for (int i = 0; i < total; i++) {
+                present[i] = (mask & (1 << i)) == 0;
+                packets[i] = i < dataPackets
+                        ? (present[i] ? original[i].clone() : new byte[length])
+                        : parity[i - dataPackets];
+            }
+            assertTrue(code.recover(packets, lengths, present, length));
+            for (int i = 0; i < dataPackets; i++) {
+                assertArrayEquals("mask " + mask, original[i], packets[i]);
+            }
+            patterns++;
+        }
+        assertEquals(130, patterns);
+
+        boolean[] tooFew = new boolean[total];
+        Arrays.fill(tooFew, true);
+        tooFew[0] = tooFew[1] = tooFew[2] = tooFew[3] = false;
+        assertFalse(code.recover(new byte[total][length], lengths, tooFew, length));
+    }
+
+    @Test
+    public void randomLoss_isMostlyRecovered() {
+        Result plain = simulate(null, randomLoss(new Random(1), 0.03), 11);
+        Result fec = simulate(new FecCode(10, 1), randomLoss(new Random(1), 0.03), 11);
+        Result strong = simulate(new FecCode(5, 1), randomLoss(new Random(1), 0.03), 11);
+        assertEquals(0.03, plain.residualLoss(), 0.005);
+        // блок не восстанавливается, только если в нём потеряно два пакета и больше:
+        // для 10+1 это ~4% блоков и ~0.8% пакетов, для 5+1 - ~1.2% блоков и ~0.4% пакетов
+        assertTrue("10+1: " + fec.residualLoss(), fec.residualLoss() < 0.012);
+        assertTrue("5+1: " + strong.residualLoss(), strong.residualLoss() < 0.006);
+    }
+
+    @Test
+    public void burstLoss_needsSeveralParityPackets() {
+        Result plain = simulate(null, burstLoss(new Random(2), 0.05, 3), 12);
+        Result single = simulate(new FecCode(10, 1), burstLoss(new Random(2), 0.05, 3), 12);
+        Result multiple = simulate(new FecCode(8, 4), burstLoss(new Random(2), 0.05, 3), 12);
+        assertEquals(0.05, plain.residualLoss(), 0.01);
+        // одна чётность на блок почти не помогает против пачек потерь
+        assertTrue("10+1: " + single.residualLoss(), single.residualLoss() > plain.residualLoss() * 0.6);
+        // четыре чётности закрывают пачки до четырёх пакетов
+        assertTrue("8+4: " + multiple.residualLoss(), multiple.residualLoss() < plain.residualLoss() * 0.5);
+    }
+
+    @Test
+    public void parityBeforeMissingPacket_stillRecovers() {
+        FecCode code = new FecCode(2, 1);
+        PacketEncoder packetEncoder = new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 9, 100, 0);
+        FecEncoder encoder = new FecEncoder(code, 0);
+        ByteBuffer header = ByteBuffer.allocateDirect(AudioPacket.HEADER_SIZE);
+        ByteBuffer body = ByteBuffer.allocateDirect(16);
+        byte[][] packets = new byte[2][];
+        for (int n = 0; n < 2; n++) {
+            for (int i = 0; i < 16; i++) {
+                body.put(i, (byte) (n * 16 + i));
+            }
+            packetEncoder.writeHeader(header, 0, 8);
+            packets[n] = new byte[AudioPacket.HEADER_SIZE + 16];
+            copy(header, 0, packets[n], 0, AudioPacket.HEADER_SIZE);
+            copy(body, 0, packets[n], AudioPacket.HEADER_SIZE, 16);
+            assertEquals(n == 1, encoder.add(header, body, 16));
+        }
+        ByteBuffer parity = ByteBuffer.allocateDirect(encoder.getMaxParityPacketSize());
+        int parityLength = encoder.writeParityPacket(0, parity);
+        byte[] parityBytes = new byte[parityLength];
+        copy(parity, 0, parityBytes, 0, parityLength);
+        assertTrue(FecDecoder.isParityPacket(parityBytes, 0, parityLength));
+        assertFalse(FecDecoder.isParityPacket(packets[0], 0, packets[0].length));
+
+        // чётность пришла раньше второго пакета, первый потерян
+        FecDecoder decoder = new FecDecoder();
+        decoder.onParityPacket(parityBytes, 0, parityLength);
+        byte[] out = new byte[64];
+        assertEquals(-1, decoder.pollRecovered(out, 0));
+        decoder.onMediaPacket(packets[1], 0, packets[1].length);
+        int length = decoder.pollRecovered(out, 0);
+        assertArrayEquals(packets[0], Arrays.copyOf(out, length));
+        assertEquals(1, decoder.getRecoveredPackets());
+    }
+}
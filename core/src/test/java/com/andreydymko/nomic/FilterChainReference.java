@@ -0,0 +1,73 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+// прямолинейный прогон цепочки FilterStage: кадр переводится в промежуточный массив,
+// каждая ступень проходит по нему отдельно, результат переводится обратно.
+// считает то же, что и FilterGraph - эталон для FilterGraphTest и FilterGraphBenchmark
+public class FilterChainReference {
+
+    // одна ступень со своим состоянием, как отдельный объект конвейера
+    private static class Biquad {
+        private final double b0, b1, b2, a1, a2;
+        private final double[] z1;
+        private final double[] z2;
+
+        Biquad(double[] coefficients, int channels) {
+            b0 = coefficients[0];
+            b1 = coefficients[1];
+            b2 = coefficients[2];
+            a1 = coefficients[3];
+            a2 = coefficients[4];
+            z1 = new double[channels];
+            z2 = new double[channels];
+        }
+
+        void process(double[] samples, int count, int channels) {
+            for (int i = 0; i < count; i++) {
+                int channel = i % channels;
+                double x = samples[i];
+                double y = b0 * x + z1[channel];
+                z1[channel] = b1 * x - a1 * y + z2[channel];
+                z2[channel] = b2 * x - a2 * y;
+                samples[i] = y;
+            }
+        }
+    }
+
+    private final int channels;
+    private final int encoding;
+    private final int bytesPerSample;
+    private final Biquad[] stages;
+    private double[] samples = new double[0];
+
+    public FilterChainReference(int sampleRate, int channels, @SampleFormat.encoding int encoding,
+                                @NotNull List<FilterStage> stages) {
+        this.channels = channels;
+        this.encoding = encoding;
+        this.bytesPerSample = SampleFormat.getBytesPerSample(encoding);
+        this.stages = new Biquad[stages.size()];
+        for (int s = 0; s < this.stages.length; s++) {
+            this.stages[s] = new Biquad(stages.get(s).getCoefficients(sampleRate), channels);
+        }
+    }
+
+    public void process(@NotNull ByteBuffer frame, int length) {
+        int count = length / bytesPerSample / channels * channels;
+        if (samples.length < count) {
+            samples = new double[count];
+        }
+        for (int i = 0; i < count; i++) {
+            samples[i] = SampleConverter.getSample(frame, i * bytesPerSample, encoding);
+        }
+        for (Biquad stage : stages) {
+            stage.process(samples, count, channels);
+        }
+        for (int i = 0; i < count; i++) {
+            SampleConverter.putSample(frame, i * bytesPerSample, encoding, (float) samples[i]);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.andreydymko.nomic;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// цепочка фильтров: один проход даёт ровно то же, что ступени по очереди (FilterChainReference),
+// постоянная составляющая уходит, а срез, полка и подъём - там, где их задали
+public class FilterGraphTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final int[] ENCODINGS = {SampleFormat.ENCODING.PCM_16, SampleFormat.ENCODING.PCM_24_PACKED,
+            SampleFormat.ENCODING.PCM_FLOAT};
+    private static final List<FilterStage> ALL_STAGES = FilterStage.parseChain(
+            "dc:10;highpass:80:0.707;lowshelf:200:-4:0.707;peaking:3000:4:1;highshelf:8000:-2:0.707");
+
+    // пропускает signal (кадры с чередованием каналов) через graph кадрами по frameFrames
+    private static float[] run(FilterGraph graph, float[] signal, int frameFrames) {
+        int channels = graph.getChannels();
+        int encoding = graph.getEncoding();
+        int bytesPerSample = SampleFormat.getBytesPerSample(encoding);
+        ByteBuffer frame = ByteBuffer.allocateDirect(frameFrames * channels * bytesPerSample);
+        float[] out = new float[signal.length];
+        for (int start = 0; start + frameFrames * channels <= signal.length; start += frameFrames * channels) {
+            for (int i = 0; i < frameFrames * channels; i++) {
+                SampleConverter.putSample(frame, i * bytesPerSample, encoding, signal[start + i]);
+            }
+            graph.process(frame, frame.capacity());
+            for (int i = 0; i < frameFrames * channels; i++) {
+                out[start + i] = SampleConverter.getSample(frame, i * bytesPerSample, encoding);
+            }
+        }
+        return out;
+    }
+
+    private static float[] sine(double frequency, double amplitude, double offset, int samples) {
+        float[] sine = new float[samples];
+        for (int n = 0; n < samples; n++) {
+            sine[n] = (float) (offset + amplitude * Math.sin(2 * Math.PI * frequency * n / SAMPLE_RATE));
+        }
+        return sine;
+    }
+
+    private static double rms(float[] samples, int from, int to) {
+        double energy = 0;
+        for (int i = from; i < to; i++) {
+            energy += samples[i] * samples[i];
+        }
+        return Math.sqrt(energy / (to - from));
+    }
+
+    // усиление цепочки на частоте frequency в дБ, по второй половине секунды синуса
+    private static double gainDb(List<FilterStage> stages, double frequency) {
+        FilterGraph graph = new FilterGraph(SAMPLE_RATE, 1, SampleFormat.ENCODING.PCM_FLOAT, stages);
+        float[] in = sine(frequency, 0.1, 0, SAMPLE_RATE);
+        float[] out = run(graph, in, 480);
+        return 20 * Math.log10(rms(out, SAMPLE_RATE / 2, SAMPLE_RATE) / rms(in, SAMPLE_RATE / 2, SAMPLE_RATE));
+    }
+
+    @Test
+    public void fused_matchesStageByStage() {
+        int channels = 2;
+        // кадры по 441 - нечётное число, как у 10 мс при 44.1 кГц
+        int frameFrames = 441;
+        Random random = new Random(1);
+        for (int encoding : ENCODINGS) {
+            int bytesPerSample = SampleFormat.getBytesPerSample(encoding);
+            FilterGraph graph = new FilterGraph(SAMPLE_RATE, channels, encoding, ALL_STAGES);
+            FilterChainReference reference = new FilterChainReference(SAMPLE_RATE, channels, encoding, ALL_STAGES);
+            int length = frameFrames * channels * bytesPerSample;
+            ByteBuffer fused = ByteBuffer.allocateDirect(length);
+            ByteBuffer staged = ByteBuffer.allocate(length);
+            for (int f = 0; f < 100; f++) {
+                for (int i = 0; i < frameFrames * channels; i++) {
+                    float sample = (float) (0.05 + random.nextGaussian() * 0.1);
+                    SampleConverter.putSample(fused, i * bytesPerSample, encoding, sample);
+                    SampleConverter.putSample(staged, i * bytesPerSample, encoding, sample);
+                }
+                graph.process(fused, length);
+                reference.process(staged, length);
+                for (int i = 0; i < length; i++) {
+                    assertEquals("encoding " + encoding + ", frame " + f + ", byte " + i, staged.get(i), fused.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void dcBlocker_removesOffsetAndKeepsTone() {
+        List<FilterStage> stages = FilterStage.parseChain("dc:10");
+        for (int encoding : ENCODINGS) {
+            FilterGraph graph = new FilterGraph(SAMPLE_RATE, 1, encoding, stages);
+            float[] in = sine(1000, 0.1, 0.2, 2 * SAMPLE_RATE);
+            float[] out = run(graph, in, 480);
+            double mean = 0;
+            for (int n = SAMPLE_RATE; n < out.length; n++) {
+                mean += out[n];
+            }
+            mean /= SAMPLE_RATE;
+            assertEquals("encoding " + encoding, 0, mean, 1e-4);
+            assertEquals("encoding " + encoding, 0.1 / Math.sqrt(2), rms(out, SAMPLE_RATE, out.length), 1e-3);
+        }
+    }
+
+    @Test
+    public void stages_shapeResponseWhereConfigured() {
+        List<FilterStage> highPass = FilterStage.parseChain("highpass:80:0.707");
+        assertEquals(-3.01, gainDb(highPass, 80), 0.1);
+        assertTrue(gainDb(highPass, 20) < -23);
+        assertEquals(0, gainDb(highPass, 1000), 0.05);
+
+        List<FilterStage> peaking = FilterStage.parseChain("peaking:3000:6:1");
+        assertEquals(6, gainDb(peaking, 3000), 0.05);
+        assertEquals(0, gainDb(peaking, 100), 0.1);
+
+        List<FilterStage> lowShelf = FilterStage.parseChain("lowshelf:200:-6:0.707");
+        assertEquals(-6, gainDb(lowShelf, 20), 0.1);
+        assertEquals(-3, gainDb(lowShelf, 200), 0.05);
+        assertEquals(0, gainDb(lowShelf, 5000), 0.05);
+
+        List<FilterStage> highShelf = FilterStage.parseChain("highshelf:4000:6:0.707");
+        assertEquals(6, gainDb(highShelf, 20000), 0.2);
+        assertEquals(0, gainDb(highShelf, 100), 0.05);
+    }
+
+    @Test
+    public void channels_areFilteredIndependently() {
+        FilterGraph graph = new FilterGraph(SAMPLE_RATE, 2, SampleFormat.ENCODING.PCM_FLOAT, ALL_STAGES);
+        float[] tone = sine(440, 0.5, 0.1, SAMPLE_RATE);
+        float[] in = new float[2 * SAMPLE_RATE];
+        for (int n = 0; n < SAMPLE_RATE; n++) {
+            in[2 * n] = tone[n];
+        }
+        float[] out = run(graph, in, 480);
+        for (int n = 0; n < SAMPLE_RATE; n++) {
+            assertEquals(0, out[2 * n + 1], 0);
+        }
+        assertTrue(rms(out, 0, out.length) > 0.1);
+    }
+
+    @Test
+    public void chain_roundTripsAndRejectsBadStages() {
+        assertEquals("dc:10;highpass:80:0.707;lowshelf:200:-4:0.707;peaking:3000:4:1;highshelf:8000:-2:0.707",
+                FilterStage.toChain(ALL_STAGES));
+        assertEquals(ALL_STAGES, FilterStage.parseChain(FilterStage.toChain(ALL_STAGES)));
+        assertEquals(Arrays.asList(FilterStage.dcBlocker(10), FilterStage.peaking(2500.5f, -1.5f, 2)),
+                FilterStage.parseChain(" dc:10 ; ;peaking:2500.5:-1.5:2"));
+        assertTrue(FilterStage.parseChain("").isEmpty());
+        assertTrue(new FilterGraph(SAMPLE_RATE, 1, SampleFormat.ENCODING.PCM_16, FilterStage.parseChain("")).isEmpty());
+        for (String bad : new String[]{"lowpass:100", "dc", "highpass:80", "peaking:1000:3", "dc:x", "dc:-10",
+                "highpass:80:0", "peaking:1000:NaN:1"}) {
+            try {
+                FilterStage.parseChain(bad);
+                fail(bad);
+            } catch (IllegalArgumentException e) {
+                // ожидаемо
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void stageAboveNyquist_isRejected() {
+        new FilterGraph(16000, 1, SampleFormat.ENCODING.PCM_16, FilterStage.parseChain("highshelf:8000:3:1"));
+    }
+
+    // полка "Brighter" на 6 кГц при захвате 8 кГц: захват собирается и работает без неё
+    @Test
+    public void stagesAboveNyquist_areDroppedFromCaptureChain() {
+        List<FilterStage> chain = FilterStage.parseChain("dc:10;highpass:80:0.707;highshelf:6000:3:0.707");
+        assertEquals(FilterStage.parseChain("dc:10;highpass:80:0.707"), FilterStage.fitChain(chain, 8000));
+        assertEquals(chain, FilterStage.fitChain(chain, 16000));
+        assertTrue(FilterStage.fitChain(FilterStage.parseChain("highshelf:4000:3:0.707"), 8000).isEmpty());
+
+        CaptureThread capture = new CaptureThread("capture", new ToneSource(8000, 1, 440, 0.5, false), 10_000,
+                SchedulingPolicy.NONE);
+        capture.setFilterStages(chain);
+        assertEquals(FilterStage.fitChain(chain, 8000), capture.getFilterStages());
+        capture.setFilterStages(FilterStage.parseChain("highshelf:6000:3:0.707"));
+        assertTrue(capture.getFilterStages().isEmpty());
+    }
+}
@@ -0,0 +1,58 @@
+package com.andreydymko.nomic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FramePacketizerTest {
+
+    @Test
+    public void frameBytes_followDuration() {
+        assertEquals(240, FramePacketizer.getFrameBytes(48000, 2500, 2));
+        assertEquals(960, FramePacketizer.getFrameBytes(48000, 10000, 2));
+        assertEquals(1764, FramePacketizer.getFrameBytes(44100, 20000, 2));
+        assertEquals(3840, FramePacketizer.getFrameBytes(192000, 5000, 4));
+    }
+
+    @Test
+    public void unevenCaptureChunks_areSlicedIntoFixedFrames() {
+        FramePacketizer packetizer = new FramePacketizer(8, 32);
+        byte[] captured = new byte[30];
+        for (int i = 0; i < captured.length; i++) {
+            captured[i] = (byte) i;
+        }
+        byte[] frame = new byte[10];
+        int next = 0;
+        int offset = 0;
+        for (int chunk : new int[]{3, 11, 1, 7, 8}) {
+            packetizer.write(captured, offset, chunk);
+            offset += chunk;
+            while (packetizer.readFrame(frame, 2)) {
+                for (int i = 0; i < 8; i++) {
+                    assertEquals(next++, frame[2 + i]);
+                }
+            }
+        }
+        assertEquals(24, next);
+        assertEquals(6, packetizer.available());
+    }
+
+    @Test
+    public void overflow_dropsOldestWholeFrames() {
+        FramePacketizer packetizer = new FramePacketizer(4, 8);
+        byte[] data = new byte[12];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        packetizer.write(data, 0, 6);
+        packetizer.write(data, 6, 6);
+        assertEquals(4, packetizer.getOverflowBytes());
+
+        byte[] frame = new byte[4];
+        assertTrue(packetizer.readFrame(frame, 0));
+        assertArrayEquals(new byte[]{4, 5, 6, 7}, frame);
+        assertTrue(packetizer.readFrame(frame, 0));
+        assertArrayEquals(new byte[]{8, 9, 10, 11}, frame);
+        assertFalse(packetizer.readFrame(frame, 0));
+    }
+}
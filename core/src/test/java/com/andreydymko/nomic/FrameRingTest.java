@@ -0,0 +1,195 @@
+package com.andreydymko.nomic;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+
+public class FrameRingTest {
+
+    private static final int FRAME_BYTES = 480;
+
+    @Test
+    public void fullRing_dropsFrameAndReportsGap() {
+        FrameRing ring = new FrameRing(3, 16);
+        assertEquals(4, ring.capacity());
+        ByteBuffer frame = ByteBuffer.allocateDirect(16);
+        for (int i = 0; i < 6; i++) {
+            frame.put(0, (byte) i);
+            assertEquals(i < 4, ring.offer(frame, 16));
+        }
+        assertEquals(2, ring.getOverflows());
+        assertEquals(4, ring.size());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.await(0));
+            assertEquals(i, ring.peek().get(0));
+            assertEquals(0, ring.peekSkippedBytes());
+            ring.release();
+        }
+        assertNull(ring.peek());
+        // выброшенные кадры приходят разрывом перед следующим кадром
+        frame.put(0, (byte) 6);
+        assertTrue(ring.offer(frame, 8));
+        assertEquals(6, ring.peek().get(0));
+        assertEquals(8, ring.peekLength());
+        assertEquals(32, ring.peekSkippedBytes());
+        ring.release();
+
+        assertFalse(ring.await(TimeUnit.MILLISECONDS.toNanos(1)));
+        assertEquals(1, ring.getUnderflows());
+    }
+
+    // производитель и потребитель в разных потоках: кадры приходят по порядку, без повреждений,
+    // а каждый выброшенный кадр учтён и как переполнение, и как разрыв перед следующим кадром
+    @Test
+    public void concurrentProducerAndConsumer_keepOrderAndAccountForDrops() throws Exception {
+        final int frames = 1_000_000;
+        final int frameBytes = 16;
+        final FrameRing ring = new FrameRing(64, frameBytes);
+        final long[] checked = new long[3];
+        final Throwable[] failure = new Throwable[1];
+
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                long expected = 0;
+                long skipped = 0;
+                try {
+                    while (expected < frames) {
+                        if (!ring.await(TimeUnit.MILLISECONDS.toNanos(100))) {
+                            continue;
+                        }
+                        ByteBuffer frame = ring.peek();
+                        long sequence = frame.getLong(0);
+                        assertEquals(~sequence, frame.getLong(8));
+                        assertEquals(frameBytes, ring.peekLength());
+                        // номер кадра вырос ровно на число выброшенных перед ним кадров
+                        long gap = ring.peekSkippedBytes() / frameBytes;
+                        assertEquals(expected + gap, sequence);
+                        skipped += gap;
+                        expected = sequence + 1;
+                        ring.release();
+                        // время от времени потребитель задерживается, и кольцо переполняется
+                        if ((sequence & 0xFFFF) == 0) {
+                            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(2));
+                        }
+                        checked[0]++;
+                    }
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+                checked[1] = skipped;
+                checked[2] = expected;
+            }
+        };
+        consumer.start();
+
+        ByteBuffer frame = ByteBuffer.allocateDirect(frameBytes);
+        long rejected = 0;
+        for (long sequence = 0; sequence < frames; sequence++) {
+            frame.putLong(0, sequence);
+            frame.putLong(8, ~sequence);
+            if (!ring.offer(frame, frameBytes)) {
+                rejected++;
+            }
+        }
+        // последний кадр должен дойти, чтобы потребитель увидел конец: ждём свободный слот
+        ByteBuffer last;
+        while ((last = ring.claim()) == null) {
+            Thread.yield();
+        }
+        last.putLong(0, frames);
+        last.putLong(8, ~(long) frames);
+        ring.publish(frameBytes, 0);
+        consumer.join(30_000);
+        assertFalse(consumer.isAlive());
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+        assertEquals(frames + 1, checked[2]);
+        assertTrue("no frame was dropped", rejected > 0);
+        assertEquals(rejected, ring.getOverflows());
+        assertEquals(rejected, checked[1]);
+        assertEquals(frames + 1 - rejected, checked[0]);
+    }
+
+    // сеть "зависла" у одного из слушателей: захват продолжает отдавать кадры в своём темпе,
+    // обработка успевает за ним, а кадры теряет только зависший слушатель
+    @Test
+    public void stalledNetwork_neverBlocksCapture() throws Exception {
+        final int frames = 500;
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicLong fastSent = new AtomicLong();
+        SubscriberRegistry registry = new SubscriberRegistry();
+        DatagramChannel fastChannel = DatagramChannel.open();
+        DatagramChannel slowChannel = DatagramChannel.open();
+        SubscriberThread fast = new SubscriberThread("fast", new PacketSender(fastChannel, new PcmEncoder(),
+                new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 1, 0, 0), new CodecStatistics(), FRAME_BYTES, 2) {
+            @Override
+            public int send(ByteBuffer frame, int frameBytes) {
+                fastSent.incrementAndGet();
+                return frameBytes;
+            }
+        }, FRAME_BYTES, 64);
+        SubscriberThread slow = new SubscriberThread("slow", new PacketSender(slowChannel, new PcmEncoder(),
+                new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 2, 0, 0), new CodecStatistics(), FRAME_BYTES, 2) {
+            @Override
+            public int send(ByteBuffer frame, int frameBytes) throws IOException {
+                // отправка ждёт, как при энергосбережении Wi-Fi
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new ClosedByInterruptException();
+                }
+                return frameBytes;
+            }
+        }, FRAME_BYTES, 16);
+        registry.add(fast);
+        registry.add(slow);
+        // запас в 64 мс на случай, если планировщик надолго отнимет процессор у обработки
+        FrameRing captured = new FrameRing(64, FRAME_BYTES);
+        ProcessingThread processing = new ProcessingThread(captured, registry, 2.0f);
+        processing.start();
+
+        // "захват": кадр раз в миллисекунду, замеряем, сколько стоила его передача дальше
+        ByteBuffer frame = ByteBuffer.allocateDirect(FRAME_BYTES);
+        long worstOfferNanos = 0;
+        long next = System.nanoTime();
+        try {
+            for (int i = 0; i < frames; i++) {
+                next += TimeUnit.MILLISECONDS.toNanos(1);
+                long start = System.nanoTime();
+                captured.offer(frame, FRAME_BYTES);
+                worstOfferNanos = Math.max(worstOfferNanos, System.nanoTime() - start);
+                LockSupport.parkNanos(next - System.nanoTime());
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (fastSent.get() < frames && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        } finally {
+            release.countDown();
+            processing.interrupt();
+            processing.join(2000);
+            registry.clear();
+        }
+
+        assertEquals(0, captured.getOverflows());
+        assertEquals(frames, fastSent.get());
+        assertEquals(0, fast.getDroppedFrames());
+        // один кадр застрял в отправке, не освободив свой слот, ещё 15 ждут в кольце
+        assertEquals(frames - 16, slow.getDroppedFrames());
+        // передача кадра - копирование 480 байт; запас - на паузы сборщика мусора
+        assertTrue("capture waited " + worstOfferNanos / 1000 + " us",
+                worstOfferNanos < TimeUnit.MILLISECONDS.toNanos(50));
+    }
+}
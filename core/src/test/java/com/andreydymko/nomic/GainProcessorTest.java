@@ -0,0 +1,87 @@
+package com.andreydymko.nomic;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class GainProcessorTest {
+
+    private static byte[] toBytes(short... samples) {
+        byte[] bytes = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            bytes[2 * i] = (byte) samples[i];
+            bytes[2 * i + 1] = (byte) (samples[i] >> 8);
+        }
+        return bytes;
+    }
+
+    private static short sampleAt(byte[] bytes, int index) {
+        return (short) ((bytes[2 * index] & 0xFF) | (bytes[2 * index + 1] << 8));
+    }
+
+    @Test
+    public void loudInput_saturatesInsteadOfWrapping() {
+        byte[] buffer = toBytes((short) 20000, (short) -20000, Short.MAX_VALUE, Short.MIN_VALUE, (short) 1000);
+        GainProcessor.apply(buffer, 0, buffer.length, 10.0f);
+        assertEquals(Short.MAX_VALUE, sampleAt(buffer, 0));
+        assertEquals(Short.MIN_VALUE, sampleAt(buffer, 1));
+        assertEquals(Short.MAX_VALUE, sampleAt(buffer, 2));
+        assertEquals(Short.MIN_VALUE, sampleAt(buffer, 3));
+        assertEquals(10000, sampleAt(buffer, 4));
+    }
+
+    @Test
+    public void onlyRequestedRangeIsProcessed() {
+        byte[] buffer = toBytes((short) 100, (short) 100, (short) 100, (short) 100);
+        GainProcessor.apply(buffer, 2, 4, 2.0f);
+        assertEquals(100, sampleAt(buffer, 0));
+        assertEquals(200, sampleAt(buffer, 1));
+        assertEquals(200, sampleAt(buffer, 2));
+        assertEquals(100, sampleAt(buffer, 3));
+    }
+
+    @Test
+    public void negativeSamples_keepTheirSign() {
+        byte[] buffer = toBytes((short) -1234, (short) -1);
+        GainProcessor.apply(buffer, 0, buffer.length, 2.5f);
+        assertEquals(-3085, sampleAt(buffer, 0));
+        assertEquals(-2, sampleAt(buffer, 1));
+    }
+
+    @Test
+    public void allBufferKinds_giveSameResult() {
+        short[] samples = new short[999];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (i * 131 - 60000);
+        }
+        byte[] bytes = toBytes(samples);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.nativeOrder());
+        for (short sample : samples) {
+            direct.putShort(sample);
+        }
+
+        GainProcessor.apply(samples, 0, samples.length, 3.7f);
+        GainProcessor.apply(bytes, 0, bytes.length, 3.7f);
+        GainProcessor.apply(direct, 0, direct.capacity(), 3.7f);
+
+        for (int i = 0; i < samples.length; i++) {
+            assertEquals(samples[i], sampleAt(bytes, i));
+            assertEquals(samples[i], direct.getShort(2 * i));
+        }
+    }
+
+    @Test
+    public void unclippedResult_matchesOldImplementationWithinRounding() {
+        // старая реализация читала сэмпл как беззнаковый, поэтому сравниваем только положительные
+        byte[] reference = toBytes((short) 1234, (short) 12000, (short) 3, (short) 0);
+        byte[] actual = reference.clone();
+        GainReference.increaseSoundVolumeOld(reference, 2.5f);
+        GainProcessor.apply(actual, 0, actual.length, 2.5f);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(sampleAt(reference, i), sampleAt(actual, i), 1);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// прежние Java-реализации усиления из MicThread -
+// эталон для GainProcessorTest и база для GainBenchmark
+public class GainReference {
+
+    // эталон: прежний increaseSoundVolumeOld из MicThread
+    public static void increaseSoundVolumeOld(@NotNull byte[] audioBuffer, float multiplier) {
+        // PCM 16 bit in mono; 16 bit == 2 byte
+        int sampleLength = 2;
+        short sample;
+        for (int i = 0; i < audioBuffer.length; i += sampleLength) {
+            sample = (short) Math.floor(((audioBuffer[i+1] & 0xFF) << 8 | audioBuffer[i] & 0xFF) * multiplier);
+            audioBuffer[i] = (byte) (sample & 0xff);
+            audioBuffer[i+1] = (byte) ((sample >> 8) & 0xff);
+        }
+    }
+
+    // прежний increaseSoundVolumeOld1 из MicThread, использует ByteBuffer
+    public static void increaseSoundVolumeOld1(@NotNull byte[] audioBuffer, float multiplier) {
+        // PCM 16 bit in mono; 16 bit == 2 byte
+        int sampleLength = 2;
+        ByteBuffer byteBuffer = ByteBuffer.allocate(sampleLength);
+        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        short sample;
+        for (int i = 0; i < audioBuffer.length; i += sampleLength) {
+            byteBuffer.put(audioBuffer, i, sampleLength).rewind();
+            sample = (short) Math.floor(byteBuffer.getShort(0) * multiplier);
+            byteBuffer.clear();
+            byteBuffer.putShort(sample).rewind();
+            byteBuffer.get(audioBuffer, i, sampleLength).clear();
+        }
+    }
+}
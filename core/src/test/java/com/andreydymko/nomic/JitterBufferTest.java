@@ -0,0 +1,122 @@
+package com.andreydymko.nomic;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class JitterBufferTest {
+
+    private static JitterBuffer adaptive() {
+        return new JitterBuffer(ArrivalTrace.SAMPLE_RATE, 1, 5, 200);
+    }
+
+    @Test
+    public void reorderedPackets_playBackUnchanged() {
+        // пакет 2 приходит раньше пакета 1, но оба успевают к воспроизведению
+        ArrivalTrace trace = ArrivalTrace.of(1000, 25_000, 2000, 2000, 2000, 2000, 2000, 2000);
+        short[] output = new short[8 * ArrivalTrace.PACKET_FRAMES];
+        JitterBuffer jitterBuffer = new JitterBuffer(ArrivalTrace.SAMPLE_RATE, 1, 40, 40);
+        trace.replay(jitterBuffer, output);
+
+        int start = -1;
+        for (int i = 0; i < output.length && start < 0; i++) {
+            if (output[i] != 0) {
+                start = i - 1;
+            }
+        }
+        assertTrue(start >= 0);
+        for (int frame = 0; frame + start < output.length && frame < 4 * ArrivalTrace.PACKET_FRAMES; frame++) {
+            assertEquals("frame " + frame, ArrivalTrace.sampleAt(frame), output[start + frame]);
+        }
+        assertEquals(0, jitterBuffer.getStreamStatistics().getLost());
+        assertEquals(1, jitterBuffer.getStreamStatistics().getReordered());
+    }
+
+    @Test
+    public void lostPacket_isConcealedWithoutStall() {
+        ArrivalTrace trace = ArrivalTrace.of(1000, 1000, -1, 1000, 1000, 1000, 1000, 1000, 1000, 1000);
+        JitterBuffer jitterBuffer = new JitterBuffer(ArrivalTrace.SAMPLE_RATE, 1, 20, 20);
+        ArrivalTrace.Result result = trace.replay(jitterBuffer);
+        assertEquals(1, result.lostPackets);
+        assertEquals(0, result.underruns);
+        assertTrue(result.concealedFrames >= ArrivalTrace.PACKET_FRAMES);
+    }
+
+    @Test
+    public void quietLink_keepsLatencyNearMinimum() throws IOException {
+        ArrivalTrace.Result result = ArrivalTrace.load("wifi_quiet.csv").replay(adaptive());
+        assertTrue(result.toString(), result.meanLatencyMillis() < 25);
+        assertTrue(result.toString(), result.concealedRatio() < 0.01);
+    }
+
+    @Test
+    public void busyLink_adaptiveDelayBeatsFixedSmallBuffer() throws IOException {
+        ArrivalTrace trace = ArrivalTrace.load("wifi_busy.csv");
+        ArrivalTrace.Result fixed = trace.replay(new JitterBuffer(ArrivalTrace.SAMPLE_RATE, 1, 5, 5));
+        ArrivalTrace.Result adaptive = trace.replay(adaptive());
+
+        assertTrue(adaptive + " vs " + fixed, adaptive.underruns * 2 < fixed.underruns);
+        assertTrue(adaptive + " vs " + fixed, adaptive.concealedRatio() < fixed.concealedRatio());
+        assertTrue(adaptive.toString(), adaptive.meanLatencyMillis() < 120);
+    }
+
+    @Test
+    public void replay_isDeterministic() throws IOException {
+        ArrivalTrace trace = ArrivalTrace.load("wifi_busy.csv");
+        assertEquals(trace.replay(adaptive()).toString(), trace.replay(adaptive()).toString());
+    }
+
+    @Test
+    public void comfortNoise_fillsSuppressedSilenceAndSpeechResumesWithoutDelay() {
+        int frames = ArrivalTrace.PACKET_FRAMES;
+        long period = TimeUnit.MILLISECONDS.toNanos(10);
+        JitterBuffer jitterBuffer = new JitterBuffer(ArrivalTrace.SAMPLE_RATE, 1, 20, 200);
+        PacketEncoder encoder = new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 7, 0, 0);
+        byte[] speech = new byte[AudioPacket.HEADER_SIZE + 2 * frames];
+        for (int i = 0; i < frames; i++) {
+            speech[AudioPacket.HEADER_SIZE + 2 * i] = (byte) 1000;
+            speech[AudioPacket.HEADER_SIZE + 2 * i + 1] = (byte) (1000 >> 8);
+        }
+        byte[] out = new byte[2 * frames];
+        long now = 0;
+        for (int i = 0; i < 10; i++, now += period) {
+            encoder.writeHeader(speech, 0, frames);
+            assertTrue(jitterBuffer.put(speech, 0, speech.length, now));
+            jitterBuffer.read(out, 0, frames);
+        }
+
+        // отправитель замолчал: пакет комфортного шума уровня -40 dBov и 300 мс без пакетов
+        byte[] comfortNoise = new byte[AudioPacket.HEADER_SIZE + 1];
+        encoder.writeComfortNoiseHeader(ByteBuffer.wrap(comfortNoise), 0, frames);
+        comfortNoise[AudioPacket.HEADER_SIZE] = 40;
+        assertTrue(jitterBuffer.put(comfortNoise, 0, comfortNoise.length, now));
+        encoder.skipFrames(29 * frames);
+        double power = 0;
+        int samples = 0;
+        for (int i = 0; i < 30; i++, now += period) {
+            jitterBuffer.read(out, 0, frames);
+            for (int j = 0; i >= 5 && j < frames; j++, samples++) {
+                int sample = (short) ((out[2 * j] & 0xFF) | (out[2 * j + 1] << 8));
+                power += sample * sample;
+            }
+        }
+        assertEquals(Short.MAX_VALUE / 100.0, Math.sqrt(power / samples), 30);
+        assertTrue(jitterBuffer.getComfortNoiseFrames() >= 25 * frames);
+        long concealed = jitterBuffer.getConcealedFrames();
+
+        // речь снова: пакет с маркером, воспроизведение продолжается с него, а не с конца прошлой речи
+        for (int i = 0; i < 5; i++, now += period) {
+            encoder.writeHeader(speech, 0, frames);
+            assertTrue(jitterBuffer.put(speech, 0, speech.length, now));
+            jitterBuffer.read(out, 0, frames);
+        }
+        assertTrue(jitterBuffer.getBufferedMillis() <= 30);
+        assertEquals(1000, (short) ((out[0] & 0xFF) | (out[1] << 8)));
+        assertEquals(0, jitterBuffer.getStreamStatistics().getLost());
+        assertTrue(jitterBuffer.getConcealedFrames() - concealed <= 2 * frames);
+    }
+}
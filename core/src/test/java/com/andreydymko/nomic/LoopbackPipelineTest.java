@@ -0,0 +1,249 @@
+package com.andreydymko.nomic;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// весь конвейер на JVM: синтетический источник -> CaptureThread -> ProcessingThread ->
+// SubscriberThread -> LoopbackTransport -> получатель в потоке теста
+public class LoopbackPipelineTest {
+
+    private static final int FRAME_DURATION_US = 10_000;
+    private static final long RECEIVE_TIMEOUT_NS = TimeUnit.SECONDS.toNanos(2);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static CaptureThread pipeline(AudioSource source, LoopbackTransport transport) {
+        CaptureThread capture = new CaptureThread("capture", source, FRAME_DURATION_US, SchedulingPolicy.NONE);
+        // звук должен дойти без изменений
+        capture.setSoundVolumeMultiplier(1.0f);
+        PacketSender sender = new PacketSender(transport, new PcmEncoder(),
+                new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 1, 0, 0), new CodecStatistics(),
+                capture.getFrameBytes(), source.getBytesPerFrame());
+        capture.getRegistry().add(new SubscriberThread("loopback", sender, capture.getFrameBytes(), 64));
+        return capture;
+    }
+
+    private static void stop(CaptureThread capture) throws InterruptedException {
+        capture.interrupt();
+        capture.join(5000);
+        assertFalse(capture.isAlive());
+    }
+
+    private static short sampleAt(byte[] data, int offset) {
+        return (short) ((data[offset] & 0xFF) | (data[offset + 1] << 8));
+    }
+
+    @Test
+    public void realTimeTone_at192kHz_arrivesCompleteAndInTime() throws Exception {
+        ToneSource source = new ToneSource(192000, 2, 997, 0.5, true);
+        LoopbackTransport transport = new LoopbackTransport(256, AudioPacket.HEADER_SIZE + 7680);
+        CaptureThread capture = pipeline(source, transport);
+        assertEquals(7680, capture.getFrameBytes());
+
+        byte[] datagram = new byte[AudioPacket.HEADER_SIZE + 7680];
+        PacketDecoder decoder = new PacketDecoder(192000);
+        AudioPacket packet = new AudioPacket();
+        // от захвата последнего сэмпла пакета до его получения
+        Histogram latency = new Histogram("latency_seconds", "pipeline latency");
+        capture.start();
+        try {
+            long expectedPosition = 0;
+            for (int i = 0; i < 100; i++) {
+                int length = transport.receive(datagram, RECEIVE_TIMEOUT_NS);
+                long arrival = System.nanoTime();
+                assertTrue("packet " + i + " not received", length > 0);
+                assertTrue(decoder.decode(datagram, 0, length, arrival, packet));
+                assertEquals(i, packet.getSequenceNumber());
+                // часы пакета - номер первого кадра, разрывов нет
+                assertEquals(expectedPosition, packet.getTimestamp());
+                int frames = packet.getPayloadLength() / 4;
+                for (int f = 0; f < frames; f += 97) {
+                    short expected = source.sampleAt(expectedPosition + f);
+                    assertEquals(expected, sampleAt(datagram, packet.getPayloadOffset() + 4 * f));
+                    assertEquals(expected, sampleAt(datagram, packet.getPayloadOffset() + 4 * f + 2));
+                }
+                expectedPosition += frames;
+                long captured = source.getStartNanos() + expectedPosition * 1_000_000_000L / 192000;
+                latency.record(Math.max(0, arrival - captured));
+            }
+        } finally {
+            stop(capture);
+        }
+        Histogram.Snapshot snapshot = latency.snapshot();
+        assertTrue("p50 " + snapshot.getQuantile(0.5) / 1000 + " us",
+                snapshot.getQuantile(0.5) < TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(0, transport.getDropped());
+        assertEquals(100, capture.getMetrics().frameAge.getCount(), 2);
+    }
+
+    @Test
+    public void unpacedTone_at192kHz_outrunsRealTime() throws Exception {
+        ToneSource source = new ToneSource(192000, 2, 997, 0.5, false);
+        LoopbackTransport transport = new LoopbackTransport(256, AudioPacket.HEADER_SIZE + 7680);
+        CaptureThread capture = pipeline(source, transport);
+
+        byte[] datagram = new byte[AudioPacket.HEADER_SIZE + 7680];
+        long receivedFrames = 0;
+        capture.start();
+        long start = System.nanoTime();
+        long elapsed;
+        try {
+            while ((elapsed = System.nanoTime() - start) < TimeUnit.SECONDS.toNanos(1)) {
+                int length = transport.receive(datagram, RECEIVE_TIMEOUT_NS);
+                assertTrue(length > 0);
+                receivedFrames += (length - AudioPacket.HEADER_SIZE) / 4;
+            }
+        } finally {
+            stop(capture);
+        }
+        double realTimeFactor = receivedFrames / 192000.0 / (elapsed / 1e9);
+        // захват никогда не ждёт, поэтому лишнее выбрасывается - но доставленного звука больше реального времени
+        assertTrue("real time factor " + realTimeFactor, realTimeFactor > 1);
+    }
+
+    // микрофон, который после нескольких кадров умирает: read сообщает ошибку, звука больше не будет
+    private static class FailingSource implements AudioSource {
+        private final int framesBeforeFailure;
+        private int reads;
+        volatile boolean released;
+
+        FailingSource(int framesBeforeFailure) {
+            this.framesBeforeFailure = framesBeforeFailure;
+        }
+
+        @Override
+        public int getSampleRate() {
+            return 48000;
+        }
+
+        @Override
+        public int getChannelCount() {
+            return 1;
+        }
+
+        @Override
+        public int getEncoding() {
+            return SampleFormat.ENCODING.PCM_16;
+        }
+
+        @Override
+        public int getBytesPerFrame() {
+            return 2;
+        }
+
+        @Override
+        public int getBufferFrames() {
+            return 4800;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public int read(ByteBuffer buffer, int length) throws IOException {
+            if (reads++ >= framesBeforeFailure) {
+                throw new IOException("dead object");
+            }
+            return length;
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+
+    @Test
+    public void failingSource_stopsCaptureAndReportsIt() throws Exception {
+        FailingSource source = new FailingSource(5);
+        final BlockingQueue<IOException> failures = new ArrayBlockingQueue<>(4);
+        CaptureThread capture = new CaptureThread("capture", source, FRAME_DURATION_US, SchedulingPolicy.NONE) {
+            @Override
+            protected void onCaptureFailed(IOException e) {
+                failures.add(e);
+            }
+        };
+        capture.start();
+        // поток не крутится вхолостую, а завершается сам и освобождает источник
+        capture.join(5000);
+        assertFalse(capture.isAlive());
+        assertTrue(source.released);
+        IOException failure = failures.poll();
+        assertNotNull(failure);
+        assertEquals("dead object", failure.getMessage());
+        assertNull(failures.poll());
+    }
+
+    // WAV 16 бит: чанк "fmt ", посторонний чанк нечётной длины и "data"
+    private static File writeWav(File file, int sampleRate, int channels, short[] samples) throws IOException {
+        ByteBuffer wav = ByteBuffer.allocate(44 + 10 + 2 * samples.length).order(ByteOrder.LITTLE_ENDIAN);
+        wav.putInt(0x46464952).putInt(wav.capacity() - 8).putInt(0x45564157);
+        wav.putInt(0x20746D66).putInt(16).putShort((short) 1).putShort((short) channels).putInt(sampleRate)
+                .putInt(sampleRate * channels * 2).putShort((short) (channels * 2)).putShort((short) 16);
+        wav.putInt(0x5453494C).putInt(1).put((byte) 'x').put((byte) 0);
+        wav.putInt(0x61746164).putInt(2 * samples.length);
+        for (short sample : samples) {
+            wav.putShort(sample);
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(wav.array());
+        }
+        return file;
+    }
+
+    @Test
+    public void wavFile_isStreamedToTheEndAndStops() throws Exception {
+        // четверть секунды пилы 48 кГц моно: 25 кадров по 10 мс
+        short[] samples = new short[12000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (i * 7);
+        }
+        WavFileSource source = WavFileSource.open(writeWav(folder.newFile("saw.wav"), 48000, 1, samples),
+                false, true);
+        assertEquals(48000, source.getSampleRate());
+        assertEquals(1, source.getChannelCount());
+        LoopbackTransport transport = new LoopbackTransport(64, AudioPacket.HEADER_SIZE + 960);
+        CaptureThread capture = pipeline(source, transport);
+
+        byte[] datagram = new byte[AudioPacket.HEADER_SIZE + 960];
+        PacketDecoder decoder = new PacketDecoder(48000);
+        AudioPacket packet = new AudioPacket();
+        int received = 0;
+        capture.start();
+        int length;
+        while ((length = transport.receive(datagram, TimeUnit.MILLISECONDS.toNanos(500))) > 0) {
+            assertTrue(decoder.decode(datagram, 0, length, 0, packet));
+            for (int i = 0; i < packet.getPayloadLength() / 2; i++) {
+                assertEquals(samples[received + i], sampleAt(datagram, packet.getPayloadOffset() + 2 * i));
+            }
+            received += packet.getPayloadLength() / 2;
+        }
+        // источник кончился: поток захвата отправил всё и завершился сам
+        capture.join(5000);
+        assertFalse(capture.isAlive());
+        assertEquals(samples.length, received);
+    }
+
+    @Test(expected = IOException.class)
+    public void notAWavFile_isRejected() throws Exception {
+        File file = folder.newFile("noise.wav");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[64]);
+        }
+        WavFileSource.open(file, false, false);
+    }
+}
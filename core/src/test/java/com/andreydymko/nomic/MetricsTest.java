@@ -0,0 +1,191 @@
+package com.andreydymko.nomic;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class MetricsTest {
+
+    private static final int FRAME_BYTES = 480;
+
+    @Test
+    public void values_landInTheirBuckets() {
+        assertEquals(0, Histogram.bucketOf(0));
+        assertEquals(0, Histogram.bucketOf(1_000));
+        assertEquals(1, Histogram.bucketOf(1_001));
+        assertEquals(9, Histogram.bucketOf(1_000_000));
+        assertEquals(Histogram.BOUNDS_NS.length, Histogram.bucketOf(Long.MAX_VALUE));
+
+        Histogram histogram = new Histogram("test_seconds", "test");
+        // 90 значений около 100 мкс и 10 около 10 мс
+        for (int i = 0; i < 90; i++) {
+            histogram.record(90_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(9_000_000);
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(9_000_000, snapshot.getMax());
+        assertEquals((90 * 90_000L + 10 * 9_000_000L) / 100, snapshot.getMean());
+        assertTrue(snapshot.getQuantile(0.5) > 50_000 && snapshot.getQuantile(0.5) <= 100_000);
+        assertTrue(snapshot.getQuantile(0.99) > 5_000_000 && snapshot.getQuantile(0.99) <= 9_000_000);
+    }
+
+    @Test
+    public void concurrentWriters_loseNothing() throws Exception {
+        final Histogram histogram = new Histogram("test_seconds", "test");
+        final MetricsRegistry.Counter counter = new MetricsRegistry().packetsSent;
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            final int seed = t;
+            writers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100_000; i++) {
+                        histogram.record(seed * 1_000_000L + i);
+                        counter.increment();
+                    }
+                }
+            };
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertEquals(400_000, histogram.snapshot().getCount());
+        assertEquals(400_000, counter.get());
+        assertEquals(3_000_000L + 99_999, histogram.snapshot().getMax());
+    }
+
+    // потоки конвейера пишут метрики на каждом кадре - это не должно выделять память
+    @Test
+    public void recording_doesNotAllocate() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocation.isThreadAllocatedMemorySupported() && allocation.isThreadAllocatedMemoryEnabled());
+        MetricsRegistry metrics = new MetricsRegistry();
+        long id = Thread.currentThread().getId();
+        long fewest = Long.MAX_VALUE;
+        for (int round = 0; round < 6; round++) {
+            long before = allocation.getThreadAllocatedBytes(id);
+            for (int i = 0; i < 100_000; i++) {
+                metrics.send.record(i * 37L);
+                metrics.frameAge.record(i * 1000L);
+                metrics.packetsSent.increment();
+                metrics.bytesSent.add(492);
+            }
+            long allocated = allocation.getThreadAllocatedBytes(id) - before;
+            // первые два круга прогревают JIT: на втором ещё бывает переход из OSR-кода
+            if (round > 1) {
+                fewest = Math.min(fewest, allocated);
+            }
+        }
+        // выделение при записи стоило бы сотни килобайт на каждом круге, а разовые выделения
+        // самой JVM в потоке теста (после других тестов бывает около килобайта) - не на всех кругах
+        assertTrue("allocated " + fewest + " bytes", fewest < 1024);
+    }
+
+    @Test
+    public void text_isPrometheusExposition() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.packetsSent.add(5);
+        metrics.send.record(1_500);
+        metrics.send.record(3_000_000);
+        metrics.agcGain.set(-3.5);
+        String text = metrics.toText();
+        assertTrue(text.contains("# TYPE nomic_packets_sent_total counter\nnomic_packets_sent_total 5\n"));
+        assertTrue(text.contains("# TYPE nomic_send_seconds histogram\n"));
+        assertTrue(text.contains("nomic_send_seconds_bucket{le=\"0.000001\"} 0\n"));
+        assertTrue(text.contains("nomic_send_seconds_bucket{le=\"0.000002\"} 1\n"));
+        assertTrue(text.contains("nomic_send_seconds_bucket{le=\"0.002\"} 1\n"));
+        assertTrue(text.contains("nomic_send_seconds_bucket{le=\"0.005\"} 2\n"));
+        assertTrue(text.contains("nomic_send_seconds_bucket{le=\"+Inf\"} 2\n"));
+        assertTrue(text.contains("nomic_send_seconds_sum 0.0030015\n"));
+        assertTrue(text.contains("nomic_send_seconds_count 2\n"));
+        assertTrue(text.contains("# TYPE nomic_agc_gain_db gauge\nnomic_agc_gain_db -3.5\n"));
+        assertTrue(text.contains("nomic_limiter_gain_reduction_db 0\n"));
+        // каждая строка - комментарий или "имя значение"
+        for (String line : text.split("\n")) {
+            assertTrue(line, line.startsWith("# ") || line.matches("nomic_[a-z_]+(\\{le=\"[^\"]+\"\\})? -?[0-9.]+"));
+        }
+    }
+
+    @Test
+    public void captureClock_detectsOverrunsAndDatesFrames() {
+        // 48 кГц, буфер AudioRecord на 40 мс, читаем по 10 мс
+        CaptureClock clock = new CaptureClock(48000, 1920);
+        long now = 5_000_000_000L;
+        long position = 0;
+        for (int i = 0; i < 100; i++) {
+            now += 10_000_000;
+            position += 480;
+            assertEquals(0, clock.onRead(position, now));
+        }
+        // последний прочитанный сэмпл захвачен только что, первый - секунду назад
+        assertEquals(now, clock.timeOf(position));
+        assertEquals(now - 1_000_000_000L, clock.timeOf(0));
+
+        // поток не читал 100 мс: 40 мс пережил буфер, 50 мс звука (2400 кадров) потеряно
+        now += 100_000_000;
+        position += 480;
+        assertEquals(2400, clock.onRead(position, now));
+        for (int i = 0; i < 4; i++) {
+            position += 480;
+            assertEquals(0, clock.onRead(position, now));
+        }
+        for (int i = 0; i < 100; i++) {
+            now += 10_000_000;
+            position += 480;
+            assertEquals(0, clock.onRead(position, now));
+        }
+        assertEquals(1, clock.getOverruns());
+        assertEquals(2400, clock.getLostFrames());
+    }
+
+    @Test
+    public void sendingThread_recordsPacketsAndFrameAge() throws Exception {
+        SubscriberRegistry registry = new SubscriberRegistry();
+        DatagramChannel channel = DatagramChannel.open();
+        SubscriberThread subscriber = new SubscriberThread("listener", new PacketSender(channel, new PcmEncoder(),
+                new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 1, 0, 0), new CodecStatistics(), FRAME_BYTES, 2) {
+            @Override
+            public int send(ByteBuffer frame, int frameBytes) {
+                // отправка занимает 2 мс
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2);
+                while (System.nanoTime() < end) {
+                    Thread.yield();
+                }
+                return frameBytes;
+            }
+        }, FRAME_BYTES, 16);
+        registry.add(subscriber);
+        ByteBuffer frame = ByteBuffer.allocateDirect(FRAME_BYTES);
+        for (int i = 0; i < 10; i++) {
+            // кадр захвачен 20 мс назад
+            registry.publish(frame, FRAME_BYTES, 0, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        MetricsRegistry metrics = registry.getMetrics();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (metrics.send.getCount() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        registry.clear();
+
+        Histogram.Snapshot send = metrics.send.snapshot();
+        Histogram.Snapshot age = metrics.frameAge.snapshot();
+        assertEquals(10, send.getCount());
+        assertTrue(send.getQuantile(0.5) >= TimeUnit.MILLISECONDS.toNanos(2));
+        assertEquals(10, age.getCount());
+        assertTrue(age.getQuantile(0.1) >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(0, metrics.sendErrors.get());
+    }
+}
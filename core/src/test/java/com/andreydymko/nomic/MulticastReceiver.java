@@ -0,0 +1,94 @@
+package com.andreydymko.nomic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketTimeoutException;
+
+// принимающая сторона multicast-потока: подписывается на группу и разбирает пакеты.
+// Нужна только тестам и замерам (jmh берёт классы тестов), поэтому лежит в тестах.
+// Сокет разрешает повторное использование адреса, так что на одном устройстве
+// может быть сколько угодно слушателей
+public class MulticastReceiver {
+
+    private final MulticastSocket socket;
+    private final InetSocketAddress groupAddress;
+    private final NetworkInterface networkInterface;
+    private final PacketDecoder decoder;
+    // восстановление потерянных пакетов по чётности, если поток её содержит
+    private final FecDecoder fecDecoder = new FecDecoder();
+    private final byte[] buffer = new byte[65536];
+    private final byte[] recovered = new byte[65536];
+    private final DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length);
+
+    // networkInterface - через какой интерфейс принимать (null - по выбору системы)
+    public MulticastReceiver(@NotNull InetAddress group, int port, NetworkInterface networkInterface,
+                             int clockRate, int timeoutMs) throws IOException {
+        this.groupAddress = new InetSocketAddress(group, port);
+        this.networkInterface = networkInterface;
+        this.decoder = new PacketDecoder(clockRate);
+        socket = new MulticastSocket(port);
+        try {
+            if (networkInterface != null) {
+                socket.setNetworkInterface(networkInterface);
+            }
+            socket.joinGroup(groupAddress, networkInterface);
+            socket.setSoTimeout(timeoutMs);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    // ждёт следующий пакет потока. Возвращает false, если пакет не пришёл за время ожидания;
+    // повреждённые и повторные пакеты пропускаются, потерянные - восстанавливаются по чётности.
+    // Пакет в out действителен до следующего вызова
+    public boolean receive(@NotNull AudioPacket out) throws IOException {
+        while (true) {
+            int length = fecDecoder.pollRecovered(recovered, 0);
+            if (length > 0) {
+                if (decoder.decode(recovered, 0, length, System.nanoTime(), out)) {
+                    return true;
+                }
+                continue;
+            }
+            try {
+                datagramPacket.setData(buffer, 0, buffer.length);
+                socket.receive(datagramPacket);
+            } catch (SocketTimeoutException e) {
+                return false;
+            }
+            length = datagramPacket.getLength();
+            if (FecDecoder.isParityPacket(buffer, 0, length)) {
+                fecDecoder.onParityPacket(buffer, 0, length);
+                continue;
+            }
+            fecDecoder.onMediaPacket(buffer, 0, length);
+            if (decoder.decode(buffer, 0, length, System.nanoTime(), out)) {
+                return true;
+            }
+        }
+    }
+
+    public PacketDecoder getDecoder() {
+        return decoder;
+    }
+
+    public FecDecoder getFecDecoder() {
+        return fecDecoder;
+    }
+
+    public void close() {
+        try {
+            socket.leaveGroup(groupAddress, networkInterface);
+        } catch (IOException ignored) {
+            // группу покидаем при закрытии сокета в любом случае
+        }
+        socket.close();
+    }
+}
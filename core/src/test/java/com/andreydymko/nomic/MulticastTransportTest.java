@@ -0,0 +1,99 @@
+package com.andreydymko.nomic;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import static org.junit.Assert.*;
+
+public class MulticastTransportTest {
+
+    private static final int FRAME_BYTES = 480;
+
+    private InetAddress group;
+    private int port;
+    private NetworkInterface loopback;
+    private MulticastReceiver first;
+    private MulticastReceiver second;
+    private final SubscriberRegistry registry = new SubscriberRegistry();
+
+    static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @Before
+    public void joinGroup() throws IOException {
+        group = InetAddress.getByName(MulticastTransport.DEFAULT_GROUP);
+        port = freePort();
+        loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        try {
+            first = new MulticastReceiver(group, port, loopback, 48000, 2000);
+            second = new MulticastReceiver(group, port, loopback, 48000, 2000);
+        } catch (IOException e) {
+            // в окружении нет multicast даже на петлевом интерфейсе
+            Assume.assumeNoException(e);
+        }
+    }
+
+    @After
+    public void leaveGroup() {
+        registry.clear();
+        if (first != null) {
+            first.close();
+        }
+        if (second != null) {
+            second.close();
+        }
+    }
+
+    @Test
+    public void oneDatagram_reachesEveryListener() throws Exception {
+        DatagramChannel channel = MulticastTransport.openSender(group, port, MulticastTransport.DEFAULT_TTL, loopback);
+        PacketSender sender = new PacketSender(channel, new PcmEncoder(),
+                new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 77, 0, 0),
+                new CodecStatistics(), FRAME_BYTES, 2);
+        SubscriberThread subscriber = new SubscriberThread(group.getHostAddress(), sender, FRAME_BYTES, 16);
+        registry.add(subscriber);
+
+        ByteBuffer frame = ByteBuffer.allocateDirect(FRAME_BYTES);
+        for (int i = 0; i < 5; i++) {
+            frame.put(0, (byte) i);
+            registry.publish(frame, FRAME_BYTES);
+        }
+
+        AudioPacket packet = new AudioPacket();
+        for (MulticastReceiver receiver : new MulticastReceiver[]{first, second}) {
+            for (int i = 0; i < 5; i++) {
+                assertTrue("packet " + i, receiver.receive(packet));
+                assertEquals(77, packet.getSsrc());
+                assertEquals(i, packet.getSequenceNumber());
+                assertEquals(FRAME_BYTES, packet.getPayloadLength());
+                assertEquals(i, packet.getData()[packet.getPayloadOffset()]);
+            }
+            assertEquals(0, receiver.getDecoder().getLost());
+        }
+        // отправитель сделал одну датаграмму на кадр независимо от числа слушателей.
+        // Датаграмма может дойти раньше, чем поток отправки учтёт её, - дожидаемся его
+        long deadline = System.currentTimeMillis() + 2000;
+        while (subscriber.getSentPackets() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(5, subscriber.getSentPackets());
+    }
+
+    @Test
+    public void handshakeLine_describesGroup() throws IOException {
+        assertEquals("multicast 239.255.42.99 8127 1",
+                MulticastTransport.describe(InetAddress.getByName("239.255.42.99"), 8127, 1));
+    }
+}
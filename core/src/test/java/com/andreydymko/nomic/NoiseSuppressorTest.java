@@ -0,0 +1,150 @@
+package com.andreydymko.nomic;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// подавитель шума (эталонная реализация на Java; нативную проверяет app/src/test/cpp/noiseSuppressorTest.cpp):
+// без ослабления звук только задерживается на окно, белый шум уходит почти до предела,
+// тон над шумом проходит, шум, ставший громче, догоняется, и всё это быстрее реального времени
+public class NoiseSuppressorTest {
+
+    private static final int[] ENCODINGS = {SampleFormat.ENCODING.PCM_16, SampleFormat.ENCODING.PCM_24_PACKED,
+            SampleFormat.ENCODING.PCM_FLOAT};
+
+    // пропускает signal (кадры с чередованием каналов) через suppressor кадрами по frameFrames
+    private static float[] run(NoiseSuppressor suppressor, float[] signal, int frameFrames) {
+        int channels = suppressor.getChannels();
+        int encoding = suppressor.getEncoding();
+        int bytesPerSample = SampleFormat.getBytesPerSample(encoding);
+        ByteBuffer frame = ByteBuffer.allocateDirect(frameFrames * channels * bytesPerSample);
+        float[] out = new float[signal.length];
+        for (int start = 0; start + frameFrames * channels <= signal.length; start += frameFrames * channels) {
+            for (int i = 0; i < frameFrames * channels; i++) {
+                SampleConverter.putSample(frame, i * bytesPerSample, encoding, signal[start + i]);
+            }
+            suppressor.process(frame, frame.capacity());
+            for (int i = 0; i < frameFrames * channels; i++) {
+                out[start + i] = SampleConverter.getSample(frame, i * bytesPerSample, encoding);
+            }
+        }
+        return out;
+    }
+
+    private static float[] noise(int samples, double level, long seed) {
+        Random random = new Random(seed);
+        float[] noise = new float[samples];
+        for (int i = 0; i < samples; i++) {
+            noise[i] = (float) (random.nextGaussian() * level);
+        }
+        return noise;
+    }
+
+    private static double rmsDb(float[] samples, int from, int to) {
+        double energy = 0;
+        for (int i = from; i < to; i++) {
+            energy += samples[i] * samples[i];
+        }
+        return 10 * Math.log10(energy / (to - from));
+    }
+
+    @Test
+    public void fft_matchesDftAndInverts() {
+        int size = 64;
+        Fft fft = new Fft(size);
+        float[] re = noise(size, 1, 1);
+        float[] im = noise(size, 1, 2);
+        float[] inRe = re.clone();
+        float[] inIm = im.clone();
+        fft.forward(re, im);
+        for (int k = 0; k < size; k++) {
+            double sumRe = 0;
+            double sumIm = 0;
+            for (int n = 0; n < size; n++) {
+                double angle = -2 * Math.PI * k * n / size;
+                sumRe += inRe[n] * Math.cos(angle) - inIm[n] * Math.sin(angle);
+                sumIm += inRe[n] * Math.sin(angle) + inIm[n] * Math.cos(angle);
+            }
+            assertEquals(sumRe, re[k], 1e-4);
+            assertEquals(sumIm, im[k], 1e-4);
+        }
+        fft.inverse(re, im);
+        for (int n = 0; n < size; n++) {
+            assertEquals(inRe[n], re[n], 1e-5);
+            assertEquals(inIm[n], im[n], 1e-5);
+        }
+    }
+
+    @Test
+    public void zeroAttenuation_onlyDelaysByOneWindow() {
+        for (int encoding : ENCODINGS) {
+            NoiseSuppressor suppressor = new NoiseSuppressor(48000, 2, encoding, 0);
+            int delay = suppressor.getDelayFrames();
+            assertEquals(512, delay);
+            float[] signal = noise(2 * 24000, 0.1, 3);
+            // кадры по 10 мс - не кратны шагу окна
+            float[] out = run(suppressor, signal, 480);
+            float quantum = encoding == SampleFormat.ENCODING.PCM_16 ? 1.0f / 32768
+                    : encoding == SampleFormat.ENCODING.PCM_24_PACKED ? 1.0f / 8388608 : 0;
+            for (int i = 0; i < out.length; i++) {
+                float expected = i < 2 * delay ? 0 : signal[i - 2 * delay];
+                if (encoding != SampleFormat.ENCODING.PCM_FLOAT) {
+                    expected = Math.round(expected / quantum) * quantum;
+                }
+                assertEquals("encoding " + encoding + ", sample " + i, expected, out[i], quantum + 1e-5f);
+            }
+        }
+    }
+
+    @Test
+    public void whiteNoise_isSuppressedAndToneKept() {
+        int sampleRate = 16000;
+        NoiseSuppressor suppressor = new NoiseSuppressor(sampleRate, 1, SampleFormat.ENCODING.PCM_FLOAT, 20, false);
+        assertFalse(suppressor.isNative());
+        float[] noisy = noise(4 * sampleRate, 0.01, 4);
+        // последняя секунда - тон 500 Гц на 26 дБ громче шума
+        for (int n = 3 * sampleRate; n < noisy.length; n++) {
+            noisy[n] += (float) (0.2 * Math.sin(2 * Math.PI * 500 * n / sampleRate));
+        }
+        float[] out = run(suppressor, noisy, 160);
+        double reduction = rmsDb(noisy, sampleRate, 2 * sampleRate) - rmsDb(out, sampleRate, 2 * sampleRate);
+        assertTrue("reduction " + reduction, reduction > 15);
+        assertTrue("reduction " + reduction, reduction <= 20.5);
+        int from = 3 * sampleRate + sampleRate / 2;
+        assertEquals(0, rmsDb(out, from, out.length) - rmsDb(noisy, from, noisy.length), 1);
+    }
+
+    @Test
+    public void louderNoise_isLearnedWithinSeconds() {
+        int sampleRate = 16000;
+        NoiseSuppressor suppressor = new NoiseSuppressor(sampleRate, 1, SampleFormat.ENCODING.PCM_16, 20, false);
+        // через 2 с шум становится на 10 дБ громче
+        float[] noisy = noise(8 * sampleRate, 0.003, 5);
+        for (int n = 2 * sampleRate; n < noisy.length; n++) {
+            noisy[n] *= (float) Math.sqrt(10);
+        }
+        float[] out = run(suppressor, noisy, 320);
+        double before = rmsDb(noisy, sampleRate, 2 * sampleRate) - rmsDb(out, sampleRate, 2 * sampleRate);
+        double after = rmsDb(noisy, 7 * sampleRate, 8 * sampleRate) - rmsDb(out, 7 * sampleRate, 8 * sampleRate);
+        assertTrue("before " + before, before > 15);
+        assertTrue("after " + after, after > 15);
+    }
+
+    // эталон на Java на 48 кГц стерео должен успевать с большим запасом - нативная версия быстрее
+    @Test
+    public void javaReference_runsFasterThanRealTime() {
+        int sampleRate = 48000;
+        NoiseSuppressor suppressor = new NoiseSuppressor(sampleRate, 2, SampleFormat.ENCODING.PCM_16, 20, false);
+        float[] signal = noise(2 * 5 * sampleRate, 0.05, 6);
+        // прогрев JIT
+        run(suppressor, signal, 480);
+        long start = System.nanoTime();
+        run(suppressor, signal, 480);
+        long elapsed = System.nanoTime() - start;
+        // в run ещё и перевод форматов - это тоже честная часть работы; время на кадр - в NoiseSuppressorBenchmark
+        assertTrue(elapsed / 500 / 1000 + " us per 10 ms frame", elapsed < 5_000_000_000L / 2);
+    }
+}
@@ -0,0 +1,256 @@
+package com.andreydymko.nomic;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+// шифрование потока: ChaCha20-Poly1305 совпадает с RFC 8439 и с шифром JDK, датаграмма проходит
+// через EncryptedTransport и расшифровывается как была, подделки и повторы отвергаются,
+// обе стороны рукопожатия получают один ключ, а шифрование пакета не выделяет память
+public class PacketCipherTest {
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static byte[] key(int seed) {
+        byte[] key = new byte[ChaCha20Poly1305.KEY_SIZE];
+        new Random(seed).nextBytes(key);
+        return key;
+    }
+
+    private static byte[] read(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return bytes;
+    }
+
+    // датаграмма с length байтами случайных данных после номера и местом под метку
+    private static ByteBuffer datagram(byte[] plain) {
+        ByteBuffer datagram = ByteBuffer.allocate(plain.length + PacketCipher.OVERHEAD);
+        datagram.position(PacketCipher.PREFIX_SIZE);
+        datagram.put(plain);
+        datagram.clear();
+        return datagram;
+    }
+
+    @Test
+    public void aead_matchesRfc8439Vector() {
+        byte[] key = hex("808182838485868788898a8b8c8d8e8f909192939495969798999a9b9c9d9e9f");
+        byte[] aad = hex("50515253c0c1c2c3c4c5c6c7");
+        byte[] plain = ("Ladies and Gentlemen of the class of '99: If I could offer you only one tip for the future,"
+                + " sunscreen would be it.").getBytes();
+        byte[] expected = hex("d31a8d34648e60db7b86afbc53ef7ec2a4aded51296e08fea9e2b5a736ee62d6"
+                + "3dbea45e8ca9671282fafb69da92728b1a71de0a9e060b2905d6a5b67ecd3b36"
+                + "92ddbd7f2d778b8c9803aee328091b58fab324e4fad675945585808b4831d7bc"
+                + "3ff4def08e4b7a9de576d26586cec64b6116"
+                + "1ae10b594f09e26a7e902ecbd0600691");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(aad.length + plain.length + ChaCha20Poly1305.TAG_SIZE);
+        for (int i = 0; i < aad.length; i++) {
+            buffer.put(i, aad[i]);
+        }
+        for (int i = 0; i < plain.length; i++) {
+            buffer.put(aad.length + i, plain[i]);
+        }
+        // nonce 07 00 00 00 | 40 41 42 43 44 45 46 47
+        ChaCha20Poly1305 aead = new ChaCha20Poly1305(key);
+        aead.seal(7, 0x4746454443424140L, buffer, 0, aad.length, aad.length, plain.length);
+        assertArrayEquals(expected, read(buffer, aad.length, expected.length));
+        assertTrue(aead.open(7, 0x4746454443424140L, buffer, 0, aad.length, aad.length, plain.length));
+        assertArrayEquals(plain, read(buffer, aad.length, plain.length));
+    }
+
+    // все длины до нескольких блоков, в том числе пустые данные и некратные 16 и 64 байтам
+    @Test
+    public void aead_matchesJdkCipher() throws Exception {
+        Cipher jdk;
+        try {
+            jdk = Cipher.getInstance("ChaCha20-Poly1305");
+        } catch (GeneralSecurityException e) {
+            // шифр появился в Java 11
+            assumeTrue(false);
+            return;
+        }
+        Random random = new Random(2);
+        for (int length = 0; length <= 300; length++) {
+            byte[] key = key(length);
+            byte[] aad = new byte[length % 20];
+            byte[] plain = new byte[length];
+            random.nextBytes(aad);
+            random.nextBytes(plain);
+            int constant = random.nextInt();
+            long counter = random.nextLong();
+            byte[] nonce = new byte[12];
+            for (int i = 0; i < 4; i++) {
+                nonce[i] = (byte) (constant >>> (8 * i));
+            }
+            for (int i = 0; i < 8; i++) {
+                nonce[4 + i] = (byte) (counter >>> (8 * i));
+            }
+            jdk.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "ChaCha20"), new IvParameterSpec(nonce));
+            jdk.updateAAD(aad);
+            byte[] expected = jdk.doFinal(plain);
+
+            ByteBuffer buffer = ByteBuffer.allocate(aad.length + length + ChaCha20Poly1305.TAG_SIZE);
+            buffer.put(aad).put(plain);
+            new ChaCha20Poly1305(key).seal(constant, counter, buffer, 0, aad.length, aad.length, length);
+            assertArrayEquals("length " + length, expected, read(buffer, aad.length, expected.length));
+        }
+    }
+
+    @Test
+    public void open_rejectsForgedAndReplayedDatagrams() {
+        byte[] key = key(3);
+        PacketCipher sender = new PacketCipher(key);
+        PacketCipher receiver = new PacketCipher(key);
+        byte[] plain = new byte[172];
+        new Random(3).nextBytes(plain);
+
+        // любой изменённый бит - в номере, данных или метке - отвергается
+        for (int bit = 0; bit < 8 * (plain.length + PacketCipher.OVERHEAD); bit += 7) {
+            ByteBuffer datagram = datagram(plain);
+            int length = sender.seal(datagram, plain.length);
+            datagram.put(bit / 8, (byte) (datagram.get(bit / 8) ^ (1 << (bit % 8))));
+            assertEquals("bit " + bit, -1, receiver.open(datagram, length));
+        }
+        // чужой ключ и обрезанная датаграмма
+        ByteBuffer datagram = datagram(plain);
+        int length = sender.seal(datagram, plain.length);
+        assertEquals(-1, new PacketCipher(key(4)).open(datagram, length));
+        assertEquals(-1, receiver.open(datagram, PacketCipher.OVERHEAD - 1));
+        assertEquals(-1, receiver.open(datagram, length - 1));
+
+        // подлинная проходит один раз, её копия - нет
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++) {
+            copy.put(i, datagram.get(i));
+        }
+        assertEquals(plain.length, receiver.open(datagram, length));
+        assertArrayEquals(plain, read(datagram, PacketCipher.PREFIX_SIZE, plain.length));
+        assertEquals(-1, receiver.open(copy, length));
+    }
+
+    @Test
+    public void open_acceptsReorderingWithinWindow() {
+        byte[] key = key(5);
+        PacketCipher sender = new PacketCipher(key);
+        PacketCipher receiver = new PacketCipher(key);
+        int count = 3 * PacketCipher.REPLAY_WINDOW;
+        ByteBuffer[] datagrams = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            datagrams[i] = datagram(new byte[]{(byte) i, 1, 2, 3});
+            sender.seal(datagrams[i], 4);
+        }
+        int length = 4 + PacketCipher.OVERHEAD;
+        // сначала чётные, потом нечётные, отстающие меньше чем на окно
+        for (int i = 0; i < count; i += 2) {
+            assertEquals(4, receiver.open(datagrams[i], length));
+        }
+        for (int i = count - 1; i >= count - PacketCipher.REPLAY_WINDOW; i -= 2) {
+            assertEquals("datagram " + i, 4, receiver.open(datagrams[i], length));
+            assertEquals((byte) i, datagrams[i].get(PacketCipher.PREFIX_SIZE));
+        }
+        // отставшие больше чем на окно уже не отличить от повтора
+        assertEquals(-1, receiver.open(datagrams[1], length));
+        assertEquals(1, receiver.getRejected());
+    }
+
+    @Test
+    public void encryptedTransport_deliversOriginalDatagram() throws Exception {
+        byte[] key = key(6);
+        LoopbackTransport loopback = new LoopbackTransport(4, EncryptedTransport.MAX_DATAGRAM_BYTES);
+        EncryptedTransport transport = new EncryptedTransport(loopback, new PacketCipher(key));
+        PacketCipher receiver = new PacketCipher(key);
+        Random random = new Random(6);
+        byte[] headerBytes = new byte[AudioPacket.HEADER_SIZE];
+        byte[] bodyBytes = new byte[960];
+        byte[] received = new byte[EncryptedTransport.MAX_DATAGRAM_BYTES];
+        for (int packet = 0; packet < 10; packet++) {
+            random.nextBytes(headerBytes);
+            random.nextBytes(bodyBytes);
+            ByteBuffer header = ByteBuffer.allocateDirect(headerBytes.length);
+            header.put(headerBytes).clear();
+            ByteBuffer body = ByteBuffer.allocateDirect(bodyBytes.length);
+            body.put(bodyBytes).clear();
+            long sent = transport.write(new ByteBuffer[]{header, body});
+            assertEquals(headerBytes.length + bodyBytes.length + PacketCipher.OVERHEAD, sent);
+            // буферы отправителя не зашифрованы на месте
+            assertArrayEquals(bodyBytes, read(body, 0, bodyBytes.length));
+
+            int length = loopback.receive(received, 1_000_000_000L);
+            assertEquals(sent, length);
+            // на проводе нет открытого звука
+            assertFalse(Arrays.equals(bodyBytes, Arrays.copyOfRange(received,
+                    PacketCipher.PREFIX_SIZE + headerBytes.length, PacketCipher.PREFIX_SIZE + headerBytes.length + bodyBytes.length)));
+            ByteBuffer datagram = ByteBuffer.wrap(received);
+            assertEquals(headerBytes.length + bodyBytes.length, receiver.open(datagram, length));
+            assertArrayEquals(headerBytes, read(datagram, PacketCipher.PREFIX_SIZE, headerBytes.length));
+            assertArrayEquals(bodyBytes, read(datagram, PacketCipher.PREFIX_SIZE + headerBytes.length, bodyBytes.length));
+        }
+    }
+
+    @Test
+    public void keyAgreement_givesBothSidesTheSameKey() throws Exception {
+        SessionKeyAgreement server = new SessionKeyAgreement();
+        SessionKeyAgreement client = new SessionKeyAgreement();
+        byte[] serverKey = server.deriveKey(client.getPublicKey(), true);
+        byte[] clientKey = client.deriveKey(server.getPublicKey(), false);
+        assertEquals(ChaCha20Poly1305.KEY_SIZE, serverKey.length);
+        assertArrayEquals(serverKey, clientKey);
+        // стороны перепутаны - соль другая, ключ тоже
+        assertFalse(Arrays.equals(serverKey, client.deriveKey(server.getPublicKey(), true)));
+        // новое рукопожатие - новый ключ
+        assertFalse(Arrays.equals(serverKey, new SessionKeyAgreement().deriveKey(client.getPublicKey(), true)));
+        for (String bad : new String[]{"", "abc", "zz", client.getPublicKey().substring(0, 40)}) {
+            try {
+                server.deriveKey(bad, true);
+                fail(bad);
+            } catch (GeneralSecurityException e) {
+                // ожидаемо
+            }
+        }
+    }
+
+    @Test
+    public void sealAndOpen_doNotAllocate() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocation.isThreadAllocatedMemorySupported() && allocation.isThreadAllocatedMemoryEnabled());
+        byte[] key = key(7);
+        PacketCipher sender = new PacketCipher(key);
+        PacketCipher receiver = new PacketCipher(key);
+        ByteBuffer datagram = ByteBuffer.allocateDirect(1920 + AudioPacket.HEADER_SIZE + PacketCipher.OVERHEAD);
+        long id = Thread.currentThread().getId();
+        // первые два круга прогревают JIT
+        for (int round = 0; round < 4; round++) {
+            long before = allocation.getThreadAllocatedBytes(id);
+            for (int i = 0; i < 20000; i++) {
+                int length = sender.seal(datagram, 1920 + AudioPacket.HEADER_SIZE);
+                assertTrue(receiver.open(datagram, length) > 0);
+            }
+            long allocated = allocation.getThreadAllocatedBytes(id) - before;
+            if (round > 1) {
+                assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+            }
+        }
+    }
+}
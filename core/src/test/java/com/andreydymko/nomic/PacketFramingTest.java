@@ -0,0 +1,92 @@
+package com.andreydymko.nomic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PacketFramingTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final int FRAMES = 480;
+
+    private byte[] encode(PacketEncoder encoder) {
+        byte[] packet = new byte[AudioPacket.HEADER_SIZE + FRAMES * 2];
+        encoder.writeHeader(packet, 0, FRAMES);
+        return packet;
+    }
+
+    @Test
+    public void header_roundTrip() {
+        PacketEncoder encoder = new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 0xCAFEBABE, 10, -5);
+        PacketDecoder decoder = new PacketDecoder(SAMPLE_RATE);
+        AudioPacket packet = new AudioPacket();
+
+        byte[] first = encode(encoder);
+        byte[] second = encode(encoder);
+
+        assertTrue(decoder.decode(first, 0, first.length, 0, packet));
+        assertEquals(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, packet.getPayloadType());
+        assertTrue(packet.isMarker());
+        assertEquals(10, packet.getSequenceNumber());
+        assertEquals(0xFFFFFFFBL, packet.getTimestamp());
+        assertEquals(0xCAFEBABEL, packet.getSsrc());
+        assertEquals(AudioPacket.HEADER_SIZE, packet.getPayloadOffset());
+        assertEquals(FRAMES * 2, packet.getPayloadLength());
+
+        assertTrue(decoder.decode(second, 0, second.length, 10_000_000L, packet));
+        assertFalse(packet.isMarker());
+        assertEquals(11, packet.getSequenceNumber());
+        // часы переполнились и продолжили счёт с нуля
+        assertEquals(FRAMES - 5, packet.getTimestamp());
+    }
+
+    @Test
+    public void decode_rejectsForeignDatagrams() {
+        PacketDecoder decoder = new PacketDecoder(SAMPLE_RATE);
+        AudioPacket packet = new AudioPacket();
+        assertFalse(decoder.decode(new byte[4], 0, 4, 0, packet));
+        assertFalse(decoder.decode(new byte[AudioPacket.HEADER_SIZE], 0, AudioPacket.HEADER_SIZE, 0, packet));
+    }
+
+    @Test
+    public void decode_countsLossReorderAndDuplicates() {
+        PacketEncoder encoder = new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 1, 0xFFFD, 0);
+        byte[][] packets = new byte[6][];
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = encode(encoder);
+        }
+        PacketDecoder decoder = new PacketDecoder(SAMPLE_RATE);
+        AudioPacket packet = new AudioPacket();
+
+        // порядок прихода: 0, 2, 1, 1 (дубликат), 5; пакеты 3 и 4 потеряны
+        assertTrue(decoder.decode(packets[0], 0, packets[0].length, 0, packet));
+        assertTrue(decoder.decode(packets[2], 0, packets[2].length, 0, packet));
+        assertTrue(decoder.decode(packets[1], 0, packets[1].length, 0, packet));
+        assertFalse(decoder.decode(packets[1], 0, packets[1].length, 0, packet));
+        assertTrue(decoder.decode(packets[5], 0, packets[5].length, 0, packet));
+
+        assertEquals(4, decoder.getReceived());
+        assertEquals(2, decoder.getLost());
+        assertEquals(1, decoder.getReordered());
+        assertEquals(1, decoder.getDuplicates());
+        // номер пакета перешёл через 0xFFFF, но расширенный номер продолжает расти
+        assertEquals(0xFFFD + 5, decoder.getMaxExtendedSequence());
+    }
+
+    @Test
+    public void decode_measuresJitter() {
+        PacketEncoder encoder = new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 1, 0, 0);
+        PacketDecoder steady = new PacketDecoder(SAMPLE_RATE);
+        PacketDecoder jittery = new PacketDecoder(SAMPLE_RATE);
+        AudioPacket packet = new AudioPacket();
+        long periodNanos = 10_000_000L;
+        for (int i = 0; i < 200; i++) {
+            byte[] data = encode(encoder);
+            steady.decode(data, 0, data.length, i * periodNanos, packet);
+            // каждый второй пакет опаздывает на 4 мс
+            jittery.decode(data, 0, data.length, i * periodNanos + (i % 2) * 4_000_000L, packet);
+        }
+        assertEquals(0.0, steady.getJitterMillis(), 1e-9);
+        assertEquals(4.0, jittery.getJitterMillis(), 0.1);
+    }
+}
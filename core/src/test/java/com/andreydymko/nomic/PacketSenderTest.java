@@ -0,0 +1,148 @@
+package com.andreydymko.nomic;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import static org.junit.Assert.*;
+
+public class PacketSenderTest {
+
+    private static final int FRAME_BYTES = 960;
+
+    private DatagramChannel receiver;
+    private DatagramChannel sendChannel;
+
+    @Before
+    public void openLoopback() throws IOException {
+        receiver = DatagramChannel.open();
+        receiver.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        sendChannel = DatagramChannel.open();
+        sendChannel.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.socket().getLocalPort()));
+    }
+
+    @After
+    public void close() throws IOException {
+        sendChannel.close();
+        receiver.close();
+    }
+
+    // имитирует AudioRecord.read(ByteBuffer, int): пишет с начала участка, не трогая position
+    private static int capture(ByteBuffer region, int length, int firstSample) {
+        int bytes = Math.min(length, region.capacity()) & ~1;
+        for (int i = 0; i < bytes; i += 2) {
+            short sample = (short) (firstSample + i / 2);
+            region.put(i, (byte) sample);
+            region.put(i + 1, (byte) (sample >> 8));
+        }
+        return bytes;
+    }
+
+    private static PacketSender pcmSender(DatagramChannel channel) {
+        return new PacketSender(channel, new PcmEncoder(),
+                new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 1, 0, 0),
+                new CodecStatistics(), FRAME_BYTES, 2);
+    }
+
+    @Test
+    public void pcmFrame_isSentFromCaptureSlotAfterGain() throws IOException {
+        FramePacketizer packetizer = new FramePacketizer(FRAME_BYTES, 4 * FRAME_BYTES);
+        PacketSender sender = pcmSender(sendChannel);
+
+        ByteBuffer region = packetizer.captureRegion();
+        assertTrue(region.isDirect());
+        packetizer.commitCapture(capture(region, region.capacity(), 100));
+        ByteBuffer frame = packetizer.peekFrame();
+        assertTrue(frame.isDirect());
+        GainProcessor.apply(frame, 0, FRAME_BYTES, 2.0f);
+        assertEquals(AudioPacket.HEADER_SIZE + FRAME_BYTES, sender.send(frame, FRAME_BYTES));
+        packetizer.releaseFrame();
+
+        byte[] received = new byte[2048];
+        receiver.receive(ByteBuffer.wrap(received));
+        AudioPacket packet = new AudioPacket();
+        assertTrue(new PacketDecoder(48000).decode(received, 0, AudioPacket.HEADER_SIZE + FRAME_BYTES, 0, packet));
+        assertEquals(FRAME_BYTES, packet.getPayloadLength());
+        for (int i = 0; i < FRAME_BYTES / 2; i++) {
+            int at = packet.getPayloadOffset() + 2 * i;
+            assertEquals(2 * (100 + i), (short) ((received[at] & 0xFF) | (received[at + 1] << 8)));
+        }
+        assertEquals(0, packetizer.getCopiedBytes());
+    }
+
+    @Test
+    public void ulawFrame_isEncodedFromCaptureSlot() throws IOException {
+        FramePacketizer packetizer = new FramePacketizer(FRAME_BYTES, 2 * FRAME_BYTES);
+        PacketSender sender = new PacketSender(sendChannel, new G711Encoder(),
+                new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCMU, 1, 0, 0),
+                new CodecStatistics(), FRAME_BYTES, 2);
+
+        ByteBuffer region = packetizer.captureRegion();
+        packetizer.commitCapture(capture(region, region.capacity(), -3000));
+        assertEquals(AudioPacket.HEADER_SIZE + FRAME_BYTES / 2, sender.send(packetizer.peekFrame(), FRAME_BYTES));
+        packetizer.releaseFrame();
+
+        ByteBuffer received = ByteBuffer.allocate(2048);
+        receiver.receive(received);
+        assertEquals(AudioPacket.HEADER_SIZE + FRAME_BYTES / 2, received.position());
+        assertEquals(G711Encoder.linearToUlaw((short) -3000), received.get(AudioPacket.HEADER_SIZE));
+    }
+
+    @Test
+    public void steadyState_copiesAndAllocatesNothingPerPacket() throws IOException {
+        FramePacketizer packetizer = new FramePacketizer(FRAME_BYTES, 4 * FRAME_BYTES);
+        PacketSender sender = pcmSender(sendChannel);
+        ByteBuffer sink = ByteBuffer.allocateDirect(2048);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        // прогрев: JIT, буферы NIO потока и т.п.
+        int packets = 20_000;
+        long allocatedBefore = 0;
+        for (int i = 0; i < 2 * packets; i++) {
+            if (i == packets) {
+                allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            }
+            ByteBuffer region = packetizer.captureRegion();
+            packetizer.commitCapture(capture(region, region.capacity(), i));
+            ByteBuffer frame;
+            while ((frame = packetizer.peekFrame()) != null) {
+                GainProcessor.apply(frame, 0, FRAME_BYTES, 1.5f);
+                sender.send(frame, FRAME_BYTES);
+                packetizer.releaseFrame();
+            }
+            sink.clear();
+            receiver.receive(sink);
+        }
+        long allocatedPerPacket = (threads.getThreadAllocatedBytes(threadId) - allocatedBefore) / packets;
+
+        assertEquals(0, packetizer.getCopiedBytes());
+        assertEquals(0, packetizer.getSliceAllocations());
+        assertEquals(2L * packets, sender.getSentPackets());
+        // допускаем только случайные выделения внутри JVM, но не по буферу на пакет
+        assertTrue("allocated " + allocatedPerPacket + " bytes per packet", allocatedPerPacket < 16);
+    }
+
+    @Test
+    public void partialCapture_fillsRestOfSlot() {
+        FramePacketizer packetizer = new FramePacketizer(8, 16);
+        ByteBuffer region = packetizer.captureRegion();
+        packetizer.commitCapture(capture(region, 6, 0));
+        assertNull(packetizer.peekFrame());
+
+        ByteBuffer rest = packetizer.captureRegion();
+        assertEquals(2, rest.capacity());
+        packetizer.commitCapture(capture(rest, 2, 3));
+        ByteBuffer frame = packetizer.peekFrame();
+        assertEquals(3, frame.get(6));
+        assertEquals(1, packetizer.getSliceAllocations());
+    }
+}
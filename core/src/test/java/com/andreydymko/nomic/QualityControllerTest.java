@@ -0,0 +1,179 @@
+package com.andreydymko.nomic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class QualityControllerTest {
+
+    private static final int FRAME_DURATION_US = 20000;
+    // заголовок пакета + UDP + IPv4
+    private static final int OVERHEAD_BYTES = AudioPacket.HEADER_SIZE + 8 + 20;
+
+    // канал с ограниченной пропускной способностью: всё, что сверх неё, теряется,
+    // а RTT растёт из-за очереди. Отчёты получателя приходят раз в секунду
+    private static class LossyLink {
+        private final Random random = new Random(1);
+        private final QualityController controller;
+        int capacityBps;
+        double randomLoss;
+        long nowMillis;
+        long sequence = 1000;
+        long received;
+        long lost;
+        int changes;
+
+        LossyLink(QualityController controller, int capacityBps) {
+            this.controller = controller;
+            this.capacityBps = capacityBps;
+        }
+
+        // прогоняет seconds секунд и возвращает, сколько из них поток не помещался в канал
+        int run(int seconds) {
+            int overloaded = 0;
+            for (int i = 0; i < seconds; i++) {
+                QualityController.Level level = controller.getLevel();
+                int packets = 1_000_000 / (FRAME_DURATION_US * level.getPacketFrames());
+                double load = load(level);
+                double loss = randomLoss;
+                int roundTrip = 20;
+                if (load > capacityBps) {
+                    overloaded++;
+                    loss += 1 - capacityBps / load;
+                    roundTrip += 250;
+                }
+                for (int p = 0; p < packets; p++) {
+                    sequence++;
+                    if (random.nextDouble() < loss) {
+                        lost++;
+                    } else {
+                        received++;
+                    }
+                }
+                nowMillis += 1000;
+                ReceiverReport report = new ReceiverReport(sequence, received, lost, 1000, 40, 40, 0, 0);
+                if (controller.onReport(report, roundTrip + random.nextInt(10), nowMillis) != null) {
+                    changes++;
+                }
+            }
+            return overloaded;
+        }
+    }
+
+    private static double load(QualityController.Level level) {
+        double packetSeconds = FRAME_DURATION_US * level.getPacketFrames() / 1e6;
+        return level.getBitrate() + OVERHEAD_BYTES * 8 / packetSeconds;
+    }
+
+    // лучший уровень, который помещается в канал
+    private static int expectedLevel(List<QualityController.Level> ladder, int capacityBps) {
+        for (int i = 0; i < ladder.size(); i++) {
+            if (load(ladder.get(i)) <= capacityBps) {
+                return i;
+            }
+        }
+        return ladder.size() - 1;
+    }
+
+    private static List<Integer> sampleRates(List<QualityController.Level> ladder) {
+        List<Integer> rates = new ArrayList<>();
+        for (QualityController.Level level : ladder) {
+            rates.add(level.getSampleRate());
+        }
+        return rates;
+    }
+
+    private static QualityController opusController() {
+        return new QualityController(QualityController.buildLadder(AudioPacket.PAYLOAD_TYPE.OPUS,
+                48000, 48000, 1, 64000, FRAME_DURATION_US, 960));
+    }
+
+    @Test
+    public void ladder_goesFromConfiguredToCheapest() {
+        List<QualityController.Level> opus = opusController().getLadder();
+        assertEquals(64000, opus.get(0).getBitrate());
+        for (int i = 1; i < opus.size(); i++) {
+            assertTrue(load(opus.get(i)) < load(opus.get(i - 1)));
+        }
+        assertEquals(2, opus.get(opus.size() - 1).getPacketFrames());
+
+        List<QualityController.Level> pcm = QualityController.buildLadder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE,
+                48000, 48000, 1, 0, 10000, 480);
+        assertEquals(768000, pcm.get(0).getBitrate());
+        // 22050 и 11025 из кадра 48 кГц в 10 мс целым числом сэмплов не получить
+        assertEquals(Arrays.asList(48000, 44100, 32000, 24000, 16000, 12000, 8000, 8000), sampleRates(pcm));
+        assertEquals(8000, pcm.get(pcm.size() - 1).getSampleRate());
+
+        // из 44,1 кГц - и частоты, которые понижением в целое число раз не получить
+        List<QualityController.Level> cd = QualityController.buildLadder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE,
+                44100, 44100, 1, 0, 10000, 441);
+        assertEquals(Arrays.asList(44100, 32000, 24000, 16000, 12000, 8000, 8000), sampleRates(cd));
+    }
+
+    @Test
+    public void lossyLink_convergesToBestLevelThatFits() {
+        QualityController controller = opusController();
+        int capacity = 40000;
+        LossyLink link = new LossyLink(controller, capacity);
+        link.run(30);
+        int expected = expectedLevel(controller.getLadder(), capacity);
+        assertTrue(expected > 0);
+        assertEquals(expected, controller.getLevelIndex());
+
+        // дальше канал лишь изредка пробуют на повышение, и всё реже
+        int changesBefore = link.changes;
+        int overloaded = link.run(300);
+        assertEquals(expected, controller.getLevelIndex());
+        assertTrue("changes " + (link.changes - changesBefore), link.changes - changesBefore <= 12);
+        assertTrue("overloaded " + overloaded + " s", overloaded <= 15);
+        assertEquals(QualityController.MAX_UPGRADE_HOLD_MS, controller.getUpgradeHoldMillis());
+    }
+
+    @Test
+    public void moderateRandomLoss_doesNotChangeLevel() {
+        QualityController controller = opusController();
+        LossyLink link = new LossyLink(controller, 10_000_000);
+        link.randomLoss = 0.02;
+        link.run(300);
+        assertEquals(0, link.changes);
+        assertEquals(0, controller.getLevelIndex());
+    }
+
+    @Test
+    public void capacityDropAndRecovery_followsTheLink() {
+        QualityController controller = opusController();
+        LossyLink link = new LossyLink(controller, 10_000_000);
+        link.run(20);
+        assertEquals(0, controller.getLevelIndex());
+
+        // канал резко сужается: сильные потери понижают качество за несколько секунд
+        link.capacityBps = 25000;
+        int expected = expectedLevel(controller.getLadder(), link.capacityBps);
+        link.run(8);
+        assertEquals(expected, controller.getLevelIndex());
+        link.run(120);
+
+        // канал восстановился: качество возвращается к настроенному
+        link.capacityBps = 10_000_000;
+        link.run(180);
+        assertEquals(0, controller.getLevelIndex());
+        assertEquals(QualityController.UPGRADE_HOLD_MS, controller.getUpgradeHoldMillis());
+    }
+
+    @Test
+    public void restartedStream_isNotCountedAsLoss() {
+        QualityController controller = opusController();
+        long now = 0;
+        assertNull(controller.onReport(new ReceiverReport(70000, 5000, 0, 0, 0, 0, 0, 0), 20, now += 1000));
+        // получатель увидел новый источник и начал считать заново
+        assertNull(controller.onReport(new ReceiverReport(300, 50, 0, 0, 0, 0, 0, 0), 20, now += 1000));
+        assertNull(controller.onReport(new ReceiverReport(400, 150, 0, 0, 0, 0, 0, 0), 20, now + 1000));
+        assertEquals(0, controller.getLevelIndex());
+        assertEquals(0, controller.getLastLoss(), 0);
+    }
+}
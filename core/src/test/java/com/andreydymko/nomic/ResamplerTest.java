@@ -0,0 +1,142 @@
+package com.andreydymko.nomic;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// полифазный передискретизатор: длина блоков, качество в полосе пропускания,
+// подавление наложения и работа в конвейере слушателя
+public class ResamplerTest {
+
+    // float-тон частоты frequency для частоты rate, кадры [from, from + frames)
+    private static ByteBuffer tone(int rate, double frequency, long from, int frames) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4 * frames);
+        for (int i = 0; i < frames; i++) {
+            SampleConverter.putFloat(buffer, 4 * i, (float) (0.5 * Math.sin(2 * Math.PI * frequency * (from + i) / rate)));
+        }
+        return buffer;
+    }
+
+    // пропускает секунду тона через resampler блоками по 10 мс и возвращает выход
+    private static float[] resampleTone(Resampler resampler, double frequency) {
+        int inRate = resampler.getInputRate();
+        int outRate = resampler.getOutputRate();
+        int block = inRate / 100;
+        float[] result = new float[outRate];
+        ByteBuffer out = ByteBuffer.allocateDirect(4 * (outRate / 100));
+        int written = 0;
+        for (int b = 0; b < 100; b++) {
+            int bytes = resampler.process(tone(inRate, frequency, (long) b * block, block), 4 * block, out);
+            assertEquals(4 * (outRate / 100), bytes);
+            for (int i = 0; i < bytes / 4; i++) {
+                result[written++] = SampleConverter.getFloat(out, 4 * i);
+            }
+        }
+        return result;
+    }
+
+    private static double decibels(double ratio) {
+        return 20 * Math.log10(ratio);
+    }
+
+    @Test
+    public void captureFrames_giveFixedSizeBlocksFromTheFirstOne() {
+        int[][] rates = {{48000, 16000}, {44100, 48000}, {48000, 44100}, {44100, 16000}, {16000, 48000}};
+        for (int[] pair : rates) {
+            Resampler resampler = new Resampler(pair[0], pair[1], 2, SampleFormat.ENCODING.PCM_16);
+            int inFrames = pair[0] / 100;
+            int outFrames = pair[1] / 100;
+            assertTrue(Resampler.canResample(pair[0], pair[1], inFrames));
+            ByteBuffer in = ByteBuffer.allocateDirect(4 * inFrames);
+            ByteBuffer out = ByteBuffer.allocateDirect(4 * outFrames);
+            assertEquals(4 * outFrames, resampler.getOutputBytes(4 * inFrames));
+            for (int i = 0; i < 20; i++) {
+                assertEquals(pair[0] + " -> " + pair[1], 4 * outFrames, resampler.process(in, 4 * inFrames, out));
+            }
+        }
+        assertFalse(Resampler.canResample(44100, 16000, 147));
+    }
+
+    @Test
+    public void passbandTone_isReproducedCleanly() {
+        Resampler resampler = new Resampler(48000, 16000, 1, SampleFormat.ENCODING.PCM_FLOAT, Resampler.QUALITY.HIGH);
+        float[] out = resampleTone(resampler, 1000);
+        // выход n соответствует входу n * 3 - задержка
+        double signal = 0;
+        double noise = 0;
+        for (int n = 1000; n < out.length; n++) {
+            double expected = 0.5 * Math.sin(2 * Math.PI * 1000 * (n * 3.0 - resampler.getDelayFrames()) / 48000);
+            signal += expected * expected;
+            noise += (out[n] - expected) * (out[n] - expected);
+        }
+        double snr = decibels(Math.sqrt(signal / noise));
+        assertTrue("SNR " + snr, snr > 80);
+    }
+
+    @Test
+    public void toneAboveOutputNyquist_isSuppressed() {
+        for (int quality : new int[]{Resampler.QUALITY.LOW, Resampler.QUALITY.MEDIUM, Resampler.QUALITY.HIGH}) {
+            // 12 кГц после понижения до 16 кГц превратились бы в 4 кГц
+            float[] out = resampleTone(new Resampler(48000, 16000, 1, SampleFormat.ENCODING.PCM_FLOAT, quality), 12000);
+            double power = 0;
+            for (int n = 1000; n < out.length; n++) {
+                power += out[n] * out[n];
+            }
+            double attenuation = -decibels(Math.sqrt(power / (out.length - 1000)) / (0.5 / Math.sqrt(2)));
+            assertTrue("quality " + quality + ": " + attenuation + " dB", attenuation > 50 + 20 * quality);
+        }
+    }
+
+    @Test
+    public void stereo16Bit_keepsChannelsApartAndDcUnchanged() {
+        Resampler resampler = new Resampler(44100, 48000, 2, SampleFormat.ENCODING.PCM_16);
+        ByteBuffer in = ByteBuffer.allocate(4 * 441);
+        for (int i = 0; i < 441; i++) {
+            SampleConverter.putSample16(in, 4 * i, 10000);
+            SampleConverter.putSample16(in, 4 * i + 2, -20000);
+        }
+        ByteBuffer out = ByteBuffer.allocate(4 * 480);
+        for (int block = 0; block < 3; block++) {
+            assertEquals(4 * 480, resampler.process(in, in.capacity(), out));
+        }
+        for (int i = 0; i < 480; i++) {
+            assertEquals(10000, SampleConverter.getSample16(out, 4 * i), 1);
+            assertEquals(-20000, SampleConverter.getSample16(out, 4 * i + 2), 1);
+        }
+    }
+
+    @Test
+    public void subscriber_streamsAtWireRate() throws Exception {
+        ToneSource source = new ToneSource(48000, 1, 440, 0.5, true);
+        CaptureThread capture = new CaptureThread("capture", source, 10_000, SchedulingPolicy.NONE);
+        capture.setSoundVolumeMultiplier(1.0f);
+        LoopbackTransport transport = new LoopbackTransport(64, AudioPacket.HEADER_SIZE + 320);
+        Resampler resampler = new Resampler(48000, 16000, 1, SampleFormat.ENCODING.PCM_16);
+        PacketSender sender = new PacketSender(transport, new PcmEncoder(),
+                new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 1, 0, 0), new CodecStatistics(),
+                resampler.getOutputBytes(capture.getFrameBytes()), 2);
+        capture.getRegistry().add(new SubscriberThread("16k", sender, capture.getFrameBytes(), 64,
+                SampleFormat.ENCODING.PCM_16, resampler));
+
+        byte[] datagram = new byte[AudioPacket.HEADER_SIZE + 320];
+        PacketDecoder decoder = new PacketDecoder(16000);
+        AudioPacket packet = new AudioPacket();
+        capture.start();
+        try {
+            for (int i = 0; i < 20; i++) {
+                int length = transport.receive(datagram, TimeUnit.SECONDS.toNanos(2));
+                assertTrue(decoder.decode(datagram, 0, length, 0, packet));
+                assertEquals(320, packet.getPayloadLength());
+                // часы пакета идут в кадрах частоты в сети
+                assertEquals(160L * i, packet.getTimestamp());
+            }
+        } finally {
+            capture.interrupt();
+            capture.join(5000);
+        }
+        assertFalse(capture.isAlive());
+    }
+}
@@ -0,0 +1,235 @@
+package com.andreydymko.nomic;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// конвейер высокого разрешения: усиление, преобразование и понижение частоты
+// для 24 бит и float, чтение таких WAV и доставка слушателям разных форматов
+public class SampleFormatTest {
+
+    private static final long RECEIVE_TIMEOUT_NS = TimeUnit.SECONDS.toNanos(2);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ByteBuffer samples24(int... samples) {
+        ByteBuffer buffer = ByteBuffer.allocate(3 * samples.length);
+        for (int i = 0; i < samples.length; i++) {
+            SampleConverter.putSample24(buffer, 3 * i, samples[i]);
+        }
+        return buffer;
+    }
+
+    private static ByteBuffer samplesFloat(float... samples) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4 * samples.length);
+        for (int i = 0; i < samples.length; i++) {
+            SampleConverter.putFloat(buffer, 4 * i, samples[i]);
+        }
+        return buffer;
+    }
+
+    @Test
+    public void gain24_saturatesAtTwentyFourBits() {
+        // стерео: левый и правый каналы чередуются и усиливаются независимо
+        ByteBuffer buffer = samples24(1000, -1000, 5_000_000, -5_000_000, (1 << 23) - 1, -(1 << 23));
+        GainProcessor.apply(buffer, 0, buffer.capacity(), 2.0f, SampleFormat.ENCODING.PCM_24_PACKED);
+        int[] expected = {2000, -2000, (1 << 23) - 1, -(1 << 23), (1 << 23) - 1, -(1 << 23)};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], SampleConverter.getSample24(buffer, 3 * i));
+        }
+    }
+
+    @Test
+    public void gainFloat_clampsToFullScale() {
+        ByteBuffer buffer = samplesFloat(0.1f, -0.2f, 0.75f, -0.75f, 0.5f);
+        // байт за последним целым сэмплом не трогается
+        GainProcessor.apply(buffer, 0, buffer.capacity() - 1, 2.0f, SampleFormat.ENCODING.PCM_FLOAT);
+        assertEquals(0.2f, SampleConverter.getFloat(buffer, 0), 0);
+        assertEquals(-0.4f, SampleConverter.getFloat(buffer, 4), 0);
+        assertEquals(1f, SampleConverter.getFloat(buffer, 8), 0);
+        assertEquals(-1f, SampleConverter.getFloat(buffer, 12), 0);
+        assertEquals(0.5f, SampleConverter.getFloat(buffer, 16), 0);
+        assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());
+    }
+
+    @Test
+    public void gain16_throughFormatDispatch_matchesScalar() {
+        byte[] expected = {0x10, 0x00, (byte) 0xF0, (byte) 0xFF, (byte) 0xFF, 0x7F};
+        byte[] actual = expected.clone();
+        GainProcessor.applyScalar(expected, 0, expected.length, 3.0f);
+        GainProcessor.apply(ByteBuffer.wrap(actual), 0, actual.length, 3.0f, SampleFormat.ENCODING.PCM_16);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void converter_keepsTopBitsAndRoundTrips() {
+        ByteBuffer in = samples24(0x123456, -0x123456, (1 << 23) - 1, -(1 << 23));
+        ByteBuffer s16 = ByteBuffer.allocate(8);
+        assertEquals(8, SampleConverter.convert(in, in.capacity(), SampleFormat.ENCODING.PCM_24_PACKED,
+                s16, SampleFormat.ENCODING.PCM_16));
+        assertEquals(0x1234, SampleConverter.getSample16(s16, 0));
+        assertEquals(-0x1235, SampleConverter.getSample16(s16, 2));
+        assertEquals(Short.MAX_VALUE, SampleConverter.getSample16(s16, 4));
+        assertEquals(Short.MIN_VALUE, SampleConverter.getSample16(s16, 6));
+
+        // 24 -> float -> 24 без потерь
+        ByteBuffer floats = ByteBuffer.allocate(16);
+        ByteBuffer back = ByteBuffer.allocate(12);
+        SampleConverter.convert(in, 12, SampleFormat.ENCODING.PCM_24_PACKED, floats, SampleFormat.ENCODING.PCM_FLOAT);
+        SampleConverter.convert(floats, 16, SampleFormat.ENCODING.PCM_FLOAT, back, SampleFormat.ENCODING.PCM_24_PACKED);
+        assertArrayEquals(in.array(), back.array());
+
+        // float за пределами шкалы упирается в предел целого формата
+        ByteBuffer loud = samplesFloat(1.5f, -1.5f);
+        SampleConverter.convert(loud, 8, SampleFormat.ENCODING.PCM_FLOAT, s16, SampleFormat.ENCODING.PCM_16);
+        assertEquals(Short.MAX_VALUE, SampleConverter.getSample16(s16, 0));
+        assertEquals(Short.MIN_VALUE, SampleConverter.getSample16(s16, 2));
+    }
+
+    @Test
+    public void offeredPayloadTypes_putCaptureFormatFirstAndKeep16Bit() {
+        assertEquals(Arrays.asList(AudioPacket.PAYLOAD_TYPE.PCM_24_LE, AudioPacket.PAYLOAD_TYPE.PCMU,
+                AudioPacket.PAYLOAD_TYPE.PCM_16_LE),
+                AudioEncoders.getOfferedPayloadTypes(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 192000, 2,
+                        SampleFormat.ENCODING.PCM_24_PACKED));
+        assertEquals(Arrays.asList(AudioPacket.PAYLOAD_TYPE.PCMU, AudioPacket.PAYLOAD_TYPE.PCM_FLOAT_LE,
+                AudioPacket.PAYLOAD_TYPE.PCM_16_LE),
+                AudioEncoders.getOfferedPayloadTypes(AudioPacket.PAYLOAD_TYPE.PCMU, 192000, 2,
+                        SampleFormat.ENCODING.PCM_FLOAT));
+        assertEquals(AudioPacket.PAYLOAD_TYPE.PCM_FLOAT_LE,
+                AudioEncoders.create(AudioPacket.PAYLOAD_TYPE.PCM_FLOAT_LE, 48000, 2, 0, 10000).getPayloadType());
+    }
+
+    // WAV с форматом audioFormat, bitsPerSample бит на сэмпл; extensible - в виде WAVE_FORMAT_EXTENSIBLE
+    private static File writeWav(File file, int audioFormat, int bitsPerSample, boolean extensible,
+                                 int sampleRate, int channels, ByteBuffer data) throws IOException {
+        int formatSize = extensible ? 40 : 16;
+        int blockAlign = channels * bitsPerSample / 8;
+        ByteBuffer wav = ByteBuffer.allocate(12 + 8 + formatSize + 8 + data.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+        wav.putInt(0x46464952).putInt(wav.capacity() - 8).putInt(0x45564157);
+        wav.putInt(0x20746D66).putInt(formatSize).putShort((short) (extensible ? 0xFFFE : audioFormat))
+                .putShort((short) channels).putInt(sampleRate).putInt(sampleRate * blockAlign)
+                .putShort((short) blockAlign).putShort((short) bitsPerSample);
+        if (extensible) {
+            // cbSize, valid bits, channel mask, GUID подформата (первые два байта - формат)
+            wav.putShort((short) 22).putShort((short) bitsPerSample).putInt(3).putShort((short) audioFormat);
+            wav.put(new byte[14]);
+        }
+        wav.putInt(0x61746164).putInt(data.capacity());
+        data.clear();
+        wav.put(data);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(wav.array());
+        }
+        return file;
+    }
+
+    @Test
+    public void wavFiles_in24BitAndFloat_areRead() throws IOException {
+        ByteBuffer data24 = samples24(1, -2, 3, -4);
+        WavFileSource source24 = WavFileSource.open(writeWav(folder.newFile("s24.wav"), 1, 24, false,
+                96000, 2, data24), false, false);
+        assertEquals(SampleFormat.ENCODING.PCM_24_PACKED, source24.getEncoding());
+        assertEquals(6, source24.getBytesPerFrame());
+        ByteBuffer read = ByteBuffer.allocate(12);
+        source24.start();
+        assertEquals(12, source24.read(read, 12));
+        assertEquals(-4, SampleConverter.getSample24(read, 9));
+        assertEquals(-1, source24.read(read, 12));
+        source24.release();
+
+        ByteBuffer dataFloat = samplesFloat(0.5f, -0.25f);
+        WavFileSource sourceFloat = WavFileSource.open(writeWav(folder.newFile("f32.wav"), 3, 32, true,
+                48000, 1, dataFloat), false, false);
+        assertEquals(SampleFormat.ENCODING.PCM_FLOAT, sourceFloat.getEncoding());
+        sourceFloat.start();
+        assertEquals(8, sourceFloat.read(read, 12));
+        assertEquals(-0.25f, SampleConverter.getFloat(read, 4), 0);
+        sourceFloat.release();
+    }
+
+    @Test(expected = IOException.class)
+    public void wavFile_in8Bit_isRejected() throws IOException {
+        WavFileSource.open(writeWav(folder.newFile("u8.wav"), 1, 8, false, 8000, 1, ByteBuffer.allocate(4)),
+                false, false);
+    }
+
+    // слушатель с кодеком payloadType на конвейере захвата 24 бит стерео
+    private static LoopbackTransport subscribe(CaptureThread capture, int payloadType, String name) {
+        int channels = capture.getSource().getChannelCount();
+        int captureBytes = SampleFormat.getBytesPerSample(capture.getSource().getEncoding());
+        int wireBytes = SampleFormat.getBytesPerSample(SampleFormat.ofPayloadType(payloadType));
+        int wireFrameBytes = capture.getFrameBytes() / captureBytes * wireBytes;
+        LoopbackTransport transport = new LoopbackTransport(64, AudioPacket.HEADER_SIZE + wireFrameBytes);
+        PacketSender sender = new PacketSender(transport, AudioEncoders.create(payloadType, 48000, channels, 0, 10000),
+                new PacketEncoder(payloadType, 1, 0, 0), new CodecStatistics(), wireFrameBytes, wireBytes * channels);
+        capture.getRegistry().add(new SubscriberThread(name, sender, capture.getFrameBytes(), 64,
+                capture.getSource().getEncoding()));
+        return transport;
+    }
+
+    @Test
+    public void pipeline24BitStereo_servesHiResAndLegacyListeners() throws Exception {
+        ToneSource source = new ToneSource(48000, 2, SampleFormat.ENCODING.PCM_24_PACKED, 997, 0.5, true);
+        CaptureThread capture = new CaptureThread("capture", source, 10_000, SchedulingPolicy.NONE);
+        capture.setSoundVolumeMultiplier(1.0f);
+        assertEquals(2880, capture.getFrameBytes());
+        LoopbackTransport hiRes = subscribe(capture, AudioPacket.PAYLOAD_TYPE.PCM_24_LE, "s24");
+        LoopbackTransport legacy = subscribe(capture, AudioPacket.PAYLOAD_TYPE.PCM_16_LE, "s16");
+
+        byte[] datagram = new byte[AudioPacket.HEADER_SIZE + 2880];
+        PacketDecoder decoder = new PacketDecoder(48000);
+        AudioPacket packet = new AudioPacket();
+        capture.start();
+        try {
+            long position = 0;
+            for (int i = 0; i < 10; i++) {
+                int length = hiRes.receive(datagram, RECEIVE_TIMEOUT_NS);
+                assertTrue(decoder.decode(datagram, 0, length, 0, packet));
+                assertEquals(AudioPacket.PAYLOAD_TYPE.PCM_24_LE, packet.getPayloadType());
+                assertEquals(position, packet.getTimestamp());
+                ByteBuffer payload = ByteBuffer.wrap(datagram, packet.getPayloadOffset(), packet.getPayloadLength()).slice();
+                int frames = packet.getPayloadLength() / 6;
+                assertEquals(480, frames);
+                for (int f = 0; f < frames; f += 37) {
+                    assertEquals(source.sample24At(position + f), SampleConverter.getSample24(payload, 6 * f));
+                    assertEquals(source.sample24At(position + f), SampleConverter.getSample24(payload, 6 * f + 3));
+                }
+                position += frames;
+            }
+
+            // у второго слушателя свой поток с теми же номерами пакетов
+            decoder = new PacketDecoder(48000);
+            position = 0;
+            for (int i = 0; i < 10; i++) {
+                int length = legacy.receive(datagram, RECEIVE_TIMEOUT_NS);
+                assertTrue(decoder.decode(datagram, 0, length, 0, packet));
+                assertEquals(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, packet.getPayloadType());
+                // те же часы: отметки времени считаются в кадрах, а не в байтах
+                assertEquals(position, packet.getTimestamp());
+                ByteBuffer payload = ByteBuffer.wrap(datagram, packet.getPayloadOffset(), packet.getPayloadLength()).slice();
+                int frames = packet.getPayloadLength() / 4;
+                assertEquals(480, frames);
+                for (int f = 0; f < frames; f += 37) {
+                    assertEquals(source.sample24At(position + f) >> 8, SampleConverter.getSample16(payload, 4 * f));
+                }
+                position += frames;
+            }
+        } finally {
+            capture.interrupt();
+            capture.join(5000);
+        }
+        assertFalse(capture.isAlive());
+    }
+}
@@ -0,0 +1,260 @@
+package com.andreydymko.nomic;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// возобновление сеанса: пропавший слушатель не отключается, захват не останавливается,
+// а вернувшийся по токену клиент получает тот же поток (SSRC, номера пакетов, часы и ключ
+// шифрования) по новому каналу не позже чем через кадр-другой
+public class SessionResumptionTest {
+
+    private static final int FRAME_DURATION_US = 10_000;
+    private static final int SAMPLE_RATE = 48000;
+    private static final int FRAME_BYTES = 960;
+    private static final long RECEIVE_TIMEOUT_NS = TimeUnit.SECONDS.toNanos(2);
+    // сколько может занять возобновление: ожидание следующего кадра и его отправка
+    private static final long RESUME_BOUND_NS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static final int DATAGRAM_BYTES = PacketCipher.OVERHEAD + AudioPacket.HEADER_SIZE + FRAME_BYTES;
+
+    private final ToneSource source = new ToneSource(SAMPLE_RATE, 1, 440, 0.5, true);
+    private final SessionTable sessions = new SessionTable(TimeUnit.SECONDS.toNanos(60));
+    private final byte[] datagram = new byte[DATAGRAM_BYTES];
+    private final PacketDecoder decoder = new PacketDecoder(SAMPLE_RATE);
+    private final AudioPacket packet = new AudioPacket();
+    private CaptureThread capture;
+
+    private SubscriberThread subscribe(Transport transport, int ssrc) {
+        capture = new CaptureThread("capture", source, FRAME_DURATION_US, SchedulingPolicy.NONE);
+        // звук должен дойти без изменений
+        capture.setSoundVolumeMultiplier(1.0f);
+        PacketSender sender = new PacketSender(transport, new PcmEncoder(),
+                new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, ssrc, 0, 0), new CodecStatistics(),
+                capture.getFrameBytes(), source.getBytesPerFrame());
+        SubscriberThread subscriber = new SubscriberThread("loopback", sender, capture.getFrameBytes(), 64);
+        capture.getRegistry().add(subscriber);
+        return subscriber;
+    }
+
+    private void stop() throws InterruptedException {
+        capture.interrupt();
+        capture.join(5000);
+        assertFalse(capture.isAlive());
+    }
+
+    // следующий пакет из transport, расшифрованный receiver (null - поток открытый);
+    // false, если пакета нет
+    private boolean receive(LoopbackTransport transport, PacketCipher receiver, long timeoutNanos) {
+        int length = transport.receive(datagram, timeoutNanos);
+        if (length < 0) {
+            return false;
+        }
+        int offset = 0;
+        if (receiver != null) {
+            length = receiver.open(ByteBuffer.wrap(datagram), length);
+            assertTrue("datagram rejected", length > 0);
+            offset = PacketCipher.PREFIX_SIZE;
+        }
+        assertTrue(decoder.decode(datagram, offset, length, System.nanoTime(), packet));
+        return true;
+    }
+
+    // звук пакета - ровно те сэмплы источника, что приходятся на его часы
+    private void assertInTime() {
+        for (int i = 0; i < packet.getPayloadLength() / 2; i += 53) {
+            int offset = packet.getPayloadOffset() + 2 * i;
+            short sample = (short) ((packet.getData()[offset] & 0xFF) | (packet.getData()[offset + 1] << 8));
+            assertEquals(source.sampleAt(packet.getTimestamp() + i), sample);
+        }
+    }
+
+    private static void awaitSuspended(SubscriberThread subscriber) throws InterruptedException {
+        long deadline = System.nanoTime() + RECEIVE_TIMEOUT_NS;
+        while (!subscriber.isSuspended()) {
+            assertTrue("subscriber was not suspended", System.nanoTime() - deadline < 0);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void lostClient_resumesSameStreamWithinOneRoundTrip() throws Exception {
+        LoopbackTransport first = new LoopbackTransport(256, DATAGRAM_BYTES);
+        SubscriberThread subscriber = subscribe(first, 0x1234);
+        String token = sessions.newToken();
+        assertEquals(2 * SessionTable.TOKEN_BYTES, token.length());
+        sessions.register(token, subscriber, null);
+        capture.start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                assertTrue(receive(first, null, RECEIVE_TIMEOUT_NS));
+            }
+            // клиент пропал: отправка ему не удаётся, но поток слушателя и захват живут дальше
+            first.close();
+            int lastSequence = packet.getSequenceNumber();
+            while (receive(first, null, TimeUnit.MILLISECONDS.toNanos(50))) {
+                lastSequence = packet.getSequenceNumber();
+            }
+            long lastTimestamp = packet.getTimestamp();
+            awaitSuspended(subscriber);
+            Thread.sleep(200);
+            assertTrue(subscriber.isAlive());
+            assertTrue(capture.isAlive());
+            assertEquals(1, capture.getRegistry().getSubscribers().length);
+            assertEquals(1, capture.getMetrics().sendErrors.get());
+
+            // клиент вернулся с токеном
+            LoopbackTransport second = new LoopbackTransport(256, DATAGRAM_BYTES);
+            String newToken = sessions.newToken();
+            long start = System.nanoTime();
+            assertSame(subscriber, sessions.resume(token, newToken, "-", second));
+            assertTrue(receive(second, null, RECEIVE_TIMEOUT_NS));
+            long timeToResume = System.nanoTime() - start;
+            assertTrue("took " + timeToResume / 1000 + " us", timeToResume < RESUME_BOUND_NS);
+
+            // тот же поток: SSRC прежний, номера подряд (пропал один пакет - тот, что не ушёл),
+            // а часы шли всё время, пока клиента не было
+            assertFalse(subscriber.isSuspended());
+            assertEquals(0x1234, packet.getSsrc());
+            assertEquals(lastSequence + 2, packet.getSequenceNumber());
+            assertTrue(packet.getTimestamp() - lastTimestamp >= SAMPLE_RATE / 5);
+            assertInTime();
+            for (int i = 0; i < 10; i++) {
+                assertTrue(receive(second, null, RECEIVE_TIMEOUT_NS));
+                assertInTime();
+            }
+            assertEquals(1, capture.getMetrics().sessionResume.getCount());
+            // сеанс теперь называется новым токеном
+            assertEquals(newToken, sessions.getToken(subscriber));
+            assertNull(sessions.resume(token, sessions.newToken(), "-", new LoopbackTransport(1, DATAGRAM_BYTES)));
+        } finally {
+            stop();
+        }
+    }
+
+    @Test
+    public void encryptedStream_resumesWithSameCipher() throws Exception {
+        byte[] key = new byte[ChaCha20Poly1305.KEY_SIZE];
+        key[0] = 25;
+        PacketCipher receiver = new PacketCipher(key);
+        LoopbackTransport first = new LoopbackTransport(256, DATAGRAM_BYTES);
+        SubscriberThread subscriber = subscribe(new EncryptedTransport(first, new PacketCipher(key)), 7);
+        String token = sessions.newToken();
+        sessions.register(token, subscriber, key);
+        capture.start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                assertTrue(receive(first, receiver, RECEIVE_TIMEOUT_NS));
+            }
+            // закрылось управляющее соединение - поток приостанавливается сам
+            assertTrue(sessions.suspend(subscriber));
+            awaitSuspended(subscriber);
+            while (first.receive(datagram, TimeUnit.MILLISECONDS.toNanos(50)) >= 0) {
+                // пакеты, отправленные до приостановки
+            }
+            // датаграммы после возобновления не отвергаются как повторы: нумерация шифра продолжается
+            LoopbackTransport second = new LoopbackTransport(256, DATAGRAM_BYTES);
+            String newToken = sessions.newToken();
+            assertSame(subscriber, sessions.resume(token, newToken,
+                    SessionKeyAgreement.resumeProof(key, token, newToken), second));
+            for (int i = 0; i < 10; i++) {
+                assertTrue(receive(second, receiver, RECEIVE_TIMEOUT_NS));
+                assertEquals(7, packet.getSsrc());
+                assertInTime();
+            }
+            assertEquals(0, receiver.getRejected());
+            assertTrue(subscriber.getTransport() instanceof EncryptedTransport);
+        } finally {
+            stop();
+        }
+    }
+
+    // токен идёт по сети открытым текстом: подслушавший его без ключа потока не может
+    // перевести зашифрованный поток на себя - ни по одному токену, ни повторив чужое подтверждение
+    @Test
+    public void replayedToken_withoutSessionKey_isRejected() throws Exception {
+        byte[] key = new byte[ChaCha20Poly1305.KEY_SIZE];
+        key[0] = 26;
+        LoopbackTransport first = new LoopbackTransport(256, DATAGRAM_BYTES);
+        SubscriberThread subscriber = subscribe(new EncryptedTransport(first, new PacketCipher(key)), 8);
+        String token = sessions.newToken();
+        sessions.register(token, subscriber, key);
+        capture.start();
+        try {
+            assertTrue(sessions.suspend(subscriber));
+            awaitSuspended(subscriber);
+            LoopbackTransport attacker = new LoopbackTransport(256, DATAGRAM_BYTES);
+            // только токен
+            assertNull(sessions.resume(token, sessions.newToken(), "-", attacker));
+            assertNull(sessions.resume(token, sessions.newToken(), null, attacker));
+            // подтверждение, подслушанное в другом рукопожатии (для другого нового токена)
+            String overheard = SessionKeyAgreement.resumeProof(key, token, sessions.newToken());
+            assertNull(sessions.resume(token, sessions.newToken(), overheard, attacker));
+            // подтверждение на чужом ключе
+            byte[] wrongKey = key.clone();
+            wrongKey[1] = 1;
+            String newToken = sessions.newToken();
+            assertNull(sessions.resume(token, newToken, SessionKeyAgreement.resumeProof(wrongKey, token, newToken),
+                    attacker));
+            assertEquals(4, sessions.getRejected());
+
+            // поток никуда не ушёл и ждёт своего клиента под прежним токеном
+            assertEquals(-1, attacker.receive(datagram, TimeUnit.MILLISECONDS.toNanos(100)));
+            assertTrue(subscriber.isSuspended());
+            assertEquals(token, sessions.getToken(subscriber));
+            newToken = sessions.newToken();
+            LoopbackTransport second = new LoopbackTransport(256, DATAGRAM_BYTES);
+            assertSame(subscriber, sessions.resume(token, newToken,
+                    SessionKeyAgreement.resumeProof(key, token, newToken), second));
+            assertTrue(receive(second, new PacketCipher(key), RECEIVE_TIMEOUT_NS));
+            assertEquals(8, packet.getSsrc());
+        } finally {
+            stop();
+        }
+    }
+
+    @Test
+    public void suspendedSession_expiresAfterTimeout() throws Exception {
+        SubscriberThread subscriber = subscribe(new LoopbackTransport(256, DATAGRAM_BYTES), 1);
+        String token = sessions.newToken();
+        sessions.register(token, subscriber, null);
+        capture.start();
+        try {
+            // сеанс на связи не истекает никогда
+            assertTrue(sessions.expire(System.nanoTime() + TimeUnit.HOURS.toNanos(1)).isEmpty());
+            sessions.suspend(subscriber);
+            awaitSuspended(subscriber);
+            assertTrue(sessions.expire(System.nanoTime()).isEmpty());
+            List<SubscriberThread> expired = sessions.expire(System.nanoTime() + TimeUnit.SECONDS.toNanos(61));
+            assertEquals(1, expired.size());
+            assertSame(subscriber, expired.get(0));
+            assertEquals(0, sessions.size());
+            assertNull(sessions.resume(token, sessions.newToken(), "-", new LoopbackTransport(1, DATAGRAM_BYTES)));
+        } finally {
+            stop();
+        }
+    }
+
+    // слушатель без сеанса по-прежнему отключается при первой ошибке отправки
+    @Test
+    public void subscriberWithoutSession_isRemovedOnSendFailure() throws Exception {
+        LoopbackTransport transport = new LoopbackTransport(256, DATAGRAM_BYTES);
+        SubscriberThread subscriber = subscribe(transport, 1);
+        capture.start();
+        try {
+            assertTrue(receive(transport, null, RECEIVE_TIMEOUT_NS));
+            transport.close();
+            subscriber.join(5000);
+            assertFalse(subscriber.isAlive());
+            assertFalse(subscriber.isSuspended());
+            assertEquals(0, capture.getRegistry().getSubscribers().length);
+            assertFalse(sessions.suspend(subscriber));
+        } finally {
+            stop();
+        }
+    }
+}
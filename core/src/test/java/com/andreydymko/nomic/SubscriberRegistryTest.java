@@ -0,0 +1,177 @@
+package com.andreydymko.nomic;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SubscriberRegistryTest {
+
+    private static final int FRAME_BYTES = 480;
+
+    private final List<DatagramChannel> channels = new ArrayList<>();
+    private final SubscriberRegistry registry = new SubscriberRegistry();
+
+    @After
+    public void close() throws IOException {
+        registry.clear();
+        for (DatagramChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    private DatagramChannel receiver() throws IOException {
+        DatagramChannel receiver = DatagramChannel.open();
+        receiver.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        receiver.socket().setSoTimeout(2000);
+        channels.add(receiver);
+        return receiver;
+    }
+
+    private static DatagramChannel connectedTo(DatagramChannel receiver) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.socket().getLocalPort()));
+        return channel;
+    }
+
+    private static PacketSender sender(DatagramChannel channel) {
+        return new PacketSender(channel, new PcmEncoder(),
+                new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 1, 0, 0),
+                new CodecStatistics(), FRAME_BYTES, 2);
+    }
+
+    private static ByteBuffer frame(int index) {
+        ByteBuffer frame = ByteBuffer.allocateDirect(FRAME_BYTES);
+        for (int i = 0; i < FRAME_BYTES; i++) {
+            frame.put(i, (byte) index);
+        }
+        return frame;
+    }
+
+    // принимает пакеты блокирующим сокетом канала, возвращает первый байт нагрузки каждого
+    private static List<Integer> receive(DatagramChannel receiver, int count) throws IOException {
+        List<Integer> firstBytes = new ArrayList<>();
+        byte[] data = new byte[2048];
+        java.net.DatagramPacket packet = new java.net.DatagramPacket(data, data.length);
+        try {
+            while (firstBytes.size() < count) {
+                receiver.socket().receive(packet);
+                firstBytes.add((int) data[AudioPacket.HEADER_SIZE]);
+            }
+        } catch (SocketTimeoutException ignored) {
+            // больше пакетов нет
+        }
+        return firstBytes;
+    }
+
+    @Test
+    public void slowSubscriber_doesNotStallOthers() throws Exception {
+        DatagramChannel fastReceiver = receiver();
+        DatagramChannel slowReceiver = receiver();
+        CountDownLatch release = new CountDownLatch(1);
+        SubscriberThread fast = new SubscriberThread("fast", sender(connectedTo(fastReceiver)), FRAME_BYTES, 64);
+        // этот слушатель "завис" на отправке первого же пакета
+        SubscriberThread slow = new SubscriberThread("slow", new PacketSender(connectedTo(slowReceiver), new PcmEncoder(),
+                new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 2, 0, 0), new CodecStatistics(), FRAME_BYTES, 2) {
+            @Override
+            public int send(ByteBuffer frame, int frameBytes) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.send(frame, frameBytes);
+            }
+        }, FRAME_BYTES, 4);
+        registry.add(fast);
+        registry.add(slow);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 50; i++) {
+            registry.publish(frame(i), FRAME_BYTES);
+            // поток захвата отдаёт кадр не чаще, чем раз в 2 мс
+            Thread.sleep(2);
+        }
+        long publishMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        List<Integer> fastFrames = receive(fastReceiver, 50);
+        assertEquals(50, fastFrames.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, (int) fastFrames.get(i));
+        }
+        assertEquals(0, fast.getDroppedFrames());
+        // очередь медленного слушателя переполнилась, и лишние кадры были выброшены
+        // один кадр застрял в отправке, ещё три ждут в очереди
+        assertEquals(50 - 4, slow.getDroppedFrames());
+        assertTrue("publishing took " + publishMillis + " ms", publishMillis < 1000);
+
+        release.countDown();
+        List<Integer> slowFrames = receive(slowReceiver, 4);
+        assertEquals(4, slowFrames.size());
+        assertEquals(0, (int) slowFrames.get(0));
+    }
+
+    @Test
+    public void subscribers_joinAndLeaveAtRuntime() throws Exception {
+        final int[] counts = new int[2];
+        registry.setSubscriberListener(new SubscriberRegistry.SubscriberListener() {
+            @Override
+            public void onSubscriberJoined(SubscriberThread subscriber, int subscriberCount) {
+                counts[0] = subscriberCount;
+            }
+
+            @Override
+            public void onSubscriberLeft(SubscriberThread subscriber, Exception cause, int subscriberCount) {
+                counts[1] = subscriberCount;
+            }
+        });
+        DatagramChannel firstReceiver = receiver();
+        DatagramChannel secondReceiver = receiver();
+        SubscriberThread first = new SubscriberThread("first", sender(connectedTo(firstReceiver)), FRAME_BYTES, 8);
+        registry.add(first);
+        registry.publish(frame(1), FRAME_BYTES);
+        assertEquals(1, counts[0]);
+
+        SubscriberThread second = new SubscriberThread("second", sender(connectedTo(secondReceiver)), FRAME_BYTES, 8);
+        registry.add(second);
+        registry.publish(frame(2), FRAME_BYTES);
+        assertEquals(2, counts[0]);
+
+        assertEquals(2, receive(firstReceiver, 2).size());
+        assertTrue(registry.remove(first, null));
+        first.join(2000);
+        assertFalse(first.isAlive());
+        assertEquals(1, counts[1]);
+        registry.publish(frame(3), FRAME_BYTES);
+
+        assertEquals(0, receive(firstReceiver, 1).size());
+        List<Integer> secondFrames = receive(secondReceiver, 2);
+        assertEquals(2, secondFrames.get(0).intValue());
+        assertEquals(3, secondFrames.get(1).intValue());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void failedSubscriber_isRemovedFromRegistry() throws Exception {
+        DatagramChannel receiver = receiver();
+        DatagramChannel channel = connectedTo(receiver);
+        SubscriberThread subscriber = new SubscriberThread("closed", sender(channel), FRAME_BYTES, 8);
+        registry.add(subscriber);
+        channel.close();
+        registry.publish(frame(0), FRAME_BYTES);
+        subscriber.join(2000);
+        assertEquals(0, registry.size());
+    }
+}
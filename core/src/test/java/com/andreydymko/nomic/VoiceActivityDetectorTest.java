@@ -0,0 +1,219 @@
+package com.andreydymko.nomic;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// детектор речи и подавление тишины на записях с разметкой (resources/vad: WAV 8 кГц моно и CSV
+// с отрезками речи): речь не режется, тишина не отправляется, получатель видит комфортный шум,
+// а метрики показывают, сколько сбережено
+public class VoiceActivityDetectorTest {
+
+    private static final int SAMPLE_RATE = 8000;
+    // кадр 10 мс, 16 бит моно
+    private static final int FRAME_BYTES = 160;
+    private static final int FRAME_MS = 10;
+    private static final int HANGOVER_MS = 200;
+    // сколько детектор привыкает к шуму в начале записи и сколько может занять атака первого слога
+    private static final int ADAPTATION_MS = 300;
+    private static final int ONSET_MS = 20;
+
+    // кадры записи name.wav, каждый - FRAME_BYTES байт
+    private static List<ByteBuffer> loadFrames(String name) throws Exception {
+        File file = new File(VoiceActivityDetectorTest.class.getClassLoader().getResource("vad/" + name + ".wav").toURI());
+        WavFileSource source = WavFileSource.open(file, false, false);
+        assertEquals(SAMPLE_RATE, source.getSampleRate());
+        List<ByteBuffer> frames = new ArrayList<>();
+        source.start();
+        try {
+            ByteBuffer frame = ByteBuffer.allocateDirect(FRAME_BYTES);
+            while (source.read(frame, FRAME_BYTES) == FRAME_BYTES) {
+                frames.add(frame);
+                frame = ByteBuffer.allocateDirect(FRAME_BYTES);
+            }
+        } finally {
+            source.release();
+        }
+        return frames;
+    }
+
+    // отрезки речи [начало, конец) в миллисекундах из name.csv
+    private static List<int[]> loadLabels(String name) throws IOException {
+        List<int[]> labels = new ArrayList<>();
+        try (InputStream in = VoiceActivityDetectorTest.class.getClassLoader().getResourceAsStream("vad/" + name + ".csv");
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] cells = line.split(",");
+                labels.add(new int[]{Integer.parseInt(cells[0]), Integer.parseInt(cells[1])});
+            }
+        }
+        return labels;
+    }
+
+    // кадр целиком внутри речи (без её атаки)
+    private static boolean isSpeech(List<int[]> labels, int frame) {
+        int ms = frame * FRAME_MS;
+        for (int[] label : labels) {
+            if (ms >= label[0] + ONSET_MS && ms + FRAME_MS <= label[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // кадр в тишине, дальше hangover от конца речи и не в начале записи
+    private static boolean isSilence(List<int[]> labels, int frame, int hangoverMs) {
+        int ms = frame * FRAME_MS;
+        if (ms < ADAPTATION_MS) {
+            return false;
+        }
+        for (int[] label : labels) {
+            if (ms + FRAME_MS > label[0] && ms < label[1] + hangoverMs + 100) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void assertAgreesWithLabels(String name) throws Exception {
+        List<ByteBuffer> frames = loadFrames(name);
+        List<int[]> labels = loadLabels(name);
+        VoiceActivityDetector detector = new VoiceActivityDetector(SAMPLE_RATE, 1, SampleFormat.ENCODING.PCM_16, HANGOVER_MS);
+        int speech = 0;
+        int missed = 0;
+        int silence = 0;
+        int falseAlarms = 0;
+        for (int i = 0; i < frames.size(); i++) {
+            boolean active = detector.process(frames.get(i), FRAME_BYTES);
+            if (isSpeech(labels, i)) {
+                speech++;
+                missed += active ? 0 : 1;
+            } else if (isSilence(labels, i, HANGOVER_MS)) {
+                silence++;
+                falseAlarms += active ? 1 : 0;
+            }
+        }
+        assertEquals(name + ": speech frames missed of " + speech, 0, missed);
+        assertTrue(name + ": " + falseAlarms + "/" + silence, falseAlarms <= silence / 50);
+    }
+
+    @Test
+    public void quietRoom_keepsSpeechAndDropsSilence() throws Exception {
+        assertAgreesWithLabels("quiet_room");
+    }
+
+    @Test
+    public void fanNoise_isLearnedAsNoise() throws Exception {
+        assertAgreesWithLabels("fan_noise");
+    }
+
+    @Test
+    public void hangover_keepsSendingAfterSpeechEnds() {
+        ByteBuffer quiet = ByteBuffer.allocate(FRAME_BYTES);
+        ByteBuffer loud = ByteBuffer.allocate(FRAME_BYTES);
+        for (int i = 0; i < FRAME_BYTES / 2; i++) {
+            SampleConverter.putSample16(quiet, 2 * i, (i * 37 % 11) - 5);
+            SampleConverter.putSample16(loud, 2 * i, (int) (3000 * Math.sin(2 * Math.PI * 300 * i / SAMPLE_RATE)));
+        }
+        for (int hangoverMs : new int[]{0, 100, 400}) {
+            VoiceActivityDetector detector = new VoiceActivityDetector(SAMPLE_RATE, 1, SampleFormat.ENCODING.PCM_16, hangoverMs);
+            for (int i = 0; i < 50; i++) {
+                assertFalse(detector.process(quiet, FRAME_BYTES));
+            }
+            // начало речи отдаётся сразу, с первого же кадра
+            assertTrue(detector.process(loud, FRAME_BYTES));
+            assertTrue(detector.process(loud, FRAME_BYTES));
+            int tail = 0;
+            while (detector.process(quiet, FRAME_BYTES)) {
+                assertFalse(detector.isSpeech());
+                tail++;
+            }
+            assertEquals(hangoverMs / FRAME_MS, tail);
+        }
+    }
+
+    @Test
+    public void subscriber_sendsComfortNoiseInsteadOfSilence() throws Exception {
+        List<ByteBuffer> frames = loadFrames("quiet_room");
+        List<int[]> labels = loadLabels("quiet_room");
+        SubscriberRegistry registry = new SubscriberRegistry();
+        LoopbackTransport transport = new LoopbackTransport(frames.size(), AudioPacket.HEADER_SIZE + FRAME_BYTES);
+        PacketSender sender = new PacketSender(transport, new PcmEncoder(),
+                new PacketEncoder(AudioPacket.PAYLOAD_TYPE.PCM_16_LE, 1, 0, 0), new CodecStatistics(), FRAME_BYTES, 2);
+        SubscriberThread subscriber = new SubscriberThread("listener", sender, FRAME_BYTES, frames.size());
+        // пакет комфортного шума - в начале тишины и потом раз в полсекунды
+        subscriber.setSilenceSuppression(new VoiceActivityDetector(SAMPLE_RATE, 1, SampleFormat.ENCODING.PCM_16,
+                HANGOVER_MS), 50);
+        registry.add(subscriber);
+        for (ByteBuffer frame : frames) {
+            registry.publish(frame, FRAME_BYTES);
+        }
+
+        byte[] datagram = new byte[AudioPacket.HEADER_SIZE + FRAME_BYTES];
+        PacketDecoder decoder = new PacketDecoder(SAMPLE_RATE);
+        AudioPacket packet = new AudioPacket();
+        boolean[] sent = new boolean[frames.size()];
+        int audioPackets = 0;
+        int comfortNoisePackets = 0;
+        boolean silent = false;
+        int length;
+        while ((length = transport.receive(datagram, TimeUnit.MILLISECONDS.toNanos(500))) > 0) {
+            assertTrue(decoder.decode(datagram, 0, length, 0, packet));
+            // часы идут и в тишине: timestamp - номер кадра от начала записи
+            int frame = (int) (packet.getTimestamp() / (FRAME_BYTES / 2));
+            if (packet.getPayloadType() == AudioPacket.PAYLOAD_TYPE.CN) {
+                assertEquals(1, packet.getPayloadLength());
+                assertEquals(60, datagram[packet.getPayloadOffset()], 4);
+                assertFalse(packet.isMarker());
+                comfortNoisePackets++;
+                silent = true;
+            } else {
+                assertEquals(FRAME_BYTES, packet.getPayloadLength());
+                // первый пакет после тишины - начало речи
+                assertEquals("frame " + frame, silent, packet.isMarker());
+                silent = false;
+                sent[frame] = true;
+                audioPackets++;
+            }
+        }
+        registry.clear();
+        // номера пакетов идут подряд: получатель не принимает тишину за потери
+        assertEquals(0, decoder.getLost());
+
+        for (int i = 0; i < frames.size(); i++) {
+            if (isSpeech(labels, i)) {
+                assertTrue("speech frame " + i, sent[i]);
+            } else if (isSilence(labels, i, HANGOVER_MS)) {
+                assertFalse("silence frame " + i, sent[i]);
+            }
+        }
+        int suppressed = frames.size() - audioPackets;
+        MetricsRegistry metrics = registry.getMetrics();
+        assertEquals(suppressed, metrics.vadSuppressedFrames.get());
+        assertEquals(comfortNoisePackets, metrics.comfortNoisePackets.get());
+        // одна пауза - не меньше одного пакета комфортного шума, длинная - раз в полсекунды
+        assertTrue(comfortNoisePackets >= labels.size() + 1);
+        assertTrue(comfortNoisePackets <= suppressed / 50 + labels.size() + 1);
+        assertEquals((long) suppressed * (AudioPacket.HEADER_SIZE + FRAME_BYTES), metrics.vadSavedBytes.get());
+        long full = (long) frames.size() * (AudioPacket.HEADER_SIZE + FRAME_BYTES);
+        assertEquals(full - metrics.vadSavedBytes.get() + comfortNoisePackets * (AudioPacket.HEADER_SIZE + 1),
+                metrics.bytesSent.get());
+        assertTrue("sent " + metrics.bytesSent.get() + " of " + full + " bytes",
+                metrics.bytesSent.get() < full * 6 / 10);
+    }
+}
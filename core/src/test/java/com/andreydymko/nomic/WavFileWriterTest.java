@@ -0,0 +1,210 @@
+package com.andreydymko.nomic;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioSystem;
+
+import static org.junit.Assert.*;
+
+// местная запись: WAV через отображение в память читается обратно без изменений во всех форматах,
+// оборванная без close() запись остаётся правильным файлом со всем, что было до sync(),
+// запись 192 кГц успевает за потоком обработки и вся запись конвейера совпадает с источником
+public class WavFileWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // всё, что WavFileSource отдаёт до конца файла
+    private static byte[] readAll(File file, int sampleRate, int channels, int encoding) throws IOException {
+        WavFileSource source = WavFileSource.open(file, false, false);
+        assertEquals(sampleRate, source.getSampleRate());
+        assertEquals(channels, source.getChannelCount());
+        assertEquals(encoding, source.getEncoding());
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        source.start();
+        int read;
+        while ((read = source.read(buffer, buffer.capacity())) > 0) {
+            for (int i = 0; i < read; i++) {
+                out.write(buffer.get(i));
+            }
+        }
+        source.release();
+        return out.toByteArray();
+    }
+
+    private static ByteBuffer direct(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).clear();
+        return buffer;
+    }
+
+    @Test
+    public void closedFile_readsBackUnchanged() throws Exception {
+        int[] encodings = {SampleFormat.ENCODING.PCM_16, SampleFormat.ENCODING.PCM_24_PACKED,
+                SampleFormat.ENCODING.PCM_FLOAT};
+        Random random = new Random(1);
+        for (int encoding : encodings) {
+            int bytesPerFrame = 2 * SampleFormat.getBytesPerSample(encoding);
+            File file = folder.newFile("format" + encoding + ".wav");
+            // кусок меньше кадра и не кратен ему: кадры ложатся через границы кусков
+            WavFileWriter writer = new WavFileWriter(file, 44100, 2, encoding, 1000);
+            byte[] frame = new byte[441 * bytesPerFrame];
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            for (int i = 0; i < 20; i++) {
+                random.nextBytes(frame);
+                writer.write(direct(frame), frame.length);
+                expected.write(frame);
+                if (i == 7) {
+                    // потерянный кадр - тишина той же длины
+                    writer.writeSilence(frame.length);
+                    expected.write(new byte[frame.length]);
+                }
+            }
+            writer.close();
+            assertEquals(WavFileWriter.HEADER_SIZE + expected.size(), file.length());
+            assertArrayEquals(expected.toByteArray(), readAll(file, 44100, 2, encoding));
+        }
+    }
+
+    @Test
+    public void closedFile_isStandardWav() throws Exception {
+        File file = folder.newFile("standard.wav");
+        WavFileWriter writer = new WavFileWriter(file, 48000, 1, SampleFormat.ENCODING.PCM_16);
+        writer.write(direct(new byte[960]), 960);
+        writer.close();
+        // разбор заголовка средствами JDK
+        AudioFileFormat format = AudioSystem.getAudioFileFormat(file);
+        assertEquals(AudioFileFormat.Type.WAVE, format.getType());
+        assertEquals(48000, format.getFormat().getSampleRate(), 0);
+        assertEquals(16, format.getFormat().getSampleSizeInBits());
+        assertEquals(480, format.getFrameLength());
+    }
+
+    @Test
+    public void unclosedFile_keepsEverythingUpToLastSync() throws Exception {
+        File file = folder.newFile("crash.wav");
+        WavFileWriter writer = new WavFileWriter(file, 16000, 1, SampleFormat.ENCODING.PCM_16, 4096);
+        byte[] frame = new byte[320];
+        ByteArrayOutputStream synced = new ByteArrayOutputStream();
+        Random random = new Random(2);
+        try {
+            // ещё ничего не записано - файл уже правильный и пустой
+            assertEquals(0, readAll(file, 16000, 1, SampleFormat.ENCODING.PCM_16).length);
+            for (int i = 0; i < 30; i++) {
+                random.nextBytes(frame);
+                writer.write(direct(frame), frame.length);
+                synced.write(frame);
+            }
+            writer.sync();
+            assertEquals(synced.size(), writer.getSyncedBytes());
+            // то, что записано после sync(), при падении теряется, но файл не портит
+            for (int i = 0; i < 5; i++) {
+                writer.write(direct(frame), frame.length);
+            }
+            // процесс "упал": файл читается, не дожидаясь close()
+            assertTrue(file.length() > WavFileWriter.HEADER_SIZE + synced.size());
+            assertArrayEquals(synced.toByteArray(), readAll(file, 16000, 1, SampleFormat.ENCODING.PCM_16));
+            assertEquals(synced.size() / 2, AudioSystem.getAudioFileFormat(file).getFrameLength());
+        } finally {
+            writer.close();
+        }
+        assertEquals(WavFileWriter.HEADER_SIZE + synced.size() + 5 * frame.length, file.length());
+    }
+
+    @Test(expected = IOException.class)
+    public void closedWriter_rejectsWrites() throws Exception {
+        WavFileWriter writer = new WavFileWriter(folder.newFile("closed.wav"), 8000, 1, SampleFormat.ENCODING.PCM_16);
+        writer.close();
+        writer.write(direct(new byte[160]), 160);
+    }
+
+    // 192 кГц стерео float - 1.5 МБ/с. Кадры подаются в десять раз быстрее реального времени,
+    // и запись не должна выбросить ни одного
+    @Test
+    public void recorder_sustains192kHzFloatStereo() throws Exception {
+        int frameBytes = FramePacketizer.getFrameBytes(192000, 10_000, 8);
+        assertEquals(15360, frameBytes);
+        int frameCount = 3000;
+        long periodNanos = TimeUnit.MICROSECONDS.toNanos(1000);
+        File file = folder.newFile("192k.wav");
+        RecorderThread recorder = new RecorderThread(
+                new WavFileWriter(file, 192000, 2, SampleFormat.ENCODING.PCM_FLOAT), frameBytes, 100);
+        ByteBuffer frame = ByteBuffer.allocateDirect(frameBytes);
+        recorder.start();
+        long start = System.nanoTime();
+        for (int i = 0; i < frameCount; i++) {
+            // номер кадра в первом и последнем байте - для проверки порядка
+            frame.put(0, (byte) i).put(frameBytes - 1, (byte) (i >> 8));
+            long due = start + i * periodNanos;
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            assertTrue("frame " + i + " dropped", recorder.offer(frame, frameBytes, 0));
+        }
+        recorder.finish();
+        long elapsed = System.nanoTime() - start;
+        assertNull(recorder.getError());
+        assertEquals(0, recorder.getDroppedFrames());
+        assertEquals((long) frameCount * frameBytes, recorder.getWriter().getDataBytes());
+        assertEquals(WavFileWriter.HEADER_SIZE + (long) frameCount * frameBytes, file.length());
+        // 30 секунд звука записаны быстрее, чем за треть этого времени
+        assertTrue("took " + elapsed / 1_000_000 + " ms", elapsed < TimeUnit.SECONDS.toNanos(10));
+
+        WavFileSource source = WavFileSource.open(file, false, false);
+        ByteBuffer read = ByteBuffer.allocateDirect(frameBytes);
+        source.start();
+        for (int i = 0; i < frameCount; i++) {
+            assertEquals(frameBytes, source.read(read, frameBytes));
+            assertEquals((byte) i, read.get(0));
+            assertEquals((byte) (i >> 8), read.get(frameBytes - 1));
+        }
+        source.release();
+    }
+
+    @Test
+    public void pipelineRecording_matchesSource() throws Exception {
+        ToneSource source = new ToneSource(48000, 1, 440, 0.5, true);
+        CaptureThread capture = new CaptureThread("capture", source, 10_000, SchedulingPolicy.NONE);
+        capture.setSoundVolumeMultiplier(1.0f);
+        File file = folder.newFile("pipeline.wav");
+        RecorderThread recorder = capture.startRecording(file);
+        capture.start();
+        Thread.sleep(300);
+        capture.interrupt();
+        capture.join(5000);
+        assertFalse(capture.isAlive());
+        // поток захвата завершил и запись
+        assertFalse(recorder.isAlive());
+        assertNull(capture.getRecorder());
+        assertNull(recorder.getError());
+
+        long frames = recorder.getWriter().getDataBytes() / 2;
+        assertTrue(frames >= 48000 / 10);
+        WavFileSource recorded = WavFileSource.open(file, false, false);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(960);
+        recorded.start();
+        long position = 0;
+        int read;
+        while ((read = recorded.read(buffer, buffer.capacity())) > 0) {
+            for (int i = 0; i < read / 2; i++) {
+                assertEquals(source.sampleAt(position + i), (short) SampleConverter.getSample16(buffer, 2 * i));
+            }
+            position += read / 2;
+        }
+        recorded.release();
+        assertEquals(frames, position);
+    }
+}